@@ -0,0 +1,250 @@
+package pods.cabs;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Lazy activation of cab or wallet actors, used when cabs.activation.lazy is on.
+// An Activator partition owns the states of its cabs (or wallets) in a CabTable (or BalanceTable) while they are
+// inactive, and spawns the actor of a cab with its state when the first message for it arrives.
+// An actor idle for cabs.activation.passivate-idle-after asks to be passivated: the activator sends it Deactivate,
+// which it answers with its state for the table before stopping, or with no state if it got busy in the meantime.
+// Messages for it which arrive in between are kept and delivered to it, or to its next incarnation.
+// A cab or wallet belongs to partition hash(id) mod partitions, see WalletStore.partition.
+public class Activator extends AbstractBehavior<Activator.Command> {
+
+    public interface Command {
+    }
+
+    // Deliver message carries a message for the actor of one cab or wallet of the partition
+    public static final class Deliver implements Command {
+        String id;
+        Object message;
+
+        Deliver(String id, Object message) {
+            this.id = id;
+            this.message = message;
+        }
+    }
+
+    // Passivate message is sent by an idle actor which could be stopped
+    public static final class Passivate implements Command {
+        String id;
+
+        Passivate(String id) {
+            this.id = id;
+        }
+    }
+
+    // Passivated message is the reply of an actor to Deactivate, state is its state for the table
+    // (a CabTable.Entry or the balance of a wallet), or null if it is busy and stays active
+    public static final class Passivated implements Command {
+        String id;
+        Object state;
+
+        Passivated(String id, Object state) {
+            this.id = id;
+            this.state = state;
+        }
+    }
+
+    // GetStats message is sent by test script to get the number of active actors of the partition
+    public static final class GetStats implements Command {
+        ActorRef<Stats> replyTo;
+
+        GetStats(ActorRef<Stats> replyTo) {
+            this.replyTo = replyTo;
+        }
+    }
+
+    // Reply to GetStats message
+    public static final class Stats implements Command {
+        public int active;              // actors running
+        public long activations;        // actors spawned since the partition started
+        public long passivations;       // actors stopped because they were idle
+
+        Stats(int active, long activations, long passivations) {
+            this.active = active;
+            this.activations = activations;
+            this.passivations = passivations;
+        }
+    }
+
+    // Ref of one cab or wallet in Globals.cabs or Globals.wallets, it wraps the messages sent to it for its partition.
+    // It only supports tell.
+    public static final class Ref<C> implements RecipientRef<C> {
+        private final String id;
+        private final ActorRef<Command> activator;
+
+        Ref(String id, ActorRef<Command> activator) {
+            this.id = id;
+            this.activator = activator;
+        }
+
+        @Override
+        public void tell(C message) {
+            activator.tell(new Deliver(this.id, message));
+        }
+    }
+
+    // What the partition activates: its table, and how its actors are created and stopped
+    private interface Kind {
+        int index(String id);
+
+        Behavior<?> activate(String id, int index, ActorRef<Command> activator);
+
+        void passivated(int index, Object state);
+
+        Object deactivate();
+    }
+
+    // Partition of cabs, the table is owned by the partition from now on
+    public static Behavior<Command> forCabs(CabTable table) {
+        return Behaviors.setup(context -> new Activator(context, "cab", new Kind() {
+            public int index(String id) {
+                return table.index(id);
+            }
+
+            public Behavior<?> activate(String id, int index, ActorRef<Command> activator) {
+                return Cab.activate(id, table.get(index), activator);
+            }
+
+            public void passivated(int index, Object state) {
+                table.set(index, (CabTable.Entry) state);
+            }
+
+            public Object deactivate() {
+                return new Cab.Deactivate();
+            }
+        }));
+    }
+
+    // Partition of wallets, the table is owned by the partition from now on
+    public static Behavior<Command> forWallets(BalanceTable table) {
+        return Behaviors.setup(context -> new Activator(context, "wallet", new Kind() {
+            public int index(String id) {
+                return table.index(id);
+            }
+
+            public Behavior<?> activate(String id, int index, ActorRef<Command> activator) {
+                return Wallet.activate(id, table.balance(index), table.initialBalance(index), activator);
+            }
+
+            public void passivated(int index, Object state) {
+                table.setBalance(index, (Integer) state);
+            }
+
+            public Object deactivate() {
+                return new Wallet.Deactivate();
+            }
+        }));
+    }
+
+    private String name;        // "cab" or "wallet", for logging
+    private Kind kind;
+    private Map<String, ActorRef<Object>> active = new HashMap<>();       // id -> actor
+    private Map<String, List<Object>> deactivating = new HashMap<>();     // id -> messages which arrived since Deactivate
+    private long activations;
+    private long passivations;
+
+    private Activator(ActorContext<Command> context, String name, Kind kind) {
+        super(context);
+        this.name = name;
+        this.kind = kind;
+        context.getLog().info("created {} activator partition", name);
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+            .onMessage(Deliver.class, this::onDeliver)
+            .onMessage(Passivate.class, this::onPassivate)
+            .onMessage(Passivated.class, this::onPassivated)
+            .onMessage(GetStats.class, this::onGetStats)
+            .build();
+    }
+
+    // Deliver message handler, spawns the actor if it is not active
+    private Behavior<Command> onDeliver(Deliver command) {
+        List<Object> pending = deactivating.get(command.id);
+        if (pending != null) {
+            pending.add(command.message);
+            return this;
+        }
+        ActorRef<Object> actor = active.get(command.id);
+        if (actor == null) {
+            actor = activate(command.id);
+            if (actor == null) {
+                return this;
+            }
+        }
+        actor.tell(command.message);
+        return this;
+    }
+
+    // Passivate message handler, asks the actor for its state, it is sent after the messages already delivered
+    private Behavior<Command> onPassivate(Passivate command) {
+        ActorRef<Object> actor = active.get(command.id);
+        if (actor == null || deactivating.containsKey(command.id)) {
+            return this;
+        }
+        deactivating.put(command.id, new ArrayList<>());
+        actor.tell(kind.deactivate());
+        return this;
+    }
+
+    // Passivated message handler
+    // keeps the state of a stopped actor in the table, and activates it again at once if messages arrived meanwhile
+    private Behavior<Command> onPassivated(Passivated command) {
+        List<Object> pending = deactivating.remove(command.id);
+        ActorRef<Object> actor = active.get(command.id);
+        if (pending == null || actor == null) {
+            return this;
+        }
+        if (command.state != null) {
+            getContext().getLog().info("Passivated idle {} {}", this.name, command.id);
+            kind.passivated(kind.index(command.id), command.state);
+            active.remove(command.id);
+            passivations++;
+            if (pending.isEmpty()) {
+                return this;
+            }
+            actor = activate(command.id);
+        }
+        for (Object message : pending) {
+            actor.tell(message);
+        }
+        return this;
+    }
+
+    // GetStats message handler
+    private Behavior<Command> onGetStats(GetStats command) {
+        command.replyTo.tell(new Stats(active.size(), activations, passivations));
+        return this;
+    }
+
+    // Spawns the actor of id with its state in the table, returns null if id is not in the partition
+    // Its previous incarnation may still be stopping, so it gets no name
+    @SuppressWarnings("unchecked")
+    private ActorRef<Object> activate(String id) {
+        int index = kind.index(id);
+        if (index == -1) {
+            getContext().getLog().warn("No {} {}", this.name, id);
+            return null;
+        }
+        ActorRef<Object> actor = (ActorRef<Object>) (ActorRef<?>) getContext().spawnAnonymous(
+            kind.activate(id, index, getContext().getSelf()));
+        active.put(id, actor);
+        activations++;
+        return actor;
+    }
+}
@@ -0,0 +1,58 @@
+package pods.cabs;
+
+import java.util.Arrays;
+
+// Balances of many customers in primitive arrays, the state of a WalletStore partition.
+// A customer has a dense index from an IdTable into balances and initialBalances, so a
+// customer with a numeric custId (all of IDs.txt) costs about 32 bytes and no objects.
+// Not thread safe, it is owned by one actor.
+final class BalanceTable {
+
+    private IdTable ids;
+    private int[] balances;         // dense index -> balance
+    private int[] initialBalances;  // dense index -> balance in IDs.txt, for Reset
+
+    BalanceTable(int expectedSize) {
+        ids = new IdTable(expectedSize);
+        balances = new int[Math.max(expectedSize, 8)];
+        initialBalances = new int[balances.length];
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    // dense index of the customer, -1 if it is not in the table
+    int index(String custId) {
+        return ids.index(custId);
+    }
+
+    // adds the customer with its initial balance, returns its dense index
+    int add(String custId, int balance) {
+        return add(custId, balance, balance);
+    }
+
+    // adds the customer with a balance other than its initial balance, returns its dense index
+    int add(String custId, int balance, int initialBalance) {
+        int index = ids.add(custId);
+        if (index == balances.length) {
+            balances = Arrays.copyOf(balances, index * 2);
+            initialBalances = Arrays.copyOf(initialBalances, index * 2);
+        }
+        balances[index] = balance;
+        initialBalances[index] = initialBalance;
+        return index;
+    }
+
+    int balance(int index) {
+        return balances[index];
+    }
+
+    void setBalance(int index, int balance) {
+        balances[index] = balance;
+    }
+
+    int initialBalance(int index) {
+        return initialBalances[index];
+    }
+}
@@ -6,22 +6,107 @@ import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.StashBuffer;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityContext;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
 
-import java.util.Random;
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.time.Duration;
 
 public class Cab extends AbstractBehavior<Cab.Command> {
 
-    public interface Command {
+    public interface Command extends CborSerializable {
     }
 
+    // entity type of cabs when cabs.sharding is on, the entity id is the cabId
+    public static final EntityTypeKey<Command> TYPE_KEY = EntityTypeKey.create(Command.class, "Cab");
+
+    // with cabs.cab.persistent on, the cab is a PersistentCab
     public static Behavior<Command> create(String cabId) {
-        return Behaviors.setup(context -> new Cab(context, cabId));
+        return Behaviors.setup(context -> {
+            if (context.getSystem().settings().config().getBoolean("cabs.cab.persistent")) {
+                return PersistentCab.create(cabId);
+            }
+            return Behaviors.withStash(UPDATE_STASH_CAPACITY, stash -> Behaviors.withTimers(timers ->
+                new Cab(context, timers, stash, cabId, null, null, Duration.ZERO)));
+        });
+    }
+
+    // Cab spawned by its Activator with the state it had when it was passivated, with cabs.activation.lazy on.
+    // It asks the activator to passivate it once it is idle for cabs.activation.passivate-idle-after
+    // and has no ride, its state is kept in the activator's table until its next message.
+    static Behavior<Command> activate(String cabId, CabTable.Entry entry, ActorRef<Activator.Command> activator) {
+        return Behaviors.setup(context -> Behaviors.withStash(UPDATE_STASH_CAPACITY, stash -> Behaviors.withTimers(timers -> {
+            Duration passivateIdleAfter = context.getSystem().settings().config()
+                .getDuration("cabs.activation.passivate-idle-after");
+            Cab cab = new Cab(context, timers, stash, cabId, null, activator, passivateIdleAfter);
+            cab.state = entry.state;
+            cab.initialPos = entry.initialPos;
+            cab.lastRide = entry.lastRide;
+            cab.numRides = entry.numRides;
+            cab.version = entry.version;
+            return cab;
+        })));
+    }
+
+    // Cab as a sharded entity, it asks its shard to passivate it once it is idle for passivateIdleAfter
+    // and still in its initial state, since its state is lost when it stops
+    // (a PersistentCab keeps its state, so it passivates whenever it is idle)
+    public static Behavior<Command> createEntity(EntityContext<Command> entityContext, Duration passivateIdleAfter) {
+        return Behaviors.setup(context -> {
+            if (context.getSystem().settings().config().getBoolean("cabs.cab.persistent")) {
+                return PersistentCab.createEntity(entityContext.getEntityId(), entityContext.getShard(), passivateIdleAfter);
+            }
+            return Behaviors.withStash(UPDATE_STASH_CAPACITY, stash -> Behaviors.withTimers(timers ->
+                new Cab(context, timers, stash, entityContext.getEntityId(), entityContext.getShard(), null, passivateIdleAfter)));
+        });
+    }
+
+    // Idle message is sent by the receive timeout of a sharded or activated cab
+    static final class Idle implements Command {
+    }
+
+    // Deactivate message is sent by the activator of the cab once the cab asked to be passivated
+    static final class Deactivate implements Command {
+    }
+
+    // ForwardLocation message is sent by the location timer at the end of a location interval
+    static final class ForwardLocation implements Command {
+    }
+
+    // UpdateTimeout message is sent by the update timer if no rideService acknowledged the cab's update in time
+    static final class UpdateTimeout implements Command {
+    }
+
+    // UpdateApplied message is sent by the rideService which applied the sign-in of the cab or the end of its ride,
+    // once the other rideServices are sent the cab's new state
+    public static final class UpdateApplied implements Command {
+        long version;
+
+        @JsonCreator
+        UpdateApplied(long version) {
+            this.version = version;
+        }
+    }
+
+    // UpdateLocation message is sent by the cab's device with its current position, many times a second
+    public static final class UpdateLocation implements Command {
+        int pos;
+
+        @JsonCreator
+        UpdateLocation(int pos) {
+            this.pos = pos;
+        }
     }
 
     // RideEnded message is sent by test script to end a ride
     public static final class RideEnded implements Command {
         int rideId;
 
+        @JsonCreator
         RideEnded(int rideId) {
             this.rideId = rideId;
         }
@@ -31,6 +116,7 @@ public class Cab extends AbstractBehavior<Cab.Command> {
     public static final class SignIn implements Command {
         int initialPos;
 
+        @JsonCreator
         SignIn(int initialPos) {
             this.initialPos = initialPos;
         }
@@ -45,6 +131,7 @@ public class Cab extends AbstractBehavior<Cab.Command> {
     public static final class GetCabStatus implements Command {
         ActorRef<Cab.CabStatus> replyTo;
 
+        @JsonCreator
         GetCabStatus(ActorRef<Cab.CabStatus> replyTo) {
             this.replyTo = replyTo;
         }
@@ -58,10 +145,10 @@ public class Cab extends AbstractBehavior<Cab.Command> {
         int rideId;
         int numRides;
 
-        CabStatus(String majorState, String minorState, int pos, int rideId, int numRides) {
+        CabStatus(String majorState, String minorState, int initialPos, int rideId, int numRides) {
             this.majorState = majorState;
             this.minorState = minorState;
-            this.initialPos = pos;
+            this.initialPos = initialPos;
             this.rideId = rideId;
             this.numRides = numRides;
         }
@@ -85,14 +172,16 @@ public class Cab extends AbstractBehavior<Cab.Command> {
         }
     }
 
-    // RideStarted message is sent by fulfillRide actor to start the ride
+    // RideStarted message is sent by fulfillRide actor to start the ride, the cab replies with RideStartedCabResponse
     public static final class RideStarted implements Command {
         String cabId;
         int rideId;
+        ActorRef<FulfillRide.Command> replyTo;
 
-        RideStarted(String cabId, int rideId) {
+        RideStarted(String cabId, int rideId, ActorRef<FulfillRide.Command> replyTo) {
             this.cabId = cabId;
             this.rideId = rideId;
+            this.replyTo = replyTo;
         }
     }
 
@@ -111,6 +200,7 @@ public class Cab extends AbstractBehavior<Cab.Command> {
     public static final class NumRides implements Command {
         ActorRef<NumRidesResponse> replyTo;
 
+        @JsonCreator
         NumRides(ActorRef<NumRidesResponse> replyTo) {
             this.replyTo = replyTo;
         }
@@ -120,6 +210,7 @@ public class Cab extends AbstractBehavior<Cab.Command> {
     public static final class NumRidesResponse implements Command {
         int numRides;
 
+        @JsonCreator
         NumRidesResponse(int numRides) {
             this.numRides = numRides;
         }
@@ -140,6 +231,7 @@ public class Cab extends AbstractBehavior<Cab.Command> {
     public static final class Reset implements Command {
         ActorRef<NumRidesResponse> replyTo;
 
+        @JsonCreator
         Reset(ActorRef<NumRidesResponse> replyTo) {
             this.replyTo = replyTo;
         }
@@ -147,8 +239,7 @@ public class Cab extends AbstractBehavior<Cab.Command> {
 
     private String cabId;      // cab Id
     private int initialPos;    // Cab position
-    private String minorState; // Can be either available/committed/giving-ride
-    private String majorState; // Can be either signed-in/signed-out
+    private CabState state;    // Can be either signed-out/available/committed/giving-ride
     private Boolean lastRide; // Whether last request was fulfilled
     // lastRide = true indicate that cab accepted the last ride request
     // lastRide = false indicate that cab declined the last ride request
@@ -158,20 +249,49 @@ public class Cab extends AbstractBehavior<Cab.Command> {
     private int destinationLoc; // If giving-ride, then destination location of current ride
     ActorRef<FulfillRide.Command> fulfillRideActor; // If giving-ride, then reference of fulfillRide actor
     private int numRides; // number of rides given by cab since last sign-In
+    private long version; // incremented on every state change, sent along with the state so that
+                          // rideServices can drop updates which arrive out of order
+    private ActorRef<ClusterSharding.ShardCommand> shard; // shard of the cab if sharded, null otherwise
+    private ActorRef<Activator.Command> activator;        // activator of the cab if lazily activated, null otherwise
+
+    // location updates, at most one position is forwarded to the rideServices per location interval
+    static final Object LOCATION_TIMER_KEY = new Object();
+    private TimerScheduler<Command> timers;
+    private Duration locationInterval;  // zero if every position is forwarded at once
+    private int pendingPos = -1;        // latest position received during the interval, -1 if none
+    private long pendingVersion;        // version when pendingPos was received, it is dropped if the state changed since
+
+    // After a sign-in or the end of a ride, the messages which arrive until a rideService acknowledged the update
+    // are stashed, so that a reply of the cab afterwards tells that the rideServices know the cab is available
+    static final Object UPDATE_TIMER_KEY = new Object();
+    static final int UPDATE_STASH_CAPACITY = 1000;
+    private StashBuffer<Command> stash;
+    private Duration updateTimeout;
 
     // constructor
-    private Cab(ActorContext<Command> context, String cabId) {
+    private Cab(ActorContext<Command> context, TimerScheduler<Command> timers, StashBuffer<Command> stash, String cabId,
+                ActorRef<ClusterSharding.ShardCommand> shard, ActorRef<Activator.Command> activator,
+                Duration passivateIdleAfter) {
         super(context);
+        this.timers = timers;
+        this.locationInterval = context.getSystem().settings().config().getDuration("cabs.cab.location-interval");
+        this.stash = stash;
+        this.updateTimeout = context.getSystem().settings().config().getDuration("cabs.cab.update-timeout");
+        this.shard = shard;
+        this.activator = activator;
+        if ((shard != null || activator != null) && !passivateIdleAfter.isZero()) {
+            context.setReceiveTimeout(passivateIdleAfter, new Idle());
+        }
         this.cabId = cabId;
         this.initialPos = -1;
-        this.majorState = "signed-out";
-        this.minorState = null;
+        this.state = CabState.SIGNED_OUT;
         this.lastRide = false;
         this.rideID = -1;
         this.sourceLoc = -1;
         this.destinationLoc = -1;
         this.numRides = 0;
         this.fulfillRideActor = null;
+        this.version = 0;
 
         context.getLog().info("Cab actor created for id {}", cabId);
     }
@@ -188,38 +308,141 @@ public class Cab extends AbstractBehavior<Cab.Command> {
             .onMessage(RideStarted.class, this::onRideStarted)
             .onMessage(RideCancelled.class, this::onRideCancelled)
             .onMessage(GetCabStatus.class, this::onGetCabStatus)
+            .onMessage(Idle.class, this::onIdle)
+            .onMessage(Deactivate.class, this::onDeactivate)
+            .onMessage(UpdateLocation.class, this::onUpdateLocation)
+            .onMessage(ForwardLocation.class, this::onForwardLocation)
+            .onMessage(UpdateApplied.class, command -> this)   // late acknowledgement, the cab stopped waiting
+            .onMessage(UpdateTimeout.class, command -> this)
+            .build();
+    }
+
+    // Behavior of the cab until a rideService acknowledged its update (or the update timeout expired),
+    // other messages are stashed and handled afterwards in the order they arrived
+    private Behavior<Command> awaitingUpdate() {
+        timers.startSingleTimer(UPDATE_TIMER_KEY, new UpdateTimeout(), updateTimeout);
+        return Behaviors.receive(Command.class)
+            .onMessage(UpdateApplied.class, command -> command.version == this.version ? updateApplied() : Behaviors.same())
+            .onMessage(UpdateTimeout.class, command -> {
+                getContext().getLog().warn("Update of cab {} was not acknowledged in {}", this.cabId, this.updateTimeout);
+                return updateApplied();
+            })
+            .onAnyMessage(command -> {
+                if (stash.isFull()) {
+                    getContext().getSelf().tell(command);
+                    return updateApplied();
+                }
+                stash.stash(command);
+                return Behaviors.same();
+            })
             .build();
     }
 
+    private Behavior<Command> updateApplied() {
+        timers.cancel(UPDATE_TIMER_KEY);
+        return stash.unstashAll(this);
+    }
+
+    // UpdateLocation message handler
+    // Only an available cab moves, the position of a committed or riding cab is set by its ride.
+    // Pings are conflated: the first new position after a quiet interval is forwarded at once, later ones
+    // only replace the pending position, which is forwarded when the location timer fires.
+    private Cab onUpdateLocation(UpdateLocation command) {
+        if (command.pos < 0 || this.state != CabState.AVAILABLE) {
+            return this;
+        }
+        if (timers.isTimerActive(LOCATION_TIMER_KEY)) {
+            this.pendingPos = command.pos;
+            this.pendingVersion = this.version;
+        }
+        else if (command.pos != this.initialPos) {
+            moveTo(command.pos);
+        }
+        return this;
+    }
+
+    // ForwardLocation message handler, forwards the latest position received during the interval
+    private Cab onForwardLocation(ForwardLocation command) {
+        if (this.pendingPos >= 0 && this.pendingVersion == this.version && this.pendingPos != this.initialPos) {
+            moveTo(this.pendingPos);
+        }
+        this.pendingPos = -1;
+        return this;
+    }
+
+    // Moves the available cab and sends CabMoved to the rideService picked by the cab router,
+    // no other position is forwarded until the location interval is over
+    private void moveTo(int pos) {
+        this.initialPos = pos;
+        this.version++;
+        if (Globals.cabRouter != null) {
+            Globals.cabRouter.tell(new RideService.CabMoved(cabId, pos, this.version));
+        }
+        if (!locationInterval.isZero()) {
+            timers.startSingleTimer(LOCATION_TIMER_KEY, new ForwardLocation(), locationInterval);
+        }
+    }
+
+    // Idle message handler
+    // A cab which never changed state is passivated, it is created again by the next message
+    // An activated cab keeps its state in the activator's table, so it is passivated unless it has a ride
+    private Cab onIdle(Idle command) {
+        if (this.activator != null) {
+            if (this.state == CabState.SIGNED_OUT || this.state == CabState.AVAILABLE) {
+                this.activator.tell(new Activator.Passivate(this.cabId));
+            }
+            return this;
+        }
+        if (this.version == 0) {
+            getContext().getLog().info("Passivating idle cab {}", this.cabId);
+            this.shard.tell(new ClusterSharding.Passivate<>(getContext().getSelf()));
+        }
+        return this;
+    }
+
+    // Deactivate message handler
+    // Hands the cab state to the activator and stops, unless the cab got a ride since it asked to be passivated
+    private Behavior<Command> onDeactivate(Deactivate command) {
+        if (this.state != CabState.SIGNED_OUT && this.state != CabState.AVAILABLE) {
+            this.activator.tell(new Activator.Passivated(this.cabId, null));
+            return this;
+        }
+        this.activator.tell(new Activator.Passivated(this.cabId, new CabTable.Entry(this.state, this.initialPos, this.lastRide,
+                                                                                    this.numRides, this.version)));
+        return Behaviors.stopped();
+    }
+
     // GetCabStatus message handler
     // Sends a CabStatus message to the source actor
     private Cab onGetCabStatus(GetCabStatus command) {
         getContext().getLog().info("getCabStatus message received");
-        command.replyTo.tell(new CabStatus(this.majorState, this.minorState, this.initialPos, this.rideID, this.numRides));
+        command.replyTo.tell(new CabStatus(this.state.majorState, this.state.minorState, this.initialPos, this.rideID, this.numRides));
         return this;
     }
 
     // RideEnded message handler
     // If rideId is correct, then sends a RideEnded message to fulfillRide actor and ends the ride.
-    private Cab onRideEnded(RideEnded command) {
+    private Behavior<Command> onRideEnded(RideEnded command) {
         getContext().getLog().info("Ride Ended message received by cab {}", command.rideId);
         if (command.rideId != this.rideID) {
             getContext().getLog().info("Received ride Id {}  does not match current ride Id {}, cannot end ride!", command.rideId, this.rideID);
             return this;
         }
         this.initialPos = this.destinationLoc;  // Set cab position to destination location
-        this.minorState = "available";          // Set cab minorState to available
+        this.state = CabState.AVAILABLE;        // Set cab state to available
         this.rideID = -1;
         this.sourceLoc = -1;
         this.destinationLoc = -1;
-        this.fulfillRideActor.tell(new FulfillRide.FulfillRideEnded()); // Tell fulfillRide actor to end the ride
+        this.version++;
+        // Tell fulfillRide actor to end the ride and wait until its rideService applied it
+        this.fulfillRideActor.tell(new FulfillRide.FulfillRideEnded(command.rideId, this.version, getContext().getSelf()));
         this.fulfillRideActor = null;
-        return this;
+        return awaitingUpdate();
     }
 
     // SignIn message handler
     // If initial position is not negative and cab is not in signed-in state, then signs in the cab
-    private Cab onSignIn(SignIn command) {
+    private Behavior<Command> onSignIn(SignIn command) {
         getContext().getLog().info("Sign in happening of {} at initialPos {}", this.cabId, command.initialPos);
         // check initialPos is non-negative
         if (command.initialPos < 0) {
@@ -227,24 +450,22 @@ public class Cab extends AbstractBehavior<Cab.Command> {
             return this;
         }
         // check cab is not already signed-in
-        if (this.majorState.equals("signed-in")) {
+        if (this.state != CabState.SIGNED_OUT) {
             getContext().getLog().info("Already signed-in! Exiting..");
             return this;
         }
         this.initialPos = command.initialPos;   // set cab positon to initial position
-        this.majorState = "signed-in";          // set majorState to signed-in
-        this.minorState = "available";          // set minorState to available
+        this.state = CabState.AVAILABLE;        // set state to signed-in and available
         this.lastRide = false;                  // set lastRide to false
         this.numRides = 0;                      // set numRides to 0
         this.rideID = -1;                       // set rideId to -1
+        this.version++;
 
-        // send CabSignsIn message to a randomly selected rideService
-        Random rand = new Random();
-        int rideServiceId = rand.nextInt(10);
-        getContext().getLog().info("SignIn: random id = {}", rideServiceId);
-        if(Globals.rideService[rideServiceId] != null) {
-            getContext().getLog().info("SignIn: Sending cabSignsIn message to rideService-{}", rideServiceId);
-            Globals.rideService[rideServiceId].tell(new RideService.CabSignsIn(cabId, initialPos));
+        // send CabSignsIn message to the rideService picked by the cab router and wait for its acknowledgement
+        if(Globals.cabRouter != null) {
+            getContext().getLog().info("SignIn: Sending cabSignsIn message to cab router");
+            Globals.cabRouter.tell(new RideService.CabSignsIn(cabId, initialPos, this.version, getContext().getSelf()));
+            return awaitingUpdate();
         }
         return this;
     }
@@ -254,31 +475,27 @@ public class Cab extends AbstractBehavior<Cab.Command> {
     private Cab onSignOut(SignOut command) {
         getContext().getLog().info("Sign out request came.");
         // check cab is not in signed-out state
-        if (this.majorState.equals("signed-out")) {
+        if (this.state == CabState.SIGNED_OUT) {
             getContext().getLog().info("Already signed-out. Exiting...");
             return this;
         }
         // check cab is in signed-in and available state. Cannot sign-out a cab which is either in committed
         // or giving-ride state
-        if (this.majorState.equals("signed-in")
-            && this.minorState.equals("available")) {
+        if (this.state == CabState.AVAILABLE) {
             // initialise all variables
             this.initialPos = -1;
-            this.majorState = "signed-out";
-            this.minorState = null;
+            this.state = CabState.SIGNED_OUT;
             this.sourceLoc = -1;
             this.destinationLoc = -1;
             this.numRides = 0;
             this.lastRide = false;
             this.rideID = -1;
             this.fulfillRideActor = null;
+            this.version++;
 
-            // send CabSignsOut message to a randomly selected rideService
-            Random rand = new Random();
-            int rideServiceId = rand.nextInt(10);
-            getContext().getLog().info("SignOut: random id = {}", rideServiceId);
-            if(Globals.rideService[rideServiceId] != null) {
-                Globals.rideService[rideServiceId].tell(new RideService.CabSignsOut(cabId));
+            // send CabSignsOut message to the rideService picked by the cab router
+            if(Globals.cabRouter != null) {
+                Globals.cabRouter.tell(new RideService.CabSignsOut(cabId, this.version));
             }
         }
         else {
@@ -297,19 +514,19 @@ public class Cab extends AbstractBehavior<Cab.Command> {
 
     // Reset message handler
     // If cab is in giving-ride state, then end the ride
-    // Signs-out the cab and sends CabSignsOut message to a randomly selected rideService
+    // Signs-out the cab and sends CabSignsOut message to the rideService picked by the cab router
     // Responds with number of rides (numRidesResponse) message to source
     private Cab onReset(Reset command) {
         getContext().getLog().info("Reset cab");
         // Cab should behave as if the test program sent it a RideEnded command for the ongoing ride
-        if (this.minorState != null && this.minorState.equals("giving-ride")) {
-            this.fulfillRideActor.tell(new FulfillRide.FulfillRideEnded());
+        if (this.state == CabState.GIVING_RIDE) {
+            this.version++;
+            this.fulfillRideActor.tell(new FulfillRide.FulfillRideEnded(this.rideID, this.version, null));
         }
 
         // Sign out
         this.initialPos = -1; 
-        this.majorState = "signed-out";
-        this.minorState = null;
+        this.state = CabState.SIGNED_OUT;
         int result = this.numRides;
         this.numRides = 0;
         this.sourceLoc = -1;
@@ -317,13 +534,11 @@ public class Cab extends AbstractBehavior<Cab.Command> {
         this.rideID = -1;
         this.lastRide = false;
         this.fulfillRideActor = null;
+        this.version++;
 
-        // Send CabSignsOut message to a randomly selected rideService
-        Random rand = new Random();
-        int rideServiceId = rand.nextInt(10);
-        getContext().getLog().info("Reset: random id = {}", rideServiceId);
-        if(Globals.rideService[rideServiceId] != null) {
-            Globals.rideService[rideServiceId].tell(new RideService.CabSignsOut(cabId));
+        // Send CabSignsOut message to the rideService picked by the cab router
+        if(Globals.cabRouter != null) {
+            Globals.cabRouter.tell(new RideService.CabSignsOut(cabId, this.version));
         }
 
         // Respond with number of rides to test script
@@ -338,73 +553,82 @@ public class Cab extends AbstractBehavior<Cab.Command> {
         // check sourcLoc and destLoc are non-negative (>=0)
         if (command.sourceLoc < 0 || command.destinationLoc < 0) {
             getContext().getLog().info("Received negative source loc or dest loc, exiting..");
-            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.cabId, "not-interested"));
+            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "not-interested", this.version,
+                                                                         getContext().getSelf()));
             return this;
         }
         // check cab is not in signed-out state
-        if (this.majorState.equals("signed-out")) {
-            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.cabId, "not-interested"));
+        if (this.state == CabState.SIGNED_OUT) {
+            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "not-interested", this.version,
+                                                                         getContext().getSelf()));
             return this;
         }
         // check cab is in signed-in and available state, it accepts ride only if lastRide is false
-        if (this.majorState.equals("signed-in")
-            && this.minorState.equals("available")
+        if (this.state == CabState.AVAILABLE
             && !this.lastRide) {
             getContext().getLog().info("stmt1: cab {} is signed-in and available, lastRide = {}", command.cabId, this.lastRide);
-            this.minorState = "committed";                // set minorState to committed
+            this.state = CabState.COMMITTED;              // set state to committed
             this.rideID = command.rideId;                 // set rideId, sourceLoc and destinationLoc
             this.sourceLoc = command.sourceLoc;
             this.destinationLoc = command.destinationLoc;
             this.lastRide = true;                         //set lastRide to true
+            this.version++;
             // Send response to fulfillRide actor
-            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.cabId, "interested"));
+            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "interested", this.version,
+                                                                         getContext().getSelf()));
             // initialising fulfillRide actor ref
             this.fulfillRideActor = command.replyTo;
             return this;
         }
-        else if (this.majorState.equals("signed-in") && this.minorState.equals("available") && this.lastRide) {
+        else if (this.state == CabState.AVAILABLE && this.lastRide) {
             getContext().getLog().info("stmt2: cab {} is signed-in and available, lastRide = {}", command.cabId, this.lastRide);
             this.lastRide = false; //set lastRide to false
             // Send response to fulfillRide actor
-            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.cabId, "not-interested"));
+            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "not-interested", this.version,
+                                                                         getContext().getSelf()));
             return this;
         }
         // if cab is in committed/giving-ride, send status "busy"
         getContext().getLog().info("stmt3: cab {} is in committed/giving-ride state", command.cabId);
-        command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.cabId, "busy"));
+        command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "busy", this.version,
+                                                                     getContext().getSelf()));
         return this; 
     }
 
     // RideStarted message handler
+    // Replies with the version of the cab once it gives the ride, which the fulfillRide actor announces to the
+    // rideService. A cab which is no longer committed to the ride (it was reset or signed out) does not start it
     private Cab onRideStarted(RideStarted command) {
         getContext().getLog().info("Inside Cab RideStarted {} {}", command.cabId, command.rideId);
-        if (this.majorState.equals("signed-in")
-            && this.minorState.equals("committed")
+        if (this.state == CabState.COMMITTED
             && this.rideID == command.rideId
             && this.cabId.equals(command.cabId)) {
 
-            this.minorState = "giving-ride";      // set minorState to giving-ride
+            this.state = CabState.GIVING_RIDE;    // set state to giving-ride
             this.numRides++;                      // increment numRides
             getContext().getLog().info("Number of rides updated = {}", this.numRides);
             this.initialPos = this.sourceLoc;     // set cab position to source location
+            this.version++;
+            command.replyTo.tell(new FulfillRide.RideStartedCabResponse(command.rideId, command.cabId, true, this.version));
             return this;
         }
+        command.replyTo.tell(new FulfillRide.RideStartedCabResponse(command.rideId, command.cabId, false, this.version));
         return this;
     }
 
     // RideCancelled message handler
     private Cab onRideCancelled(RideCancelled command) {
         getContext().getLog().info("Inside Cab RideCancelled {} {}", command.cabId, command.rideId);
-        if (this.majorState.equals("signed-in")
-            && this.minorState.equals("committed")
+        if (this.state == CabState.COMMITTED
             && this.rideID == command.rideId
             && this.cabId.equals(command.cabId)){
 
-            this.minorState = "available";   // set minorState to available
+            this.state = CabState.AVAILABLE; // set state to available
             this.rideID = -1;
             this.sourceLoc = -1;
             this.destinationLoc = -1;
             this.fulfillRideActor = null;
+            this.version++;
             return this;
         }
         return this;
@@ -0,0 +1,154 @@
+package pods.cabs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import akka.actor.typed.RecipientRef;
+
+// Directory of cab states kept by a rideService, replaces the cacheTable of cab objects.
+// Cabs are interned to dense int indices when added, and their fields are kept in parallel
+// primitive arrays with the state as a byte code, so an entry costs no objects of its own.
+// The directory keeps a CabIndex of its available cabs up to date on every update.
+// Not thread-safe, it is owned by a single actor.
+public class CabDirectory {
+
+    private Map<String, Integer> indices = new HashMap<>();  // cabId -> index
+    private String[] cabIds;
+    private RecipientRef<Cab.Command>[] refs;
+    private byte[] states;              // CabState codes
+    private int[] positions;            // cab position
+    private int[] rideIds;              // if giving-ride, then rideId of current ride
+    private int[] sourceLocs;           // if giving-ride, then source location of current ride
+    private int[] destinationLocs;      // if giving-ride, then destination location of current ride
+    private long[] versions;            // version of the cab state, see Cab.version
+    private int size;
+    private CabIndex cabIndex = new CabIndex();  // position index of available cabs
+
+    CabDirectory() {
+        this(16);
+    }
+
+    @SuppressWarnings("unchecked")
+    CabDirectory(int capacity) {
+        capacity = Math.max(capacity, 1);
+        cabIds = new String[capacity];
+        refs = new RecipientRef[capacity];
+        states = new byte[capacity];
+        positions = new int[capacity];
+        rideIds = new int[capacity];
+        sourceLocs = new int[capacity];
+        destinationLocs = new int[capacity];
+        versions = new long[capacity];
+    }
+
+    // Adds a signed-out cab and returns its index, or the index it already has
+    int add(String cabId, RecipientRef<Cab.Command> ref) {
+        Integer existing = indices.get(cabId);
+        if (existing != null) {
+            return existing;
+        }
+        if (size == cabIds.length) {
+            grow();
+        }
+        int i = size++;
+        indices.put(cabId, i);
+        cabIds[i] = cabId;
+        refs[i] = ref;
+        states[i] = CabState.SIGNED_OUT.code();
+        positions[i] = -1;
+        rideIds[i] = -1;
+        sourceLocs[i] = -1;
+        destinationLocs[i] = -1;
+        versions[i] = 0;
+        return i;
+    }
+
+    // Adds a copy of the entry at index i of another directory and returns its index here
+    int addCopy(CabDirectory other, int i) {
+        int j = add(other.cabIds[i], other.refs[i]);
+        update(j, other.state(i), other.positions[i], other.rideIds[i],
+               other.sourceLocs[i], other.destinationLocs[i], other.versions[i]);
+        return j;
+    }
+
+    // Returns the index of the cab, or -1 if it is not in the directory
+    int indexOf(String cabId) {
+        Integer i = indices.get(cabId);
+        return i == null ? -1 : i;
+    }
+
+    // Sets all fields of the entry at index i and moves it in the position index
+    void update(int i, CabState state, int position, int rideId, int sourceLoc, int destinationLoc, long version) {
+        if (states[i] == CabState.AVAILABLE.code()) {
+            cabIndex.remove(i, positions[i]);
+        }
+        states[i] = state.code();
+        positions[i] = position;
+        rideIds[i] = rideId;
+        sourceLocs[i] = sourceLoc;
+        destinationLocs[i] = destinationLoc;
+        versions[i] = version;
+        if (states[i] == CabState.AVAILABLE.code()) {
+            cabIndex.add(i, position);
+        }
+    }
+
+    // Returns the indices of upto k available cabs nearest to loc, nearest first
+    int[] nearest(int loc, int k) {
+        return cabIndex.nearest(loc, k);
+    }
+
+    // Returns an immutable copy of the entries of the given cabs, in the given order
+    CabSnapshot snapshot(int[] cabs) {
+        return new CabSnapshot(this, cabs);
+    }
+
+    int size() {
+        return size;
+    }
+
+    String cabId(int i) {
+        return cabIds[i];
+    }
+
+    RecipientRef<Cab.Command> ref(int i) {
+        return refs[i];
+    }
+
+    CabState state(int i) {
+        return CabState.of(states[i]);
+    }
+
+    int position(int i) {
+        return positions[i];
+    }
+
+    int rideId(int i) {
+        return rideIds[i];
+    }
+
+    int sourceLoc(int i) {
+        return sourceLocs[i];
+    }
+
+    int destinationLoc(int i) {
+        return destinationLocs[i];
+    }
+
+    long version(int i) {
+        return versions[i];
+    }
+
+    private void grow() {
+        int capacity = cabIds.length * 2;
+        cabIds = Arrays.copyOf(cabIds, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+        states = Arrays.copyOf(states, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        rideIds = Arrays.copyOf(rideIds, capacity);
+        sourceLocs = Arrays.copyOf(sourceLocs, capacity);
+        destinationLocs = Arrays.copyOf(destinationLocs, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+    }
+}
@@ -0,0 +1,90 @@
+package pods.cabs;
+
+import java.util.Arrays;
+
+// Position index over the available cabs of a cab directory, cabs are identified by their directory index.
+// Cabs are kept sorted by position, so the k nearest cabs to a location
+// are found in O(log n + k) by walking outwards from the location, instead of
+// filtering and sorting the whole directory on every ride request.
+// Every cab is a single key packing its position in the high and its index in the low 32 bits,
+// kept in a sorted long[] and found by binary search, so the index holds no object per cab.
+// An add or remove shifts the keys after it, which is a single arraycopy.
+public class CabIndex {
+
+    private long[] keys = new long[16];  // position << 32 | cab, sorted
+    private int size;
+
+    // Adds a cab at the given position
+    void add(int cab, int pos) {
+        long key = key(cab, pos);
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i >= 0) {
+            return;
+        }
+        i = -i - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        keys[i] = key;
+        size++;
+    }
+
+    // Removes a cab from the given position, does nothing if it is not indexed there
+    void remove(int cab, int pos) {
+        int i = Arrays.binarySearch(keys, 0, size, key(cab, pos));
+        if (i < 0) {
+            return;
+        }
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        size--;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Returns upto k cabs ordered by distance from loc, nearest first.
+    // On equal distance the cab at the lower position comes first, then the lower cab index.
+    int[] nearest(int loc, int k) {
+        int[] result = new int[Math.min(k, size)];
+        int n = 0;
+        // key(-1, loc) is never indexed, so the search gives the first cab right of loc
+        int r = -Arrays.binarySearch(keys, 0, size, key(-1, loc)) - 1;
+        int l = r - 1;                          // last cab at or left of loc
+
+        while (n < result.length) {
+            int first;
+            if (r == size || (l >= 0 && loc - pos(keys[l]) <= pos(keys[r]) - loc)) {
+                int pos = pos(keys[l]);
+                first = l;
+                while (first > 0 && pos(keys[first - 1]) == pos) {
+                    first--;
+                }
+                l = first - 1;
+            }
+            else {
+                first = r;
+                int pos = pos(keys[r]);
+                while (r < size && pos(keys[r]) == pos) {
+                    r++;
+                }
+            }
+            // all cabs at this position, lower index first
+            int pos = pos(keys[first]);
+            for (int i = first; i < size && n < result.length && pos(keys[i]) == pos; i++) {
+                result[n++] = (int) keys[i];
+            }
+        }
+        return result;
+    }
+
+    // cab -1 gives the largest key at a position, since indices are non-negative
+    private static long key(int cab, int pos) {
+        return ((long) pos << 32) | (cab & 0xffffffffL);
+    }
+
+    private static int pos(long key) {
+        return (int) (key >> 32);
+    }
+}
@@ -0,0 +1,52 @@
+package pods.cabs;
+
+import akka.actor.typed.RecipientRef;
+
+// Immutable copy of some entries of a cab directory, handed by a rideService to a fulfillRide actor.
+// The rideService keeps updating its directory while the ride is negotiated, so the fulfillRide
+// only gets the entries of its candidate cabs, copied in O(k) however large the directory is.
+// Entries keep the order in which they were taken, nearest cab first.
+public final class CabSnapshot {
+
+    private final String[] cabIds;
+    private final RecipientRef<Cab.Command>[] refs;
+    private final int[] positions;          // cab position when the snapshot was taken
+
+    @SuppressWarnings("unchecked")
+    CabSnapshot(CabDirectory directory, int[] cabs) {
+        cabIds = new String[cabs.length];
+        refs = new RecipientRef[cabs.length];
+        positions = new int[cabs.length];
+        for (int i = 0; i < cabs.length; i++) {
+            cabIds[i] = directory.cabId(cabs[i]);
+            refs[i] = directory.ref(cabs[i]);
+            positions[i] = directory.position(cabs[i]);
+        }
+    }
+
+    int size() {
+        return cabIds.length;
+    }
+
+    // Returns the index of the cab, or -1 if it is not in the snapshot
+    int indexOf(String cabId) {
+        for (int i = 0; i < cabIds.length; i++) {
+            if (cabIds[i].equals(cabId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    String cabId(int i) {
+        return cabIds[i];
+    }
+
+    RecipientRef<Cab.Command> ref(int i) {
+        return refs[i];
+    }
+
+    int position(int i) {
+        return positions[i];
+    }
+}
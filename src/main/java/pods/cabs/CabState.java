@@ -0,0 +1,28 @@
+package pods.cabs;
+
+// State of a cab, combining its major state (signed-in/signed-out) and minor state
+// (available/committed/giving-ride). The cab directory stores it as a byte code.
+public enum CabState {
+    SIGNED_OUT("signed-out", null),
+    AVAILABLE("signed-in", "available"),
+    COMMITTED("signed-in", "committed"),
+    GIVING_RIDE("signed-in", "giving-ride");
+
+    private static final CabState[] VALUES = values();
+
+    final String majorState;    // "signed-in" or "signed-out"
+    final String minorState;    // "available", "committed", "giving-ride" or null if signed-out
+
+    CabState(String majorState, String minorState) {
+        this.majorState = majorState;
+        this.minorState = minorState;
+    }
+
+    byte code() {
+        return (byte) ordinal();
+    }
+
+    static CabState of(byte code) {
+        return VALUES[code];
+    }
+}
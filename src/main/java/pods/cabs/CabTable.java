@@ -0,0 +1,81 @@
+package pods.cabs;
+
+import java.util.Arrays;
+
+// States of many inactive cabs in primitive arrays, kept by an Activator while their actors are stopped.
+// Only a signed-out or available cab is ever inactive, so a cab is its state, position, alternation,
+// rides and version: about 42 bytes and no objects with a numeric cabId.
+// A cab starts signed out at version 0, like a new Cab.
+// Not thread safe, it is owned by one actor.
+final class CabTable {
+
+    // State of one cab handed between the table and its actor
+    static final class Entry {
+        final CabState state;
+        final int initialPos;
+        final boolean lastRide;
+        final int numRides;
+        final long version;
+
+        Entry(CabState state, int initialPos, boolean lastRide, int numRides, long version) {
+            this.state = state;
+            this.initialPos = initialPos;
+            this.lastRide = lastRide;
+            this.numRides = numRides;
+            this.version = version;
+        }
+    }
+
+    private IdTable ids;
+    private byte[] states;          // dense index -> CabState code
+    private int[] positions;
+    private boolean[] lastRides;
+    private int[] numRides;
+    private long[] versions;
+
+    CabTable(int expectedSize) {
+        ids = new IdTable(expectedSize);
+        int capacity = Math.max(expectedSize, 8);
+        states = new byte[capacity];
+        positions = new int[capacity];
+        lastRides = new boolean[capacity];
+        numRides = new int[capacity];
+        versions = new long[capacity];
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    // dense index of the cab, -1 if it is not in the table
+    int index(String cabId) {
+        return ids.index(cabId);
+    }
+
+    // adds a signed-out cab, returns its dense index
+    int add(String cabId) {
+        int index = ids.add(cabId);
+        if (index == states.length) {
+            int capacity = index * 2;
+            states = Arrays.copyOf(states, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            lastRides = Arrays.copyOf(lastRides, capacity);
+            numRides = Arrays.copyOf(numRides, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+        }
+        set(index, new Entry(CabState.SIGNED_OUT, -1, false, 0, 0));
+        return index;
+    }
+
+    Entry get(int index) {
+        return new Entry(CabState.of(states[index]), positions[index], lastRides[index], numRides[index], versions[index]);
+    }
+
+    void set(int index, Entry entry) {
+        states[index] = entry.state.code();
+        positions[index] = entry.initialPos;
+        lastRides[index] = entry.lastRide;
+        numRides[index] = entry.numRides;
+        versions[index] = entry.version;
+    }
+}
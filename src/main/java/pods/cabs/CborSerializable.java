@@ -0,0 +1,6 @@
+package pods.cabs;
+
+// Marker interface for messages and replicated values which are sent to other nodes,
+// they are serialized with Jackson CBOR, see akka.actor.serialization-bindings in application.conf
+public interface CborSerializable {
+}
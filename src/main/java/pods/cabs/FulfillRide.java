@@ -2,27 +2,34 @@ package pods.cabs;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.RecipientRef;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
 
-import java.util.ArrayList;
-import java.util.Map;
-
-import java.util.List;
 import java.lang.Math;
-import java.util.stream.Collectors;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+// Fulfills ride requests of a rideService, every ride is kept in a Ride keyed by rideId.
+// By default a fulfillRide actor is spawned for a single ride and stops when the ride is over.
+// With cabs.fulfill-ride.pool-size set, the rideService keeps that many fulfillRide workers
+// which are handed rides with StartRide and fulfill any number of them at once.
+// Cabs and wallets which do not reply in time are given up on, see cabs.fulfill-ride.
+// With cabs.fulfill-ride.wallet-hold on, the fare is held in the wallet while the cabs are asked.
 public class FulfillRide extends AbstractBehavior<FulfillRide.Command> {
 
-    public interface Command {
+    public interface Command extends CborSerializable {
     }
 
     // WalletBalanceResponse message sent by wallet actor
     public static final class AdaptedWalletBalanceResponse implements Command {
         Wallet.ResponseBalance response;
-        
+
         AdaptedWalletBalanceResponse(Wallet.ResponseBalance response) {
             this.response = response;
         }
@@ -30,184 +37,722 @@ public class FulfillRide extends AbstractBehavior<FulfillRide.Command> {
 
     // RequestRideCabResponse message sent by cab actor
     public static final class RequestRideCabResponse implements Command {
+        int rideId;
         String cabId;
         String response;        // can be "interested" or "not-interested"
-        
-        RequestRideCabResponse(String cabId, String response) {
+        long version;           // version of the cab state after the reply
+        ActorRef<Cab.Command> cab;  // the replying cab, released through it if the ride is already over
+
+        RequestRideCabResponse(int rideId, String cabId, String response, long version, ActorRef<Cab.Command> cab) {
+            this.rideId = rideId;
             this.response = response;
             this.cabId = cabId;
+            this.version = version;
+            this.cab = cab;
+        }
+    }
+
+    // RideStartedCabResponse message sent by cab actor in reply to RideStarted
+    public static final class RideStartedCabResponse implements Command {
+        int rideId;
+        String cabId;
+        boolean started;        // false if the cab was no longer committed to the ride
+        long version;           // version of the cab state after the reply
+
+        RideStartedCabResponse(int rideId, String cabId, boolean started, long version) {
+            this.rideId = rideId;
+            this.cabId = cabId;
+            this.started = started;
+            this.version = version;
         }
     }
 
     // FulfillRideEnded sent by test script to end the ongoing ride
     public static final class FulfillRideEnded implements Command {
+        int rideId;
+        long version;           // version of the cab state after the ride ended
+        ActorRef<Cab.Command> cab;  // acknowledged by the rideService once it applied the end of the ride, null if the cab does not wait
+
+        FulfillRideEnded(int rideId, long version, ActorRef<Cab.Command> cab) {
+            this.rideId = rideId;
+            this.version = version;
+            this.cab = cab;
+        }
+    }
+
+    // StartRide message is sent by the rideService to a pooled fulfillRide worker to fulfill a ride request
+    public static final class StartRide implements Command {
+        String custId;
+        RecipientRef<Wallet.Command> wallet;    // wallet of the customer, resolved by the rideService
+        int sourceLoc;
+        int destinationLoc;
+        ActorRef<RideService.RideResponse> replyTo;
+        int rideId;
+        String rideKey;         // key of the ride in the wallet messages, see RideService.rideKey
+        CabSnapshot nearestCabs;
+        boolean parallel;
+        Duration hedgeAfter;    // time after which a cab which has not replied is hedged, zero if hedging is off
+
+        StartRide(String custId, RecipientRef<Wallet.Command> wallet, int sourceLoc, int destinationLoc,
+                  ActorRef<RideService.RideResponse> replyTo, int rideId, String rideKey, CabSnapshot nearestCabs,
+                  boolean parallel, Duration hedgeAfter) {
+            this.custId = custId;
+            this.wallet = wallet;
+            this.sourceLoc = sourceLoc;
+            this.destinationLoc = destinationLoc;
+            this.replyTo = replyTo;
+            this.rideId = rideId;
+            this.rideKey = rideKey;
+            this.nearestCabs = nearestCabs;
+            this.parallel = parallel;
+            this.hedgeAfter = hedgeAfter;
+        }
+    }
+
+    // CabTimedOut message is sent by the timer of a cab which was asked and has not replied in time
+    private static final class CabTimedOut implements Command {
+        int rideId;
+        int cab;                // index in nearestCabs
+
+        CabTimedOut(int rideId, int cab) {
+            this.rideId = rideId;
+            this.cab = cab;
+        }
+    }
 
+    // RideStartTimedOut message is sent by the timer of a cab which was sent RideStarted and has not replied in time
+    private static final class RideStartTimedOut implements Command {
+        int rideId;
+
+        RideStartTimedOut(int rideId) {
+            this.rideId = rideId;
+        }
+    }
+
+    // HedgeCab message is sent by the hedge timer when the cab asked last is slow to reply
+    private static final class HedgeCab implements Command {
+        int rideId;
+
+        HedgeCab(int rideId) {
+            this.rideId = rideId;
+        }
     }
 
+    // WalletTimedOut message is sent by the timer of a fare deduct which was not answered in time
+    private static final class WalletTimedOut implements Command {
+        int rideId;
 
+        WalletTimedOut(int rideId) {
+            this.rideId = rideId;
+        }
+    }
+
+    // fulfillRide actor for a single ride, it stops when the ride is over
     public static Behavior<Command> create(String custId,
+                                           RecipientRef<Wallet.Command> wallet,
                                            int sourceLoc,
                                            int destinationLoc,
                                            ActorRef<RideService.RideResponse> replyTo,
                                            int rideId,
-                                           Map<String, cab>cacheTable,
+                                           String rideKey,
+                                           CabSnapshot nearestCabs,
+                                           boolean parallel,
+                                           Duration hedgeAfter,
                                            ActorRef<RideService.Command> rideService) {
 
-        return Behaviors.setup(context -> new FulfillRide(custId, sourceLoc,
-                                                          destinationLoc, replyTo,
-                                                          rideId, cacheTable,
-                                                          rideService, context));
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> {
+            FulfillRide fulfillRide = new FulfillRide(context, timers, rideService, false);
+            fulfillRide.onStartRide(new StartRide(custId, wallet, sourceLoc, destinationLoc, replyTo,
+                                                  rideId, rideKey, nearestCabs, parallel, hedgeAfter));
+            return fulfillRide;
+        }));
+    }
+
+    // pooled fulfillRide worker, it fulfills the rides it is sent with StartRide and never stops
+    public static Behavior<Command> createWorker(ActorRef<RideService.Command> rideService) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> new FulfillRide(context, timers, rideService, true)));
     }
 
-    // ride request details
-    private String custId;          // customer Id
-    private int sourceLoc;          // source location
-    private int destinationLoc;     // destination location
-    private ActorRef<RideService.RideResponse> replyTo;     // actor reference of test script
-    // sent by RideService
-    private int rideId;             // ride Id
-    private Map<String, cab> cacheTableCopy;        // copy of cache table
     private ActorRef<RideService.Command> parentRideService;        // parent rideService actor reference
-    // local variables
-    private List<cab> availableCabs;        // list of available cabs
-    private String interestedCabId;         // cabId of cab which responded with "interested" status
-    private int fare;                       // fare for the ride
-    private ActorRef<Wallet.ResponseBalance> responseBalanceWallet;
-
-    private FulfillRide(String custId,
-                        int sourceLoc,
-                        int destinationLoc,
-                         ActorRef<RideService.RideResponse> replyTo,
-                        int rideId,
-                        Map<String, cab>cacheTable,
-                        ActorRef<RideService.Command> rideService,
-                        ActorContext<Command> context) {
+    private boolean pooled;                                         // if false, the actor stops with its ride
+    private Map<Integer, Ride> rides = new HashMap<>();             // rideId -> ride being fulfilled
+    private ActorRef<Wallet.ResponseBalance> responseBalanceWallet; // created on the first wallet message, replies carry the rideId
+    private TimerScheduler<Command> timers;
+    private Duration cabTimeout;            // time a cab is given to reply to RequestRide and RideStarted
+    private Duration walletTimeout;         // time the wallet is given to reply to DeductBalance, HoldBalance or CaptureHold
+    private int walletRetries;              // times a wallet message is sent again after walletTimeout before giving up
+    private boolean walletHold;             // if true, the fare is held in the wallet while the cabs are asked
+
+    private FulfillRide(ActorContext<Command> context, TimerScheduler<Command> timers,
+                        ActorRef<RideService.Command> rideService, boolean pooled) {
         super(context);
         context.getLog().info("FulfillRide actor created");
-        this.custId = custId;
-        this.sourceLoc = sourceLoc;
-        this.destinationLoc = destinationLoc;
-        this.replyTo = replyTo;
-        this.cacheTableCopy = cacheTable;
-        this.rideId = rideId;
         this.parentRideService = rideService;
-        this.interestedCabId = null;
-        this.fare = 0;
-
-        List<cab> cabsAll = new ArrayList<cab>();
-        cacheTableCopy.forEach((k,v) -> cabsAll.add(v));
-
-        availableCabs = cabsAll.stream()
-            .filter(cab -> cab.getMajorState().equals("signed-in") && cab.getMinorState().equals("available"))
-            .sorted((cab1, cab2) -> new Integer(Math.abs(cab1.getInitialPos() - sourceLoc))
-                    .compareTo(new Integer(Math.abs(cab2.getInitialPos() - sourceLoc))))
-            .limit(3).collect(Collectors.toList());
-
-        if (availableCabs.size() > 0 ) {
-            cab availableCab = availableCabs.get(0);
-            ActorRef<Cab.Command> cabActor = Globals.cabs.get(availableCab.cabId);
-            getContext().getLog().info("cabActor ref {}", cabActor);
-            cabActor.tell(new Cab.RequestRide(availableCab.cabId, this.sourceLoc,
-                                                this.rideId, this.destinationLoc,
-                                                getContext().getSelf()));
-                                                
-            availableCabs.remove(availableCab);
-        }
-        else {
-            getContext().getSelf().tell(new RequestRideCabResponse(null, "not-interested"));
-        }
+        this.pooled = pooled;
+        this.timers = timers;
+        this.cabTimeout = context.getSystem().settings().config().getDuration("cabs.fulfill-ride.cab-timeout");
+        this.walletTimeout = context.getSystem().settings().config().getDuration("cabs.fulfill-ride.wallet-timeout");
+        this.walletRetries = context.getSystem().settings().config().getInt("cabs.fulfill-ride.wallet-retries");
+        this.walletHold = context.getSystem().settings().config().getBoolean("cabs.fulfill-ride.wallet-hold");
     }
 
     @Override
     public Receive<Command> createReceive() {
         return newReceiveBuilder()
+            .onMessage(StartRide.class, this::onStartRide)
             .onMessage(RequestRideCabResponse.class, this::onRequestRideCabResponse)
             .onMessage(AdaptedWalletBalanceResponse.class, this::onAdaptedWalletBalanceResponse)
+            .onMessage(RideStartedCabResponse.class, this::onRideStartedCabResponse)
             .onMessage(FulfillRideEnded.class, this::onFulfillRideEnded)
+            .onMessage(CabTimedOut.class, this::onCabTimedOut)
+            .onMessage(RideStartTimedOut.class, this::onRideStartTimedOut)
+            .onMessage(HedgeCab.class, this::onHedgeCab)
+            .onMessage(WalletTimedOut.class, this::onWalletTimedOut)
             .build();
     }
 
-    // FulfillRideEnded message handler
-    // Sends UpdateFromFulfillRide message to parent ride service actor and stops itself
-    private Behavior<Command> onFulfillRideEnded(FulfillRideEnded command) {
-        this.parentRideService.tell(new RideService.UpdateFromFulfillRide(this.interestedCabId, "available", this.destinationLoc,
-        -1, -1, -1));
-        return Behaviors.stopped();
+    // StartRide message handler
+    private Behavior<Command> onStartRide(StartRide command) {
+        Ride ride = new Ride(command);
+        rides.put(command.rideId, ride);
+        ride.start();
+        return this;
     }
 
     // RequestRideCabResponse message handler
-    // RequestRideCabResponse is sent by a cab actor as a response to RequestRide message
-    // It has a response field which can be "interested" or "not-interested"
-    // If response is "interested", then wallet deduct is attempted else RequestRide message is sent to next cab actor
+    // A cab which committed to a ride which is already over is released
     private Behavior<Command> onRequestRideCabResponse(RequestRideCabResponse command) {
-        getContext().getLog().info("FulfillRIde.onRequestRideCabResponse cabId {}", command.cabId);
-        if (command.response.equals("interested")) {
-            // response is "interested", save the cabId in interestedCabId field.
-            this.interestedCabId = command.cabId;
-            ActorRef<Wallet.Command> walletActor = Globals.wallets.get(this.custId);
-            this.fare = (Math.abs(cacheTableCopy.get(command.cabId).initialPos - this.sourceLoc)
-                        + Math.abs(this.sourceLoc - this.destinationLoc)) * 10;
-            this.responseBalanceWallet = getContext().messageAdapter(Wallet.ResponseBalance.class, AdaptedWalletBalanceResponse::new);
-            // deduct balance from wallet
-            walletActor.tell(new Wallet.DeductBalance(fare, this.responseBalanceWallet));
+        Ride ride = rides.get(command.rideId);
+        if (ride == null) {
+            getContext().getLog().info("Cab {} replied for ride {} which is over", command.cabId, command.rideId);
+            if (command.response.equals("interested") && command.cab != null) {
+                // the ride and its cab refs are gone, the cab is released through the ref it replied with
+                command.cab.tell(new Cab.RideCancelled(command.cabId, command.rideId));
+            }
+            return this;
+        }
+        return ended(ride, ride.onRequestRideCabResponse(command));
+    }
+
+    // WalletBalanceResponse message handler
+    private Behavior<Command> onAdaptedWalletBalanceResponse(AdaptedWalletBalanceResponse response) {
+        Ride ride = rides.get(response.response.rideId);
+        if (ride == null) {
+            return this;
+        }
+        return ended(ride, ride.onWalletBalanceResponse(response.response));
+    }
+
+    // RideStartedCabResponse message handler
+    private Behavior<Command> onRideStartedCabResponse(RideStartedCabResponse command) {
+        Ride ride = rides.get(command.rideId);
+        if (ride == null) {
+            return this;
+        }
+        return ended(ride, ride.onRideStartedCabResponse(command));
+    }
+
+    // FulfillRideEnded message handler
+    private Behavior<Command> onFulfillRideEnded(FulfillRideEnded command) {
+        Ride ride = rides.get(command.rideId);
+        if (ride == null) {
+            return this;
         }
-        else {
-            // response is "not-interested" or "busy"
-            // if some available cab is left then send RequestRide message to it
-            if (availableCabs.size() > 0 ) {
-                cab availableCab = availableCabs.get(0);
-                ActorRef<Cab.Command> cabActor = Globals.cabs.get(availableCab.cabId);
-                getContext().getLog().info("cabActor ref {}", cabActor);
-                cabActor.tell(new Cab.RequestRide(availableCab.cabId, this.sourceLoc,
-                                                    this.rideId, this.destinationLoc,
-                                                    getContext().getSelf()));
+        return ended(ride, ride.onFulfillRideEnded(command));
+    }
+
+    // CabTimedOut message handler
+    private Behavior<Command> onCabTimedOut(CabTimedOut command) {
+        Ride ride = rides.get(command.rideId);
+        if (ride == null) {
+            return this;
+        }
+        return ended(ride, ride.onCabTimedOut(command.cab));
+    }
+
+    // RideStartTimedOut message handler
+    private Behavior<Command> onRideStartTimedOut(RideStartTimedOut command) {
+        Ride ride = rides.get(command.rideId);
+        if (ride == null) {
+            return this;
+        }
+        return ended(ride, ride.onRideStartTimedOut());
+    }
 
-                availableCabs.remove(availableCab);
+    // HedgeCab message handler
+    private Behavior<Command> onHedgeCab(HedgeCab command) {
+        Ride ride = rides.get(command.rideId);
+        if (ride != null) {
+            ride.onHedgeCab();
+        }
+        return this;
+    }
+
+    // WalletTimedOut message handler
+    private Behavior<Command> onWalletTimedOut(WalletTimedOut command) {
+        Ride ride = rides.get(command.rideId);
+        if (ride == null) {
+            return this;
+        }
+        return ended(ride, ride.onWalletTimedOut());
+    }
+
+    // Forgets the ride if it is over, a fulfillRide actor of a single ride stops with it
+    private Behavior<Command> ended(Ride ride, boolean over) {
+        if (!over) {
+            return this;
+        }
+        rides.remove(ride.rideId);
+        if (!pooled && rides.isEmpty()) {
+            return Behaviors.stopped();
+        }
+        return this;
+    }
+
+    // A ride request being fulfilled, its handlers return true once the ride is over
+    private final class Ride {
+        // ride request details
+        private String custId;          // customer Id
+        private RecipientRef<Wallet.Command> wallet;    // wallet of the customer
+        private int sourceLoc;          // source location
+        private int destinationLoc;     // destination location
+        private ActorRef<RideService.RideResponse> replyTo;     // actor reference of test script
+        // sent by RideService
+        private int rideId;             // ride Id
+        private String rideKey;         // ride Id unique over rideServices, nodes and restarts, for the wallet
+        // local variables
+        private CabSnapshot nearestCabs;        // entries of nearest available cabs, nearest first
+        private int nextCab;                    // index in nearestCabs of the next cab to ask
+        private boolean parallel;               // if true, all nearest cabs are asked at once
+        private Duration hedgeAfter;            // sequential mode: the next cab is asked too if the last one is this slow
+        private int pendingReplies;             // number of cabs asked which have neither replied nor timed out
+        private boolean[] awaiting;             // per cab of nearestCabs, asked and neither replied nor timed out
+        private long[] askedAt;                 // per cab of nearestCabs, time it was asked
+        private long[] replyNanos;              // reply times of the cabs which replied
+        private int replies;
+        private boolean finished;               // ride is over, waiting for late cab or wallet replies
+        private int busyReplies;                // number of "busy" replies received from cabs
+        private int hedgedRequests;             // cabs asked because the cab asked before was slow
+        private int cabTimeouts;                // cabs which did not reply in time
+        private String interestedCabId;         // cabId of cab which responded with "interested" status
+        private int interestedCab;              // index in nearestCabs of the interested cab
+        private int fare;                       // fare for the ride
+        private boolean awaitingWallet;         // wallet message sent and not answered yet
+        private Wallet.Command walletCommand;   // wallet message awaited, sent again if it is not answered in time
+        private int walletAttempts;             // times walletCommand was sent
+        private boolean walletTimedOut;         // wallet did not answer in time and the ride was cancelled
+        private boolean holdPending;            // wallet-hold mode: HoldBalance sent and not answered yet
+        private boolean held;                   // wallet-hold mode: the wallet holds the fare, not captured yet
+        private boolean heldInFull;             // the hold covers the fare from any nearest cab, capturing it cannot fail
+        private int maxFare;                    // wallet-hold mode: fare from the farthest nearest cab, held if the balance allows
+        private boolean startPending;           // RideStarted sent, the customer is answered once the cab replied
+
+        private Ride(StartRide command) {
+            this.custId = command.custId;
+            this.wallet = command.wallet;
+            this.sourceLoc = command.sourceLoc;
+            this.destinationLoc = command.destinationLoc;
+            this.replyTo = command.replyTo;
+            this.rideId = command.rideId;
+            this.rideKey = command.rideKey;
+            this.parallel = command.parallel;
+            this.hedgeAfter = command.hedgeAfter;
+            this.pendingReplies = 0;
+            this.finished = false;
+            this.busyReplies = 0;
+            this.interestedCabId = null;
+            this.fare = 0;
+
+            // nearest available cabs are looked up by the rideService in its cab directory and copied
+            this.nearestCabs = command.nearestCabs;
+            this.nextCab = 0;
+            this.awaiting = new boolean[nearestCabs.size()];
+            this.askedAt = new long[nearestCabs.size()];
+            this.replyNanos = new long[nearestCabs.size()];
+        }
+
+        // Offers the ride to the first nearest cab, or to all of them in parallel mode
+        private void start() {
+            if (walletHold && nearestCabs.size() > 0) {
+                holdFare();
+            }
+            if (parallel && nearestCabs.size() > 0) {
+                // offer the ride to all nearest cabs at once, the first "interested" cab gets it
+                while (nextCab < nearestCabs.size()) {
+                    askCab(nextCab++);
+                }
+            }
+            else if (nextCab < nearestCabs.size()) {
+                askNextCab();
             }
             else {
-                // If not cab is available, then respond with rideId as -1 to testProbe and stop itself
-                getContext().getLog().info("FulfillRIde.onRequestRideCabResponse: No cab found! returning -1");
+                getContext().getSelf().tell(new RequestRideCabResponse(this.rideId, null, "not-interested", -1, null));
+            }
+        }
+
+        // Fare of the ride if the cab of nearestCabs takes it
+        private int fareFrom(int cab) {
+            return (Math.abs(nearestCabs.position(cab) - this.sourceLoc) + Math.abs(this.sourceLoc - this.destinationLoc)) * 10;
+        }
+
+        // Sends a wallet message for the ride and starts the wallet timer
+        private void askWallet(Wallet.Command command) {
+            this.wallet.tell(command);
+            this.awaitingWallet = true;
+            this.walletCommand = command;
+            this.walletAttempts = 1;
+            timers.startSingleTimer(walletTimerKey(), new WalletTimedOut(this.rideId), walletTimeout);
+        }
+
+        private ActorRef<Wallet.ResponseBalance> walletReplyTo() {
+            if (responseBalanceWallet == null) {
+                responseBalanceWallet = getContext().messageAdapter(Wallet.ResponseBalance.class, AdaptedWalletBalanceResponse::new);
+            }
+            return responseBalanceWallet;
+        }
+
+        // Wallet-hold mode: holds the fare in the wallet while the cabs are asked.
+        // The cab is not known yet, so the fare is anything from the fare from the nearest cab to the fare from the farthest
+        private void holdFare() {
+            int minFare = Integer.MAX_VALUE;
+            this.maxFare = 0;
+            for (int i = 0; i < nearestCabs.size(); i++) {
+                minFare = Math.min(minFare, fareFrom(i));
+                this.maxFare = Math.max(this.maxFare, fareFrom(i));
+            }
+            askWallet(new Wallet.HoldBalance(minFare, this.maxFare, this.rideId, this.rideKey, walletReplyTo()));
+            this.holdPending = true;
+        }
+
+        // Wallet-hold mode: deducts the fare of the accepted cab from the hold.
+        // If the hold covers any fare the ride starts right away, without waiting for the wallet
+        private void captureFare() {
+            this.held = false;
+            if (this.heldInFull) {
+                this.wallet.tell(new Wallet.CaptureHold(this.fare, this.rideId, this.rideKey, walletReplyTo()));
+                startRide();
+                return;
+            }
+            askWallet(new Wallet.CaptureHold(this.fare, this.rideId, this.rideKey, walletReplyTo()));
+        }
+
+        // Sends RequestRide to a cab and starts its reply timer
+        private void askCab(int cab) {
+            RecipientRef<Cab.Command> cabActor = nearestCabs.ref(cab);
+            getContext().getLog().info("cabActor ref {}", cabActor);
+            cabActor.tell(new Cab.RequestRide(nearestCabs.cabId(cab), this.sourceLoc,
+                                                this.rideId, this.destinationLoc,
+                                                getContext().getSelf()));
+            this.awaiting[cab] = true;
+            this.askedAt[cab] = System.nanoTime();
+            this.pendingReplies++;
+            timers.startSingleTimer(cabTimerKey(cab), new CabTimedOut(this.rideId, cab), cabTimeout);
+        }
+
+        // Sequential mode: asks the next cab, and hedges it if it is slow to reply
+        private void askNextCab() {
+            askCab(nextCab++);
+            if (!hedgeAfter.isZero()) {
+                timers.startSingleTimer(hedgeTimerKey(), new HedgeCab(this.rideId), hedgeAfter);
+            }
+        }
+
+        private String cabTimerKey(int cab) {
+            return "cab-" + this.rideId + "-" + cab;
+        }
+
+        private String hedgeTimerKey() {
+            return "hedge-" + this.rideId;
+        }
+
+        private String walletTimerKey() {
+            return "wallet-" + this.rideId;
+        }
+
+        // The ride can be forgotten once it is finished and no cab or wallet reply is expected anymore
+        private boolean over() {
+            return this.finished && this.pendingReplies == 0 && !this.awaitingWallet;
+        }
+
+        // RideStartedCabResponse message handler
+        // Sends UpdateFromFulfillRide message to parent ride service actor with the version the cab reports, the
+        // cab may have changed since it committed, then the success response to test script. The update is sent
+        // first so that a request of the customer after the response finds the cab giving the ride.
+        // A cab which did not start the ride (it was reset) ends it: the fare, which was deducted or captured from
+        // the hold, is given back and the customer gets -1
+        private boolean onRideStartedCabResponse(RideStartedCabResponse command) {
+            if (!this.startPending) {
+                return over();
+            }
+            timers.cancel(rideStartTimerKey());
+            if (!command.started) {
+                getContext().getLog().info("Cab {} did not start ride {}, refunding and returning -1", command.cabId, this.rideId);
+                this.startPending = false;
+                this.wallet.tell(new Wallet.AddBalance(this.fare, this.rideId, this.rideKey));
+                reportOutcome(false);
                 this.replyTo.tell(new RideService.RideResponse(-1, null, -1, null));
-                return Behaviors.stopped();
+                return stop();
             }
+            // PhaseOneTest3: comment following line to test PhaseOneTest3
+            parentRideService.tell(new RideService.UpdateFromFulfillRide(this.interestedCabId, CabState.GIVING_RIDE, this.sourceLoc,
+            this.rideId, this.sourceLoc, this.destinationLoc, command.version, null));
+            answerRideStarted();
+            return over();
         }
-        return this;
-    }
 
-    // WalletBalanceResponse message handler
-    private Behavior<Command> onAdaptedWalletBalanceResponse (AdaptedWalletBalanceResponse response) {
-        getContext().getLog().info("FulfillRide.onAdaptedWalletBalanceReponse balance {}", response.response.balance);
-        if (response.response.balance != -1) {
-            // If deduct was successful then send RideStarted message to cab actor, updateFromfulfillRide message to
-            // parent ride service actor, and success response to test script
-            if (this.interestedCabId != null) {
-                ActorRef<Cab.Command> cabActor = Globals.cabs.get(this.interestedCabId);
-                getContext().getLog().info("cabActor ref {}", cabActor);
+        // RideStartTimedOut message handler
+        // The cab did not reply to RideStarted in time, the customer is answered without waiting any longer
+        private boolean onRideStartTimedOut() {
+            if (this.startPending) {
+                getContext().getLog().info("Cab {} did not reply to the start of ride {}", this.interestedCabId, this.rideId);
+                answerRideStarted();
+            }
+            return over();
+        }
 
-                // telling cabActor to start the ride
-                cabActor.tell(new Cab.RideStarted(this.interestedCabId, this.rideId));
+        // Sends the success response to test script
+        private void answerRideStarted() {
+            this.startPending = false;
+            reportOutcome(true);
+            this.replyTo.tell(new RideService.RideResponse(rideId, this.interestedCabId, this.fare ,
+             getContext().getSelf()));
+        }
 
-                // telling rideService to update the cache table
-                // PhaseOneTest3: comment following line to test PhaseOneTest3
-                this.parentRideService.tell(new RideService.UpdateFromFulfillRide(this.interestedCabId, "giving-ride", this.sourceLoc,
-                this.rideId, this.sourceLoc, this.destinationLoc));
+        // FulfillRideEnded message handler
+        // Sends UpdateFromFulfillRide message to parent ride service actor and ends the ride
+        private boolean onFulfillRideEnded(FulfillRideEnded command) {
+            parentRideService.tell(new RideService.UpdateFromFulfillRide(this.interestedCabId, CabState.AVAILABLE, this.destinationLoc,
+            -1, -1, -1, command.version, command.cab));
+            return stop();
+        }
 
-                // response to test script
-                this.replyTo.tell(new RideService.RideResponse(rideId, this.interestedCabId, this.fare ,
-                 getContext().getSelf()));
+        // Ends the ride
+        // Replies of other cabs may still be on their way, so the ride is kept
+        // until all of them are received, to release the cabs which committed to the ride
+        private boolean stop() {
+            this.finished = true;
+            timers.cancel(hedgeTimerKey());
+            return over();
+        }
+
+        // Tells the parent rideService how the ride request went, for its statistics.
+        // It is sent before the customer is answered, so the statistics count a ride once its customer has the answer
+        private void reportOutcome(boolean matched) {
+            parentRideService.tell(new RideService.RideOutcome(this.rideId, matched, this.busyReplies,
+                                                               this.hedgedRequests, this.cabTimeouts,
+                                                               this.walletTimedOut ? 1 : 0,
+                                                               Arrays.copyOf(this.replyNanos, this.replies)));
+        }
+
+        // Saves the cabId of the interested cab and attempts wallet deduct for the fare
+        private void acceptCab(String cabId) {
+            timers.cancel(hedgeTimerKey());
+            this.interestedCabId = cabId;
+            this.interestedCab = nearestCabs.indexOf(cabId);
+            this.fare = fareFrom(this.interestedCab);
+            if (this.holdPending) {
+                // the fare is captured once the wallet has answered the hold
+                return;
             }
+            if (this.held) {
+                captureFare();
+                return;
+            }
+            // deduct balance from wallet
+            askWallet(new Wallet.DeductBalance(fare, this.rideId, this.rideKey, walletReplyTo()));
         }
-        else {
-            // If deduct was unsuccessful, send RideCancelled message to cab actor, and rideId = -1 response to testProbe
-            // and stop itself
+
+        // RequestRideCabResponse message handler
+        // RequestRideCabResponse is sent by a cab actor as a response to RequestRide message
+        // It has a response field which can be "interested", "not-interested" or "busy"
+        // The first "interested" cab gets the ride and wallet deduct is attempted,
+        // every later "interested" cab is sent a RideCancelled message.
+        private boolean onRequestRideCabResponse(RequestRideCabResponse command) {
+            getContext().getLog().info("FulfillRIde.onRequestRideCabResponse cabId {}", command.cabId);
+            int cab = command.cabId == null ? -1 : nearestCabs.indexOf(command.cabId);
+            if (cab != -1 && !this.awaiting[cab]) {
+                // late reply of a cab which timed out, release it if it committed to the ride
+                if (command.response.equals("interested")) {
+                    nearestCabs.ref(cab).tell(new Cab.RideCancelled(command.cabId, this.rideId));
+                }
+                return over();
+            }
+            if (cab != -1) {
+                this.awaiting[cab] = false;
+                this.pendingReplies--;
+                this.replyNanos[this.replies++] = System.nanoTime() - this.askedAt[cab];
+                timers.cancel(cabTimerKey(cab));
+            }
+            if (command.response.equals("busy")) {
+                this.busyReplies++;
+            }
+            if (command.response.equals("interested")) {
+                if (this.interestedCabId == null && !this.finished) {
+                    // response is "interested", save the cabId in interestedCabId field.
+                    acceptCab(command.cabId);
+                }
+                else {
+                    // ride is already taken by another cab, release this cab
+                    nearestCabs.ref(cab).tell(new Cab.RideCancelled(command.cabId, this.rideId));
+                }
+                return over();
+            }
+            return noCabYet();
+        }
+
+        // A cab asked is not going to take the ride: it replied "not-interested" or "busy", or timed out.
+        // In sequential mode the next cab is asked, any cab still being waited for was already hedged.
+        // If no cab is left and none is being waited for, responds with rideId as -1
+        private boolean noCabYet() {
+            if (this.interestedCabId != null || this.finished) {
+                return over();
+            }
+            if (nextCab < nearestCabs.size()) {
+                askNextCab();
+                return false;
+            }
+            if (this.pendingReplies > 0) {
+                return false;
+            }
+            getContext().getLog().info("FulfillRIde.onRequestRideCabResponse: No cab found! returning -1");
+            if (this.held) {
+                this.held = false;
+                this.wallet.tell(new Wallet.ReleaseHold(this.rideKey));
+            }
+            reportOutcome(false);
+            this.replyTo.tell(new RideService.RideResponse(-1, null, -1, null));
+            return stop();
+        }
+
+        // CabTimedOut message handler, the cab is treated as not interested
+        private boolean onCabTimedOut(int cab) {
+            if (!this.awaiting[cab]) {
+                return over();
+            }
+            getContext().getLog().info("Cab {} did not reply for ride {} in time", nearestCabs.cabId(cab), this.rideId);
+            this.awaiting[cab] = false;
+            this.pendingReplies--;
+            this.cabTimeouts++;
+            return noCabYet();
+        }
+
+        // HedgeCab message handler, the cab asked last is slow so the next cab is asked as well
+        private void onHedgeCab() {
+            if (this.interestedCabId == null && !this.finished && this.pendingReplies > 0
+                && nextCab < nearestCabs.size()) {
+                getContext().getLog().info("Hedging ride {} with the next cab", this.rideId);
+                this.hedgedRequests++;
+                askNextCab();
+            }
+        }
+
+        // WalletTimedOut message handler
+        // The wallet message is sent again while retries are left, the wallet performs it only once.
+        // Then the ride is cancelled, the ride is kept until the wallet replies to refund a fare deducted late
+        private boolean onWalletTimedOut() {
+            if (!this.awaitingWallet || this.walletTimedOut) {
+                return over();
+            }
+            if (this.walletAttempts <= walletRetries) {
+                getContext().getLog().info("Wallet of {} did not reply for ride {} in time, retrying", this.custId, this.rideId);
+                this.wallet.tell(this.walletCommand);
+                this.walletAttempts++;
+                timers.startSingleTimer(walletTimerKey(), new WalletTimedOut(this.rideId), walletTimeout);
+                return false;
+            }
+            getContext().getLog().info("Wallet of {} did not reply for ride {} in time, cancelling", this.custId, this.rideId);
+            this.walletTimedOut = true;
             if (this.interestedCabId != null) {
-                ActorRef<Cab.Command> cabActor = Globals.cabs.get(this.interestedCabId);
-                getContext().getLog().info("cabActor ref {}", cabActor);
-                cabActor.tell(new Cab.RideCancelled(this.interestedCabId, this.rideId));
+                nearestCabs.ref(this.interestedCab).tell(new Cab.RideCancelled(this.interestedCabId, this.rideId));
+            }
+            reportOutcome(false);
+            this.replyTo.tell(new RideService.RideResponse(-1, null, -1, null));
+            return stop();
+        }
+
+        // Starts the ride with the interested cab: sends RideStarted message to cab actor, the parent ride service
+        // actor is sent the cab state and test script the success response once the cab replies with its version
+        private void startRide() {
+            RecipientRef<Cab.Command> cabActor = nearestCabs.ref(this.interestedCab);
+            getContext().getLog().info("cabActor ref {}", cabActor);
+
+            // telling cabActor to start the ride
+            cabActor.tell(new Cab.RideStarted(this.interestedCabId, this.rideId, getContext().getSelf()));
+            this.startPending = true;
+            timers.startSingleTimer(rideStartTimerKey(), new RideStartTimedOut(this.rideId), cabTimeout);
+        }
+
+        private String rideStartTimerKey() {
+            return "start-" + this.rideId;
+        }
+
+        // Wallet-hold mode: the wallet answered HoldBalance
+        // If not even the fare from the nearest cab can be held the ride fails at once, without waiting for the cabs
+        private boolean onHoldResponse(Wallet.ResponseBalance response) {
+            this.holdPending = false;
+            if (this.walletTimedOut || this.finished) {
+                // the ride is over already, give the hold back
+                if (response.balance != -1) {
+                    this.wallet.tell(new Wallet.ReleaseHold(this.rideKey));
+                }
+                return over();
+            }
+            if (response.balance == -1) {
+                getContext().getLog().info("Wallet of {} cannot pay for ride {}, returning -1", this.custId, this.rideId);
+                if (this.interestedCabId != null) {
+                    nearestCabs.ref(this.interestedCab).tell(new Cab.RideCancelled(this.interestedCabId, this.rideId));
+                }
+                reportOutcome(false);
                 this.replyTo.tell(new RideService.RideResponse(-1, null, -1, null));
-                return Behaviors.stopped();
-            } 
+                return stop();
+            }
+            // less than the fare from the farthest cab is held if the balance did not cover it
+            this.held = true;
+            this.heldInFull = response.held >= this.maxFare;
+            if (this.interestedCabId != null) {
+                captureFare();
+            }
+            return over();
+        }
+
+        // WalletBalanceResponse message handler
+        private boolean onWalletBalanceResponse(Wallet.ResponseBalance response) {
+            getContext().getLog().info("FulfillRide.onAdaptedWalletBalanceReponse balance {}", response.balance);
+            if (!this.awaitingWallet) {
+                return over();
+            }
+            this.awaitingWallet = false;
+            timers.cancel(walletTimerKey());
+            if (this.holdPending) {
+                return onHoldResponse(response);
+            }
+            if (this.walletTimedOut) {
+                // the ride was cancelled already, give back a fare which was deducted
+                if (response.balance != -1) {
+                    this.wallet.tell(new Wallet.AddBalance(this.fare, this.rideId, this.rideKey));
+                }
+                return over();
+            }
+            if (response.balance != -1) {
+                // If deduct was successful then send RideStarted message to cab actor, updateFromfulfillRide message to
+                // parent ride service actor, and success response to test script
+                if (this.interestedCabId != null) {
+                    startRide();
+                }
+            }
+            else {
+                // If deduct was unsuccessful, send RideCancelled message to cab actor, and rideId = -1 response to testProbe
+                // and end the ride
+                if (this.interestedCabId != null) {
+                    RecipientRef<Cab.Command> cabActor = nearestCabs.ref(this.interestedCab);
+                    getContext().getLog().info("cabActor ref {}", cabActor);
+                    cabActor.tell(new Cab.RideCancelled(this.interestedCabId, this.rideId));
+                    reportOutcome(false);
+                    this.replyTo.tell(new RideService.RideResponse(-1, null, -1, null));
+                    return stop();
+                }
+            }
+            return over();
         }
-        return this;
     }
 }
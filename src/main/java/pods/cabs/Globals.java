@@ -1,21 +1,33 @@
 package pods.cabs;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
 
+// Registry of the actors of the node. It is filled by Main at startup and read by actors on any dispatcher
+// thread, so the maps are concurrent and the other fields are volatile, a reader sees a complete entry or none.
+// Hot paths do not look refs up here: a rideService keeps the ref of every cab in its cab directory, and
+// resolves the wallet of a ride once for its fulfillRide.
 public class Globals {
-    // Hashmap to store the cab actors in a map of type <String -> actor refs to Cab actors>
-    public static Map<String, ActorRef<Cab.Command>> cabs = new HashMap<>();
+    // Hashmap to store the cab actors in a map of type <String -> refs to Cab actors>
+    // refs are actor refs, or entity refs when cabs.sharding is on
+    public static Map<String, RecipientRef<Cab.Command>> cabs = new ConcurrentHashMap<>();
+
+    // Hashmap to store the wallet actors in a map of type <String -> refs to wallet actors>
+    // refs are actor refs, or entity refs when cabs.sharding is on
+    public static Map<String, RecipientRef<Wallet.Command>> wallets = new ConcurrentHashMap<>();
 
-    // Hashmap to store the wallet actors in a map of type <String -> actor refs to wallet actors>
-    public static Map<String, ActorRef<Wallet.Command>> wallets = new HashMap<>();
-    
     // ArrayList to store rideService actors
-    public static List<ActorRef<RideService.Command>> rideServiceList;
-    // Array of rideService actors
-    public static ActorRef<RideService.Command>[] rideService;
+    public static volatile List<ActorRef<RideService.Command>> rideServiceList;
+    // Array of rideService actors, assigned once all of them are in it
+    public static volatile ActorRef<RideService.Command>[] rideService;
+    // Router over the rideServices which cabs send their sign-in and sign-out to, see RideService.cabRouter
+    public static volatile ActorRef<RideService.Command> cabRouter;
+    // Front door for customer ride requests, sends them to the least loaded rideService, see RideRouter
+    public static volatile ActorRef<RideService.Command> rideRouter;
+    // Write-ahead ledger of the wallets, null unless cabs.wallet.ledger.enabled is on, see WalletLedger
+    public static volatile ActorRef<WalletLedger.Command> walletLedger;
 }
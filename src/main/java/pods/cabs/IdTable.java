@@ -0,0 +1,117 @@
+package pods.cabs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Dense indexes of many cabIds or custIds, for tables keeping their fields in primitive arrays.
+// Numeric ids (all of IDs.txt) are found through an open addressing table of long keys, so an id
+// costs about 24 bytes and no objects; other ids go through a HashMap.
+// Not thread safe, it is owned by one actor.
+final class IdTable {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;            // numeric id per slot, EMPTY if free
+    private int[] indexes;          // dense index of the id per slot
+    private Map<String, Integer> otherIds = new HashMap<>();   // non-numeric id -> dense index
+    private int size;
+
+    IdTable(int expectedSize) {
+        int slots = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        keys = new long[slots];
+        Arrays.fill(keys, EMPTY);
+        indexes = new int[slots];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // dense index of the id, -1 if it is not in the table
+    int index(String id) {
+        long key = numericKey(id);
+        if (key == EMPTY) {
+            Integer index = otherIds.get(id);
+            return index == null ? -1 : index;
+        }
+        int slot = slot(key);
+        return keys[slot] == EMPTY ? -1 : indexes[slot];
+    }
+
+    // adds the id if it is not in the table yet, returns its dense index
+    // indexes are given out in the order ids are added, starting at 0
+    int add(String id) {
+        int index = index(id);
+        if (index != -1) {
+            return index;
+        }
+        index = size++;
+        long key = numericKey(id);
+        if (key == EMPTY) {
+            otherIds.put(id, index);
+            return index;
+        }
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int slot = slot(key);
+        keys[slot] = key;
+        indexes[slot] = index;
+        return index;
+    }
+
+    // slot of the key, or the free slot where it would go (linear probing)
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (mix(key) & mask);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int slots) {
+        long[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+        keys = new long[slots];
+        Arrays.fill(keys, EMPTY);
+        indexes = new int[slots];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                indexes[slot] = oldIndexes[i];
+            }
+        }
+    }
+
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+
+    // id as a long if it is written the way Long.toString writes it, EMPTY otherwise
+    private static long numericKey(String id) {
+        int length = id.length();
+        if (length == 0 || length > 18) {
+            return EMPTY;
+        }
+        int start = id.charAt(0) == '-' ? 1 : 0;
+        if (start == length || (id.charAt(start) == '0' && length > start + 1)) {
+            return EMPTY;
+        }
+        long key = 0;
+        for (int i = start; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return EMPTY;
+            }
+            key = key * 10 + (c - '0');
+        }
+        if (start == 1 && key == 0) {
+            return EMPTY;
+        }
+        return start == 1 ? -key : key;
+    }
+}
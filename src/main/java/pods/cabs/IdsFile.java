@@ -0,0 +1,165 @@
+package pods.cabs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Contents of IDs.txt: a header line, the cab ids, a "****" line, the customer ids, a "****" line,
+// then the balance of every customer in the same order, one per line.
+// The file is streamed through a FileChannel and split into lines and parsed in one pass over its bytes,
+// without the regex tokenizing of a Scanner. Lines are trimmed like String.trim, ids are UTF-8.
+final class IdsFile {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    final List<String> cabIds;
+    final List<String> customers;
+    final int[] balances;
+
+    private IdsFile(List<String> cabIds, List<String> customers, int[] balances) {
+        this.cabIds = cabIds;
+        this.customers = customers;
+        this.balances = balances;
+    }
+
+    // no cabs and no customers
+    static IdsFile empty() {
+        return new IdsFile(new ArrayList<>(), new ArrayList<>(), new int[0]);
+    }
+
+    static IdsFile read(Path path) throws IOException {
+        return read(path, BUFFER_SIZE);
+    }
+
+    static IdsFile read(Path path, int bufferSize) throws IOException {
+        Parser parser = new Parser();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                parser.parse(buffer.array(), buffer.limit());
+                buffer.clear();
+            }
+        }
+        parser.end();
+        if (parser.balanceCount < parser.customers.size()) {
+            throw new IOException(path + " has " + parser.balanceCount + " balances for "
+                                  + parser.customers.size() + " customers");
+        }
+        return new IdsFile(parser.cabIds, parser.customers, parser.balances);
+    }
+
+    // Splits the bytes into lines, a line cut by the end of a buffer is carried over to the next one
+    private static final class Parser {
+        private static final int HEADER = 0, CABS = 1, CUSTOMERS = 2, BALANCES = 3;
+
+        private int section = HEADER;
+        private byte[] line = new byte[64];
+        private int length;
+        List<String> cabIds = new ArrayList<>();
+        List<String> customers = new ArrayList<>();
+        int[] balances = new int[0];
+        int balanceCount;
+
+        void parse(byte[] bytes, int limit) {
+            int start = 0;
+            for (int i = 0; i < limit; i++) {
+                if (bytes[i] != '\n') {
+                    continue;
+                }
+                if (length == 0) {
+                    line(bytes, start, i);
+                }
+                else {
+                    append(bytes, start, i);
+                    line(line, 0, length);
+                    length = 0;
+                }
+                start = i + 1;
+            }
+            append(bytes, start, limit);
+        }
+
+        // the last line may have no line break
+        void end() {
+            if (length > 0) {
+                line(line, 0, length);
+                length = 0;
+            }
+        }
+
+        private void append(byte[] bytes, int from, int to) {
+            if (length + to - from > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + to - from));
+            }
+            System.arraycopy(bytes, from, line, length, to - from);
+            length += to - from;
+        }
+
+        private void line(byte[] bytes, int from, int to) {
+            while (from < to && (bytes[from] & 0xff) <= ' ') {
+                from++;
+            }
+            while (to > from && (bytes[to - 1] & 0xff) <= ' ') {
+                to--;
+            }
+            switch (section) {
+                case HEADER:
+                    section = CABS;
+                    break;
+                case CABS:
+                    if (isSeparator(bytes, from, to)) {
+                        section = CUSTOMERS;
+                    }
+                    else {
+                        cabIds.add(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+                    }
+                    break;
+                case CUSTOMERS:
+                    if (isSeparator(bytes, from, to)) {
+                        section = BALANCES;
+                        balances = new int[customers.size()];
+                    }
+                    else {
+                        customers.add(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+                    }
+                    break;
+                default:
+                    // lines after the balance of the last customer are ignored
+                    if (balanceCount < balances.length) {
+                        balances[balanceCount++] = parseInt(bytes, from, to);
+                    }
+            }
+        }
+
+        private static boolean isSeparator(byte[] bytes, int from, int to) {
+            return to - from == 4 && bytes[from] == '*' && bytes[from + 1] == '*'
+                && bytes[from + 2] == '*' && bytes[from + 3] == '*';
+        }
+
+        // digits with an optional sign, anything else (or a number which may not fit in an int)
+        // goes through Integer.parseInt for its bounds and its NumberFormatException
+        private static int parseInt(byte[] bytes, int from, int to) {
+            boolean negative = from < to && bytes[from] == '-';
+            int i = from < to && (bytes[from] == '-' || bytes[from] == '+') ? from + 1 : from;
+            if (i == to || to - i > 9) {
+                return Integer.parseInt(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+            }
+            int value = 0;
+            for (; i < to; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return Integer.parseInt(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package pods.cabs;
+
+import java.util.Arrays;
+
+// Keeps the last SAMPLES latencies recorded by an actor, used to report latency percentiles.
+// Not thread-safe, it is owned by a single actor.
+public class LatencyRecorder {
+
+    private static final int SAMPLES = 8192;
+
+    private long[] samples = new long[SAMPLES];  // ring buffer of latencies in nanoseconds
+    private long count;                          // number of latencies recorded so far
+
+    void record(long nanos) {
+        samples[(int) (count % SAMPLES)] = nanos;
+        count++;
+    }
+
+    long count() {
+        return count;
+    }
+
+    // Returns the p-th percentile (0 < p <= 100) of the recorded latencies in microseconds,
+    // or 0 if nothing is recorded
+    long percentileMicros(double p) {
+        int n = (int) Math.min(count, SAMPLES);
+        if (n == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100.0 * n) - 1;
+        return sorted[Math.max(rank, 0)] / 1000;
+    }
+}
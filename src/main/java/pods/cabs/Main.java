@@ -1,18 +1,27 @@
 package pods.cabs;
 
-import java.io.File;
-import java.util.Scanner;
+import java.nio.file.Paths;
+import java.time.Duration;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Adapter;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+
+import com.typesafe.config.Config;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.lang.Object;
 
@@ -40,6 +49,19 @@ public class Main extends AbstractBehavior<Main.Command> {
 
     }
 
+    // Spawned message is sent by a spawner to Main with the actors it spawned, in the order of their ids
+    static final class Spawned implements Command {
+        List<String> cabIds;
+        List<ActorRef<Cab.Command>> cabs = new ArrayList<>();
+        List<String> customers;
+        List<ActorRef<Wallet.Command>> wallets = new ArrayList<>();
+
+        Spawned(List<String> cabIds, List<String> customers) {
+            this.cabIds = cabIds;
+            this.customers = customers;
+        }
+    }
+
     public static final class Start implements Command {
         ActorRef<Main.Started> replyTo;
 
@@ -54,60 +76,233 @@ public class Main extends AbstractBehavior<Main.Command> {
     }
 
     public static Behavior<Void> create(ActorRef<Main.Started> testProbe) {
-        return Behaviors.setup(context -> {
+        // the guardian also receives the Spawned messages of its spawners
+        return Behaviors.<Object>setup(context -> {
+            // in sharding mode cabs and wallets are entities created on their first message,
+            // on whichever cluster node their shard is
+            boolean sharded = context.getSystem().settings().config().getBoolean("cabs.sharding.enabled");
+            ClusterSharding sharding = sharded ? ClusterSharding.get(context.getSystem()) : null;
+            Duration passivateIdleAfter = context.getSystem().settings().config().getDuration("cabs.sharding.passivate-idle-after");
+            // entities passivate themselves, the built-in idle passivation would lose their state
+            ClusterShardingSettings shardingSettings = sharded
+                ? ClusterShardingSettings.create(context.getSystem()).withPassivateIdleEntityAfter(Duration.ZERO)
+                : null;
+            // the wallet ledger is spawned before the wallets, which append their changes to it.
+            // The changes it recorded before a restart are read first, and applied to the balances of IDs.txt below
+            Globals.walletLedger = null;
+            Config ledgerConfig = context.getSystem().settings().config().getConfig("cabs.wallet.ledger");
+            Map<String, Integer> ledgerChanges = new HashMap<>();
+            if (ledgerConfig.getBoolean("enabled")) {
+                if (!context.getSystem().settings().config().getBoolean("cabs.wallet.persistent")) {
+                    try {
+                        ledgerChanges = WalletLedger.recover(Paths.get(ledgerConfig.getString("file")));
+                    } catch (Exception e) {
+                        context.getLog().error("Cannot read the wallet ledger {}", ledgerConfig.getString("file"), e);
+                    }
+                }
+                Globals.walletLedger = context.spawn(WalletLedger.create(Paths.get(ledgerConfig.getString("file")),
+                                                                         ledgerConfig.getDuration("batch-window"),
+                                                                         ledgerConfig.getInt("max-batch")),
+                                                     "wallet-ledger", DispatcherSelector.blocking());
+            }
+            // with the wallet store on, the balances are kept by a few partitions instead of wallet actors
+            Config storeConfig = context.getSystem().settings().config().getConfig("cabs.wallet.store");
+            boolean store = storeConfig.getBoolean("enabled") && !sharded;
+            BalanceTable[] tables = new BalanceTable[store ? storeConfig.getInt("partitions") : 0];
+            for (int i = 0; i < tables.length; i++) {
+                tables[i] = new BalanceTable(1024);
+            }
+            // with lazy activation, cab and wallet actors are spawned by a few activator partitions on their
+            // first message, their states are kept in tables while they are inactive
+            Config activationConfig = context.getSystem().settings().config().getConfig("cabs.activation");
+            boolean lazyCabs = activationConfig.getBoolean("lazy") && !sharded
+                && !context.getSystem().settings().config().getBoolean("cabs.cab.persistent");
+            boolean lazyWallets = activationConfig.getBoolean("lazy") && !sharded && !store
+                && !context.getSystem().settings().config().getBoolean("cabs.wallet.persistent");
+            CabTable[] cabTables = new CabTable[lazyCabs ? activationConfig.getInt("partitions") : 0];
+            for (int i = 0; i < cabTables.length; i++) {
+                cabTables[i] = new CabTable(1024);
+            }
+            BalanceTable[] walletTables = new BalanceTable[lazyWallets ? activationConfig.getInt("partitions") : 0];
+            for (int i = 0; i < walletTables.length; i++) {
+                walletTables[i] = new BalanceTable(1024);
+            }
+            Map<String, Integer> balances = new HashMap<>();
+            if (sharded) {
+                sharding.init(Entity.of(Cab.TYPE_KEY, entity -> Cab.createEntity(entity, passivateIdleAfter))
+                                    .withSettings(shardingSettings));
+                // balances are read below, before any message can reach a wallet
+                sharding.init(Entity.of(Wallet.TYPE_KEY,
+                                        entity -> Wallet.createEntity(entity, balances.getOrDefault(entity.getEntityId(), 0),
+                                                                      passivateIdleAfter))
+                                    .withSettings(shardingSettings));
+            }
 
+            // cabs and wallets which are neither sharded entities nor kept in tables get an actor at startup
+            boolean eagerCabs = !sharded && !lazyCabs;
+            boolean eagerWallets = !sharded && !store && !lazyWallets;
+            Config bootstrapConfig = context.getSystem().settings().config().getConfig("cabs.bootstrap");
+            IdsFile ids;
             try {
-                File myFile = new File("./IDs.txt");
-                Scanner myReader = new Scanner(myFile);
-                myReader.nextLine();
-                while (myReader.hasNext()) {
-                    String id = myReader.nextLine().trim();
-                    if (id.equals("****"))
-                        break;
-                    // spawning cab actor storing it in Globals.cabs map
-                    ActorRef<Cab.Command> cabActor = context.spawn(Cab.create(id), "cab-" + id);
-                    Globals.cabs.put(id, cabActor);
+                ids = IdsFile.read(Paths.get(bootstrapConfig.getString("ids-file")));
+            } catch (Exception e) {
+                context.getLog().error("Cannot read {}", bootstrapConfig.getString("ids-file"), e);
+                ids = IdsFile.empty();
+            }
+            // balances the wallets start from, the balances of IDs.txt stay the initial balances Reset goes back to
+            int[] walletBalances = ids.balances;
+            if (!ledgerChanges.isEmpty()) {
+                walletBalances = new int[ids.customers.size()];
+                for (int i = 0; i < walletBalances.length; i++) {
+                    walletBalances[i] = ids.balances[i] + ledgerChanges.getOrDefault(ids.customers.get(i), 0);
+                }
+            }
+            for (String id : ids.cabIds) {
+                if (sharded) {
+                    Globals.cabs.put(id, sharding.entityRefFor(Cab.TYPE_KEY, id));
                 }
-                List<String> customers = new ArrayList<>();
-                while (myReader.hasNext()) {
-                    String id = myReader.nextLine().trim();
-                    if (id.equals("****"))
-                        break;
-                    customers.add(id);
+                else if (lazyCabs) {
+                    cabTables[WalletStore.partition(id, cabTables.length)].add(id);
                 }
-                for (String cust : customers) {
-                    String id = myReader.nextLine().trim();
-
-                    // spawning wallet actor and storing it in Globals.wallets map
-                    ActorRef<Wallet.Command> walletActor = context.spawn(Wallet.create(cust, Integer.parseInt(id)),
-                            "wallet-" + cust);
-                    Globals.wallets.put(cust, walletActor);
+            }
+            for (int i = 0; i < ids.customers.size(); i++) {
+                String cust = ids.customers.get(i);
+                if (sharded) {
+                    balances.put(cust, walletBalances[i]);
+                    Globals.wallets.put(cust, sharding.entityRefFor(Wallet.TYPE_KEY, cust));
+                }
+                else if (store) {
+                    tables[WalletStore.partition(cust, tables.length)].add(cust, walletBalances[i], ids.balances[i]);
+                }
+                else if (lazyWallets) {
+                    walletTables[WalletStore.partition(cust, walletTables.length)].add(cust, walletBalances[i], ids.balances[i]);
+                }
+            }
 
+            if (store) {
+                ActorRef<WalletStore.Command>[] partitions = new ActorRef[tables.length];
+                for (int i = 0; i < tables.length; i++) {
+                    partitions[i] = context.spawn(WalletStore.create(tables[i]), "wallet-store-" + i);
                 }
-                myReader.close();
-            } catch (Exception e) {
-                e.getMessage();
+                for (String cust : ids.customers) {
+                    Globals.wallets.put(cust, new WalletStore.CustomerRef(cust, partitions[WalletStore.partition(cust, partitions.length)]));
+                }
+            }
+            if (lazyCabs) {
+                ActorRef<Activator.Command>[] activators = new ActorRef[cabTables.length];
+                for (int i = 0; i < cabTables.length; i++) {
+                    activators[i] = context.spawn(Activator.forCabs(cabTables[i]), "cab-activator-" + i);
+                }
+                for (String id : ids.cabIds) {
+                    Globals.cabs.put(id, new Activator.Ref<>(id, activators[WalletStore.partition(id, activators.length)]));
+                }
+            }
+            if (lazyWallets) {
+                ActorRef<Activator.Command>[] activators = new ActorRef[walletTables.length];
+                for (int i = 0; i < walletTables.length; i++) {
+                    activators[i] = context.spawn(Activator.forWallets(walletTables[i]), "wallet-activator-" + i);
+                }
+                for (String cust : ids.customers) {
+                    Globals.wallets.put(cust, new Activator.Ref<>(cust, activators[WalletStore.partition(cust, activators.length)]));
+                }
+            }
+
+            List<String> spawnCabs = eagerCabs ? ids.cabIds : new ArrayList<>();
+            List<String> spawnCustomers = eagerWallets ? ids.customers : new ArrayList<>();
+            int[] spawnBalances = eagerWallets ? walletBalances : new int[0];
+            int[] spawnInitialBalances = eagerWallets ? ids.balances : new int[0];
+            int spawners = bootstrapConfig.getInt("spawners");
+            if (spawners == 0 || spawnCabs.size() + spawnCustomers.size() == 0) {
+                register(spawn(context, spawnCabs, spawnCustomers, spawnBalances, spawnInitialBalances));
+                return started(context, testProbe);
             }
 
-            // Creating rideService actors
-            Globals.rideServiceList = new ArrayList<>();
-            for(int id=0; id<10; id++) {
-                // Spawning rideService actor and sending id (range 0 to 9) to create method
-                Globals.rideServiceList.add(context.spawn(RideService.create(id), "ride-service-"+id));
+            // the cab and wallet actors are spread over spawners which create them in parallel,
+            // the rideServices are spawned once all of them are registered
+            for (int i = 0; i < spawners; i++) {
+                int cabsFrom = (int) ((long) spawnCabs.size() * i / spawners);
+                int cabsTo = (int) ((long) spawnCabs.size() * (i + 1) / spawners);
+                int custFrom = (int) ((long) spawnCustomers.size() * i / spawners);
+                int custTo = (int) ((long) spawnCustomers.size() * (i + 1) / spawners);
+                context.spawn(spawner(spawnCabs.subList(cabsFrom, cabsTo), spawnCustomers.subList(custFrom, custTo),
+                                      Arrays.copyOfRange(spawnBalances, custFrom, custTo),
+                                      Arrays.copyOfRange(spawnInitialBalances, custFrom, custTo), context.getSelf().narrow()),
+                              "spawner-" + i);
             }
-            Globals.rideService = new ActorRef[Globals.rideServiceList.size()];
-            // Storing actors in rideService array
-            Globals.rideService = Globals.rideServiceList.toArray(Globals.rideService);
+            int[] pending = new int[] {spawners};
+            return Behaviors.receive(Object.class)
+                .onMessage(Spawned.class, spawned -> {
+                    register(spawned);
+                    return --pending[0] == 0 ? started(context, testProbe) : Behaviors.same();
+                })
+                .build();
+        }).narrow();
+    }
 
-            // Return a Started message to signify all the actors have been spawned
-            context.getLog().info("Sending done message to testProbe");
-            testProbe.tell(new Main.Started("done"));
+    // Spawns the rideServices and routers once the cabs and wallets are registered, and tells testProbe
+    @SuppressWarnings("unchecked")
+    private static Behavior<Object> started(ActorContext<Object> context, ActorRef<Main.Started> testProbe) {
+        // Creating rideService actors
+        List<ActorRef<RideService.Command>> rideServiceList = new ArrayList<>();
+        int instances = RideService.instances(context.getSystem().settings().config());
+        for(int id=0; id<instances; id++) {
+            // Spawning rideService actor and sending id (range 0 to instances-1) to create method
+            rideServiceList.add(context.spawn(RideService.create(id, instances), "ride-service-"+id));
+        }
+        // Storing actors in rideService array, both are published once complete
+        Globals.rideServiceList = rideServiceList;
+        Globals.rideService = rideServiceList.toArray(new ActorRef[0]);
+        Globals.cabRouter = context.spawn(
+            RideService.cabRouter(context.getSystem().settings().config().getString("cabs.ride-service.cab-routing")),
+            "cab-router");
+        Globals.rideRouter = context.spawn(RideRouter.create(Globals.rideService), "ride-router");
 
-            return Behaviors.empty(); // it does want to receive any messages
+        // Return a Started message to signify all the actors have been spawned
+        context.getLog().info("Sending done message to testProbe");
+        testProbe.tell(new Main.Started("done"));
 
+        return Behaviors.empty(); // it does want to receive any messages
+    }
+
+    // Spawns the cab and wallet actors of a share of IDs.txt as its children, and sends them to Main.
+    // It is their parent, and stays alive for them.
+    private static Behavior<Void> spawner(List<String> cabIds, List<String> customers, int[] balances,
+                                          int[] initialBalances, ActorRef<Spawned> replyTo) {
+        return Behaviors.setup(context -> {
+            replyTo.tell(spawn(context, cabIds, customers, balances, initialBalances));
+            return Behaviors.empty();
         });
     }
 
+    // Spawns a cab actor per cab and a wallet actor per customer as children of context.
+    // Spawning stops at the first failure (such as a duplicate id), the actors spawned until then are kept.
+    private static Spawned spawn(ActorContext<?> context, List<String> cabIds, List<String> customers, int[] balances,
+                                 int[] initialBalances) {
+        Spawned spawned = new Spawned(cabIds, customers);
+        try {
+            for (String id : cabIds) {
+                spawned.cabs.add(context.spawn(Cab.create(id), "cab-" + id));
+            }
+            for (int i = 0; i < customers.size(); i++) {
+                spawned.wallets.add(context.spawn(Wallet.create(customers.get(i), balances[i], initialBalances[i]),
+                                                   "wallet-" + customers.get(i)));
+            }
+        } catch (Exception e) {
+            context.getLog().error("Spawning the cabs and wallets failed", e);
+        }
+        return spawned;
+    }
+
+    // Stores spawned actors in Globals.cabs and Globals.wallets
+    private static void register(Spawned spawned) {
+        for (int i = 0; i < spawned.cabs.size(); i++) {
+            Globals.cabs.put(spawned.cabIds.get(i), spawned.cabs.get(i));
+        }
+        for (int i = 0; i < spawned.wallets.size(); i++) {
+            Globals.wallets.put(spawned.customers.get(i), spawned.wallets.get(i));
+        }
+    }
+
     @Override
     public Receive<Command> createReceive() {
         return newReceiveBuilder().onMessage(Start.class, this::onStart).build();
@@ -0,0 +1,506 @@
+package pods.cabs;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.CommandHandlerBuilder;
+import akka.persistence.typed.javadsl.Effect;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SignalHandler;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.time.Duration;
+
+// Cab which keeps its state changes as events in the Akka Persistence journal, used when cabs.cab.persistent is on.
+// It answers the same commands as Cab, and recovers its state (including a ride it is committed to or giving)
+// from the latest snapshot and the events after it when it starts again.
+// Once recovered, it announces its state to the rideServices with a new version, so that they drop what they
+// cached about it before the restart. A recovered cab committed to a ride whose fulfillRide actor is gone
+// gives up the ride, since nobody will start or cancel it. A recovered cab giving a ride tells the rideServices
+// the end of the ride itself, since the fulfillRide actor it would tell may have been lost with the cab.
+public class PersistentCab extends EventSourcedBehavior<Cab.Command, PersistentCab.Event, PersistentCab.State> {
+
+    public interface Event extends CborSerializable {
+    }
+
+    // SignedIn event, the cab signed in at initialPos
+    public static final class SignedIn implements Event {
+        int initialPos;
+
+        @JsonCreator
+        SignedIn(int initialPos) {
+            this.initialPos = initialPos;
+        }
+    }
+
+    // SignedOut event
+    public static final class SignedOut implements Event {
+    }
+
+    // Committed event, the cab was interested in the ride
+    public static final class Committed implements Event {
+        int rideId;
+        int sourceLoc;
+        int destinationLoc;
+        ActorRef<FulfillRide.Command> fulfillRide;
+
+        @JsonCreator
+        Committed(int rideId, int sourceLoc, int destinationLoc, ActorRef<FulfillRide.Command> fulfillRide) {
+            this.rideId = rideId;
+            this.sourceLoc = sourceLoc;
+            this.destinationLoc = destinationLoc;
+            this.fulfillRide = fulfillRide;
+        }
+    }
+
+    // Passed event, the cab was not interested in a ride because it accepted the previous one
+    public static final class Passed implements Event {
+    }
+
+    // Started event, the ride the cab is committed to started
+    public static final class Started implements Event {
+    }
+
+    // Cancelled event, the ride the cab is committed to was cancelled
+    public static final class Cancelled implements Event {
+    }
+
+    // Ended event, the ride the cab is giving ended
+    public static final class Ended implements Event {
+    }
+
+    // CabReset event, the ride the cab was giving (if any) ended and the cab signed out
+    public static final class CabReset implements Event {
+    }
+
+    // Moved event, the available cab forwarded a new position
+    public static final class Moved implements Event {
+        int initialPos;
+
+        @JsonCreator
+        Moved(int initialPos) {
+            this.initialPos = initialPos;
+        }
+    }
+
+    // Announced event, the cab told the rideServices its recovered state with a new version
+    public static final class Announced implements Event {
+    }
+
+    // Cab state, it is also the snapshot so it is never changed in place. See Cab for the fields
+    public static final class State implements CborSerializable {
+        final CabState state;
+        final int initialPos;
+        final boolean lastRide;
+        final int rideId;
+        final int sourceLoc;
+        final int destinationLoc;
+        final ActorRef<FulfillRide.Command> fulfillRide;
+        final int numRides;
+        final long version;
+
+        @JsonCreator
+        State(CabState state, int initialPos, boolean lastRide, int rideId, int sourceLoc, int destinationLoc,
+              ActorRef<FulfillRide.Command> fulfillRide, int numRides, long version) {
+            this.state = state;
+            this.initialPos = initialPos;
+            this.lastRide = lastRide;
+            this.rideId = rideId;
+            this.sourceLoc = sourceLoc;
+            this.destinationLoc = destinationLoc;
+            this.fulfillRide = fulfillRide;
+            this.numRides = numRides;
+            this.version = version;
+        }
+
+        // signed-out cab with the given version
+        static State signedOut(long version) {
+            return new State(CabState.SIGNED_OUT, -1, false, -1, -1, -1, null, 0, version);
+        }
+
+        // available cab at the position, keeping its rides and alternation
+        State available(int initialPos, long version) {
+            return new State(CabState.AVAILABLE, initialPos, lastRide, -1, -1, -1, null, numRides, version);
+        }
+    }
+
+    // FulfillRideGone message is sent by the watch of the fulfillRide actor of a ride a recovered cab is committed to
+    private static final class FulfillRideGone implements Cab.Command {
+        final int rideId;
+
+        FulfillRideGone(int rideId) {
+            this.rideId = rideId;
+        }
+    }
+
+    // Announce message is sent by the cab to itself once it recovered
+    private static final class Announce implements Cab.Command {
+    }
+
+    public static Behavior<Cab.Command> create(String cabId) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> new PersistentCab(context, timers, cabId, null)));
+    }
+
+    // Persistent cab as a sharded entity, its state survives passivation so it passivates whenever it is idle
+    public static Behavior<Cab.Command> createEntity(String cabId, ActorRef<ClusterSharding.ShardCommand> shard,
+                                                     Duration passivateIdleAfter) {
+        return Behaviors.setup(context -> {
+            if (!passivateIdleAfter.isZero()) {
+                context.setReceiveTimeout(passivateIdleAfter, new Cab.Idle());
+            }
+            return Behaviors.withTimers(timers -> new PersistentCab(context, timers, cabId, shard));
+        });
+    }
+
+    private ActorContext<Cab.Command> context;
+    private String cabId;       // cab Id
+    private int snapshotEvery;  // events between snapshots, 0 for no snapshots
+    private ActorRef<ClusterSharding.ShardCommand> shard; // shard of the cab if sharded, null otherwise
+
+    // location updates, see Cab. Only forwarded positions are persisted, the pending one is lost on a restart
+    private TimerScheduler<Cab.Command> timers;
+    private Duration locationInterval;
+    private int pendingPos = -1;
+    private long pendingVersion;
+
+    // After a sign-in or the end of a ride, see Cab. Commands are stashed until a rideService acknowledged
+    // the update or the timeout expired
+    private Duration updateTimeout;
+    private long awaitedUpdate = -1;    // version of the update waiting for its acknowledgement, -1 if none
+
+    private int recoveredRide = -1;     // ride the cab was giving when it recovered, -1 if none
+
+    private PersistentCab(ActorContext<Cab.Command> context, TimerScheduler<Cab.Command> timers, String cabId,
+                          ActorRef<ClusterSharding.ShardCommand> shard) {
+        super(PersistenceId.of("Cab", cabId));
+        this.context = context;
+        this.timers = timers;
+        this.locationInterval = context.getSystem().settings().config().getDuration("cabs.cab.location-interval");
+        this.updateTimeout = context.getSystem().settings().config().getDuration("cabs.cab.update-timeout");
+        this.cabId = cabId;
+        this.shard = shard;
+        this.snapshotEvery = context.getSystem().settings().config().getInt("cabs.cab.snapshot-every");
+        context.getLog().info("Persistent cab actor created for id {}", cabId);
+    }
+
+    @Override
+    public State emptyState() {
+        return State.signedOut(0);
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        if (snapshotEvery == 0) {
+            return RetentionCriteria.disabled();
+        }
+        return RetentionCriteria.snapshotEvery(snapshotEvery, 2);
+    }
+
+    @Override
+    public SignalHandler<State> signalHandler() {
+        return newSignalHandlerBuilder()
+            .onSignal(RecoveryCompleted.instance(), this::onRecoveryCompleted)
+            .build();
+    }
+
+    // RecoveryCompleted signal handler
+    // A cab which had changed state tells the rideServices its state again, the announcement is an event
+    // so it is sent from a command handler
+    private void onRecoveryCompleted(State state) {
+        if (state.version == 0) {
+            return;
+        }
+        context.getLog().info("Cab {} recovered {} at version {}", this.cabId, state.state, state.version);
+        if (state.state == CabState.COMMITTED) {
+            context.watchWith(state.fulfillRide, new FulfillRideGone(state.rideId));
+        }
+        if (state.state == CabState.GIVING_RIDE) {
+            this.recoveredRide = state.rideId;
+        }
+        if (Globals.cabRouter != null) {
+            context.getSelf().tell(new Announce());
+        }
+    }
+
+    @Override
+    public CommandHandler<Cab.Command, Event, State> commandHandler() {
+        CommandHandlerBuilder<Cab.Command, Event, State> builder = newCommandHandlerBuilder();
+        builder.forState(state -> this.awaitedUpdate >= 0)
+            .onCommand(Cab.UpdateApplied.class, this::onUpdateApplied)
+            .onCommand(Cab.UpdateTimeout.class, this::onUpdateTimeout)
+            .onAnyCommand((state, command) -> Effect().stash());
+        builder.forAnyState()
+            .onCommand(Cab.RideEnded.class, this::onRideEnded)
+            .onCommand(Cab.SignIn.class, this::onSignIn)
+            .onCommand(Cab.SignOut.class, this::onSignOut)
+            .onCommand(Cab.NumRides.class, this::onNumRides)
+            .onCommand(Cab.Reset.class, this::onReset)
+            .onCommand(Cab.RequestRide.class, this::onRequestRide)
+            .onCommand(Cab.RideStarted.class, this::onRideStarted)
+            .onCommand(Cab.RideCancelled.class, this::onRideCancelled)
+            .onCommand(Cab.GetCabStatus.class, this::onGetCabStatus)
+            .onCommand(Cab.Idle.class, this::onIdle)
+            .onCommand(Cab.UpdateLocation.class, this::onUpdateLocation)
+            .onCommand(Cab.ForwardLocation.class, this::onForwardLocation)
+            .onCommand(Announce.class, this::onAnnounce)
+            .onCommand(FulfillRideGone.class, this::onFulfillRideGone)
+            .onCommand(Cab.UpdateApplied.class, (state, command) -> Effect().none())
+            .onCommand(Cab.UpdateTimeout.class, (state, command) -> Effect().none());
+        return builder.build();
+    }
+
+    // UpdateApplied message handler, the stashed commands are handled once the awaited update is acknowledged
+    private Effect<Event, State> onUpdateApplied(State state, Cab.UpdateApplied command) {
+        if (command.version != this.awaitedUpdate) {
+            return Effect().none();
+        }
+        this.awaitedUpdate = -1;
+        timers.cancel(Cab.UPDATE_TIMER_KEY);
+        return Effect().unstashAll();
+    }
+
+    // Stashes the next commands until the update with the given version is acknowledged
+    private void awaitUpdate(long version) {
+        this.awaitedUpdate = version;
+        timers.startSingleTimer(Cab.UPDATE_TIMER_KEY, new Cab.UpdateTimeout(), updateTimeout);
+    }
+
+    // UpdateTimeout message handler, no rideService acknowledged the update in time
+    private Effect<Event, State> onUpdateTimeout(State state, Cab.UpdateTimeout command) {
+        context.getLog().warn("Update of cab {} was not acknowledged in {}", this.cabId, this.updateTimeout);
+        this.awaitedUpdate = -1;
+        return Effect().unstashAll();
+    }
+
+    // Idle message handler, the cab is created again by the next message and recovers its state
+    private Effect<Event, State> onIdle(State state, Cab.Idle command) {
+        context.getLog().info("Passivating idle cab {}", this.cabId);
+        this.shard.tell(new ClusterSharding.Passivate<>(context.getSelf()));
+        return Effect().none();
+    }
+
+    // GetCabStatus message handler
+    private Effect<Event, State> onGetCabStatus(State state, Cab.GetCabStatus command) {
+        command.replyTo.tell(new Cab.CabStatus(state.state.majorState, state.state.minorState, state.initialPos,
+                                               state.rideId, state.numRides));
+        return Effect().none();
+    }
+
+    // NumRides message handler
+    private Effect<Event, State> onNumRides(State state, Cab.NumRides command) {
+        command.replyTo.tell(new Cab.NumRidesResponse(state.numRides));
+        return Effect().none();
+    }
+
+    // RideEnded message handler, see Cab
+    // The end of a ride the cab recovered goes to the rideServices directly. Its fulfillRide actor is still told,
+    // in case it survived, to let it forget the ride; the update it sends then has the same version and is dropped.
+    private Effect<Event, State> onRideEnded(State state, Cab.RideEnded command) {
+        if (command.rideId != state.rideId || state.rideId == -1) {
+            context.getLog().info("Received ride Id {}  does not match current ride Id {}, cannot end ride!", command.rideId, state.rideId);
+            return Effect().none();
+        }
+        return Effect().persist(new Ended())
+            .thenRun(newState -> {
+                if (state.rideId == this.recoveredRide) {
+                    this.recoveredRide = -1;
+                    state.fulfillRide.tell(new FulfillRide.FulfillRideEnded(command.rideId, newState.version, null));
+                    if (Globals.cabRouter != null) {
+                        Globals.cabRouter.tell(new RideService.UpdateFromFulfillRide(
+                            this.cabId, CabState.AVAILABLE, newState.initialPos, -1, -1, -1, newState.version, context.getSelf()));
+                        awaitUpdate(newState.version);
+                    }
+                }
+                else {
+                    state.fulfillRide.tell(new FulfillRide.FulfillRideEnded(command.rideId, newState.version, context.getSelf()));
+                    awaitUpdate(newState.version);
+                }
+            });
+    }
+
+    // SignIn message handler, see Cab
+    private Effect<Event, State> onSignIn(State state, Cab.SignIn command) {
+        if (command.initialPos < 0 || state.state != CabState.SIGNED_OUT) {
+            return Effect().none();
+        }
+        return Effect().persist(new SignedIn(command.initialPos))
+            .thenRun(newState -> {
+                if (Globals.cabRouter != null) {
+                    Globals.cabRouter.tell(new RideService.CabSignsIn(this.cabId, newState.initialPos, newState.version,
+                                                                      context.getSelf()));
+                    awaitUpdate(newState.version);
+                }
+            });
+    }
+
+    // SignOut message handler, see Cab
+    private Effect<Event, State> onSignOut(State state, Cab.SignOut command) {
+        if (state.state != CabState.AVAILABLE) {
+            return Effect().none();
+        }
+        return Effect().persist(new SignedOut())
+            .thenRun(newState -> {
+                if (Globals.cabRouter != null) {
+                    Globals.cabRouter.tell(new RideService.CabSignsOut(this.cabId, newState.version));
+                }
+            });
+    }
+
+    // Reset message handler, see Cab
+    private Effect<Event, State> onReset(State state, Cab.Reset command) {
+        return Effect().persist(new CabReset())
+            .thenRun(newState -> {
+                if (state.state == CabState.GIVING_RIDE) {
+                    state.fulfillRide.tell(new FulfillRide.FulfillRideEnded(state.rideId, state.version + 1, null));
+                }
+                this.recoveredRide = -1;
+                if (Globals.cabRouter != null) {
+                    Globals.cabRouter.tell(new RideService.CabSignsOut(this.cabId, newState.version));
+                }
+                command.replyTo.tell(new Cab.NumRidesResponse(state.numRides));
+            });
+    }
+
+    // RequestRide message handler, see Cab
+    // the cab replies "interested" once its commitment is persisted
+    private Effect<Event, State> onRequestRide(State state, Cab.RequestRide command) {
+        if (command.sourceLoc < 0 || command.destinationLoc < 0 || state.state == CabState.SIGNED_OUT) {
+            command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "not-interested", state.version,
+                                                                         context.getSelf()));
+            return Effect().none();
+        }
+        if (state.state == CabState.AVAILABLE && !state.lastRide) {
+            return Effect().persist(new Committed(command.rideId, command.sourceLoc, command.destinationLoc, command.replyTo))
+                .thenRun(newState -> command.replyTo.tell(
+                    new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "interested", newState.version,
+                                                           context.getSelf())));
+        }
+        if (state.state == CabState.AVAILABLE) {
+            return Effect().persist(new Passed())
+                .thenRun(newState -> command.replyTo.tell(
+                    new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "not-interested", newState.version,
+                                                           context.getSelf())));
+        }
+        command.replyTo.tell(new FulfillRide.RequestRideCabResponse(command.rideId, command.cabId, "busy", state.version,
+                                                                     context.getSelf()));
+        return Effect().none();
+    }
+
+    // RideStarted message handler, see Cab
+    private Effect<Event, State> onRideStarted(State state, Cab.RideStarted command) {
+        if (state.state != CabState.COMMITTED || state.rideId != command.rideId || !this.cabId.equals(command.cabId)) {
+            command.replyTo.tell(new FulfillRide.RideStartedCabResponse(command.rideId, command.cabId, false, state.version));
+            return Effect().none();
+        }
+        return Effect().persist(new Started())
+            .thenRun(newState -> command.replyTo.tell(
+                new FulfillRide.RideStartedCabResponse(command.rideId, command.cabId, true, newState.version)));
+    }
+
+    // RideCancelled message handler, see Cab
+    private Effect<Event, State> onRideCancelled(State state, Cab.RideCancelled command) {
+        if (state.state != CabState.COMMITTED || state.rideId != command.rideId || !this.cabId.equals(command.cabId)) {
+            return Effect().none();
+        }
+        return Effect().persist(new Cancelled());
+    }
+
+    // UpdateLocation message handler, see Cab
+    private Effect<Event, State> onUpdateLocation(State state, Cab.UpdateLocation command) {
+        if (command.pos < 0 || state.state != CabState.AVAILABLE) {
+            return Effect().none();
+        }
+        if (timers.isTimerActive(Cab.LOCATION_TIMER_KEY)) {
+            this.pendingPos = command.pos;
+            this.pendingVersion = state.version;
+            return Effect().none();
+        }
+        if (command.pos == state.initialPos) {
+            return Effect().none();
+        }
+        return moveTo(command.pos);
+    }
+
+    // ForwardLocation message handler, see Cab
+    private Effect<Event, State> onForwardLocation(State state, Cab.ForwardLocation command) {
+        int pos = this.pendingPos;
+        this.pendingPos = -1;
+        if (pos < 0 || this.pendingVersion != state.version || pos == state.initialPos) {
+            return Effect().none();
+        }
+        return moveTo(pos);
+    }
+
+    // Persists the new position of the available cab, then sends CabMoved to the rideService picked by the cab router
+    private Effect<Event, State> moveTo(int pos) {
+        if (!locationInterval.isZero()) {
+            timers.startSingleTimer(Cab.LOCATION_TIMER_KEY, new Cab.ForwardLocation(), locationInterval);
+        }
+        return Effect().persist(new Moved(pos))
+            .thenRun(newState -> {
+                if (Globals.cabRouter != null) {
+                    Globals.cabRouter.tell(new RideService.CabMoved(this.cabId, newState.initialPos, newState.version));
+                }
+            });
+    }
+
+    // Announce message handler, the recovered state goes to the rideService owning the cab with a new version
+    private Effect<Event, State> onAnnounce(State state, Announce command) {
+        return Effect().persist(new Announced())
+            .thenRun(newState -> Globals.cabRouter.tell(new RideService.UpdateFromFulfillRide(
+                this.cabId, newState.state, newState.initialPos, newState.rideId,
+                newState.sourceLoc, newState.destinationLoc, newState.version, null)));
+    }
+
+    // FulfillRideGone message handler
+    // the ride the cab is committed to will never be started or cancelled, the cab is available again
+    private Effect<Event, State> onFulfillRideGone(State state, FulfillRideGone command) {
+        if (state.state != CabState.COMMITTED || state.rideId != command.rideId) {
+            return Effect().none();
+        }
+        context.getLog().info("fulfillRide of ride {} of cab {} is gone, cancelling", command.rideId, this.cabId);
+        return Effect().persist(new Cancelled())
+            .thenRun(newState -> {
+                if (Globals.cabRouter != null) {
+                    Globals.cabRouter.tell(new RideService.CabSignsIn(this.cabId, newState.initialPos, newState.version, null));
+                }
+            });
+    }
+
+    // Applies an event to the state, when it is persisted and when the cab recovers
+    @Override
+    public EventHandler<State, Event> eventHandler() {
+        return newEventHandlerBuilder()
+            .forAnyState()
+            .onEvent(SignedIn.class, (state, event) -> new State(CabState.AVAILABLE, event.initialPos, false, -1, -1, -1,
+                                                                 null, 0, state.version + 1))
+            .onEvent(SignedOut.class, (state, event) -> State.signedOut(state.version + 1))
+            .onEvent(Committed.class, (state, event) -> new State(CabState.COMMITTED, state.initialPos, true, event.rideId,
+                                                                  event.sourceLoc, event.destinationLoc, event.fulfillRide,
+                                                                  state.numRides, state.version + 1))
+            .onEvent(Passed.class, (state, event) -> new State(state.state, state.initialPos, false, state.rideId,
+                                                               state.sourceLoc, state.destinationLoc, state.fulfillRide,
+                                                               state.numRides, state.version))
+            .onEvent(Started.class, (state, event) -> new State(CabState.GIVING_RIDE, state.sourceLoc, state.lastRide,
+                                                                state.rideId, state.sourceLoc, state.destinationLoc,
+                                                                state.fulfillRide, state.numRides + 1, state.version + 1))
+            .onEvent(Cancelled.class, (state, event) -> state.available(state.initialPos, state.version + 1))
+            .onEvent(Ended.class, (state, event) -> state.available(state.destinationLoc, state.version + 1))
+            .onEvent(CabReset.class, (state, event) ->
+                     State.signedOut(state.state == CabState.GIVING_RIDE ? state.version + 2 : state.version + 1))
+            .onEvent(Moved.class, (state, event) -> state.available(event.initialPos, state.version + 1))
+            .onEvent(Announced.class, (state, event) -> new State(state.state, state.initialPos, state.lastRide, state.rideId,
+                                                                  state.sourceLoc, state.destinationLoc, state.fulfillRide,
+                                                                  state.numRides, state.version + 1))
+            .build();
+    }
+}
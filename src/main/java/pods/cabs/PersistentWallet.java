@@ -0,0 +1,335 @@
+package pods.cabs;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.Effect;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Wallet which keeps its money movements as events in the Akka Persistence journal, used when cabs.wallet.persistent is on.
+// It answers the same commands as Wallet, and recovers its balance and fare holds from the latest snapshot
+// and the events after it when it starts again, so a restart loses nothing.
+public class PersistentWallet extends EventSourcedBehavior<Wallet.Command, PersistentWallet.Event, PersistentWallet.State> {
+
+    public interface Event extends CborSerializable {
+    }
+
+    // Deducted event, a DeductBalance was performed
+    public static final class Deducted implements Event {
+        int amount;
+        String rideKey;
+
+        @JsonCreator
+        Deducted(int amount, String rideKey) {
+            this.amount = amount;
+            this.rideKey = rideKey;
+        }
+    }
+
+    // Added event, an AddBalance was performed
+    public static final class Added implements Event {
+        int amount;
+        String rideKey;
+
+        @JsonCreator
+        Added(int amount, String rideKey) {
+            this.amount = amount;
+            this.rideKey = rideKey;
+        }
+    }
+
+    // Declined event, a deduct, hold or capture for the ride could not be performed, a duplicate of it is declined too
+    public static final class Declined implements Event {
+        String rideKey;
+        int kind;       // see RideResults
+
+        @JsonCreator
+        Declined(String rideKey, int kind) {
+            this.rideKey = rideKey;
+            this.kind = kind;
+        }
+    }
+
+    // BalanceReset event, the wallet was reset to its initial balance
+    public static final class BalanceReset implements Event {
+    }
+
+    // Held event, the amount was set aside for the ride
+    public static final class Held implements Event {
+        String rideKey;
+        int amount;
+
+        @JsonCreator
+        Held(String rideKey, int amount) {
+            this.rideKey = rideKey;
+            this.amount = amount;
+        }
+    }
+
+    // Captured event, the fare of the ride was deducted and the rest of its hold went back to the balance
+    public static final class Captured implements Event {
+        String rideKey;
+        int fare;
+
+        @JsonCreator
+        Captured(String rideKey, int fare) {
+            this.rideKey = rideKey;
+            this.fare = fare;
+        }
+    }
+
+    // Released event, the hold of the ride went back to the balance
+    public static final class Released implements Event {
+        String rideKey;
+
+        @JsonCreator
+        Released(String rideKey) {
+            this.rideKey = rideKey;
+        }
+    }
+
+    // Wallet state, it is also the snapshot so it is never changed in place
+    public static final class State implements CborSerializable {
+        final int initialBalance;
+        final int balance;
+        final Map<String, Integer> holds;     // rideKey -> amount held for the ride, not part of balance
+        final RideResults rideResults;        // recent results of changes for rides, to answer duplicates
+
+        @JsonCreator
+        State(int initialBalance, int balance, Map<String, Integer> holds, RideResults rideResults) {
+            this.initialBalance = initialBalance;
+            this.balance = balance;
+            this.holds = holds;
+            this.rideResults = rideResults;
+        }
+
+        State withBalance(int balance) {
+            return new State(initialBalance, balance, holds, rideResults);
+        }
+
+        // remembers the result of a change for the ride, the balance after it or -1 if it was declined
+        State remember(String rideKey, int kind, int result) {
+            return new State(initialBalance, balance, holds, rideResults.with(rideKey, kind, result));
+        }
+
+        // balance with the hold of the ride given back
+        int balanceWithout(String rideKey) {
+            Integer held = holds.get(rideKey);
+            return held == null ? balance : balance + held;
+        }
+
+        State hold(String rideKey, int amount) {
+            Map<String, Integer> newHolds = new HashMap<>(holds);
+            newHolds.put(rideKey, amount);
+            return new State(initialBalance, balance - amount, newHolds, rideResults);
+        }
+
+        // gives the hold of the ride back to the balance and deducts the fare
+        State release(String rideKey, int fare) {
+            Map<String, Integer> newHolds = new HashMap<>(holds);
+            newHolds.remove(rideKey);
+            return new State(initialBalance, balanceWithout(rideKey) - fare, newHolds, rideResults);
+        }
+    }
+
+    public static Behavior<Wallet.Command> create(String custId, int balance) {
+        return Behaviors.setup(context -> new PersistentWallet(context, custId, balance, null));
+    }
+
+    // Persistent wallet as a sharded entity, its state survives passivation so it passivates whenever it is idle
+    public static Behavior<Wallet.Command> createEntity(String custId, int balance,
+                                                        ActorRef<ClusterSharding.ShardCommand> shard,
+                                                        Duration passivateIdleAfter) {
+        return Behaviors.setup(context -> {
+            if (!passivateIdleAfter.isZero()) {
+                context.setReceiveTimeout(passivateIdleAfter, new Wallet.Idle());
+            }
+            return new PersistentWallet(context, custId, balance, shard);
+        });
+    }
+
+    private ActorContext<Wallet.Command> context;
+    private String custId;      // customer Id
+    private int initialBalance; // balance of a wallet without events
+    private int snapshotEvery;  // events between snapshots, 0 for no snapshots
+    private int dedupWindow;    // results of changes for rides kept to answer duplicates
+    private ActorRef<ClusterSharding.ShardCommand> shard; // shard of the wallet if sharded, null otherwise
+
+    private PersistentWallet(ActorContext<Wallet.Command> context, String custId, int balance,
+                             ActorRef<ClusterSharding.ShardCommand> shard) {
+        super(PersistenceId.of("Wallet", custId));
+        this.context = context;
+        this.custId = custId;
+        this.initialBalance = balance;
+        this.shard = shard;
+        this.snapshotEvery = context.getSystem().settings().config().getInt("cabs.wallet.snapshot-every");
+        this.dedupWindow = context.getSystem().settings().config().getInt("cabs.wallet.dedup-window");
+        context.getLog().info("created persistent wallet actor for {}", custId);
+    }
+
+    @Override
+    public State emptyState() {
+        return new State(initialBalance, initialBalance, new HashMap<>(), new RideResults(dedupWindow));
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        if (snapshotEvery == 0) {
+            return RetentionCriteria.disabled();
+        }
+        return RetentionCriteria.snapshotEvery(snapshotEvery, 2);
+    }
+
+    @Override
+    public CommandHandler<Wallet.Command, Event, State> commandHandler() {
+        return newCommandHandlerBuilder()
+            .forAnyState()
+            .onCommand(Wallet.GetBalance.class, this::onGetBalance)
+            .onCommand(Wallet.DeductBalance.class, this::onDeductBalance)
+            .onCommand(Wallet.AddBalance.class, this::onAddBalance)
+            .onCommand(Wallet.HoldBalance.class, this::onHoldBalance)
+            .onCommand(Wallet.CaptureHold.class, this::onCaptureHold)
+            .onCommand(Wallet.ReleaseHold.class, this::onReleaseHold)
+            .onCommand(Wallet.Reset.class, this::onReset)
+            .onCommand(Wallet.Idle.class, this::onIdle)
+            .build();
+    }
+
+    // Idle message handler, the wallet is created again by the next message and recovers its state
+    private Effect<Event, State> onIdle(State state, Wallet.Idle command) {
+        context.getLog().info("Passivating idle wallet {}", this.custId);
+        this.shard.tell(new ClusterSharding.Passivate<>(context.getSelf()));
+        return Effect().none();
+    }
+
+    // GetBalance message handler
+    private Effect<Event, State> onGetBalance(State state, Wallet.GetBalance command) {
+        command.replyTo.tell(new Wallet.ResponseBalance(state.balance));
+        return Effect().none();
+    }
+
+    // DeductBalance message handler, replies once the deduct is persisted
+    // if the balance is not enough, the balance is not changed and -1 is sent back
+    // a duplicate deduct for a ride is not performed again, it is sent the balance of the first one
+    private Effect<Event, State> onDeductBalance(State state, Wallet.DeductBalance command) {
+        if (replayed(state, command.rideId, command.rideKey, RideResults.CHARGE, command.replyTo)) {
+            return Effect().none();
+        }
+        if ((command.toDeduct < 0) || (command.toDeduct > state.balance)) {
+            return decline(command.rideId, command.rideKey, RideResults.CHARGE, command.replyTo);
+        }
+        return Effect().persist(new Deducted(command.toDeduct, command.rideKey))
+            .thenRun(newState -> command.replyTo.tell(new Wallet.ResponseBalance(newState.balance, command.rideId)));
+    }
+
+    // AddBalance message handler, a negative amount is ignored and a refund for a ride is given back once
+    private Effect<Event, State> onAddBalance(State state, Wallet.AddBalance command) {
+        if (command.toAdd < 0 || state.rideResults.get(command.rideKey, RideResults.REFUND) != null) {
+            return Effect().none();
+        }
+        return Effect().persist(new Added(command.toAdd, command.rideKey));
+    }
+
+    // HoldBalance message handler, see Wallet.HoldBalance
+    private Effect<Event, State> onHoldBalance(State state, Wallet.HoldBalance command) {
+        if (replayed(state, command.rideId, command.rideKey, RideResults.HOLD, command.replyTo)) {
+            return Effect().none();
+        }
+        if ((command.minAmount < 0) || (command.minAmount > state.balance) || command.rideKey == null
+            || state.holds.containsKey(command.rideKey)) {
+            return decline(command.rideId, command.rideKey, RideResults.HOLD, command.replyTo);
+        }
+        int amount = Math.min(command.maxAmount, state.balance);
+        return Effect().persist(new Held(command.rideKey, amount))
+            .thenRun(newState -> command.replyTo.tell(new Wallet.ResponseBalance(newState.balance, command.rideId, amount)));
+    }
+
+    // CaptureHold message handler, see Wallet.CaptureHold
+    private Effect<Event, State> onCaptureHold(State state, Wallet.CaptureHold command) {
+        if (replayed(state, command.rideId, command.rideKey, RideResults.CHARGE, command.replyTo)) {
+            return Effect().none();
+        }
+        if ((command.fare < 0) || (command.fare > state.balanceWithout(command.rideKey))) {
+            if (state.holds.containsKey(command.rideKey)) {
+                return Effect().persist(Arrays.asList(new Released(command.rideKey),
+                                                      new Declined(command.rideKey, RideResults.CHARGE)))
+                    .thenRun(newState -> command.replyTo.tell(new Wallet.ResponseBalance(-1, command.rideId)));
+            }
+            return decline(command.rideId, command.rideKey, RideResults.CHARGE, command.replyTo);
+        }
+        return Effect().persist(new Captured(command.rideKey, command.fare))
+            .thenRun(newState -> command.replyTo.tell(new Wallet.ResponseBalance(newState.balance, command.rideId)));
+    }
+
+    // ReleaseHold message handler
+    private Effect<Event, State> onReleaseHold(State state, Wallet.ReleaseHold command) {
+        if (!state.holds.containsKey(command.rideKey)) {
+            return Effect().none();
+        }
+        return Effect().persist(new Released(command.rideKey));
+    }
+
+    // Reset message handler, resets the wallet balance to initial balance
+    private Effect<Event, State> onReset(State state, Wallet.Reset command) {
+        return Effect().persist(new BalanceReset())
+            .thenRun(newState -> command.replyTo.tell(new Wallet.ResponseBalance(newState.balance)));
+    }
+
+    // Answers a duplicate of a change already asked for the ride with the reply to the first one, returns false
+    // if there was no such change, a hold is answered with what it still holds
+    private boolean replayed(State state, int rideId, String rideKey, int kind, ActorRef<Wallet.ResponseBalance> replyTo) {
+        Integer result = state.rideResults.get(rideKey, kind);
+        if (result == null) {
+            return false;
+        }
+        context.getLog().info("Wallet of {} already answered this change for ride {}", this.custId, rideKey);
+        int held = kind == RideResults.HOLD && result != -1 ? state.holds.getOrDefault(rideKey, 0) : 0;
+        replyTo.tell(new Wallet.ResponseBalance(result, rideId, held));
+        return true;
+    }
+
+    // Sends -1 back for a change which cannot be made, the balance is not changed.
+    // For a ride, the change is remembered as declined so that a duplicate of it is declined too
+    private Effect<Event, State> decline(int rideId, String rideKey, int kind, ActorRef<Wallet.ResponseBalance> replyTo) {
+        replyTo.tell(new Wallet.ResponseBalance(-1, rideId));
+        if (rideKey == null || dedupWindow == 0) {
+            return Effect().none();
+        }
+        return Effect().persist(new Declined(rideKey, kind));
+    }
+
+    // Applies an event to the state, when it is persisted and when the wallet recovers
+    @Override
+    public EventHandler<State, Event> eventHandler() {
+        return newEventHandlerBuilder()
+            .forAnyState()
+            .onEvent(Deducted.class, (state, event) -> state.withBalance(state.balance - event.amount)
+                     .remember(event.rideKey, RideResults.CHARGE, state.balance - event.amount))
+            .onEvent(Added.class, (state, event) -> state.withBalance(state.balance + event.amount)
+                     .remember(event.rideKey, RideResults.REFUND, state.balance + event.amount))
+            .onEvent(Declined.class, (state, event) -> state.remember(event.rideKey, event.kind, -1))
+            .onEvent(BalanceReset.class, (state, event) -> new State(state.initialBalance, state.initialBalance, new HashMap<>(),
+                                                                     new RideResults(dedupWindow)))
+            .onEvent(Held.class, (state, event) -> state.hold(event.rideKey, event.amount)
+                     .remember(event.rideKey, RideResults.HOLD, state.balance - event.amount))
+            .onEvent(Captured.class, (state, event) -> {
+                State captured = state.release(event.rideKey, event.fare);
+                return captured.remember(event.rideKey, RideResults.CHARGE, captured.balance);
+            })
+            .onEvent(Released.class, (state, event) -> state.release(event.rideKey, 0))
+            .build();
+    }
+}
@@ -0,0 +1,62 @@
+package pods.cabs;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Results of the changes a wallet made for rides, so that a duplicate of a command (a retry, or a message
+// delivered twice) is answered with the result of the first one instead of changing the funds again.
+// Only the last window results are kept, oldest first.
+// A ride is known by its rideKey, unique over rideServices, nodes and restarts, see RideService.rideKey.
+final class RideResults implements CborSerializable {
+
+    static final int CHARGE = 0;    // fare deducted, by DeductBalance or CaptureHold
+    static final int REFUND = 1;    // fare given back, by AddBalance
+    static final int HOLD = 2;      // fare held, by HoldBalance
+
+    final int window;
+    final LinkedHashMap<String, Integer> results;   // rideKey and kind -> balance replied
+
+    RideResults(int window) {
+        this(window, new LinkedHashMap<>());
+    }
+
+    @JsonCreator
+    RideResults(int window, LinkedHashMap<String, Integer> results) {
+        this.window = window;
+        this.results = results;
+    }
+
+    private static String key(String rideKey, int kind) {
+        return rideKey + "/" + kind;
+    }
+
+    // balance replied to the change of the ride, null if there was none
+    Integer get(String rideKey, int kind) {
+        if (rideKey == null) {
+            return null;
+        }
+        return results.get(key(rideKey, kind));
+    }
+
+    // remembers the balance replied to the change of the ride, forgetting the oldest result once the window is full
+    void put(String rideKey, int kind, int balance) {
+        if (rideKey == null || window == 0) {
+            return;
+        }
+        results.put(key(rideKey, kind), balance);
+        Iterator<String> oldest = results.keySet().iterator();
+        while (results.size() > window) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    // copy with the result added, for the state of a persistent wallet which is never changed in place
+    RideResults with(String rideKey, int kind, int balance) {
+        RideResults copy = new RideResults(window, new LinkedHashMap<>(results));
+        copy.put(rideKey, kind, balance);
+        return copy;
+    }
+}
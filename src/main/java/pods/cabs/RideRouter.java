@@ -0,0 +1,71 @@
+package pods.cabs;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+
+// Front door for customer ride requests, sends every RequestRide to the least loaded rideService.
+// The load of a rideService is the number of requests routed to it which it has not reported as answered,
+// which counts both the requests waiting in its mailbox and the rides its fulfillRide actors are working on.
+// The rideService answers the customer directly and reports each routed answer with a RideAnswered message.
+public class RideRouter extends AbstractBehavior<RideService.Command> {
+
+    private ActorRef<RideService.Command>[] rideServices;   // indexed by rideService id
+    private int[] inFlight;         // per rideService, routed requests not answered yet
+    private int next;               // rideService the search for the least loaded starts at, rotates so ties are spread
+
+    public static Behavior<RideService.Command> create(ActorRef<RideService.Command>[] rideServices) {
+        return Behaviors.setup(context -> new RideRouter(context, rideServices));
+    }
+
+    private RideRouter(ActorContext<RideService.Command> context, ActorRef<RideService.Command>[] rideServices) {
+        super(context);
+        this.rideServices = rideServices;
+        this.inFlight = new int[rideServices.length];
+    }
+
+    @Override
+    public Receive<RideService.Command> createReceive() {
+        return newReceiveBuilder()
+            .onMessage(RideService.RequestRide.class, this::onRequestRide)
+            .onMessage(RideService.RideAnswered.class, this::onRideAnswered)
+            .build();
+    }
+
+    // RequestRide message handler
+    // Sends the request on to the least loaded rideService
+    private RideRouter onRequestRide(RideService.RequestRide command) {
+        // the rideService does not answer these, they would count to its load forever
+        if (command.sourceLoc < 0 || command.destinationLoc < 0) {
+            getContext().getLog().info("Received negative source loc or dest loc, exiting..");
+            return this;
+        }
+        int rideService = leastLoaded();
+        inFlight[rideService]++;
+        rideServices[rideService].tell(new RideService.RequestRide(command.custId, command.sourceLoc,
+                                                                   command.destinationLoc, command.replyTo,
+                                                                   getContext().getSelf()));
+        return this;
+    }
+
+    // RideAnswered message handler
+    private RideRouter onRideAnswered(RideService.RideAnswered command) {
+        inFlight[command.rideService]--;
+        return this;
+    }
+
+    private int leastLoaded() {
+        int best = next;
+        for (int i = 1; i < rideServices.length; i++) {
+            int rideService = (next + i) % rideServices.length;
+            if (inFlight[rideService] < inFlight[best]) {
+                best = rideService;
+            }
+        }
+        next = (next + 1) % rideServices.length;
+        return best;
+    }
+}
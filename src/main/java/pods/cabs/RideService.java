@@ -2,16 +2,38 @@ package pods.cabs;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.RecipientRef;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.GroupRouter;
 import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.Routers;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.actor.typed.receptionist.Receptionist;
+import akka.actor.typed.receptionist.ServiceKey;
+import akka.cluster.ddata.Key;
+import akka.cluster.ddata.LWWMap;
+import akka.cluster.ddata.LWWMapKey;
+import akka.cluster.ddata.LWWRegister;
+import akka.cluster.ddata.SelfUniqueAddress;
+import akka.cluster.ddata.typed.javadsl.DistributedData;
+import akka.cluster.ddata.typed.javadsl.Replicator;
+import akka.cluster.ddata.typed.javadsl.ReplicatorMessageAdapter;
 
+import com.typesafe.config.Config;
+
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.UUID;
 import akka.actor.typed.PostStop;
 
 public class RideService extends AbstractBehavior<RideService.Command> {
@@ -19,22 +41,41 @@ public class RideService extends AbstractBehavior<RideService.Command> {
     public interface Command {}
 
     // CabSignsIn message, sent by cab actor to signIn
-    public static final class CabSignsIn implements Command {
+    public static final class CabSignsIn implements Command, CborSerializable {
         public String cabId; 
         public int initialPos;
+        public long version;        // version of the cab state, see Cab.version
+        public ActorRef<Cab.Command> replyTo;  // acknowledged once the sign-in is applied, null if the cab does not wait
 
-        CabSignsIn(String cabId, int initialPos) {
+        CabSignsIn(String cabId, int initialPos, long version, ActorRef<Cab.Command> replyTo) {
             this.cabId = cabId;
             this.initialPos = initialPos;
+            this.version = version;
+            this.replyTo = replyTo;
         }
     }
 
     // CabSignsOut message, sent by cab actor to sign out
-    public static final class CabSignsOut implements Command {
+    public static final class CabSignsOut implements Command, CborSerializable {
         public String cabId; 
+        public long version;        // version of the cab state, see Cab.version
+
+        CabSignsOut(String cabId, long version) {
+            this.cabId = cabId;
+            this.version = version;
+        }
+    }
+
+    // CabMoved message, sent by an available cab with its latest position, at most once per cabs.cab.location-interval
+    public static final class CabMoved implements Command, CborSerializable {
+        public String cabId;
+        public int pos;
+        public long version;        // version of the cab state, see Cab.version
 
-        CabSignsOut(String cabId) {
+        CabMoved(String cabId, int pos, long version) {
             this.cabId = cabId;
+            this.pos = pos;
+            this.version = version;
         }
     }
 
@@ -45,13 +86,29 @@ public class RideService extends AbstractBehavior<RideService.Command> {
         public int sourceLoc;
         public int destinationLoc;
         public ActorRef<RideService.RideResponse> replyTo;
+        public ActorRef<RideService.Command> router;    // ride router to report the answer to, null if sent by the customer
 
         RequestRide(String custId, int sourceLoc, int destinationLoc, ActorRef<RideService.RideResponse> 
         replyTo) {
+            this(custId, sourceLoc, destinationLoc, replyTo, null);
+        }
+
+        RequestRide(String custId, int sourceLoc, int destinationLoc, ActorRef<RideService.RideResponse> replyTo,
+                    ActorRef<RideService.Command> router) {
             this.custId = custId;
             this.sourceLoc = sourceLoc;
             this.destinationLoc = destinationLoc;
             this.replyTo = replyTo;
+            this.router = router;
+        }
+    }
+
+    // RideAnswered message is sent to the ride router when the customer of a request it routed was answered
+    public static final class RideAnswered implements Command {
+        public int rideService;     // id of the rideService which answered
+
+        RideAnswered(int rideService) {
+            this.rideService = rideService;
         }
     }
 
@@ -71,76 +128,420 @@ public class RideService extends AbstractBehavior<RideService.Command> {
     }
 
     // Update message from fulfill ride actor, telling the status of cab
-    // when requestRide or rideEnded message is handled by it. 
+    // when requestRide or rideEnded message is handled by it.
+    // A PersistentCab sends it through the cab router too, to announce the state it recovered.
     public static final class UpdateFromFulfillRide implements Command {
         public String cabId;
-        public String minorState;
+        public CabState state;
         public int initialPos;
         public int rideId;
         public int sourceLoc;
         public int destinationLoc;
+        public long version;        // version of the cab state, see Cab.version
+        public ActorRef<Cab.Command> replyTo;  // acknowledged once the update is applied, null if the cab does not wait
 
-        UpdateFromFulfillRide(String cabId, String minorState, int initialPos, int rideId, 
-        int sourceLoc, int destinationLoc) {
+        UpdateFromFulfillRide(String cabId, CabState state, int initialPos, int rideId, 
+        int sourceLoc, int destinationLoc, long version, ActorRef<Cab.Command> replyTo) {
             this.cabId = cabId;
-            this.minorState = minorState;
+            this.state = state;
             this.initialPos = initialPos;
             this.rideId = rideId;
             this.sourceLoc = sourceLoc;
             this.destinationLoc = destinationLoc;
+            this.version = version;
+            this.replyTo = replyTo;
         }
     }
 
     // UpdateCabStatus message is internal message sent across rideService instances to achieve 
-    // eventual consistency
-    public static final class updateCabStatus implements Command {
+    // eventual consistency. In ddata directory mode it is the value kept for every cab in the replicated maps.
+    public static final class updateCabStatus implements Command, CborSerializable {
         public String cabId;
         public int initialPos;
-        public String minorState;
-        public String majorState;
+        public CabState state;
         public int rideID;
         public int sourceLoc;
         public int destinationLoc;
+        public long version;        // version of the cab state, see Cab.version
+        public long createdAt;      // System.nanoTime() when the update was made, to measure replication lag
+                                    // within a JVM
 
-        updateCabStatus(String cabId, int initialPos, String majorState, String minorState, int rideId,
-            int sourceLoc, int destinationLoc) {
+        updateCabStatus(String cabId, int initialPos, CabState state, int rideId,
+            int sourceLoc, int destinationLoc, long version) {
                 this.cabId = cabId;
                 this.initialPos = initialPos;
-                this.majorState = majorState;
-                this.minorState = minorState;
+                this.state = state;
                 this.rideID = rideId;
                 this.sourceLoc = sourceLoc;
                 this.destinationLoc = destinationLoc;
+                this.version = version;
+                this.createdAt = System.nanoTime();
+        }
+
+        // used by Jackson when the update comes from another node
+        private updateCabStatus() {
+        }
+    }
+
+    // updateCabStatusBatch message carries the latest updateCabStatus of every cab changed during
+    // one replication flush interval, it is sent instead of one updateCabStatus message per change
+    public static final class updateCabStatusBatch implements Command {
+        public List<updateCabStatus> updates;
+
+        updateCabStatusBatch(List<updateCabStatus> updates) {
+            this.updates = updates;
+        }
+    }
+
+    // FindNearestCabs message is sent by a rideService in ownership mode to every rideService,
+    // to find the nearest available cabs among the cabs they own
+    public static final class FindNearestCabs implements Command {
+        public int rideId;
+        public int sourceLoc;
+        public int k;
+        public ActorRef<RideService.Command> replyTo;
+
+        FindNearestCabs(int rideId, int sourceLoc, int k, ActorRef<RideService.Command> replyTo) {
+            this.rideId = rideId;
+            this.sourceLoc = sourceLoc;
+            this.k = k;
+            this.replyTo = replyTo;
+        }
+    }
+
+    // Reply to FindNearestCabs message, a directory with copies of the entries of the nearest available cabs
+    public static final class NearestCabs implements Command {
+        public int rideId;
+        public CabDirectory cabs;
+
+        NearestCabs(int rideId, CabDirectory cabs) {
+            this.rideId = rideId;
+            this.cabs = cabs;
+        }
+    }
+
+    // RideOutcome message is sent by fulfillRide actor when it has responded to the customer
+    public static final class RideOutcome implements Command {
+        public int rideId;
+        public boolean matched;      // true if the ride was started
+        public int busyReplies;      // number of "busy" replies received from cabs
+        public int hedgedRequests;   // cabs asked because the cab asked before was slow to reply
+        public int cabTimeouts;      // cabs which did not reply in time
+        public int walletTimeouts;   // 1 if the fare deduct was not answered in time
+        public long[] cabReplyNanos; // reply times of the cabs which replied
+
+        RideOutcome(int rideId, boolean matched, int busyReplies, int hedgedRequests,
+                    int cabTimeouts, int walletTimeouts, long[] cabReplyNanos) {
+            this.rideId = rideId;
+            this.matched = matched;
+            this.busyReplies = busyReplies;
+            this.hedgedRequests = hedgedRequests;
+            this.cabTimeouts = cabTimeouts;
+            this.walletTimeouts = walletTimeouts;
+            this.cabReplyNanos = cabReplyNanos;
+        }
+    }
+
+    // GetStats message is sent by test script to get the ride request statistics of a rideService
+    public static final class GetStats implements Command {
+        public ActorRef<RideService.Stats> replyTo;
+
+        GetStats(ActorRef<RideService.Stats> replyTo) {
+            this.replyTo = replyTo;
+        }
+    }
+
+    // Reply to GetStats message
+    public static final class Stats implements Command {
+        public long requests;               // ride requests answered
+        public long matched;                // ride requests which got a cab
+        public long busyReplies;            // "busy" replies received from cabs
+        public long p99LatencyMicros;       // p99 latency from receiving the request to answering the customer
+        public long replicationSent;        // replication messages sent to other rideServices
+        public long replicationSaved;       // replication messages saved by batching cab updates
+        public long p99ReplicationLagMicros; // p99 time from a cab update on another rideService to applying it here
+        public long staleUpdates;           // cab updates dropped because the cab directory entry was newer
+        public long busyRetriesAvoided;     // stale updates which would have shown a busy cab as available
+        public long p999LatencyMicros;      // p99.9 latency from receiving the request to answering the customer
+        public long hedgedRequests;         // cabs asked because the cab asked before was slow to reply
+        public long cabTimeouts;            // cabs which did not reply in time
+        public long walletTimeouts;         // fare deducts which were not answered in time
+        public long cabMoves;               // cab positions received from cabs and applied, see CabMoved
+        public long ownershipSent;          // in ownership mode, cab updates forwarded to their owner and nearest cab queries sent
+
+        Stats(long requests, long matched, long busyReplies, long p99LatencyMicros,
+              long replicationSent, long replicationSaved, long p99ReplicationLagMicros,
+              long staleUpdates, long busyRetriesAvoided, long p999LatencyMicros,
+              long hedgedRequests, long cabTimeouts, long walletTimeouts, long cabMoves, long ownershipSent) {
+            this.requests = requests;
+            this.matched = matched;
+            this.busyReplies = busyReplies;
+            this.p99LatencyMicros = p99LatencyMicros;
+            this.replicationSent = replicationSent;
+            this.replicationSaved = replicationSaved;
+            this.p99ReplicationLagMicros = p99ReplicationLagMicros;
+            this.staleUpdates = staleUpdates;
+            this.busyRetriesAvoided = busyRetriesAvoided;
+            this.p999LatencyMicros = p999LatencyMicros;
+            this.hedgedRequests = hedgedRequests;
+            this.cabTimeouts = cabTimeouts;
+            this.walletTimeouts = walletTimeouts;
+            this.cabMoves = cabMoves;
+            this.ownershipSent = ownershipSent;
+        }
+    }
+
+    // DispatchBatch message is sent by the batch timer to dispatch the ride requests collected so far
+    private static final class DispatchBatch implements Command {
+    }
+
+    // FlushUpdates message is sent by the replication timer to send the buffered cab updates
+    private static final class FlushUpdates implements Command {
+    }
+
+    // Replicator responses in ddata directory mode
+    private static final class InternalGetResponse implements Command {
+        Replicator.GetResponse<LWWMap<String, updateCabStatus>> response;
+
+        InternalGetResponse(Replicator.GetResponse<LWWMap<String, updateCabStatus>> response) {
+            this.response = response;
+        }
+    }
+
+    private static final class InternalSubscribeResponse implements Command {
+        Replicator.SubscribeResponse<LWWMap<String, updateCabStatus>> response;
+
+        InternalSubscribeResponse(Replicator.SubscribeResponse<LWWMap<String, updateCabStatus>> response) {
+            this.response = response;
+        }
+    }
+
+    private static final class InternalUpdateResponse implements Command {
+        Replicator.UpdateResponse<LWWMap<String, updateCabStatus>> response;
+
+        InternalUpdateResponse(Replicator.UpdateResponse<LWWMap<String, updateCabStatus>> response) {
+            this.response = response;
+        }
+    }
+
+    // A ride request waiting in the current batch,
+    // or in ownership mode waiting for the nearest cabs of all rideServices
+    private static final class PendingRide {
+        RequestRide request;
+        int rideId;
+        CabDirectory nearestCabs = new CabDirectory();  // ownership mode: nearest cabs received so far
+        int replies;                                // ownership mode: number of NearestCabs replies received
+
+        PendingRide(RequestRide request, int rideId) {
+            this.request = request;
+            this.rideId = rideId;
         }
     }
 
-    private Map<String, cab> cacheTable = new HashMap<>(); // Internal cache table, key is cabId, and value is cab
+    // every rideService registers with the receptionist under this key, cabs reach them through cabRouter
+    public static final ServiceKey<Command> SERVICE_KEY = ServiceKey.create(Command.class, "rideService");
+    private static final int CAB_ROUTER_VIRTUAL_NODES = 10;  // hash ring points per rideService in consistent-hash routing
+
+    private CabDirectory cabDirectory;  // Internal cache table of cab states, with a position index of available cabs
+    private static final int NUM_NEAREST_CABS = 3;  // number of nearest cabs a fulfillRide actor tries
+
     private int rideId;   // current rideId
+    // rideIds start again with every rideService and are the same on every node, so the wallets know a ride
+    // by its rideId prefixed with this rideService's incarnation, see rideKey
+    private final String incarnation = UUID.randomUUID().toString();
     private int myId;    // Id of this rideService
+    private int instances;   // number of rideServices, with ids 0 to instances-1, rideIds of a rideService are instances apart
+    private boolean parallelFulfillRide;  // if true, fulfillRide actors ask all nearest cabs at once
+    private ActorRef<FulfillRide.Command>[] fulfillRideWorkers;  // pooled fulfillRide workers, null if one is spawned per ride
+    private int nextWorker;               // worker the next ride is handed to
+
+    // batch dispatch mode
+    private static final Object BATCH_TIMER_KEY = new Object();
+    private TimerScheduler<Command> timers;
+    private Duration batchWindow;         // time to collect ride requests, zero if batch dispatch is off
+    private int batchSize;                // batch is dispatched early once it has this many requests
+    private List<PendingRide> pendingRides = new ArrayList<>();
+
+    // ownership mode, every cab is owned by one rideService which alone keeps its directory entry
+    private boolean ownership;
+    private Map<Integer, PendingRide> gatheringRides = new HashMap<>();  // rideId -> request waiting for NearestCabs
+
+    // replication of cab updates to other rideServices
+    private static final Object FLUSH_TIMER_KEY = new Object();
+    private Duration flushInterval;       // time to buffer cab updates, zero if every update is sent at once
+    private Map<String, updateCabStatus> pendingUpdates = new LinkedHashMap<>();  // latest buffered update per cabId
+    private int bufferedUpdates;          // updates buffered since the last flush, including overwritten ones
+    private long replicationSent;
+    private long replicationSaved;
+    private LatencyRecorder replicationLag = new LatencyRecorder();
+    private long staleUpdates;
+    private long busyRetriesAvoided;
+    private long cabMoves;
+    private long ownershipSent;
 
-    private RideService(ActorContext<Command> context, int id) {
+    // ddata directory mode, cab states are kept in Akka Distributed Data LWW maps instead of being broadcast
+    // the last writer of a cab entry is the update with the highest cab state version
+    private static final LWWRegister.Clock<updateCabStatus> VERSION_CLOCK = (currentTimestamp, update) -> update.version;
+    private ReplicatorMessageAdapter<Command, LWWMap<String, updateCabStatus>> replicator;  // null in broadcast mode
+    private SelfUniqueAddress node;
+    private List<Key<LWWMap<String, updateCabStatus>>> ddataKeys = new ArrayList<>();  // cabs are spread by hash of cabId
+    private Replicator.WriteConsistency writeConsistency;
+
+    // ride request statistics
+    private Map<Integer, Long> rideStartTimes = new HashMap<>();  // rideId -> time the request was received
+    private Map<Integer, ActorRef<Command>> routedRides = new HashMap<>();  // rideId -> ride router which sent the request
+    private LatencyRecorder rideLatencies = new LatencyRecorder();
+    private long matchedRides;
+    private long busyReplies;
+    private long hedgedRequests;
+    private long cabTimeouts;
+    private long walletTimeouts;
+
+    // hedged cab requests, sequential mode only
+    private static final int HEDGE_MIN_SAMPLES = 32;      // cab replies recorded before the first hedge delay update
+    private static final int HEDGE_DELAY_REFRESH = 256;   // cab replies recorded between hedge delay updates
+    private double hedgePercentile;       // percentile of cab reply times after which the next cab is asked too, 0 if off
+    private Duration hedgeMinDelay;
+    private Duration hedgeAfter = Duration.ZERO;   // current hedge delay, zero until enough replies are recorded
+    private LatencyRecorder cabReplyTimes = new LatencyRecorder();
+
+    private RideService(ActorContext<Command> context, TimerScheduler<Command> timers,
+                        ReplicatorMessageAdapter<Command, LWWMap<String, updateCabStatus>> replicator, int id,
+                        int instances) {
         super(context);
+        this.timers = timers;
+        this.replicator = replicator;
         // initialise myId and rideId
         getContext().getLog().info("Rideservice actor {}, initialising...", id);
         this.myId = id;
+        this.instances = instances;
         this.rideId = id + 1;
         getContext().getLog().info("Rideservice actor {}, myId = {}, rideId = {}", this.myId, this.myId, this.rideId);
+        this.parallelFulfillRide = context.getSystem().settings().config().getBoolean("cabs.fulfill-ride.parallel");
+        int poolSize = context.getSystem().settings().config().getInt("cabs.fulfill-ride.pool-size");
+        if (poolSize > 0) {
+            this.fulfillRideWorkers = new ActorRef[poolSize];
+            for (int i = 0; i < poolSize; i++) {
+                this.fulfillRideWorkers[i] = context.spawn(FulfillRide.createWorker(context.getSelf()), "fulfill-ride-worker-" + i);
+            }
+        }
+        this.hedgePercentile = context.getSystem().settings().config().getDouble("cabs.fulfill-ride.hedge-percentile");
+        this.hedgeMinDelay = context.getSystem().settings().config().getDuration("cabs.fulfill-ride.hedge-min-delay");
+        this.batchWindow = context.getSystem().settings().config().getDuration("cabs.ride-service.batch-window");
+        this.batchSize = context.getSystem().settings().config().getInt("cabs.ride-service.batch-size");
+        this.flushInterval = context.getSystem().settings().config().getDuration("cabs.ride-service.replication-flush-interval");
+        this.ownership = context.getSystem().settings().config().getBoolean("cabs.ride-service.ownership");
 
-        // initialise cacheTable
-        List<String> cabsAll = new ArrayList<String>();
-        for (Map.Entry<String, ActorRef<Cab.Command>> en : Globals.cabs.entrySet()) {
-            cabsAll.add(en.getKey());
+        // initialise cab directory
+        this.cabDirectory = new CabDirectory(Globals.cabs.size());
+        for (Map.Entry<String, RecipientRef<Cab.Command>> en : Globals.cabs.entrySet()) {
+            // in ownership mode only the owned cabs are kept
+            if (ownership && ownerOf(en.getKey(), instances) != myId) {
+                continue;
+            }
+            this.cabDirectory.add(en.getKey(), en.getValue());
         }
-        getContext().getLog().info("{}", cabsAll);
-        for (String cabId: cabsAll) {
-            cab cab1 = new cab(cabId);
-            this.cacheTable.put(cabId, cab1);
+        getContext().getLog().info("{} cabs in directory", this.cabDirectory.size());
+        if (replicator != null) {
+            startDdataDirectory(context.getSystem().settings().config().getConfig("cabs.ride-service.ddata"));
         }
         context.getLog().info("Ride service actor created");
     }
 
-    public static Behavior<Command> create(int id) {
-        return Behaviors.setup(context -> new RideService(context, id));
+    // Number of rideServices of a node: cabs.ride-service.instances, or one per available processor if it is zero
+    public static int instances(Config config) {
+        int instances = config.getInt("cabs.ride-service.instances");
+        return instances > 0 ? instances : Runtime.getRuntime().availableProcessors();
+    }
+
+    // id is from 0 to instances-1, Globals.rideService has the rideServices by id
+    public static Behavior<Command> create(int id, int instances) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> {
+            context.getSystem().receptionist().tell(Receptionist.register(SERVICE_KEY, context.getSelf()));
+            if (context.getSystem().settings().config().getString("cabs.ride-service.directory").equals("ddata")) {
+                return DistributedData.<Command, LWWMap<String, updateCabStatus>>withReplicatorMessageAdapter(
+                    replicator -> new RideService(context, timers, replicator, id, instances));
+            }
+            return new RideService(context, timers, null, id, instances);
+        }));
+    }
+
+    // Group router over the registered rideServices, cabs send their CabSignsIn, CabSignsOut and CabMoved through it.
+    // consistent-hash: all updates of a cab go to the same rideService, so it sees them in order.
+    // round-robin: updates are spread evenly over the rideServices.
+    public static Behavior<Command> cabRouter(String routing) {
+        GroupRouter<Command> router = Routers.group(SERVICE_KEY);
+        switch (routing) {
+            case "consistent-hash":
+                return router.withConsistentHashingRouting(CAB_ROUTER_VIRTUAL_NODES, RideService::cabIdOf);
+            case "round-robin":
+                return router.withRoundRobinRouting();
+            default:
+                throw new IllegalArgumentException("Unknown cab routing " + routing);
+        }
+    }
+
+    // Hash key of a message sent through cabRouter
+    private static String cabIdOf(Command command) {
+        if (command instanceof CabSignsIn) {
+            return ((CabSignsIn) command).cabId;
+        }
+        if (command instanceof CabSignsOut) {
+            return ((CabSignsOut) command).cabId;
+        }
+        if (command instanceof UpdateFromFulfillRide) {
+            return ((UpdateFromFulfillRide) command).cabId;
+        }
+        if (command instanceof CabMoved) {
+            return ((CabMoved) command).cabId;
+        }
+        return "";
+    }
+
+    // ddata directory mode: reads the current cab states with the configured read consistency
+    // and subscribes to their changes
+    // A change notification carries the whole map of its key, so the cabs are spread over
+    // as many maps as it takes to keep about cabs-per-key cabs in each
+    private void startDdataDirectory(Config config) {
+        Duration timeout = config.getDuration("consistency-timeout");
+        this.writeConsistency = writeConsistency(config.getString("write-consistency"), timeout);
+        Replicator.ReadConsistency readConsistency = readConsistency(config.getString("read-consistency"), timeout);
+        this.node = DistributedData.get(getContext().getSystem()).selfUniqueAddress();
+        int cabsPerKey = config.getInt("cabs-per-key");
+        int keys = Math.max(1, (Globals.cabs.size() + cabsPerKey - 1) / cabsPerKey);
+        for (int shard = 0; shard < keys; shard++) {
+            Key<LWWMap<String, updateCabStatus>> key = LWWMapKey.create("cab-directory-" + shard);
+            ddataKeys.add(key);
+            replicator.askGet(askReplyTo -> new Replicator.Get<>(key, readConsistency, askReplyTo),
+                              InternalGetResponse::new);
+            replicator.subscribe(key, InternalSubscribeResponse::new);
+        }
+    }
+
+    private static Replicator.WriteConsistency writeConsistency(String consistency, Duration timeout) {
+        switch (consistency) {
+            case "local":
+                return Replicator.writeLocal();
+            case "majority":
+                return new Replicator.WriteMajority(timeout);
+            case "all":
+                return new Replicator.WriteAll(timeout);
+            default:
+                throw new IllegalArgumentException("Unknown write consistency " + consistency);
+        }
+    }
+
+    private static Replicator.ReadConsistency readConsistency(String consistency, Duration timeout) {
+        switch (consistency) {
+            case "local":
+                return Replicator.readLocal();
+            case "majority":
+                return new Replicator.ReadMajority(timeout);
+            case "all":
+                return new Replicator.ReadAll(timeout);
+            default:
+                throw new IllegalArgumentException("Unknown read consistency " + consistency);
+        }
     }
 
     @Override
@@ -149,40 +550,150 @@ public class RideService extends AbstractBehavior<RideService.Command> {
             .onMessage(RequestRide.class, this::onRequestRide)
             .onMessage(CabSignsIn.class, this::onCabSignsIn)
             .onMessage(CabSignsOut.class, this::onCabSignsOut)
+            .onMessage(CabMoved.class, this::onCabMoved)
             .onMessage(UpdateFromFulfillRide.class, this::onUpdateFromFulfillRide)
             .onMessage(updateCabStatus.class, this::onupdateCabStatus)
+            .onMessage(updateCabStatusBatch.class, this::onupdateCabStatusBatch)
+            .onMessage(FlushUpdates.class, this::onFlushUpdates)
+            .onMessage(DispatchBatch.class, this::onDispatchBatch)
+            .onMessage(RideOutcome.class, this::onRideOutcome)
+            .onMessage(GetStats.class, this::onGetStats)
+            .onMessage(FindNearestCabs.class, this::onFindNearestCabs)
+            .onMessage(NearestCabs.class, this::onNearestCabs)
+            .onMessage(InternalGetResponse.class, this::onInternalGetResponse)
+            .onMessage(InternalSubscribeResponse.class, this::onInternalSubscribeResponse)
+            .onMessage(InternalUpdateResponse.class, this::onInternalUpdateResponse)
             .onSignal(PostStop.class, signal -> onPostStop())
             .build();
     }
 
     // UpdateCabStatus message handler
     // UpdateCabStatus message is a cab status update message sent by a rideService to other rideServices.
-    // It is sent when CabSignsIn, CabSignsOut and UpdateFromFulfillRide messages are received.
-    // When this message is received by the rideService, then it applies the update on its cacheTable.
+    // It is sent when CabSignsIn, CabSignsOut, CabMoved and UpdateFromFulfillRide messages are received.
+    // When this message is received by the rideService, then it applies the update on its cab directory.
     private RideService onupdateCabStatus(updateCabStatus command) {
         getContext().getLog().info("(updateCabStatus msg received cabId = {}", command.cabId);
+        applyUpdate(command);
+        return this;
+    }
+
+    // updateCabStatusBatch message handler, applies every update of the batch on the cab directory
+    private RideService onupdateCabStatusBatch(updateCabStatusBatch command) {
+        getContext().getLog().info("updateCabStatusBatch msg received with {} updates", command.updates.size());
+        for (updateCabStatus update : command.updates) {
+            applyUpdate(update);
+        }
+        return this;
+    }
 
-        String cabId = command.cabId;
-        // get cacheTable entry
-        cab cab1 = cacheTable.get(cabId);
-        if (cab1 != null) { // checking that cabId is valid
-            cab1.initialPos = command.initialPos;
-            cab1.majorState = command.majorState;
-            cab1.minorState = command.minorState;
-            cab1.rideID = command.rideID;
-            cab1.sourceLoc = command.sourceLoc;
-            cab1.destinationLoc = command.destinationLoc;
+    // applies a cab status update from another rideService on the cab directory
+    private void applyUpdate(updateCabStatus command) {
+        int cab = cabDirectory.indexOf(command.cabId);
+        if (cab >= 0 && !isStale(cab, command.version, command.state)) {  // checking that cabId is valid
+            replicationLag.record(System.nanoTime() - command.createdAt);
+            cabDirectory.update(cab, command.state, command.initialPos, command.rideID,
+                                command.sourceLoc, command.destinationLoc, command.version);
+            getContext().getLog().info("updated cab directory: cab Id {} Loc {} state {}", command.cabId, command.initialPos, command.state);
+        }
+    }
 
-            cacheTable.put(cabId, cab1);
-            getContext().getLog().info("updated cacheTable: cab Id {} Loc {} majorState {} minorState {}", cab1.cabId, cab1.initialPos,cab1.majorState, cab1.minorState);
+    // InternalGetResponse message handler, the initial read of a replicated map in ddata directory mode
+    private RideService onInternalGetResponse(InternalGetResponse command) {
+        if (command.response instanceof Replicator.GetSuccess) {
+            applyDdataEntries(((Replicator.GetSuccess<LWWMap<String, updateCabStatus>>) command.response).dataValue());
+        }
+        else if (!(command.response instanceof Replicator.NotFound)) {
+            getContext().getLog().warn("Reading cab directory failed: {}", command.response);
         }
         return this;
     }
 
+    // InternalSubscribeResponse message handler, a replicated map changed in ddata directory mode
+    private RideService onInternalSubscribeResponse(InternalSubscribeResponse command) {
+        if (command.response instanceof Replicator.Changed) {
+            applyDdataEntries(((Replicator.Changed<LWWMap<String, updateCabStatus>>) command.response).dataValue());
+        }
+        return this;
+    }
+
+    // InternalUpdateResponse message handler
+    // An update which did not reach the requested consistency is still applied locally and spreads by gossip
+    private RideService onInternalUpdateResponse(InternalUpdateResponse command) {
+        if (!(command.response instanceof Replicator.UpdateSuccess)) {
+            getContext().getLog().warn("Cab directory update not confirmed: {}", command.response);
+        }
+        return this;
+    }
+
+    // applies the entries of a replicated map which are newer than the cab directory,
+    // a change notification carries the whole map of its key, about cabs-per-key entries
+    private void applyDdataEntries(LWWMap<String, updateCabStatus> map) {
+        for (updateCabStatus update : map.getEntries().values()) {
+            int cab = cabDirectory.indexOf(update.cabId);
+            if (cab >= 0 && update.version > cabDirectory.version(cab)) {
+                replicationLag.record(System.nanoTime() - update.createdAt);
+                cabDirectory.update(cab, update.state, update.initialPos, update.rideID,
+                                    update.sourceLoc, update.destinationLoc, update.version);
+            }
+        }
+    }
+
+    // Sends a cab status update to all rideServices except itself
+    // If a replication flush interval is set, the update is buffered instead and only the latest
+    // update of every cab is sent, in one updateCabStatusBatch message per rideService
+    // In ddata directory mode the update is written to the replicated map of the cab instead
+    private void replicate(updateCabStatus update) {
+        if (ownership) {
+            // the owner has the only entry of the cab, there is nothing to replicate
+            return;
+        }
+        if (replicator != null) {
+            Key<LWWMap<String, updateCabStatus>> key = ddataKeys.get(Math.floorMod(update.cabId.hashCode(), ddataKeys.size()));
+            replicator.askUpdate(
+                askReplyTo -> new Replicator.Update<>(key, LWWMap.empty(), writeConsistency, askReplyTo,
+                                                      map -> map.put(node, update.cabId, update, VERSION_CLOCK)),
+                InternalUpdateResponse::new);
+            replicationSent++;
+            return;
+        }
+        if (flushInterval.isZero()) {
+            for(int id=0; id<instances; id++) {
+                if(id != myId) {
+                    Globals.rideService[id].tell(update);
+                    replicationSent++;
+                }
+            }
+            return;
+        }
+        pendingUpdates.put(update.cabId, update);
+        bufferedUpdates++;
+        if (bufferedUpdates == 1) {
+            timers.startSingleTimer(FLUSH_TIMER_KEY, new FlushUpdates(), flushInterval);
+        }
+    }
+
+    // FlushUpdates message handler, sends the buffered cab updates to all rideServices except itself
+    private RideService onFlushUpdates(FlushUpdates command) {
+        updateCabStatusBatch batch = new updateCabStatusBatch(new ArrayList<>(pendingUpdates.values()));
+        int peers = 0;
+        for(int id=0; id<instances; id++) {
+            if(id != myId) {
+                Globals.rideService[id].tell(batch);
+                peers++;
+            }
+        }
+        replicationSent += peers;
+        replicationSaved += (long) (bufferedUpdates - 1) * peers;
+        pendingUpdates.clear();
+        bufferedUpdates = 0;
+        return this;
+    }
+
     // RequestRide message handler
     // It creates a rideId and spwans a fulfillRide actor
     // It passes rideId, ride details, and a copy of cache table to the fulfillRide actor
     // It passes its own reference to fulfillRide actor to receive updates from it
+    // In batch dispatch mode the request is added to the current batch instead
     private RideService onRequestRide(RequestRide command) {
         getContext().getLog().info("RequestRide msg received from cust {}", command.custId);
         // check sourceLoc and DestLoc are non-negative
@@ -191,131 +702,385 @@ public class RideService extends AbstractBehavior<RideService.Command> {
             return this;
         }
         
-        rideId = rideId + 10;
-        // spawned fulfill ride actor
-        ActorRef<FulfillRide.Command> fRide =
-            getContext().spawn(FulfillRide.create(command.custId,
-                                                  command.sourceLoc,
-                                                  command.destinationLoc,
-                                                  command.replyTo,
-                                                  rideId,
-                                                  cacheTable,
-                                                  getContext().getSelf()),
-                               "fRideActor-" + rideId);
+        rideId = rideId + instances;
+        rideStartTimes.put(rideId, System.nanoTime());
+        if (command.router != null) {
+            routedRides.put(rideId, command.router);
+        }
+
+        if (ownership) {
+            // ask every rideService for the nearest cabs it owns, the ride is dispatched once all have replied
+            gatheringRides.put(rideId, new PendingRide(command, rideId));
+            for(int id=0; id<instances; id++) {
+                Globals.rideService[id].tell(new FindNearestCabs(rideId, command.sourceLoc, NUM_NEAREST_CABS,
+                                                                 getContext().getSelf()));
+            }
+            ownershipSent += instances;
+            return this;
+        }
+
+        if (batchWindow.isZero()) {
+            // nearest available cabs to the source location, nearest first
+            int[] nearestCabs = cabDirectory.nearest(command.sourceLoc, NUM_NEAREST_CABS);
+            spawnFulfillRide(command, rideId, nearestCabs, cabDirectory);
+            return this;
+        }
+
+        pendingRides.add(new PendingRide(command, rideId));
+        if (pendingRides.size() >= batchSize) {
+            dispatchBatch();
+        }
+        else if (pendingRides.size() == 1) {
+            timers.startSingleTimer(BATCH_TIMER_KEY, new DispatchBatch(), batchWindow);
+        }
+        return this;
+    }
+
+    // spawns a fulfill ride actor which asks the given cabs of the directory in order,
+    // or hands the ride to the next pooled worker
+    // the fulfill ride actor gets a snapshot of their entries, since the directory keeps changing
+    // The wallet of the customer is looked up here once, the fulfillRide uses its ref for the whole ride.
+    // A ride offered no cabs never reaches the wallet, so it is not looked up. An unknown customer is offered
+    // no cabs, and gets -1.
+    private void spawnFulfillRide(RequestRide command, int rideId, int[] cabs, CabDirectory directory) {
+        RecipientRef<Wallet.Command> wallet = null;
+        if (cabs.length > 0) {
+            wallet = Globals.wallets.get(command.custId);
+            if (wallet == null) {
+                getContext().getLog().warn("No wallet for customer {}", command.custId);
+                cabs = new int[0];
+            }
+        }
+        if (fulfillRideWorkers != null) {
+            fulfillRideWorkers[nextWorker].tell(new FulfillRide.StartRide(command.custId,
+                                                                          wallet,
+                                                                          command.sourceLoc,
+                                                                          command.destinationLoc,
+                                                                          command.replyTo,
+                                                                          rideId,
+                                                                          rideKey(rideId),
+                                                                          directory.snapshot(cabs),
+                                                                          parallelFulfillRide,
+                                                                          hedgeAfter));
+            nextWorker = (nextWorker + 1) % fulfillRideWorkers.length;
+            return;
+        }
+        getContext().spawn(FulfillRide.create(command.custId,
+                                              wallet,
+                                              command.sourceLoc,
+                                              command.destinationLoc,
+                                              command.replyTo,
+                                              rideId,
+                                              rideKey(rideId),
+                                              directory.snapshot(cabs),
+                                              parallelFulfillRide,
+                                              hedgeAfter,
+                                              getContext().getSelf()),
+                           "fRideActor-" + rideId);
+    }
+
+    // Key of a ride in the wallet messages, which dedup and hold fares by it. It is unique over the rideServices
+    // of all nodes and over restarts, unlike the rideId
+    private String rideKey(int rideId) {
+        return incarnation + ":" + rideId;
+    }
+
+    // DispatchBatch message handler, the batch window is over
+    private RideService onDispatchBatch(DispatchBatch command) {
+        dispatchBatch();
+        return this;
+    }
+
+    // Assigns cabs to all ride requests of the current batch in one pass and spawns their fulfillRide actors.
+    // Every request considers its nearest available cabs, and (request, cab) pairs are matched greedily
+    // by distance, so concurrent requests of a batch never ask the same cab first.
+    // A request is given its assigned cab followed by nearest cabs not assigned to any other request.
+    private void dispatchBatch() {
+        timers.cancel(BATCH_TIMER_KEY);
+        List<PendingRide> batch = pendingRides;
+        pendingRides = new ArrayList<>();
+        getContext().getLog().info("Dispatching batch of {} ride requests", batch.size());
+
+        // enough nearest cabs per request to have NUM_NEAREST_CABS left after the other requests took theirs
+        int k = NUM_NEAREST_CABS + batch.size() - 1;
+        int[][] nearestCabs = new int[batch.size()][];
+        PriorityQueue<int[]> pairs = new PriorityQueue<>((a, b) -> Integer.compare(a[0], b[0]));  // {distance, request, cab}
+        for (int i = 0; i < batch.size(); i++) {
+            int sourceLoc = batch.get(i).request.sourceLoc;
+            nearestCabs[i] = cabDirectory.nearest(sourceLoc, k);
+            for (int cab : nearestCabs[i]) {
+                pairs.add(new int[] {Math.abs(cabDirectory.position(cab) - sourceLoc), i, cab});
+            }
+        }
+
+        int[] assignedCab = new int[batch.size()];
+        Arrays.fill(assignedCab, -1);
+        BitSet assigned = new BitSet(cabDirectory.size());
+        int numAssigned = 0;
+        while (!pairs.isEmpty() && numAssigned < batch.size()) {
+            int[] pair = pairs.poll();
+            if (assignedCab[pair[1]] == -1 && !assigned.get(pair[2])) {
+                assignedCab[pair[1]] = pair[2];
+                assigned.set(pair[2]);
+                numAssigned++;
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            int[] cabs = new int[NUM_NEAREST_CABS];
+            int n = 0;
+            if (assignedCab[i] != -1) {
+                cabs[n++] = assignedCab[i];
+            }
+            for (int cab : nearestCabs[i]) {
+                if (n == NUM_NEAREST_CABS) {
+                    break;
+                }
+                if (!assigned.get(cab)) {
+                    cabs[n++] = cab;
+                }
+            }
+            spawnFulfillRide(batch.get(i).request, batch.get(i).rideId, Arrays.copyOf(cabs, n), cabDirectory);
+        }
+    }
+
+    // FindNearestCabs message handler
+    // Replies with copies of the entries of the nearest available cabs owned by this rideService
+    private RideService onFindNearestCabs(FindNearestCabs command) {
+        CabDirectory nearestCabs = new CabDirectory(command.k);
+        for (int cab : cabDirectory.nearest(command.sourceLoc, command.k)) {
+            nearestCabs.addCopy(cabDirectory, cab);
+        }
+        command.replyTo.tell(new NearestCabs(command.rideId, nearestCabs));
+        return this;
+    }
+
+    // NearestCabs message handler
+    // Once all rideServices have replied, spawns the fulfillRide actor with the overall nearest cabs
+    private RideService onNearestCabs(NearestCabs command) {
+        PendingRide pending = gatheringRides.get(command.rideId);
+        if (pending == null) {
+            return this;
+        }
+        for (int cab = 0; cab < command.cabs.size(); cab++) {
+            pending.nearestCabs.addCopy(command.cabs, cab);
+        }
+        pending.replies++;
+        if (pending.replies < instances) {
+            return this;
+        }
+        gatheringRides.remove(command.rideId);
+
+        int[] nearestCabs = pending.nearestCabs.nearest(pending.request.sourceLoc, NUM_NEAREST_CABS);
+        spawnFulfillRide(pending.request, pending.rideId, nearestCabs, pending.nearestCabs);
+        return this;
+    }
+
+    // Returns the id of the rideService owning the cab in ownership mode
+    static int ownerOf(String cabId, int instances) {
+        return Math.floorMod(cabId.hashCode(), instances);
+    }
+
+    // In ownership mode, forwards a message about a cab not owned by this rideService to its owner
+    // Returns true if the message was forwarded
+    private boolean forwardToOwner(String cabId, Command command) {
+        if (!ownership || ownerOf(cabId, instances) == myId) {
+            return false;
+        }
+        Globals.rideService[ownerOf(cabId, instances)].tell(command);
+        ownershipSent++;
+        return true;
+    }
+
+    // RideOutcome message handler, records the statistics of an answered ride request
+    // and tells the ride router if it routed the request
+    private RideService onRideOutcome(RideOutcome command) {
+        Long start = rideStartTimes.remove(command.rideId);
+        if (start != null) {
+            rideLatencies.record(System.nanoTime() - start);
+        }
+        ActorRef<Command> router = routedRides.remove(command.rideId);
+        if (router != null) {
+            router.tell(new RideAnswered(myId));
+        }
+        if (command.matched) {
+            matchedRides++;
+        }
+        busyReplies += command.busyReplies;
+        hedgedRequests += command.hedgedRequests;
+        cabTimeouts += command.cabTimeouts;
+        walletTimeouts += command.walletTimeouts;
+        for (long nanos : command.cabReplyNanos) {
+            cabReplyTimes.record(nanos);
+            long replies = cabReplyTimes.count();
+            if (replies % (replies < HEDGE_DELAY_REFRESH ? HEDGE_MIN_SAMPLES : HEDGE_DELAY_REFRESH) == 0) {
+                updateHedgeDelay();
+            }
+        }
+        return this;
+    }
+
+    // Sets the hedge delay to the hedge percentile of the recent cab reply times, but not below hedge-min-delay
+    // Sorting the recorded reply times is not cheap, so it is only done every HEDGE_DELAY_REFRESH replies,
+    // and every HEDGE_MIN_SAMPLES replies until then to start hedging early
+    private void updateHedgeDelay() {
+        if (hedgePercentile <= 0 || parallelFulfillRide) {
+            return;
+        }
+        Duration delay = Duration.ofNanos(cabReplyTimes.percentileMicros(hedgePercentile) * 1000);
+        hedgeAfter = delay.compareTo(hedgeMinDelay) < 0 ? hedgeMinDelay : delay;
+    }
+
+    // GetStats message handler
+    private RideService onGetStats(GetStats command) {
+        command.replyTo.tell(new Stats(rideLatencies.count(), matchedRides, busyReplies,
+                                       rideLatencies.percentileMicros(99),
+                                       replicationSent, replicationSaved,
+                                       replicationLag.percentileMicros(99),
+                                       staleUpdates, busyRetriesAvoided,
+                                       rideLatencies.percentileMicros(99.9),
+                                       hedgedRequests, cabTimeouts, walletTimeouts, cabMoves, ownershipSent));
         return this;
     }
 
     // CabSignsIn message handler
-    // sends a updateCabStatus message to all rideServices and updates its own cacheTable
+    // sends a updateCabStatus message to all rideServices and updates its own cab directory,
+    // then acknowledges the sign-in to the cab (the owner does in ownership mode)
     private RideService onCabSignsIn(CabSignsIn command) {
         getContext().getLog().info("CabSignIn {} msg received", command.cabId);
+        if (forwardToOwner(command.cabId, command)) {
+            return this;
+        }
+        int cab = cabDirectory.indexOf(command.cabId);
+        if (cab < 0 || isStale(cab, command.version, CabState.AVAILABLE)) {  // checking that cabId is valid
+            acknowledge(command.replyTo, command.version);
+            return this;
+        }
 
         //send updateSignIn message to all rideServices except itself
-        for(int id=0; id<10; id++) {
-            if(id != myId) {
-                Globals.rideService[id].tell(new updateCabStatus(
-                    command.cabId,
-                    command.initialPos, 
-                    "signed-in", 
-                    "available", 
-                      -1,
-                      -1, 
-                      -1
-                ));
-            }
-        }
+        replicate(new updateCabStatus(
+            command.cabId,
+            command.initialPos, 
+            CabState.AVAILABLE, 
+              -1,
+              -1, 
+              -1,
+            command.version
+        ));
 
-        // update cacheTable entry
-        String cabId = command.cabId;
-        int initialPos = command.initialPos;
+        // update cab directory entry
+        cabDirectory.update(cab, CabState.AVAILABLE, command.initialPos, -1, -1, -1, command.version);
+        getContext().getLog().info("signed-in: cab Id {} Loc {}", command.cabId, command.initialPos);
+        acknowledge(command.replyTo, command.version);
+        return this;
+    }
 
-        // get cacheTable entry
-        cab cab1 = cacheTable.get(cabId);
-        if (cab1 != null) { // checking that cabId is valid
-            cab1.initialPos = initialPos;
-            cab1.majorState = "signed-in";
-            cab1.minorState = "available";
-            cacheTable.put(cabId, cab1);
-            getContext().getLog().info("signed-in: cab Id {} Loc {} majorState {} minorState {}", cab1.cabId, cab1.initialPos,cab1.majorState, cab1.minorState);
+    // Tells a cab waiting for it that its update is applied, once the updateCabStatus messages to the
+    // other rideServices are sent. A stale or unknown update is acknowledged too, so the cab does not wait for nothing.
+    private void acknowledge(ActorRef<Cab.Command> cab, long version) {
+        if (cab != null) {
+            cab.tell(new Cab.UpdateApplied(version));
         }
-        return this;
     }
 
     // CabSignsOut message handler
-    // sends a updateCabStatus message to all rideServices and updates its own cacheTable
+    // sends a updateCabStatus message to all rideServices and updates its own cab directory
     private RideService onCabSignsOut(CabSignsOut command) {
         getContext().getLog().info("CabSignOut msg received");
+        if (forwardToOwner(command.cabId, command)) {
+            return this;
+        }
+        int cab = cabDirectory.indexOf(command.cabId);
+        if (cab < 0 || isStale(cab, command.version, CabState.SIGNED_OUT)) {  // checking that cabId is valid
+            return this;
+        }
 
         //send updateSignOut message to all rideServices except itself
-        for(int id=0; id<10; id++) {
-            if(id != myId) {
-                getContext().getLog().info("CabSignOut: sending update to rideService = {}", id);
-                Globals.rideService[id].tell(new updateCabStatus(
-                    command.cabId,
-                     -1, 
-                    "signed-out", 
-                     null, 
-                      -1,
-                      -1, 
-                      -1
-                ));
-            }
-        }
+        replicate(new updateCabStatus(
+            command.cabId,
+             -1, 
+            CabState.SIGNED_OUT, 
+              -1,
+              -1, 
+              -1,
+            command.version
+        ));
 
-        //update cacheTable
-        String cabId = command.cabId;
-        // get cacheTable entry
-        cab cab1 = cacheTable.get(cabId);
-        if (cab1 != null) { // checking that cabId is valid
-            getContext().getLog().info("CabSignOut: updating cache table");
-            cab1.initialPos = -1;
-            cab1.majorState = "signed-out";
-            cab1.minorState = null;
-            cab1.rideID = -1;
-            cab1.sourceLoc = -1;
-            cab1.destinationLoc = -1;
-            cacheTable.put(cabId, cab1);
+        //update cab directory
+        getContext().getLog().info("CabSignOut: updating cab directory");
+        cabDirectory.update(cab, CabState.SIGNED_OUT, -1, -1, -1, -1, command.version);
+        return this;
+    }
+
+    // CabMoved message handler
+    // sends a updateCabStatus message to all rideServices and moves the cab in its own cab directory,
+    // the entry and the position index are updated in place
+    private RideService onCabMoved(CabMoved command) {
+        if (forwardToOwner(command.cabId, command)) {
+            return this;
         }
+        int cab = cabDirectory.indexOf(command.cabId);
+        if (cab < 0 || isStale(cab, command.version, CabState.AVAILABLE)) {  // checking that cabId is valid
+            return this;
+        }
+        cabMoves++;
+
+        //send updateCabStatus message to all rideServices except itself
+        replicate(new updateCabStatus(command.cabId, command.pos, CabState.AVAILABLE, -1, -1, -1, command.version));
+
+        //update cab directory
+        cabDirectory.update(cab, CabState.AVAILABLE, command.pos, -1, -1, -1, command.version);
         return this;
     }
 
     // updateFromfulfillRide message handler
     // fulfillRide actor sends cab status update after handing requestRide and rideEnded messages
     // Message is handled by sending an updateCabStatus message to all rideservices and
-    // by updating the local cache table
+    // by updating the local cab directory, then the cab is acknowledged the end of its ride if it waits
     private RideService onUpdateFromFulfillRide(UpdateFromFulfillRide command) {
-        getContext().getLog().info("UpdateFromFulfillRide msg received cab Id {}, initial Pos {}, minorState {} rideID {}, sourceLoc {}, des {} ", command.cabId, command.initialPos, command.minorState, command.rideId, command.sourceLoc, command.destinationLoc);
-        
-        //send updateCabStatus message to all rideServices except itself
-        for(int id=0; id<10; id++) {
-            if(id != myId) {
-                Globals.rideService[id].tell(new updateCabStatus(
-                    command.cabId,
-                    command.initialPos, 
-                    "signed-in", 
-                    command.minorState, 
-                    command.rideId,
-                    command.sourceLoc, 
-                    command.destinationLoc
-                ));
-            }
+        getContext().getLog().info("UpdateFromFulfillRide msg received cab Id {}, initial Pos {}, state {} rideID {}, sourceLoc {}, des {} ", command.cabId, command.initialPos, command.state, command.rideId, command.sourceLoc, command.destinationLoc);
+        if (forwardToOwner(command.cabId, command)) {
+            return this;
         }
-        
-        //updateCacheTable
-        String cabId = command.cabId;
-        // get cacheTable entry
-        cab cab1 = cacheTable.get(cabId);
-        if (cab1 != null) { // checking that cabId is valid
-            cab1.initialPos = command.initialPos;
-            cab1.minorState = command.minorState;
-            cab1.rideID = command.rideId;
-            cab1.sourceLoc = command.sourceLoc;
-            cab1.destinationLoc = command.destinationLoc;
-            cacheTable.put(cabId, cab1);
+        int cab = cabDirectory.indexOf(command.cabId);
+        if (cab < 0 || isStale(cab, command.version, command.state)) {  // checking that cabId is valid
+            acknowledge(command.replyTo, command.version);
+            return this;
         }
+
+        //send updateCabStatus message to all rideServices except itself
+        replicate(new updateCabStatus(
+            command.cabId,
+            command.initialPos, 
+            command.state, 
+            command.rideId,
+            command.sourceLoc, 
+            command.destinationLoc,
+            command.version
+        ));
+        
+        //update cab directory
+        cabDirectory.update(cab, command.state, command.initialPos, command.rideId,
+                            command.sourceLoc, command.destinationLoc, command.version);
+        acknowledge(command.replyTo, command.version);
         return this;
     }
 
+    // Returns true if a cab update with the given version is older than the cab directory entry,
+    // updates can arrive out of order since they come from different rideServices and fulfillRide actors.
+    // Stale updates are dropped and counted.
+    private boolean isStale(int cab, long version, CabState state) {
+        if (version > cabDirectory.version(cab)) {
+            return false;
+        }
+        getContext().getLog().info("Dropping stale update of cab {}, version {} <= {}", cabDirectory.cabId(cab), version, cabDirectory.version(cab));
+        staleUpdates++;
+        if (state == CabState.AVAILABLE && cabDirectory.state(cab) != CabState.AVAILABLE) {
+            busyRetriesAvoided++;
+        }
+        return true;
+    }
+
     // On stop message handler
     private Behavior<Command> onPostStop() {
         getContext().getLog().info("RideService actor {} stopped", this.myId);
@@ -6,24 +6,95 @@ import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityContext;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 
 public class Wallet extends AbstractBehavior<Wallet.Command> {
-    public interface Command {
+    public interface Command extends CborSerializable {
     }
 
+    // entity type of wallets when cabs.sharding is on, the entity id is the custId
+    public static final EntityTypeKey<Command> TYPE_KEY = EntityTypeKey.create(Command.class, "Wallet");
+
+    // with cabs.wallet.persistent on, the wallet is a PersistentWallet
     public static Behavior<Command> create(String custId, int balance) {
-        return Behaviors.setup(context -> new Wallet(context, custId, balance));
+        return create(custId, balance, balance);
+    }
+
+    // Wallet starting from a balance other than its initial balance in IDs.txt, which Reset goes back to,
+    // such as the balance after the changes recorded in the wallet ledger before a restart
+    static Behavior<Command> create(String custId, int balance, int initialBalance) {
+        return Behaviors.setup(context -> {
+            if (context.getSystem().settings().config().getBoolean("cabs.wallet.persistent")) {
+                return PersistentWallet.create(custId, initialBalance);
+            }
+            return new Wallet(context, custId, balance, initialBalance, null, null, Duration.ZERO);
+        });
+    }
+
+    // Wallet spawned by its Activator with the balance it had when it was passivated, with cabs.activation.lazy on.
+    // It asks the activator to passivate it once it is idle for cabs.activation.passivate-idle-after
+    // and holds nothing, its balance is kept in the activator's table until its next message.
+    // The results of its changes for rides are not kept, so duplicates are only recognised while it is active.
+    static Behavior<Command> activate(String custId, int balance, int initialBalance, ActorRef<Activator.Command> activator) {
+        return Behaviors.setup(context -> new Wallet(context, custId, balance, initialBalance, null, activator,
+                                                     context.getSystem().settings().config()
+                                                         .getDuration("cabs.activation.passivate-idle-after")));
+    }
+
+    // Wallet as a sharded entity, it asks its shard to passivate it once it is idle for passivateIdleAfter
+    // and its balance is the initial balance, since the balance is lost when it stops
+    // (a PersistentWallet keeps its balance, so it passivates whenever it is idle)
+    public static Behavior<Command> createEntity(EntityContext<Command> entityContext, int balance,
+                                                 Duration passivateIdleAfter) {
+        return Behaviors.setup(context -> {
+            if (context.getSystem().settings().config().getBoolean("cabs.wallet.persistent")) {
+                return PersistentWallet.createEntity(entityContext.getEntityId(), balance,
+                                                     entityContext.getShard(), passivateIdleAfter);
+            }
+            return new Wallet(context, entityContext.getEntityId(), balance, balance,
+                              entityContext.getShard(), null, passivateIdleAfter);
+        });
+    }
+
+    // Idle message is sent by the receive timeout of a sharded or activated wallet
+    static final class Idle implements Command {
+    }
+
+    // Deactivate message is sent by the activator of the wallet once the wallet asked to be passivated
+    static final class Deactivate implements Command {
     }
 
     private String custId;      // customer Id
     private int balance;        // amount in customer wallet
     private int initialBalance; // initial balance, keeping for purpose of resetting to initialBalance
+    private ActorRef<ClusterSharding.ShardCommand> shard; // shard of the wallet if sharded, null otherwise
+    private ActorRef<Activator.Command> activator;        // activator of the wallet if lazily activated, null otherwise
+    private Map<String, Integer> holds = new HashMap<>();   // rideKey -> amount held for the ride, not part of balance
+    private ActorRef<WalletLedger.Command> ledger;  // wallet ledger if cabs.wallet.ledger.enabled is on, null otherwise
+    private RideResults rideResults;    // recent results of changes for rides, to answer duplicates
     
-    private Wallet(ActorContext<Command> context, String custId, int balance) {
+    private Wallet(ActorContext<Command> context, String custId, int balance, int initialBalance,
+                   ActorRef<ClusterSharding.ShardCommand> shard, ActorRef<Activator.Command> activator,
+                   Duration passivateIdleAfter) {
         super(context);
+        this.shard = shard;
+        this.activator = activator;
+        if ((shard != null || activator != null) && !passivateIdleAfter.isZero()) {
+            context.setReceiveTimeout(passivateIdleAfter, new Idle());
+        }
         this.custId = custId;
         this.balance = balance;
-        this.initialBalance = balance;
+        this.initialBalance = initialBalance;
+        this.ledger = Globals.walletLedger;
+        this.rideResults = new RideResults(context.getSystem().settings().config().getInt("cabs.wallet.dedup-window"));
 
         context.getLog().info("created wallet actor for {}", custId);
     }
@@ -32,6 +103,7 @@ public class Wallet extends AbstractBehavior<Wallet.Command> {
     public static final class GetBalance implements Command {
         ActorRef<Wallet.ResponseBalance> replyTo;
 
+        @JsonCreator
         GetBalance(ActorRef<Wallet.ResponseBalance> replyTo) {
             this.replyTo = replyTo;
         }
@@ -40,29 +112,110 @@ public class Wallet extends AbstractBehavior<Wallet.Command> {
     // ResponseBalance message is used to reply with balance
     public static final class ResponseBalance implements Command {
         int balance;
-        
+        int rideId;     // rideId of the DeductBalance answered, -1 otherwise
+        int held;       // amount held for the ride in the reply to a HoldBalance, 0 otherwise
+
         ResponseBalance(int balance) {
+            this(balance, -1);
+        }
+
+        ResponseBalance(int balance, int rideId) {
+            this(balance, rideId, 0);
+        }
+
+        @JsonCreator
+        ResponseBalance(int balance, int rideId, int held) {
             this.balance = balance;
+            this.rideId = rideId;
+            this.held = held;
         }
     }
 
     // DeductBalance message is sent to deduct balance from wallet and send balance
+    // rideId is echoed in the reply, rideKey is unique over rideServices, nodes and restarts, see RideService.rideKey,
+    // and is what a duplicate of the message for the ride is recognised by
     public static final class DeductBalance implements Command {
         ActorRef<Wallet.ResponseBalance> replyTo;
         int toDeduct;
+        int rideId;     // ride the fare is for, -1 if none
+        String rideKey; // key of the ride, null if none
 
         DeductBalance(int toDeduct, ActorRef<Wallet.ResponseBalance> replyTo) {
+            this(toDeduct, -1, null, replyTo);
+        }
+
+        @JsonCreator
+        DeductBalance(int toDeduct, int rideId, String rideKey, ActorRef<Wallet.ResponseBalance> replyTo) {
             this.replyTo = replyTo;
             this.toDeduct = toDeduct;
+            this.rideId = rideId;
+            this.rideKey = rideKey;
         }
     }
 
     // AddBalance message is sent to add balance to wallet
     public static final class AddBalance implements Command {
         int toAdd;
+        int rideId;     // ride the fare is given back for, -1 if none
+        String rideKey; // key of the ride, null if none
 
         AddBalance(int toAdd) {
+            this(toAdd, -1, null);
+        }
+
+        @JsonCreator
+        AddBalance(int toAdd, int rideId, String rideKey) {
             this.toAdd = toAdd;
+            this.rideId = rideId;
+            this.rideKey = rideKey;
+        }
+    }
+
+    // HoldBalance message is sent by a fulfillRide actor while it asks cabs, to set aside the fare of the ride
+    // before it knows which cab takes it. The fare is between minAmount and maxAmount, so as much of maxAmount
+    // as the balance allows is held, and the hold fails if not even minAmount can be held or there is no rideKey.
+    // The reply is the balance left and the amount held, or -1 if nothing was held.
+    public static final class HoldBalance implements Command {
+        ActorRef<Wallet.ResponseBalance> replyTo;
+        int minAmount;
+        int maxAmount;
+        int rideId;
+        String rideKey;
+
+        @JsonCreator
+        HoldBalance(int minAmount, int maxAmount, int rideId, String rideKey, ActorRef<Wallet.ResponseBalance> replyTo) {
+            this.replyTo = replyTo;
+            this.minAmount = minAmount;
+            this.maxAmount = maxAmount;
+            this.rideId = rideId;
+            this.rideKey = rideKey;
+        }
+    }
+
+    // CaptureHold message is sent by a fulfillRide actor to deduct the fare of the ride from its hold,
+    // the rest of the hold goes back to the balance
+    public static final class CaptureHold implements Command {
+        ActorRef<Wallet.ResponseBalance> replyTo;
+        int fare;
+        int rideId;
+        String rideKey;
+
+        @JsonCreator
+        CaptureHold(int fare, int rideId, String rideKey, ActorRef<Wallet.ResponseBalance> replyTo) {
+            this.replyTo = replyTo;
+            this.fare = fare;
+            this.rideId = rideId;
+            this.rideKey = rideKey;
+        }
+    }
+
+    // ReleaseHold message is sent by a fulfillRide actor to give back the hold of a ride which did not start
+    public static final class ReleaseHold implements Command {
+        String rideKey;
+
+        @JsonCreator
+        ReleaseHold(String rideKey) {
+            this.rideKey = rideKey;
         }
     }
 
@@ -70,6 +223,7 @@ public class Wallet extends AbstractBehavior<Wallet.Command> {
     public static final class Reset implements Command {
         ActorRef<Wallet.ResponseBalance> replyTo;
 
+        @JsonCreator
         Reset(ActorRef<ResponseBalance> replyTo) {
             this.replyTo = replyTo;
         }
@@ -81,16 +235,55 @@ public class Wallet extends AbstractBehavior<Wallet.Command> {
             .onMessage(GetBalance.class, this::onGetBalance)
             .onMessage(DeductBalance.class, this::onDeductBalance)
             .onMessage(AddBalance.class, this::onAddBalance)
+            .onMessage(HoldBalance.class, this::onHoldBalance)
+            .onMessage(CaptureHold.class, this::onCaptureHold)
+            .onMessage(ReleaseHold.class, this::onReleaseHold)
             .onMessage(Reset.class, this::onReset)
+            .onMessage(Idle.class, this::onIdle)
+            .onMessage(Deactivate.class, this::onDeactivate)
             .build();
     }
 
+    // Idle message handler
+    // A wallet with its initial balance is passivated, it is created again by the next message
+    // An activated wallet keeps its balance in the activator's table, so it is passivated unless it holds a fare
+    private Wallet onIdle(Idle command) {
+        if (this.activator != null) {
+            if (this.holds.isEmpty()) {
+                this.activator.tell(new Activator.Passivate(this.custId));
+            }
+            return this;
+        }
+        if (this.balance == this.initialBalance && this.holds.isEmpty()) {
+            getContext().getLog().info("Passivating idle wallet {}", this.custId);
+            this.shard.tell(new ClusterSharding.Passivate<>(getContext().getSelf()));
+        }
+        return this;
+    }
+
+    // Deactivate message handler
+    // Hands the balance to the activator and stops, unless a fare was held since the wallet asked to be passivated
+    private Behavior<Command> onDeactivate(Deactivate command) {
+        if (!this.holds.isEmpty()) {
+            this.activator.tell(new Activator.Passivated(this.custId, null));
+            return this;
+        }
+        this.activator.tell(new Activator.Passivated(this.custId, this.balance));
+        return Behaviors.stopped();
+    }
+
     // Reset message handler, resets the wallet balance to initial balance
     // sends a ResponseBalance message with current balance
     private Wallet onReset(Reset command) {
         getContext().getLog().info("Reset wallet");
+        int funds = this.balance;
+        for (int held : this.holds.values()) {
+            funds += held;
+        }
         this.balance = this.initialBalance;
-        command.replyTo.tell(new ResponseBalance(this.balance));
+        this.holds.clear();
+        this.rideResults = new RideResults(this.rideResults.window);
+        reply(this.initialBalance - funds, -1, command.replyTo, new ResponseBalance(this.balance));
         return this;
     }
 
@@ -104,29 +297,121 @@ public class Wallet extends AbstractBehavior<Wallet.Command> {
 
     // DeductBalance message handler
     // sends a ResponseBalance message with current balance
+    // a duplicate deduct for a ride is not performed again, it is sent the balance of the first one
     private Wallet onDeductBalance(DeductBalance command) {
         getContext().getLog().info("Wallet.Deductbalance {} ", command.toDeduct);
+        if (replayed(command.rideId, command.rideKey, RideResults.CHARGE, command.replyTo)) {
+            return this;
+        }
         // check for negative deductAmount and balance must be greater than deductAmount
         // if balance deduction could not be performed due to insignificant balance,
         // the balance is not disturbed and -1 is sent back in the response. 
         if ((command.toDeduct < 0) || (command.toDeduct > this.balance)) {
-            command.replyTo.tell(new ResponseBalance(-1));
+            this.rideResults.put(command.rideKey, RideResults.CHARGE, -1);
+            command.replyTo.tell(new ResponseBalance(-1, command.rideId));
             return this;
         }
         this.balance -= command.toDeduct;
-        command.replyTo.tell(new ResponseBalance(this.balance));
+        this.rideResults.put(command.rideKey, RideResults.CHARGE, this.balance);
+        reply(-command.toDeduct, command.rideId, command.replyTo, new ResponseBalance(this.balance, command.rideId));
         return this;
     }
 
     // AddBalance message handler
+    // a refund for a ride is given back once
     private Wallet onAddBalance(AddBalance command) {
         getContext().getLog().info("Adding balance {}", command.toAdd);
         // if add amount is negative, the balance is not disturbed
-        if (command.toAdd < 0) {
+        if (command.toAdd < 0 || this.rideResults.get(command.rideKey, RideResults.REFUND) != null) {
             return this;
         }
         this.balance += command.toAdd;
+        this.rideResults.put(command.rideKey, RideResults.REFUND, this.balance);
+        reply(command.toAdd, command.rideId, null, null);
+        return this;
+    }
+
+    // HoldBalance message handler
+    // sends a ResponseBalance message with the balance left, or -1 if not even minAmount could be held
+    private Wallet onHoldBalance(HoldBalance command) {
+        getContext().getLog().info("Wallet.HoldBalance {} to {} for ride {}", command.minAmount, command.maxAmount, command.rideId);
+        if (replayed(command.rideId, command.rideKey, RideResults.HOLD, command.replyTo)) {
+            return this;
+        }
+        if ((command.minAmount < 0) || (command.minAmount > this.balance) || command.rideKey == null
+            || this.holds.containsKey(command.rideKey)) {
+            this.rideResults.put(command.rideKey, RideResults.HOLD, -1);
+            command.replyTo.tell(new ResponseBalance(-1, command.rideId));
+            return this;
+        }
+        int amount = Math.min(command.maxAmount, this.balance);
+        this.balance -= amount;
+        this.holds.put(command.rideKey, amount);
+        this.rideResults.put(command.rideKey, RideResults.HOLD, this.balance);
+        command.replyTo.tell(new ResponseBalance(this.balance, command.rideId, amount));
         return this;
     }
 
+    // CaptureHold message handler
+    // deducts the fare from the hold and the balance, if they do not cover it the hold is released and -1 is sent back
+    // sends a ResponseBalance message with current balance
+    private Wallet onCaptureHold(CaptureHold command) {
+        getContext().getLog().info("Wallet.CaptureHold {} for ride {}", command.fare, command.rideId);
+        if (replayed(command.rideId, command.rideKey, RideResults.CHARGE, command.replyTo)) {
+            return this;
+        }
+        Integer held = this.holds.remove(command.rideKey);
+        if (held != null) {
+            this.balance += held;
+        }
+        if ((command.fare < 0) || (command.fare > this.balance)) {
+            this.rideResults.put(command.rideKey, RideResults.CHARGE, -1);
+            command.replyTo.tell(new ResponseBalance(-1, command.rideId));
+            return this;
+        }
+        this.balance -= command.fare;
+        this.rideResults.put(command.rideKey, RideResults.CHARGE, this.balance);
+        reply(-command.fare, command.rideId, command.replyTo, new ResponseBalance(this.balance, command.rideId));
+        return this;
+    }
+
+    // ReleaseHold message handler
+    private Wallet onReleaseHold(ReleaseHold command) {
+        Integer held = this.holds.remove(command.rideKey);
+        if (held != null) {
+            this.balance += held;
+        }
+        return this;
+    }
+
+    // Answers a duplicate of a change already asked for the ride with the reply to the first one, returns false
+    // if there was no such change. With the ledger on, the reply to a change which was made still goes through
+    // the ledger, so that it is not sent before the change is on disk. A hold is answered with what it still holds.
+    private boolean replayed(int rideId, String rideKey, int kind, ActorRef<ResponseBalance> replyTo) {
+        Integer result = this.rideResults.get(rideKey, kind);
+        if (result == null) {
+            return false;
+        }
+        getContext().getLog().info("Wallet of {} already answered this change for ride {}", this.custId, rideKey);
+        if (result == -1) {
+            replyTo.tell(new ResponseBalance(-1, rideId));
+        }
+        else {
+            int held = kind == RideResults.HOLD ? this.holds.getOrDefault(rideKey, 0) : 0;
+            reply(0, rideId, replyTo, new ResponseBalance(result, rideId, held));
+        }
+        return true;
+    }
+
+    // Sends the reply to a change of the customer's funds (balance and holds), with the ledger on
+    // the change is appended to the ledger and the reply is sent once it is on disk.
+    // Holds only move funds within the wallet and are not in the ledger.
+    private void reply(int delta, int rideId, ActorRef<ResponseBalance> replyTo, ResponseBalance response) {
+        if (this.ledger != null) {
+            this.ledger.tell(new WalletLedger.Append(this.custId, delta, rideId, replyTo, response));
+        }
+        else if (replyTo != null) {
+            replyTo.tell(response);
+        }
+    }
 }
@@ -0,0 +1,258 @@
+package pods.cabs;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Write-ahead ledger of the wallets, used when cabs.wallet.ledger.enabled is on.
+// Wallets append every change of a customer's funds, and the ledger writes the changes of many wallets
+// to one append-only file with a single fsync (group commit), then sends the wallet replies
+// which were waiting for their change to be on disk.
+// A record is the custId (short length and UTF-8 bytes), the change of funds and the rideId, see replay.
+// Main applies the changes of the file to the balances of IDs.txt when it starts, see recover.
+// It blocks on the file, so it runs on the blocking dispatcher.
+public class WalletLedger extends AbstractBehavior<WalletLedger.Command> {
+
+    public interface Command {
+    }
+
+    // Append message is sent by a wallet for every change of funds, replyTo (if not null) is sent response
+    // once the change is on disk
+    public static final class Append implements Command {
+        String custId;
+        int delta;
+        int rideId;
+        ActorRef<Wallet.ResponseBalance> replyTo;
+        Wallet.ResponseBalance response;
+
+        Append(String custId, int delta, int rideId, ActorRef<Wallet.ResponseBalance> replyTo,
+               Wallet.ResponseBalance response) {
+            this.custId = custId;
+            this.delta = delta;
+            this.rideId = rideId;
+            this.replyTo = replyTo;
+            this.response = response;
+        }
+    }
+
+    // GetStats message is sent by test script to get the commit statistics of the ledger
+    public static final class GetStats implements Command {
+        ActorRef<Stats> replyTo;
+
+        GetStats(ActorRef<Stats> replyTo) {
+            this.replyTo = replyTo;
+        }
+    }
+
+    // Reply to GetStats message
+    public static final class Stats {
+        public long commits;                // fsyncs of the ledger file
+        public long records;                // changes written
+        public long p50CommitMicros;        // time to write and fsync a batch
+        public long p99CommitMicros;
+
+        Stats(long commits, long records, long p50CommitMicros, long p99CommitMicros) {
+            this.commits = commits;
+            this.records = records;
+            this.p50CommitMicros = p50CommitMicros;
+            this.p99CommitMicros = p99CommitMicros;
+        }
+    }
+
+    // Flush message is sent by the batch timer, or by the ledger to itself after the appends already in its mailbox
+    private static final class Flush implements Command {
+    }
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final Object FLUSH_TIMER_KEY = new Object();
+    private static final Duration MIN_RETRY_DELAY = Duration.ofMillis(100);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(5);
+
+    public static Behavior<Command> create(Path file, Duration batchWindow, int maxBatch) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> new WalletLedger(context, timers, file, batchWindow, maxBatch)));
+    }
+
+    private TimerScheduler<Command> timers;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);  // records of the current batch
+    private Duration batchWindow;       // time a batch collects records, zero to flush after the appends already queued
+    private int maxBatch;               // records which are flushed at once without waiting for the batch window
+    private int batched;                // records in the current batch
+    private boolean flushPending;       // a Flush is scheduled for the current batch
+    private Duration retryDelay;        // the last write failed and is tried again after this long, null otherwise
+    private List<Append> waiting = new ArrayList<>();   // appends of the current batch with a reply to send
+    private long commits;
+    private long records;
+    private LatencyRecorder commitTimes = new LatencyRecorder();
+
+    private WalletLedger(ActorContext<Command> context, TimerScheduler<Command> timers, Path file,
+                         Duration batchWindow, int maxBatch) throws IOException {
+        super(context);
+        this.timers = timers;
+        this.batchWindow = batchWindow;
+        this.maxBatch = maxBatch;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        context.getLog().info("Wallet ledger {} opened, batch window {}", file, batchWindow);
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+            .onMessage(Append.class, this::onAppend)
+            .onMessage(Flush.class, this::onFlush)
+            .onMessage(GetStats.class, this::onGetStats)
+            .onSignal(PostStop.class, signal -> onPostStop())
+            .build();
+    }
+
+    // Append message handler, adds the record to the current batch
+    private Behavior<Command> onAppend(Append command) {
+        byte[] custId = command.custId.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < 2 + custId.length + 8 && retryDelay == null) {
+            flush();
+        }
+        if (buffer.remaining() < 2 + custId.length + 8) {
+            // the file cannot be written, the records are kept until it can
+            ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2 + 2 + custId.length + 8);
+            buffer.flip();
+            buffer = grown.put(buffer);
+        }
+        buffer.putShort((short) custId.length).put(custId).putInt(command.delta).putInt(command.rideId);
+        if (command.replyTo != null) {
+            waiting.add(command);
+        }
+        batched++;
+        if (batched >= maxBatch && retryDelay == null) {
+            flush();
+        }
+        else if (!flushPending) {
+            flushPending = true;
+            if (batchWindow.isZero()) {
+                // the appends which are already queued come before the Flush and join the batch
+                getContext().getSelf().tell(new Flush());
+            }
+            else {
+                timers.startSingleTimer(FLUSH_TIMER_KEY, new Flush(), batchWindow);
+            }
+        }
+        return this;
+    }
+
+    // Flush message handler
+    private Behavior<Command> onFlush(Flush command) {
+        if (flushPending) {
+            flush();
+        }
+        return this;
+    }
+
+    // Writes the current batch, makes it durable and sends the replies waiting for it.
+    // If the file cannot be written, the batch and its replies wait and the write is tried again with a backoff,
+    // the records appended meanwhile join the batch. A fulfillRide which gave up waiting for the wallet gets
+    // the reply to its deduct late and gives the fare back, so the customer is not charged for nothing.
+    private void flush() {
+        flushPending = false;
+        timers.cancel(FLUSH_TIMER_KEY);
+        if (batched == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // the changes are not durable, so no reply may be sent yet, the bytes not written are kept
+            retryDelay = retryDelay == null ? MIN_RETRY_DELAY : retryDelay.multipliedBy(2);
+            if (retryDelay.compareTo(MAX_RETRY_DELAY) > 0) {
+                retryDelay = MAX_RETRY_DELAY;
+            }
+            getContext().getLog().error("Writing the wallet ledger failed, trying again in {}", retryDelay, e);
+            buffer.compact();
+            flushPending = true;
+            timers.startSingleTimer(FLUSH_TIMER_KEY, new Flush(), retryDelay);
+            return;
+        }
+        retryDelay = null;
+        buffer.clear();
+        commitTimes.record(System.nanoTime() - start);
+        commits++;
+        records += batched;
+        batched = 0;
+        for (Append append : waiting) {
+            append.replyTo.tell(append.response);
+        }
+        waiting.clear();
+    }
+
+    // GetStats message handler
+    private Behavior<Command> onGetStats(GetStats command) {
+        command.replyTo.tell(new Stats(commits, records, commitTimes.percentileMicros(50), commitTimes.percentileMicros(99)));
+        return this;
+    }
+
+    private Behavior<Command> onPostStop() throws IOException {
+        channel.close();
+        return this;
+    }
+
+    // Reads the ledger file before the ledger is started, returns the total change of funds per custId.
+    // The end of a last batch cut short by a crash is cut off the file, so that the records appended after it can be read.
+    public static Map<String, Integer> recover(Path file) throws IOException {
+        Map<String, Integer> deltas = new HashMap<>();
+        if (!Files.exists(file)) {
+            return deltas;
+        }
+        int length = read(file, deltas);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+        return deltas;
+    }
+
+    // Reads a ledger file, returns the total change of funds per custId
+    public static Map<String, Integer> replay(Path file) throws IOException {
+        Map<String, Integer> deltas = new HashMap<>();
+        read(file, deltas);
+        return deltas;
+    }
+
+    // Adds the changes of the whole records of a ledger file to deltas, returns the length of these records
+    private static int read(Path file, Map<String, Integer> deltas) throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+        int length = 0;
+        while (records.remaining() >= 2) {
+            byte[] custId = new byte[records.getShort()];
+            if (records.remaining() < custId.length + 8) {
+                // the last batch was cut short by a crash, its replies were never sent
+                break;
+            }
+            records.get(custId);
+            int delta = records.getInt();
+            records.getInt();       // rideId
+            deltas.merge(new String(custId, StandardCharsets.UTF_8), delta, Integer::sum);
+            length = records.position();
+        }
+        return length;
+    }
+}
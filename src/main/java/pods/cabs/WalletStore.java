@@ -0,0 +1,240 @@
+package pods.cabs;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Wallet backend for very large customer populations, used when cabs.wallet.store.enabled is on.
+// Instead of one Wallet actor per customer, a few WalletStore partitions each own the balances of their
+// customers in a BalanceTable, and answer the Wallet messages of a customer the way its Wallet would.
+// A customer belongs to partition hash(custId) mod partitions.
+public class WalletStore extends AbstractBehavior<WalletStore.Command> {
+
+    public interface Command {
+    }
+
+    // ForCustomer message carries a Wallet message for one customer of the partition
+    public static final class ForCustomer implements Command {
+        String custId;
+        Wallet.Command command;
+
+        ForCustomer(String custId, Wallet.Command command) {
+            this.custId = custId;
+            this.command = command;
+        }
+    }
+
+    // Ref of the wallet of one customer in Globals.wallets, it wraps the messages sent to it for the customer's partition.
+    // It only supports tell: ask the partition with ForCustomer instead.
+    public static final class CustomerRef implements RecipientRef<Wallet.Command> {
+        private final String custId;
+        private final ActorRef<Command> partition;
+
+        CustomerRef(String custId, ActorRef<Command> partition) {
+            this.custId = custId;
+            this.partition = partition;
+        }
+
+        @Override
+        public void tell(Wallet.Command command) {
+            partition.tell(new ForCustomer(this.custId, command));
+        }
+    }
+
+    // Partition of the customer among partitions
+    public static int partition(String custId, int partitions) {
+        return Math.floorMod(custId.hashCode(), partitions);
+    }
+
+    // The table is owned by the partition from now on
+    public static Behavior<Command> create(BalanceTable table) {
+        return Behaviors.setup(context -> new WalletStore(context, table));
+    }
+
+    private static final class Hold {
+        final int index;    // customer of the hold
+        final int amount;
+
+        Hold(int index, int amount) {
+            this.index = index;
+            this.amount = amount;
+        }
+    }
+
+    private BalanceTable table;
+    private Map<String, Hold> holds = new HashMap<>();     // rideKey -> amount held for the ride, not part of its balance
+    private RideResults rideResults;    // recent results of changes for rides of all customers of the partition
+    private ActorRef<WalletLedger.Command> ledger;  // wallet ledger if cabs.wallet.ledger.enabled is on, null otherwise
+
+    private WalletStore(ActorContext<Command> context, BalanceTable table) {
+        super(context);
+        this.table = table;
+        this.rideResults = new RideResults(context.getSystem().settings().config().getInt("cabs.wallet.store.dedup-window"));
+        this.ledger = Globals.walletLedger;
+        context.getLog().info("created wallet store partition for {} customers", table.size());
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+            .onMessage(ForCustomer.class, this::onForCustomer)
+            .build();
+    }
+
+    // ForCustomer message handler, performs the Wallet message on the customer's balance
+    private Behavior<Command> onForCustomer(ForCustomer message) {
+        int index = table.index(message.custId);
+        if (index == -1) {
+            getContext().getLog().warn("No wallet for customer {}", message.custId);
+            return this;
+        }
+        Wallet.Command command = message.command;
+        if (command instanceof Wallet.GetBalance) {
+            ((Wallet.GetBalance) command).replyTo.tell(new Wallet.ResponseBalance(table.balance(index)));
+        }
+        else if (command instanceof Wallet.DeductBalance) {
+            onDeductBalance(message.custId, index, (Wallet.DeductBalance) command);
+        }
+        else if (command instanceof Wallet.AddBalance) {
+            onAddBalance(message.custId, index, (Wallet.AddBalance) command);
+        }
+        else if (command instanceof Wallet.HoldBalance) {
+            onHoldBalance(index, (Wallet.HoldBalance) command);
+        }
+        else if (command instanceof Wallet.CaptureHold) {
+            onCaptureHold(message.custId, index, (Wallet.CaptureHold) command);
+        }
+        else if (command instanceof Wallet.ReleaseHold) {
+            release(((Wallet.ReleaseHold) command).rideKey);
+        }
+        else if (command instanceof Wallet.Reset) {
+            onReset(message.custId, index, (Wallet.Reset) command);
+        }
+        return this;
+    }
+
+    // DeductBalance for a customer, see Wallet
+    private void onDeductBalance(String custId, int index, Wallet.DeductBalance command) {
+        if (replayed(custId, command.rideId, command.rideKey, RideResults.CHARGE, command.replyTo)) {
+            return;
+        }
+        int balance = table.balance(index);
+        if ((command.toDeduct < 0) || (command.toDeduct > balance)) {
+            rideResults.put(command.rideKey, RideResults.CHARGE, -1);
+            command.replyTo.tell(new Wallet.ResponseBalance(-1, command.rideId));
+            return;
+        }
+        balance -= command.toDeduct;
+        table.setBalance(index, balance);
+        rideResults.put(command.rideKey, RideResults.CHARGE, balance);
+        reply(custId, -command.toDeduct, command.rideId, command.replyTo, new Wallet.ResponseBalance(balance, command.rideId));
+    }
+
+    // AddBalance for a customer, see Wallet
+    private void onAddBalance(String custId, int index, Wallet.AddBalance command) {
+        if (command.toAdd < 0 || rideResults.get(command.rideKey, RideResults.REFUND) != null) {
+            return;
+        }
+        int balance = table.balance(index) + command.toAdd;
+        table.setBalance(index, balance);
+        rideResults.put(command.rideKey, RideResults.REFUND, balance);
+        reply(custId, command.toAdd, command.rideId, null, null);
+    }
+
+    // HoldBalance for a customer, see Wallet
+    private void onHoldBalance(int index, Wallet.HoldBalance command) {
+        if (replayed(null, command.rideId, command.rideKey, RideResults.HOLD, command.replyTo)) {
+            return;
+        }
+        int balance = table.balance(index);
+        if ((command.minAmount < 0) || (command.minAmount > balance) || command.rideKey == null
+            || holds.containsKey(command.rideKey)) {
+            rideResults.put(command.rideKey, RideResults.HOLD, -1);
+            command.replyTo.tell(new Wallet.ResponseBalance(-1, command.rideId));
+            return;
+        }
+        int amount = Math.min(command.maxAmount, balance);
+        balance -= amount;
+        table.setBalance(index, balance);
+        holds.put(command.rideKey, new Hold(index, amount));
+        rideResults.put(command.rideKey, RideResults.HOLD, balance);
+        command.replyTo.tell(new Wallet.ResponseBalance(balance, command.rideId, amount));
+    }
+
+    // CaptureHold for a customer, see Wallet
+    private void onCaptureHold(String custId, int index, Wallet.CaptureHold command) {
+        if (replayed(custId, command.rideId, command.rideKey, RideResults.CHARGE, command.replyTo)) {
+            return;
+        }
+        release(command.rideKey);
+        int balance = table.balance(index);
+        if ((command.fare < 0) || (command.fare > balance)) {
+            rideResults.put(command.rideKey, RideResults.CHARGE, -1);
+            command.replyTo.tell(new Wallet.ResponseBalance(-1, command.rideId));
+            return;
+        }
+        balance -= command.fare;
+        table.setBalance(index, balance);
+        rideResults.put(command.rideKey, RideResults.CHARGE, balance);
+        reply(custId, -command.fare, command.rideId, command.replyTo, new Wallet.ResponseBalance(balance, command.rideId));
+    }
+
+    // gives the hold of the ride back to its customer's balance
+    private void release(String rideKey) {
+        Hold hold = holds.remove(rideKey);
+        if (hold != null) {
+            table.setBalance(hold.index, table.balance(hold.index) + hold.amount);
+        }
+    }
+
+    // Reset for a customer, see Wallet
+    private void onReset(String custId, int index, Wallet.Reset command) {
+        int funds = table.balance(index);
+        for (Hold hold : holds.values()) {
+            if (hold.index == index) {
+                funds += hold.amount;
+            }
+        }
+        holds.values().removeIf(hold -> hold.index == index);
+        table.setBalance(index, table.initialBalance(index));
+        reply(custId, table.initialBalance(index) - funds, -1, command.replyTo,
+              new Wallet.ResponseBalance(table.initialBalance(index)));
+    }
+
+    // Answers a duplicate of a change already asked for the ride with the reply to the first one, see Wallet
+    private boolean replayed(String custId, int rideId, String rideKey, int kind, ActorRef<Wallet.ResponseBalance> replyTo) {
+        Integer result = rideResults.get(rideKey, kind);
+        if (result == null) {
+            return false;
+        }
+        if (result == -1) {
+            replyTo.tell(new Wallet.ResponseBalance(-1, rideId));
+        }
+        else if (custId == null) {
+            Hold hold = holds.get(rideKey);
+            replyTo.tell(new Wallet.ResponseBalance(result, rideId, hold == null ? 0 : hold.amount));
+        }
+        else {
+            reply(custId, 0, rideId, replyTo, new Wallet.ResponseBalance(result, rideId));
+        }
+        return true;
+    }
+
+    // Sends the reply to a change of a customer's funds, through the ledger if it is on, see Wallet
+    private void reply(String custId, int delta, int rideId, ActorRef<Wallet.ResponseBalance> replyTo,
+                       Wallet.ResponseBalance response) {
+        if (this.ledger != null) {
+            this.ledger.tell(new WalletLedger.Append(custId, delta, rideId, replyTo, response));
+        }
+        else if (replyTo != null) {
+            replyTo.tell(response);
+        }
+    }
+}
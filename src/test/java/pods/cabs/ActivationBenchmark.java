@@ -0,0 +1,143 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.time.Duration;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Startup time and resident heap of a population of registered cabs, with a cab actor spawned per cab
+// against lazy activation (cabs.activation.lazy) by PARTITIONS activator partitions.
+// Both keep a ref per cab the way Globals.cabs does. With lazy activation, ACTIVE cabs then sign in,
+// and the heap is measured again while they are active and once they are passivated.
+// The population is the first argument, 1000000 by default, give the JVM enough heap for it:
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-Xmx3g -classpath %classpath pods.cabs.ActivationBenchmark"
+public class ActivationBenchmark {
+
+    private static final int PARTITIONS = 4;
+    private static final int ACTIVE = 10_000;
+    private static final Duration IDLE_AFTER = Duration.ofSeconds(10);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        int population = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Globals.cabRouter = null;
+        lazy(population);
+        eager(population);
+    }
+
+    // a cab actor per cab, spawned by one parent
+    @SuppressWarnings("unchecked")
+    private static void eager(int population) throws Exception {
+        ActorTestKit testKit = testKit();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        RecipientRef<Cab.Command>[] cabs = new RecipientRef[population];
+        TestProbe<Boolean> spawned = testKit.createTestProbe();
+        testKit.spawn(Behaviors.setup(context -> {
+            for (int i = 0; i < population; i++) {
+                cabs[i] = context.spawn(Cab.create(Integer.toString(i)), "cab-" + i);
+            }
+            spawned.ref().tell(true);
+            return Behaviors.empty();
+        }));
+        spawned.receiveMessage(Duration.ofMinutes(10));
+        long startupNanos = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore;
+
+        // the refs are used to the end, so that they are not collected before the heap is measured
+        System.out.printf("eager  %,d cabs: startup=%,d ms heap=%,d bytes/cab%n", cabs.length,
+                          startupNanos / 1_000_000, heap / population);
+        testKit.shutdownTestKit();
+    }
+
+    // PARTITIONS activator partitions and a ref per cab
+    @SuppressWarnings("unchecked")
+    private static void lazy(int population) throws Exception {
+        ActorTestKit testKit = testKit();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        CabTable[] tables = new CabTable[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            tables[p] = new CabTable(population / PARTITIONS);
+        }
+        for (int i = 0; i < population; i++) {
+            String cabId = Integer.toString(i);
+            tables[WalletStore.partition(cabId, PARTITIONS)].add(cabId);
+        }
+        ActorRef<Activator.Command>[] partitions = new ActorRef[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            partitions[p] = testKit.spawn(Activator.forCabs(tables[p]), "cab-activator-" + p);
+        }
+        RecipientRef<Cab.Command>[] cabs = new RecipientRef[population];
+        for (int i = 0; i < population; i++) {
+            String cabId = Integer.toString(i);
+            cabs[i] = new Activator.Ref<>(cabId, partitions[WalletStore.partition(cabId, PARTITIONS)]);
+        }
+        long startupNanos = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore;
+
+        // ACTIVE cabs sign in, every active cab answers its status
+        start = System.nanoTime();
+        TestProbe<Cab.CabStatus> probe = testKit.createTestProbe();
+        for (int i = 0; i < ACTIVE; i++) {
+            cabs[i].tell(new Cab.SignIn(i % 100));
+            cabs[i].tell(new Cab.GetCabStatus(probe.ref()));
+        }
+        for (int i = 0; i < ACTIVE; i++) {
+            probe.receiveMessage(Duration.ofMinutes(1));
+        }
+        long activateNanos = System.nanoTime() - start;
+        long activeHeap = usedHeap() - heapBefore;
+        int active = active(testKit, partitions);
+
+        Thread.sleep(IDLE_AFTER.multipliedBy(3).toMillis());
+        long passivatedHeap = usedHeap() - heapBefore;
+        int stillActive = active(testKit, partitions);
+
+        // the refs are used to the end, so that they are not collected before the heap is measured
+        System.out.printf("lazy   %,d cabs: startup=%,d ms heap=%,d bytes/cab%n", cabs.length,
+                          startupNanos / 1_000_000, heap / population);
+        System.out.printf("lazy   %,d active: activation=%,d ms heap=%,d bytes/active cab (%,d active), "
+                          + "passivated heap=%,d bytes/cab (%,d active)%n", ACTIVE, activateNanos / 1_000_000,
+                          (activeHeap - heap) / ACTIVE, active, passivatedHeap / population, stillActive);
+        testKit.shutdownTestKit();
+    }
+
+    private static int active(ActorTestKit testKit, ActorRef<Activator.Command>[] partitions) {
+        TestProbe<Activator.Stats> probe = testKit.createTestProbe();
+        int active = 0;
+        for (ActorRef<Activator.Command> partition : partitions) {
+            partition.tell(new Activator.GetStats(probe.ref()));
+            active += probe.receiveMessage().active;
+        }
+        return active;
+    }
+
+    private static ActorTestKit testKit() {
+        // stopping a million cab actors takes longer than the default
+        return ActorTestKit.create(
+            ConfigFactory.parseString("cabs.activation.passivate-idle-after = " + IDLE_AFTER.toMillis() + "ms\n"
+                                      + "akka.actor.testkit.typed.system-shutdown-default = 5m\n"
+                                      + "akka.coordinated-shutdown.phases.actor-system-terminate.timeout = 5m")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,107 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Lazily activated cabs and wallets are spawned by their first message and keep their state once passivated
+public class ActivationTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.activation.passivate-idle-after = 300ms").withFallback(ConfigFactory.load()));
+
+    @Test
+    public void idleCabKeepsItsState() throws Exception {
+        ActorRef<RideService.Command> cabRouter = Globals.cabRouter;
+        TestProbe<RideService.Command> rideServices = testKit.createTestProbe();
+        Globals.cabRouter = rideServices.ref();
+        try {
+            CabTable table = new CabTable(2);
+            table.add("701");
+            ActorRef<Activator.Command> activator = testKit.spawn(Activator.forCabs(table));
+            Activator.Ref<Cab.Command> cab = new Activator.Ref<>("701", activator);
+            TestProbe<Activator.Stats> statsProbe = testKit.createTestProbe();
+            TestProbe<Cab.CabStatus> statusProbe = testKit.createTestProbe();
+
+            // Step 1: nothing is active until the cab signs in
+            activator.tell(new Activator.GetStats(statsProbe.ref()));
+            assertEquals(statsProbe.receiveMessage().active, 0);
+            cab.tell(new Cab.SignIn(10));
+            RideService.CabSignsIn signIn = rideServices.expectMessageClass(RideService.CabSignsIn.class);
+            assertEquals(signIn.version, 1);
+            signIn.replyTo.tell(new Cab.UpdateApplied(signIn.version));
+            activator.tell(new Activator.GetStats(statsProbe.ref()));
+            assertEquals(statsProbe.receiveMessage().active, 1);
+
+            // Step 2: the idle cab is passivated, and comes back signed in where it was
+            Thread.sleep(1000);
+            activator.tell(new Activator.GetStats(statsProbe.ref()));
+            Activator.Stats stats = statsProbe.receiveMessage();
+            assertEquals(stats.active, 0);
+            assertEquals(stats.passivations, 1);
+            cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+            Cab.CabStatus status = statusProbe.receiveMessage();
+            assertEquals(status.majorState, "signed-in");
+            assertEquals(status.minorState, "available");
+            assertEquals(status.initialPos, 10);
+
+            // Step 3: a cab with a ride stays active
+            TestProbe<FulfillRide.Command> fulfillRide = testKit.createTestProbe();
+            cab.tell(new Cab.RequestRide("701", 20, 1, 50, fulfillRide.ref()));
+            FulfillRide.RequestRideCabResponse response = fulfillRide.expectMessageClass(FulfillRide.RequestRideCabResponse.class);
+            assertEquals(response.response, "interested");
+            assertEquals(response.version, 2);
+            Thread.sleep(1000);
+            activator.tell(new Activator.GetStats(statsProbe.ref()));
+            stats = statsProbe.receiveMessage();
+            assertEquals(stats.active, 1);
+            assertEquals(stats.activations, 2);
+        }
+        finally {
+            Globals.cabRouter = cabRouter;
+        }
+    }
+
+    @Test
+    public void idleWalletKeepsItsBalance() throws Exception {
+        BalanceTable table = new BalanceTable(2);
+        table.add("701", 1000);
+        ActorRef<Activator.Command> activator = testKit.spawn(Activator.forWallets(table));
+        Activator.Ref<Wallet.Command> wallet = new Activator.Ref<>("701", activator);
+        TestProbe<Activator.Stats> statsProbe = testKit.createTestProbe();
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+
+        // Step 1: the wallet is spawned by a deduct and passivated once idle
+        wallet.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        Thread.sleep(1000);
+        activator.tell(new Activator.GetStats(statsProbe.ref()));
+        assertEquals(statsProbe.receiveMessage().active, 0);
+
+        // Step 2: a message arriving while the wallet is being passivated reaches its next incarnation
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        activator.tell(new Activator.Passivate("701"));
+        wallet.tell(new Wallet.AddBalance(50));
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 950);
+        activator.tell(new Activator.GetStats(statsProbe.ref()));
+        Activator.Stats stats = statsProbe.receiveMessage();
+        assertEquals(stats.passivations, 2);
+        assertEquals(stats.activations, 3);
+
+        // Step 3: reset gives back the balance in IDs.txt, unknown customers are dropped
+        wallet.tell(new Wallet.Reset(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1000);
+        new Activator.Ref<Wallet.Command>("702", activator).tell(new Wallet.GetBalance(probe.ref()));
+        probe.expectNoMessage();
+    }
+}
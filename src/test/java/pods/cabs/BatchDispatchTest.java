@@ -0,0 +1,80 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+public class BatchDispatchTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.ride-service.batch-window = 200ms").withFallback(ConfigFactory.load()));
+
+    private static ActorRef<Void> underTest;
+
+    @BeforeClass
+    public static void setUp() {
+        TestProbe<Main.Started> testProbe = testKit.createTestProbe();
+        underTest = testKit.spawn(Main.create(testProbe.ref()), "defaultActor");
+        testProbe.expectMessage(new Main.Started("done"));
+    }
+
+    @Test
+    public void batchGetsDistinctCabs() throws Exception {
+        Thread.sleep(2000);
+        TestProbe<Cab.NumRidesResponse> resetCab = testKit.createTestProbe();
+        Globals.cabs.forEach((k, v) -> {
+            v.tell(new Cab.Reset(resetCab.ref()));
+            resetCab.receiveMessage();
+        });
+
+        TestProbe<Wallet.ResponseBalance> walletProbe = testKit.createTestProbe();
+        Globals.wallets.forEach((k, v) -> {
+            v.tell(new Wallet.Reset(walletProbe.ref()));
+            assertEquals(walletProbe.receiveMessage().balance, 10000);
+        });
+
+        // Step 1: cab 101 signs in at 10 and cab 102 at 20
+        TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        cab101.tell(new Cab.SignIn(10));
+        cab101.tell(new Cab.GetCabStatus(cabProbe.ref()));
+        assertEquals(cabProbe.receiveMessage().majorState, "signed-in");
+        RecipientRef<Cab.Command> cab102 = Globals.cabs.get("102");
+        cab102.tell(new Cab.SignIn(20));
+        cab102.tell(new Cab.GetCabStatus(cabProbe.ref()));
+        assertEquals(cabProbe.receiveMessage().majorState, "signed-in");
+        Thread.sleep(500);
+
+        // Step 2: both customers request a ride near cab 101 within the same batch window
+        TestProbe<RideService.RideResponse> rideProbe = testKit.createTestProbe();
+        Globals.rideService[0].tell(new RideService.RequestRide("201", 14, 100, rideProbe.ref()));
+        Globals.rideService[0].tell(new RideService.RequestRide("202", 10, 100, rideProbe.ref()));
+        RideService.RideResponse resp1 = rideProbe.receiveMessage();
+        RideService.RideResponse resp2 = rideProbe.receiveMessage();
+
+        // Step 3: both rides got a different cab, without any cab replying "busy"
+        assertNotEquals(resp1.rideId, -1);
+        assertNotEquals(resp2.rideId, -1);
+        assertNotEquals(resp1.cabId, resp2.cabId);
+
+        TestProbe<RideService.Stats> statsProbe = testKit.createTestProbe();
+        Globals.rideService[0].tell(new RideService.GetStats(statsProbe.ref()));
+        RideService.Stats stats = statsProbe.receiveMessage();
+        assertEquals(stats.matched, 2);
+        assertEquals(stats.busyReplies, 0);
+
+        Globals.cabs.get(resp1.cabId).tell(new Cab.RideEnded(resp1.rideId));
+        Globals.cabs.get(resp2.cabId).tell(new Cab.RideEnded(resp2.rideId));
+    }
+}
@@ -0,0 +1,63 @@
+package pods.cabs;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import pods.cabs.CabIndexBenchmark.CabEntry;
+
+// Compares the heap footprint of the old cacheTable (a HashMap of cab objects with string states,
+// plus a position index of cab ids in per-position sets) with the struct-of-arrays CabDirectory
+// and its packed position index, for a million cabs with three in four available.
+// Footprint is the used heap after a GC with the structure alive, minus the used heap before building it.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.CabDirectoryBenchmark"
+public class CabDirectoryBenchmark {
+
+    private static final int CABS = 1_000_000;
+
+    public static void main(String[] args) {
+        // cab ids are shared by both structures, so they are built first and not counted
+        String[] cabIds = new String[CABS];
+        for (int i = 0; i < CABS; i++) {
+            cabIds[i] = "cab-" + i;
+        }
+
+        long before = usedHeap();
+        Map<String, CabEntry> cacheTable = new HashMap<>();
+        NavigableMap<Integer, Set<String>> positionIndex = new TreeMap<>();
+        for (int i = 0; i < CABS; i++) {
+            CabEntry cab1 = new CabEntry(cabIds[i], i * 10);
+            cab1.minorState = (i % 4 == 0) ? "giving-ride" : "available";
+            cacheTable.put(cabIds[i], cab1);
+            if (cab1.minorState.equals("available")) {
+                positionIndex.computeIfAbsent(cab1.initialPos, pos -> new LinkedHashSet<>()).add(cabIds[i]);
+            }
+        }
+        long cacheTableBytes = usedHeap() - before;
+        System.out.printf("cacheTable    %6.1f MB per million cabs  (%d, %d)%n",
+                          cacheTableBytes / 1e6, cacheTable.size(), positionIndex.size());
+        cacheTable = null;
+        positionIndex = null;
+
+        before = usedHeap();
+        CabDirectory directory = new CabDirectory(CABS);
+        for (int i = 0; i < CABS; i++) {
+            int cab = directory.add(cabIds[i], null);
+            CabState state = (i % 4 == 0) ? CabState.GIVING_RIDE : CabState.AVAILABLE;
+            directory.update(cab, state, i * 10, -1, -1, -1, 1);
+        }
+        long directoryBytes = usedHeap() - before;
+        System.out.printf("cabDirectory  %6.1f MB per million cabs  (%d)%n", directoryBytes / 1e6, directory.size());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
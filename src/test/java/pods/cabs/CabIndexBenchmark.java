@@ -0,0 +1,113 @@
+package pods.cabs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+// Compares the nearest-cab lookup of CabIndex with the old path of FulfillRide,
+// which filtered and sorted the whole cacheTable on every ride request.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.CabIndexBenchmark"
+public class CabIndexBenchmark {
+
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) {
+        int[] fleetSizes = {1_000, 100_000, 1_000_000};
+        for (int n : fleetSizes) {
+            run(n);
+        }
+    }
+
+    private static void run(int n) {
+        Random rand = new Random(42);
+        Map<String, CabEntry> cacheTable = new HashMap<>();
+        CabEntry[] cabs = new CabEntry[n];
+        for (int i = 0; i < n; i++) {
+            String cabId = "cab-" + i;
+            CabEntry cab1 = new CabEntry(cabId, rand.nextInt(n * 10));
+            cab1.minorState = (i % 4 == 0) ? "giving-ride" : "available";
+            cacheTable.put(cabId, cab1);
+            cabs[i] = cab1;
+        }
+        // cabs are indexed in position order, every add then appends to the key array
+        CabIndex index = new CabIndex();
+        Integer[] byPos = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byPos[i] = i;
+        }
+        Arrays.sort(byPos, (a, b) -> Integer.compare(cabs[a].initialPos, cabs[b].initialPos));
+        for (int i : byPos) {
+            if (cabs[i].minorState.equals("available")) {
+                index.add(i, cabs[i].initialPos);
+            }
+        }
+
+        int[] locs = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            locs[i] = rand.nextInt(n * 10);
+        }
+
+        // warm up both paths before timing
+        long sink = 0;
+        for (int i = 0; i < 20; i++) {
+            sink += streamSort(cacheTable, locs[i]).size() + index.nearest(locs[i], 3).length;
+        }
+
+        long start = System.nanoTime();
+        for (int loc : locs) {
+            sink += streamSort(cacheTable, loc).size();
+        }
+        long sortNanos = (System.nanoTime() - start) / QUERIES;
+
+        start = System.nanoTime();
+        for (int loc : locs) {
+            sink += index.nearest(loc, 3).length;
+        }
+        long indexNanos = (System.nanoTime() - start) / QUERIES;
+
+        // an available cab moving by one position, the remove and the add each shift the keys after it
+        start = System.nanoTime();
+        for (int loc : locs) {
+            int cab = (loc % n) | 1;
+            index.remove(cab, cabs[cab].initialPos);
+            cabs[cab].initialPos ^= 1;
+            index.add(cab, cabs[cab].initialPos);
+        }
+        long updateNanos = (System.nanoTime() - start) / QUERIES;
+
+        System.out.printf("cabs=%-8d stream-sort=%10d ns/query  cab-index=%8d ns/query  %8d ns/update  (%d)%n",
+                          n, sortNanos, indexNanos, updateNanos, sink);
+    }
+
+    // nearest cab lookup as FulfillRide used to do it
+    private static List<CabEntry> streamSort(Map<String, CabEntry> cacheTable, int sourceLoc) {
+        List<CabEntry> cabsAll = new ArrayList<CabEntry>();
+        cacheTable.forEach((k,v) -> cabsAll.add(v));
+        return cabsAll.stream()
+            .filter(cab -> cab.majorState.equals("signed-in") && cab.minorState.equals("available"))
+            .sorted((cab1, cab2) -> Integer.compare(Math.abs(cab1.initialPos - sourceLoc),
+                                                    Math.abs(cab2.initialPos - sourceLoc)))
+            .limit(3).collect(Collectors.toList());
+    }
+
+    // cacheTable entry as rideServices used to keep it
+    static class CabEntry {
+        String cabId;
+        int initialPos;
+        String minorState = null;
+        String majorState = "signed-in";
+        int rideID = -1;
+        int sourceLoc = -1;
+        int destinationLoc = -1;
+        long version = 0;
+
+        CabEntry(String cabId, int initialPos) {
+            this.cabId = cabId;
+            this.initialPos = initialPos;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package pods.cabs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CabIndexTest {
+
+    @Test
+    public void nearestOrdersByDistance() {
+        CabIndex index = new CabIndex();
+        index.add(1, 70);
+        index.add(2, 80);
+        index.add(3, 90);
+        index.add(4, 0);
+
+        assertArrayEquals(new int[] {4, 1, 2}, index.nearest(10, 3));
+        assertArrayEquals(new int[] {3, 2}, index.nearest(100, 2));
+        assertArrayEquals(new int[] {4, 1, 2, 3}, index.nearest(30, 10));
+    }
+
+    @Test
+    public void nearestPrefersLowerPositionOnTie() {
+        CabIndex index = new CabIndex();
+        index.add(1, 20);
+        index.add(2, 0);
+        index.add(3, 10);
+        index.add(4, 10);
+
+        assertArrayEquals(new int[] {3, 4, 2}, index.nearest(10, 3));
+    }
+
+    @Test
+    public void removeDropsCab() {
+        CabIndex index = new CabIndex();
+        index.add(1, 10);
+        index.add(2, 10);
+        index.add(3, 50);
+        index.remove(1, 10);
+        index.remove(3, 40);  // wrong position, not indexed there
+
+        assertEquals(2, index.size());
+        assertArrayEquals(new int[] {2, 3}, index.nearest(0, 3));
+
+        index.remove(2, 10);
+        index.remove(3, 50);
+        assertEquals(0, index.size());
+        assertEquals(0, index.nearest(0, 3).length);
+    }
+}
@@ -0,0 +1,192 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+// Cost of persistent cabs (cabs.cab.persistent) with the LevelDB journal:
+// rides per second and ride latency of RIDE_CABS cabs, each giving rides in a loop, with and without the journal
+// (a ride is a declined request, a commit, a start and an end), and the recovery time of a fleet of cabs
+// which each signed in and gave a ride.
+// The fleet size is the first argument, 100000 by default.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.CabPersistenceBenchmark"
+public class CabPersistenceBenchmark {
+
+    private static final String DIR = "target/cab-persistence-benchmark";
+    private static final int RIDE_CABS = 1000;
+    private static final Duration RUN = Duration.ofSeconds(10);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        int fleet = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Globals.cabRouter = null;
+        rides(false);
+        rides(true);
+        recovery(fleet);
+    }
+
+    // RIDE_CABS cabs giving rides for RUN
+    private static void rides(boolean persistent) throws Exception {
+        String dir = DIR + "/rides";
+        delete(dir);
+        ActorTestKit testKit = ActorTestKit.create(config(dir, persistent));
+        ActorRef<Cab.Command>[] cabs = spawnCabs(testKit, RIDE_CABS);
+        for (ActorRef<Cab.Command> cab : cabs) {
+            cab.tell(new Cab.SignIn(10));
+        }
+        TestProbe<long[]> probe = testKit.createTestProbe();
+        long start = System.nanoTime();
+        testKit.spawn(rideDriver(cabs, System.nanoTime() + RUN.toNanos(), probe.ref()));
+        long[] latencies = probe.receiveMessage(RUN.plusSeconds(60));
+        long nanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-10s rides=%,d/s p50=%d us p99=%d us%n", persistent ? "journal" : "in-memory",
+                          latencies.length * 1_000_000_000L / nanos,
+                          latencies[latencies.length / 2] / 1000, latencies[(int) (latencies.length * 0.99)] / 1000);
+    }
+
+    // Stands in for the fulfillRide actors: every cab is asked for rides until it is interested,
+    // the ride is started and ended, and the next ride begins. Sends the ride latencies once all rides ended.
+    private static Behavior<FulfillRide.Command> rideDriver(ActorRef<Cab.Command>[] cabs, long deadline, ActorRef<long[]> done) {
+        return Behaviors.setup(context -> {
+            long[] rideStart = new long[cabs.length];
+            int[] rides = new int[cabs.length];
+            long[][] latencies = new long[][] {new long[1024]};
+            int[] counts = new int[] {0, cabs.length};      // rides ended, cabs still riding
+            for (int i = 0; i < cabs.length; i++) {
+                rideStart[i] = System.nanoTime();
+                cabs[i].tell(new Cab.RequestRide(Integer.toString(i), 20, i, 30, context.getSelf()));
+            }
+            return Behaviors.receive(FulfillRide.Command.class)
+                .onMessage(FulfillRide.RequestRideCabResponse.class, response -> {
+                    int cab = Integer.parseInt(response.cabId);
+                    if (response.response.equals("interested")) {
+                        cabs[cab].tell(new Cab.RideStarted(response.cabId, response.rideId, context.getSelf()));
+                        cabs[cab].tell(new Cab.RideEnded(response.rideId));
+                    }
+                    else {
+                        cabs[cab].tell(new Cab.RequestRide(response.cabId, 20, response.rideId, 30, context.getSelf()));
+                    }
+                    return Behaviors.same();
+                })
+                .onMessage(FulfillRide.RideStartedCabResponse.class, started -> Behaviors.same())
+                .onMessage(FulfillRide.FulfillRideEnded.class, ended -> {
+                    ended.cab.tell(new Cab.UpdateApplied(ended.version));
+                    int cab = ended.rideId % cabs.length;
+                    if (counts[0] == latencies[0].length) {
+                        latencies[0] = Arrays.copyOf(latencies[0], counts[0] * 2);
+                    }
+                    latencies[0][counts[0]++] = System.nanoTime() - rideStart[cab];
+                    if (System.nanoTime() < deadline) {
+                        rides[cab]++;
+                        rideStart[cab] = System.nanoTime();
+                        cabs[cab].tell(new Cab.RequestRide(Integer.toString(cab), 20, cab + rides[cab] * cabs.length, 30,
+                                                           context.getSelf()));
+                    }
+                    else if (--counts[1] == 0) {
+                        done.tell(Arrays.copyOf(latencies[0], counts[0]));
+                        return Behaviors.stopped();
+                    }
+                    return Behaviors.same();
+                })
+                .build();
+        });
+    }
+
+    // fleet persistent cabs which signed in and gave a ride, recovered by a new actor system
+    private static void recovery(int fleet) throws Exception {
+        String dir = DIR + "/fleet-" + fleet;
+        delete(dir);
+        Config config = config(dir, true);
+
+        ActorTestKit testKit = ActorTestKit.create(config);
+        long start = System.nanoTime();
+        ActorRef<Cab.Command>[] cabs = spawnCabs(testKit, fleet);
+        TestProbe<FulfillRide.Command> fulfillRide = testKit.createTestProbe();
+        for (int i = 0; i < fleet; i++) {
+            cabs[i].tell(new Cab.SignIn(i));
+            cabs[i].tell(new Cab.RequestRide(Integer.toString(i), i + 1, i, i + 2, fulfillRide.ref()));
+            cabs[i].tell(new Cab.RideStarted(Integer.toString(i), i, fulfillRide.ref()));
+            cabs[i].tell(new Cab.RideEnded(i));
+        }
+        for (int i = 0; i < 3 * fleet; i++) {
+            fulfillRide.receiveMessage(Duration.ofMinutes(10));
+        }
+        long writeNanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+
+        testKit = ActorTestKit.create(config);
+        start = System.nanoTime();
+        cabs = spawnCabs(testKit, fleet);
+        TestProbe<Cab.CabStatus> probe = testKit.createTestProbe();
+        for (ActorRef<Cab.Command> cab : cabs) {
+            cab.tell(new Cab.GetCabStatus(probe.ref()));
+        }
+        for (int i = 0; i < fleet; i++) {
+            if (probe.receiveMessage(Duration.ofMinutes(10)).numRides != 1) {
+                throw new IllegalStateException("cab did not recover its ride");
+            }
+        }
+        long recoveryNanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+
+        System.out.printf("%,d cabs x 4 events write=%,d events/s recovery=%,d ms (%,d cabs/s)%n", fleet,
+                          (long) fleet * 4 * 1_000_000_000L / writeNanos,
+                          recoveryNanos / 1_000_000, fleet * 1_000_000_000L / recoveryNanos);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ActorRef<Cab.Command>[] spawnCabs(ActorTestKit testKit, int count) {
+        ActorRef<Cab.Command>[] cabs = new ActorRef[count];
+        TestProbe<Boolean> spawned = testKit.createTestProbe();
+        testKit.spawn(Behaviors.setup(context -> {
+            for (int i = 0; i < count; i++) {
+                cabs[i] = context.spawn(Cab.create(Integer.toString(i)), "cab-" + i);
+            }
+            spawned.ref().tell(true);
+            return Behaviors.empty();
+        }));
+        spawned.receiveMessage(Duration.ofMinutes(10));
+        return cabs;
+    }
+
+    private static Config config(String dir, boolean persistent) {
+        // stopping a large fleet takes longer than the default
+        return ConfigFactory.parseString("cabs.cab.persistent = " + persistent + "\n"
+                                         + "akka.actor.testkit.typed.system-shutdown-default = 5m\n"
+                                         + "akka.coordinated-shutdown.phases.actor-system-terminate.timeout = 5m\n"
+                                         + "akka.persistence.journal.leveldb.dir = \"" + dir + "/journal\"\n"
+                                         + "akka.persistence.snapshot-store.local.dir = \"" + dir + "/snapshots\"")
+            .withFallback(ConfigFactory.load());
+    }
+
+    private static void delete(String dir) throws Exception {
+        Path path = new File(dir).toPath();
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
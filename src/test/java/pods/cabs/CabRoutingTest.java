@@ -0,0 +1,107 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.receptionist.Receptionist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// The cab router over probes registered as rideServices
+public class CabRoutingTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.load());
+
+    private static final int SERVICES = 3;
+    private static final int CABS = 20;
+    private static final int UPDATES_PER_CAB = 5;
+
+    private static List<TestProbe<RideService.Command>> services = new ArrayList<>();
+
+    @BeforeClass
+    public static void setUp() {
+        TestProbe<Receptionist.Registered> registered = testKit.createTestProbe();
+        for (int i = 0; i < SERVICES; i++) {
+            TestProbe<RideService.Command> service = testKit.createTestProbe();
+            testKit.system().receptionist().tell(
+                Receptionist.register(RideService.SERVICE_KEY, service.ref(), registered.ref()));
+            registered.receiveMessage();
+            services.add(service);
+        }
+    }
+
+    @Test
+    public void consistentHashKeepsEveryCabOnOneRideService() {
+        Map<String, Set<Integer>> servicesOfCab = route(RideService.cabRouter("consistent-hash"));
+        Set<Integer> used = new HashSet<>();
+        servicesOfCab.forEach((cabId, indices) -> {
+            assertEquals(cabId, 1, indices.size());
+            used.addAll(indices);
+        });
+        assertTrue(used.size() > 1);
+    }
+
+    @Test
+    public void roundRobinUsesEveryRideService() {
+        Map<String, Set<Integer>> servicesOfCab = route(RideService.cabRouter("round-robin"));
+        Set<Integer> used = new HashSet<>();
+        servicesOfCab.values().forEach(used::addAll);
+        assertEquals(SERVICES, used.size());
+    }
+
+    // Sends sign-in and sign-out updates of every cab through the router,
+    // returns the indices of the services each cab's updates reached
+    private Map<String, Set<Integer>> route(Behavior<RideService.Command> router) {
+        ActorRef<RideService.Command> cabRouter = testKit.spawn(router);
+        for (int n = 0; n < UPDATES_PER_CAB; n++) {
+            for (int cab = 0; cab < CABS; cab++) {
+                cabRouter.tell(n % 2 == 0
+                    ? new RideService.CabSignsIn("cab-" + cab, cab, n, null)
+                    : new RideService.CabSignsOut("cab-" + cab, n));
+            }
+        }
+
+        Map<String, Set<Integer>> servicesOfCab = new HashMap<>();
+        int received = 0;
+        for (int i = 0; i < SERVICES; i++) {
+            for (RideService.Command update : drain(services.get(i))) {
+                String cabId = update instanceof RideService.CabSignsIn
+                    ? ((RideService.CabSignsIn) update).cabId
+                    : ((RideService.CabSignsOut) update).cabId;
+                servicesOfCab.computeIfAbsent(cabId, k -> new HashSet<>()).add(i);
+                received++;
+            }
+        }
+        assertEquals(CABS * UPDATES_PER_CAB, received);
+        testKit.stop(cabRouter);
+        return servicesOfCab;
+    }
+
+    private List<RideService.Command> drain(TestProbe<RideService.Command> service) {
+        List<RideService.Command> updates = new ArrayList<>();
+        try {
+            while (true) {
+                updates.add(service.receiveMessage(Duration.ofMillis(500)));
+            }
+        } catch (AssertionError e) {
+            return updates;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
+import akka.cluster.MemberStatus;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.time.Duration;
+import java.util.stream.StreamSupport;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Two cluster nodes in one JVM over the loopback interface, the cabs and rideServices run on
+// the first node and one more rideService runs on the second node, in ddata directory mode.
+public class DistributedDirectoryTest {
+
+    private static final Config config = ConfigFactory.parseString(
+        "akka.actor.provider = cluster\n" +
+        "akka.remote.artery.canonical.hostname = 127.0.0.1\n" +
+        "akka.remote.artery.canonical.port = 0\n" +
+        "akka.cluster.jmx.multi-mbeans-in-same-jvm = on\n" +
+        "akka.cluster.distributed-data.notify-subscribers-interval = 50ms\n" +
+        "cabs.ride-service.directory = ddata\n" +
+        "cabs.ride-service.ddata.write-consistency = all\n").withFallback(ConfigFactory.load());
+
+    private static ActorTestKit nodeA;
+    private static ActorTestKit nodeB;
+    private static ActorRef<RideService.Command> remoteRideService;
+
+    @BeforeClass
+    public static void setUp() {
+        nodeA = ActorTestKit.create("Cabs", config);
+        nodeB = ActorTestKit.create("Cabs", config);
+        Cluster clusterA = Cluster.get(nodeA.system());
+        Cluster clusterB = Cluster.get(nodeB.system());
+        clusterA.manager().tell(Join.create(clusterA.selfMember().address()));
+        clusterB.manager().tell(Join.create(clusterA.selfMember().address()));
+        nodeA.createTestProbe().awaitAssert(Duration.ofSeconds(10), () -> {
+            assertEquals(2, upMembers(clusterA));
+            assertEquals(2, upMembers(clusterB));
+            return null;
+        });
+
+        TestProbe<Main.Started> testProbe = nodeA.createTestProbe();
+        nodeA.spawn(Main.create(testProbe.ref()), "defaultActor");
+        testProbe.expectMessage(new Main.Started("done"));
+        remoteRideService = nodeB.spawn(RideService.create(0, 1), "ride-service-0");
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        nodeB.shutdownTestKit();
+        nodeA.shutdownTestKit();
+    }
+
+    private static long upMembers(Cluster cluster) {
+        return StreamSupport.stream(cluster.state().getMembers().spliterator(), false)
+            .filter(member -> member.status() == MemberStatus.up())
+            .count();
+    }
+
+    @Test
+    public void cabStatesReachOtherNode() throws Exception {
+        Thread.sleep(2000);
+        TestProbe<Cab.NumRidesResponse> resetCab = nodeA.createTestProbe();
+        Globals.cabs.forEach((k, v) -> {
+            v.tell(new Cab.Reset(resetCab.ref()));
+            resetCab.receiveMessage();
+        });
+
+        TestProbe<Wallet.ResponseBalance> walletProbe = nodeA.createTestProbe();
+        Globals.wallets.forEach((k, v) -> {
+            v.tell(new Wallet.Reset(walletProbe.ref()));
+            assertEquals(walletProbe.receiveMessage().balance, 10000);
+        });
+
+        // Step 1: cab 101 signs in at 10, through a rideService on the first node
+        TestProbe<Cab.CabStatus> cabProbe = nodeA.createTestProbe();
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        cab101.tell(new Cab.SignIn(10));
+        cab101.tell(new Cab.GetCabStatus(cabProbe.ref()));
+        assertEquals(cabProbe.receiveMessage().majorState, "signed-in");
+        Thread.sleep(1000);
+
+        // Step 2: the rideService on the second node has cab 101 available and gives it the ride
+        TestProbe<RideService.RideResponse> rideProbe = nodeB.createTestProbe();
+        remoteRideService.tell(new RideService.RequestRide("201", 20, 30, rideProbe.ref()));
+        RideService.RideResponse resp = rideProbe.receiveMessage();
+        assertNotEquals(resp.rideId, -1);
+        assertEquals(resp.cabId, "101");
+        assertEquals(resp.fare, (10 + 10) * 10);
+
+        // Step 3: the ride ends, the update from the second node reaches the first node
+        cab101.tell(new Cab.RideEnded(resp.rideId));
+        Thread.sleep(1000);
+        // cab 101 declines every other ride request, so it takes the second one
+        TestProbe<RideService.RideResponse> rideProbe2 = nodeA.createTestProbe();
+        Globals.rideService[3].tell(new RideService.RequestRide("202", 35, 40, rideProbe2.ref()));
+        assertEquals(rideProbe2.receiveMessage().rideId, -1);
+        Globals.rideService[3].tell(new RideService.RequestRide("202", 35, 40, rideProbe2.ref()));
+        resp = rideProbe2.receiveMessage();
+        assertEquals(resp.cabId, "101");
+        assertEquals(resp.fare, (5 + 5) * 10);
+    }
+}
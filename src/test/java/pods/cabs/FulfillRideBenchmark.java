@@ -0,0 +1,115 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.AskPattern;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Compares ride request throughput and bytes allocated per request (over all threads) of spawning
+// a fulfillRide actor for every ride against pools of fulfillRide workers (cabs.fulfill-ride.pool-size).
+// Customers keep a fixed number of requests in flight, spread over all rideServices.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.FulfillRideBenchmark"
+public class FulfillRideBenchmark {
+
+    private static final int IN_FLIGHT = 64;
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration RUN = Duration.ofSeconds(10);
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        run(0, false);     // warm up
+        for (int poolSize : new int[] {0, 1, 4, 16}) {
+            run(poolSize, true);
+        }
+    }
+
+    private static void run(int poolSize, boolean report) throws Exception {
+        ActorTestKit testKit = ActorTestKit.create(
+            ConfigFactory.parseString("cabs.fulfill-ride.pool-size = " + poolSize).withFallback(ConfigFactory.load()));
+        TestProbe<Main.Started> started = testKit.createTestProbe();
+        testKit.spawn(Main.create(started.ref()), "defaultActor");
+        started.expectMessage(new Main.Started("done"));
+
+        Random rand = new Random(42);
+        Globals.cabs.forEach((k, v) -> v.tell(new Cab.SignIn(rand.nextInt(100))));
+        Globals.wallets.forEach((k, v) -> v.tell(new Wallet.AddBalance(1_000_000_000)));
+        Thread.sleep(500);
+
+        List<String> customers = new ArrayList<>(Globals.wallets.keySet());
+        requests(testKit, customers, WARMUP);
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long requests = requests(testKit, customers, RUN);
+        long nanos = System.nanoTime() - start;
+        long bytes = allocatedBytes() - allocated;
+
+        if (report) {
+            System.out.printf("%-10s %,8d requests/s %,8d bytes/request%n",
+                              poolSize == 0 ? "spawn" : "pool-" + poolSize,
+                              requests * 1_000_000_000L / nanos, bytes / requests);
+        }
+        testKit.shutdownTestKit();
+    }
+
+    // Keeps IN_FLIGHT ride requests outstanding for the given duration, ends every ride which got a cab,
+    // returns the number of requests answered
+    private static long requests(ActorTestKit testKit, List<String> customers, Duration duration) throws Exception {
+        AtomicLong answered = new AtomicLong();
+        long deadline = System.nanoTime() + duration.toNanos();
+        CountDownLatch done = new CountDownLatch(IN_FLIGHT);
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            request(testKit, customers, i, deadline, answered, done);
+        }
+        done.await();
+        return answered.get();
+    }
+
+    private static void request(ActorTestKit testKit, List<String> customers, int next, long deadline,
+                                AtomicLong answered, CountDownLatch done) {
+        if (System.nanoTime() >= deadline) {
+            done.countDown();
+            return;
+        }
+        String custId = customers.get(next % customers.size());
+        ActorRef<RideService.Command> rideService = Globals.rideService[next % Globals.rideService.length];
+        int sourceLoc = (next * 7) % 100;
+        AskPattern.<RideService.Command, RideService.RideResponse>ask(rideService,
+                replyTo -> new RideService.RequestRide(custId, sourceLoc, sourceLoc + 10, replyTo),
+                Duration.ofSeconds(10), testKit.system().scheduler())
+            .whenComplete((resp, failure) -> {
+                if (failure == null) {
+                    answered.incrementAndGet();
+                    if (resp.rideId != -1) {
+                        Globals.cabs.get(resp.cabId).tell(new Cab.RideEnded(resp.rideId));
+                    }
+                }
+                request(testKit, customers, next + IN_FLIGHT, deadline, answered, done);
+            });
+    }
+
+    private static long allocatedBytes() {
+        long bytes = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            bytes += Math.max(allocated, 0);
+        }
+        return bytes;
+    }
+}
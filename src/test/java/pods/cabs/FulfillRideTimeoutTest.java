@@ -0,0 +1,135 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// A fulfillRide actor over probes standing in for two cabs, the wallet and the rideService
+public class FulfillRideTimeoutTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.fulfill-ride.cab-timeout = 300ms\n"
+                                  + "cabs.fulfill-ride.wallet-timeout = 300ms")
+            .withFallback(ConfigFactory.load()));
+
+    private static final String CUST_ID = "timeout-test-customer";
+
+    private TestProbe<Cab.Command> cab1;
+    private TestProbe<Cab.Command> cab2;
+    private TestProbe<Wallet.Command> wallet;
+    private TestProbe<RideService.Command> rideService;
+    private TestProbe<RideService.RideResponse> customer;
+    private CabSnapshot nearestCabs;
+
+    @Before
+    public void setUp() {
+        cab1 = testKit.createTestProbe();
+        cab2 = testKit.createTestProbe();
+        wallet = testKit.createTestProbe();
+        rideService = testKit.createTestProbe();
+        customer = testKit.createTestProbe();
+        CabDirectory directory = new CabDirectory();
+        directory.update(directory.add("c1", cab1.ref()), CabState.AVAILABLE, 10, -1, -1, -1, 1);
+        directory.update(directory.add("c2", cab2.ref()), CabState.AVAILABLE, 20, -1, -1, -1, 1);
+        nearestCabs = directory.snapshot(new int[] {0, 1});
+    }
+
+    @Test
+    public void slowCabIsHedged() {
+        testKit.spawn(FulfillRide.create(CUST_ID, wallet.ref(), 10, 50, customer.ref(), 1, "ride-1", nearestCabs, false,
+                                         Duration.ofMillis(50), rideService.ref()));
+
+        // Step 1: c1 does not reply within the hedge delay, so c2 is asked as well and commits
+        Cab.RequestRide request1 = cab1.expectMessageClass(Cab.RequestRide.class);
+        Cab.RequestRide request2 = cab2.expectMessageClass(Cab.RequestRide.class, Duration.ofMillis(250));
+        request2.replyTo.tell(new FulfillRide.RequestRideCabResponse(1, "c2", "interested", 2, cab2.ref()));
+
+        // Step 2: the fare from c2 is deducted and the ride starts with c2
+        Wallet.DeductBalance deduct = wallet.expectMessageClass(Wallet.DeductBalance.class);
+        assertEquals(deduct.toDeduct, (10 + 40) * 10);
+        deduct.replyTo.tell(new Wallet.ResponseBalance(9500, 1));
+        Cab.RideStarted started = cab2.expectMessageClass(Cab.RideStarted.class);
+        customer.expectNoMessage(Duration.ofMillis(100));
+
+        // Step 3: c2 moved on since it committed, the rideService is sent the version c2 reports once it gives the ride,
+        // then the customer is answered
+        started.replyTo.tell(new FulfillRide.RideStartedCabResponse(1, "c2", true, 5));
+        RideService.UpdateFromFulfillRide update = rideService.expectMessageClass(RideService.UpdateFromFulfillRide.class);
+        assertEquals(update.state, CabState.GIVING_RIDE);
+        assertEquals(update.version, 5);
+        RideService.RideResponse response = customer.receiveMessage();
+        assertEquals(response.rideId, 1);
+        assertEquals(response.cabId, "c2");
+        RideService.RideOutcome outcome = rideService.expectMessageClass(RideService.RideOutcome.class);
+        assertEquals(outcome.matched, true);
+        assertEquals(outcome.hedgedRequests, 1);
+        assertEquals(outcome.cabTimeouts, 0);
+
+        // Step 4: c1 commits late and is released
+        request1.replyTo.tell(new FulfillRide.RequestRideCabResponse(1, "c1", "interested", 2, cab1.ref()));
+        assertEquals(cab1.expectMessageClass(Cab.RideCancelled.class).rideId, 1);
+    }
+
+    @Test
+    public void cabWhichDoesNotReplyTimesOut() {
+        testKit.spawn(FulfillRide.create(CUST_ID, wallet.ref(), 10, 50, customer.ref(), 2, "ride-2", nearestCabs, false,
+                                         Duration.ZERO, rideService.ref()));
+
+        // Step 1: c1 does not reply, after the cab timeout c2 is asked and is not interested
+        cab1.expectMessageClass(Cab.RequestRide.class);
+        cab2.expectNoMessage(Duration.ofMillis(200));
+        Cab.RequestRide request2 = cab2.expectMessageClass(Cab.RequestRide.class);
+        request2.replyTo.tell(new FulfillRide.RequestRideCabResponse(2, "c2", "not-interested", 1, cab2.ref()));
+
+        // Step 2: no cab is left, the customer gets no ride
+        assertEquals(customer.receiveMessage().rideId, -1);
+        RideService.RideOutcome outcome = rideService.expectMessageClass(RideService.RideOutcome.class);
+        assertEquals(outcome.matched, false);
+        assertEquals(outcome.cabTimeouts, 1);
+        wallet.expectNoMessage();
+    }
+
+    @Test
+    public void walletWhichDoesNotReplyCancelsTheRide() {
+        testKit.spawn(FulfillRide.create(CUST_ID, wallet.ref(), 10, 50, customer.ref(), 3, "ride-3", nearestCabs, false,
+                                         Duration.ZERO, rideService.ref()));
+
+        // Step 1: c1 commits, the wallet does not reply to the deduct
+        Cab.RequestRide request1 = cab1.expectMessageClass(Cab.RequestRide.class);
+        request1.replyTo.tell(new FulfillRide.RequestRideCabResponse(3, "c1", "interested", 2, cab1.ref()));
+        Wallet.DeductBalance deduct = wallet.expectMessageClass(Wallet.DeductBalance.class);
+
+        // Step 2: after the wallet timeout c1 is released and the customer gets no ride
+        assertEquals(cab1.expectMessageClass(Cab.RideCancelled.class).rideId, 3);
+        assertEquals(customer.receiveMessage().rideId, -1);
+        RideService.RideOutcome outcome = rideService.expectMessageClass(RideService.RideOutcome.class);
+        assertEquals(outcome.walletTimeouts, 1);
+
+        // Step 3: the fare is deducted late and given back
+        deduct.replyTo.tell(new Wallet.ResponseBalance(9500, 3));
+        assertEquals(wallet.expectMessageClass(Wallet.AddBalance.class).toAdd, deduct.toDeduct);
+        cab2.expectNoMessage();
+    }
+
+    @Test
+    public void cabCommittedToARideWhichIsOverIsReleased() {
+        ActorRef<FulfillRide.Command> worker = testKit.spawn(FulfillRide.createWorker(rideService.ref()));
+
+        // Step 1: c1 commits to ride 9, which the worker does not have anymore
+        worker.tell(new FulfillRide.RequestRideCabResponse(9, "c1", "interested", 2, cab1.ref()));
+
+        // Step 2: c1 is released through the ref it replied with, it is not in the registry
+        assertEquals(cab1.expectMessageClass(Cab.RideCancelled.class).rideId, 9);
+    }
+}
@@ -0,0 +1,138 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Compares ride request tail latency without hedging against hedged cab requests (cabs.fulfill-ride.hedge-percentile)
+// when a few cabs are slow: every cab sits behind a proxy which holds back SLOW_SHARE of the RequestRides for SLOW_DELAY.
+// The cabs, wallets and rideServices are set up here like Main does, with the proxies in Globals.cabs.
+// Hedging cannot help a ride whose nearest cabs are all asked already, the last mode bounds that wait with cab-timeout.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.HedgingBenchmark"
+public class HedgingBenchmark {
+
+    private static final int CABS = 40;
+    private static final int CUSTOMERS = 10;
+    private static final int ROUNDS = 600;
+    private static final double SLOW_SHARE = 0.05;
+    private static final Duration SLOW_DELAY = Duration.ofMillis(200);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        run("no-hedge", "cabs.fulfill-ride.hedge-percentile = 0");
+        run("hedge-p90", "cabs.fulfill-ride.hedge-percentile = 90");
+        run("hedge-p99", "cabs.fulfill-ride.hedge-percentile = 99");
+        // once all nearest cabs are asked, a ride can only wait for the slow one or give up on it
+        run("hedge-p90-timeout-50ms", "cabs.fulfill-ride { hedge-percentile = 90, cab-timeout = 50ms }");
+    }
+
+    private static void run(String mode, String config) throws Exception {
+        ActorTestKit testKit = ActorTestKit.create(
+            ConfigFactory.parseString(config).withFallback(ConfigFactory.load()));
+        setUp(testKit);
+
+        Random rand = new Random(42);
+        for (int i = 0; i < CABS; i++) {
+            Globals.cabs.get("cab" + i).tell(new Cab.SignIn(rand.nextInt(100)));
+        }
+        Thread.sleep(500);
+
+        List<Long> latencies = new ArrayList<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            List<CompletableFuture<Long>> responses = new ArrayList<>();
+            for (int i = 0; i < CUSTOMERS; i++) {
+                String custId = "cust" + i;
+                ActorRef<RideService.Command> rideService = Globals.rideService[i % Globals.rideService.length];
+                int sourceLoc = rand.nextInt(100);
+                long start = System.nanoTime();
+                responses.add(AskPattern.<RideService.Command, RideService.RideResponse>ask(rideService,
+                        replyTo -> new RideService.RequestRide(custId, sourceLoc, sourceLoc + 10, replyTo),
+                        Duration.ofSeconds(10), testKit.system().scheduler())
+                    .thenApply(resp -> {
+                        if (resp.rideId != -1) {
+                            Globals.cabs.get(resp.cabId).tell(new Cab.RideEnded(resp.rideId));
+                        }
+                        return System.nanoTime() - start;
+                    })
+                    .toCompletableFuture());
+            }
+            for (CompletableFuture<Long> latency : responses) {
+                latencies.add(latency.get());
+            }
+            // let late cabs be released and cab states settle in all rideService caches
+            Thread.sleep(20);
+        }
+
+        long hedged = 0;
+        long timeouts = 0;
+        for (ActorRef<RideService.Command> rideService : Globals.rideService) {
+            RideService.Stats stats = AskPattern.<RideService.Command, RideService.Stats>ask(rideService,
+                    RideService.GetStats::new, Duration.ofSeconds(5), testKit.system().scheduler())
+                .toCompletableFuture().get();
+            hedged += stats.hedgedRequests;
+            timeouts += stats.cabTimeouts;
+        }
+
+        Collections.sort(latencies);
+        System.out.printf("%-22s p50=%d us p99=%d us p99.9=%d us hedged=%d cab-timeouts=%d%n", mode,
+                          latencies.get(latencies.size() / 2) / 1000,
+                          latencies.get((int) (latencies.size() * 0.99)) / 1000,
+                          latencies.get((int) (latencies.size() * 0.999)) / 1000,
+                          hedged, timeouts);
+        testKit.shutdownTestKit();
+    }
+
+    // Spawns the cabs behind slow proxies, the wallets and the rideServices
+    @SuppressWarnings("unchecked")
+    private static void setUp(ActorTestKit testKit) throws Exception {
+        Globals.cabs.clear();
+        Globals.wallets.clear();
+        for (int i = 0; i < CABS; i++) {
+            String cabId = "cab" + i;
+            ActorRef<Cab.Command> cab = testKit.spawn(Cab.create(cabId), "cab-" + cabId);
+            Globals.cabs.put(cabId, testKit.spawn(slowProxy(cab, new Random(i)), "proxy-" + cabId));
+        }
+        for (int i = 0; i < CUSTOMERS; i++) {
+            String custId = "cust" + i;
+            Globals.wallets.put(custId, testKit.spawn(Wallet.create(custId, 1_000_000_000), "wallet-" + custId));
+        }
+        Globals.rideServiceList = new ArrayList<>();
+        int instances = RideService.instances(testKit.system().settings().config());
+        for (int id = 0; id < instances; id++) {
+            Globals.rideServiceList.add(testKit.spawn(RideService.create(id, instances), "ride-service-" + id));
+        }
+        Globals.rideService = Globals.rideServiceList.toArray(new ActorRef[0]);
+        Globals.cabRouter = testKit.spawn(RideService.cabRouter("consistent-hash"), "cab-router");
+        // the cab router finds the rideServices through the receptionist
+        Thread.sleep(500);
+    }
+
+    // Forwards everything to the cab, holding back SLOW_SHARE of the RequestRides for SLOW_DELAY
+    private static Behavior<Cab.Command> slowProxy(ActorRef<Cab.Command> cab, Random rand) {
+        return Behaviors.receive((context, command) -> {
+            if (command instanceof Cab.RequestRide && rand.nextDouble() < SLOW_SHARE) {
+                context.scheduleOnce(SLOW_DELAY, cab, command);
+            }
+            else {
+                cab.tell(command);
+            }
+            return Behaviors.same();
+        });
+    }
+}
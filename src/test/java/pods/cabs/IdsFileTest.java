@@ -0,0 +1,57 @@
+package pods.cabs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+// IDs.txt is parsed like the Scanner of the previous loader did, whatever the buffer boundaries
+public class IdsFileTest {
+
+    @Test
+    public void sectionsAreParsed() throws Exception {
+        Path file = Files.createTempFile("ids", ".txt");
+        Files.write(file, ("****\n101\r\n  102 \n103\n****\n201\nkund\u00e9\n****\n10000\r\n-5\n+7\n").getBytes(StandardCharsets.UTF_8));
+
+        // Step 1: ids are trimmed, line breaks may be CRLF, balances may have a sign
+        for (int bufferSize : new int[] {1, 3, 7, 1 << 20}) {
+            IdsFile ids = IdsFile.read(file, bufferSize);
+            assertEquals(ids.cabIds, Arrays.asList("101", "102", "103"));
+            assertEquals(ids.customers, Arrays.asList("201", "kund\u00e9"));
+            assertArrayEquals(ids.balances, new int[] {10000, -5});
+        }
+
+        // Step 2: the last line needs no line break
+        Files.write(file, "****\n101\n****\n201\n****\n2147483647".getBytes(StandardCharsets.UTF_8));
+        IdsFile ids = IdsFile.read(file, 4);
+        assertEquals(ids.cabIds, Arrays.asList("101"));
+        assertArrayEquals(ids.balances, new int[] {Integer.MAX_VALUE});
+    }
+
+    @Test
+    public void missingBalancesAreAnError() throws Exception {
+        Path file = Files.createTempFile("ids", ".txt");
+        Files.write(file, "****\n101\n****\n201\n202\n****\n10000\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            IdsFile.read(file);
+            fail();
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), file + " has 1 balances for 2 customers");
+        }
+
+        Files.write(file, "****\n101\n****\n201\n****\nmany\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            IdsFile.read(file);
+            fail();
+        } catch (NumberFormatException e) {
+            assertEquals(e.getMessage(), "For input string: \"many\"");
+        }
+    }
+}
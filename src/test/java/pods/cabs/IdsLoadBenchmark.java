@@ -0,0 +1,173 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Load time of an IDs.txt of 10^5 to 10^7 entries (half cabs, half customers) written under target/.
+// parse: the Scanner of the previous loader against IdsFile.
+// startup: until Main is started, with the previous loader (Scanner, and every cab and wallet actor spawned by Main
+// itself, reproduced here) against IdsFile with the actors spawned by Main (cabs.bootstrap.spawners = 0) and by
+// SPAWNERS spawners. Startup spawns an actor per entry, so it stops at 10^6 entries.
+// Spawners only help with a core per spawner.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-Xmx3g -classpath %classpath pods.cabs.IdsLoadBenchmark"
+public class IdsLoadBenchmark {
+
+    private static final int SPAWNERS = 4;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        Globals.cabRouter = null;
+        for (int entries : new int[] {100_000, 1_000_000, 10_000_000}) {
+            Path file = write(entries);
+            // a first round warms up both parsers
+            parseWithScanner(file);
+            IdsFile.read(file);
+            long start = System.nanoTime();
+            int scanned = parseWithScanner(file);
+            long scannerNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            IdsFile ids = IdsFile.read(file);
+            long idsFileNanos = System.nanoTime() - start;
+            System.out.printf("parse   %,10d entries: scanner=%,d ms ids-file=%,d ms (%,d/%,d ids)%n", entries,
+                              scannerNanos / 1_000_000, idsFileNanos / 1_000_000, scanned,
+                              ids.cabIds.size() + ids.customers.size());
+            if (entries <= 1_000_000) {
+                System.out.printf("startup %,10d entries: scanner=%,d ms ids-file=%,d ms ids-file-%d-spawners=%,d ms%n",
+                                  entries, startWithScanner(file) / 1_000_000, start(file, 0) / 1_000_000,
+                                  SPAWNERS, start(file, SPAWNERS) / 1_000_000);
+            }
+            Files.delete(file);
+        }
+    }
+
+    private static Path write(int entries) throws Exception {
+        Path file = Paths.get("target", "ids-" + entries + ".txt");
+        Files.createDirectories(file.getParent());
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("****\n");
+            for (int i = 0; i < entries / 2; i++) {
+                out.write("cab" + i + "\n");
+            }
+            out.write("****\n");
+            for (int i = 0; i < entries / 2; i++) {
+                out.write("cust" + i + "\n");
+            }
+            out.write("****\n");
+            for (int i = 0; i < entries / 2; i++) {
+                out.write("10000\n");
+            }
+        }
+        return file;
+    }
+
+    // The loop of the previous loader, returns the number of ids
+    private static int parseWithScanner(Path file) throws Exception {
+        Scanner myReader = new Scanner(file.toFile());
+        myReader.nextLine();
+        List<String> cabIds = new ArrayList<>();
+        while (myReader.hasNext()) {
+            String id = myReader.nextLine().trim();
+            if (id.equals("****"))
+                break;
+            cabIds.add(id);
+        }
+        List<String> customers = new ArrayList<>();
+        while (myReader.hasNext()) {
+            String id = myReader.nextLine().trim();
+            if (id.equals("****"))
+                break;
+            customers.add(id);
+        }
+        int[] balances = new int[customers.size()];
+        for (int i = 0; i < customers.size(); i++) {
+            balances[i] = Integer.parseInt(myReader.nextLine().trim());
+        }
+        myReader.close();
+        return cabIds.size() + customers.size();
+    }
+
+    // Nanoseconds until Main is started
+    private static long start(Path file, int spawners) throws Exception {
+        ActorTestKit testKit = testKit("cabs.bootstrap.ids-file = \"" + file + "\"\n"
+                                       + "cabs.bootstrap.spawners = " + spawners);
+        long start = System.nanoTime();
+        TestProbe<Main.Started> started = testKit.createTestProbe();
+        testKit.spawn(Main.create(started.ref()), "defaultActor");
+        started.expectMessage(Duration.ofMinutes(10), new Main.Started("done"));
+        long nanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+        return nanos;
+    }
+
+    // Nanoseconds until the previous loader, which spawned the cab and wallet actors from the Scanner loop,
+    // and the rideServices are done
+    @SuppressWarnings("unchecked")
+    private static long startWithScanner(Path file) throws Exception {
+        ActorTestKit testKit = testKit("");
+        long start = System.nanoTime();
+        TestProbe<Main.Started> started = testKit.createTestProbe();
+        testKit.spawn(Behaviors.setup(context -> {
+            Scanner myReader = new Scanner(new File(file.toString()));
+            myReader.nextLine();
+            while (myReader.hasNext()) {
+                String id = myReader.nextLine().trim();
+                if (id.equals("****"))
+                    break;
+                Globals.cabs.put(id, context.spawn(Cab.create(id), "cab-" + id));
+            }
+            List<String> customers = new ArrayList<>();
+            while (myReader.hasNext()) {
+                String id = myReader.nextLine().trim();
+                if (id.equals("****"))
+                    break;
+                customers.add(id);
+            }
+            for (String cust : customers) {
+                String id = myReader.nextLine().trim();
+                Globals.wallets.put(cust, context.spawn(Wallet.create(cust, Integer.parseInt(id)), "wallet-" + cust));
+            }
+            myReader.close();
+            List<ActorRef<RideService.Command>> rideServices = new ArrayList<>();
+            int instances = RideService.instances(context.getSystem().settings().config());
+            for (int id = 0; id < instances; id++) {
+                rideServices.add(context.spawn(RideService.create(id, instances), "ride-service-" + id));
+            }
+            started.ref().tell(new Main.Started("done"));
+            return Behaviors.empty();
+        }), "defaultActor");
+        started.expectMessage(Duration.ofMinutes(10), new Main.Started("done"));
+        long nanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+        return nanos;
+    }
+
+    private static ActorTestKit testKit(String config) {
+        Globals.cabs.clear();
+        Globals.wallets.clear();
+        // stopping a million actors takes longer than the default
+        return ActorTestKit.create(
+            ConfigFactory.parseString(config + "\n"
+                                      + "akka.actor.testkit.typed.system-shutdown-default = 5m\n"
+                                      + "akka.coordinated-shutdown.phases.actor-system-terminate.timeout = 5m")
+                .withFallback(ConfigFactory.load()));
+    }
+}
@@ -0,0 +1,156 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Load of cab location pings (Cab.UpdateLocation) at RATE pings per second spread over CABS available cabs,
+// forwarding every new position against conflating them per cabs.cab.location-interval, with and without
+// batched replication. Shows the positions forwarded to and replicated between the rideServices, and how
+// far behind the actors fall: the worst round trip of a GetStats to a rideService and of a GetCabStatus
+// to a cab during the run (time spent behind queued messages), and the time to drain the rideServices after it.
+// The cabs and rideServices are set up here like Main does.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.LocationUpdateBenchmark"
+public class LocationUpdateBenchmark {
+
+    private static final int CABS = 2000;
+    private static final int RATE = 10_000;
+    private static final Duration RUN = Duration.ofSeconds(10);
+    private static final Duration TICK = Duration.ofMillis(10);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        run("every-ping", "cabs.cab.location-interval = 0");
+        run("interval-1s", "cabs.cab.location-interval = 1s");
+        run("interval-1s-flush-100ms", "cabs.cab.location-interval = 1s\n"
+                                       + "cabs.ride-service.replication-flush-interval = 100ms");
+    }
+
+    private static void run(String mode, String config) throws Exception {
+        ActorTestKit testKit = ActorTestKit.create(
+            ConfigFactory.parseString(config).withFallback(ConfigFactory.load()));
+        List<ActorRef<Cab.Command>> cabs = setUp(testKit);
+        for (ActorRef<Cab.Command> cab : cabs) {
+            cab.tell(new Cab.SignIn(50));
+        }
+        Thread.sleep(1000);
+
+        TestProbe<Long> done = testKit.createTestProbe();
+        long start = System.nanoTime();
+        testKit.spawn(pinger(cabs, start + RUN.toNanos(), done.ref()));
+        long maxServiceMicros = 0;
+        long maxCabMicros = 0;
+        Random rand = new Random(7);
+        while (System.nanoTime() - start < RUN.toNanos()) {
+            Thread.sleep(100);
+            long sent = System.nanoTime();
+            stats(testKit, Globals.rideService[rand.nextInt(Globals.rideService.length)]).get();
+            maxServiceMicros = Math.max(maxServiceMicros, (System.nanoTime() - sent) / 1000);
+            sent = System.nanoTime();
+            AskPattern.<Cab.Command, Cab.CabStatus>ask(cabs.get(rand.nextInt(CABS)), Cab.GetCabStatus::new,
+                    Duration.ofSeconds(60), testKit.system().scheduler())
+                .toCompletableFuture().get();
+            maxCabMicros = Math.max(maxCabMicros, (System.nanoTime() - sent) / 1000);
+        }
+        long pings = done.receiveMessage(Duration.ofSeconds(60));
+        long seconds = (System.nanoTime() - start) / 1_000_000_000L;
+
+        // a GetStats is answered once the messages queued before it are handled
+        long drainStart = System.nanoTime();
+        List<CompletableFuture<RideService.Stats>> replies = new ArrayList<>();
+        for (ActorRef<RideService.Command> rideService : Globals.rideService) {
+            replies.add(stats(testKit, rideService));
+        }
+        long moves = 0;
+        long replication = 0;
+        for (CompletableFuture<RideService.Stats> reply : replies) {
+            moves += reply.get().cabMoves;
+            replication += reply.get().replicationSent;
+        }
+        long drainMillis = (System.nanoTime() - drainStart) / 1_000_000;
+
+        System.out.printf("%-24s pings=%,d/s forwarded=%,d/s replication=%,d msgs/s max-rtt rideService=%,d us cab=%,d us drain=%,d ms%n",
+                          mode, pings / seconds, moves / seconds, replication / seconds,
+                          maxServiceMicros, maxCabMicros, drainMillis);
+        testKit.shutdownTestKit();
+    }
+
+    private static CompletableFuture<RideService.Stats> stats(ActorTestKit testKit, ActorRef<RideService.Command> rideService) {
+        return AskPattern.<RideService.Command, RideService.Stats>ask(rideService, RideService.GetStats::new,
+                Duration.ofSeconds(60), testKit.system().scheduler())
+            .toCompletableFuture();
+    }
+
+    private static final class Tick {
+    }
+
+    // Sends the pings owed at RATE every TICK, every cab in turn moves one step either way.
+    // Sends the number of pings once the deadline is over.
+    private static Behavior<Tick> pinger(List<ActorRef<Cab.Command>> cabs, long deadline, ActorRef<Long> done) {
+        return Behaviors.withTimers(timers -> {
+            timers.startTimerAtFixedRate(new Tick(), TICK);
+            long start = System.nanoTime();
+            long[] sent = new long[] {0};
+            int[] positions = new int[cabs.size()];
+            Arrays.fill(positions, 50);
+            Random rand = new Random(42);
+            return Behaviors.receive(Tick.class)
+                .onMessage(Tick.class, tick -> {
+                    long now = System.nanoTime();
+                    if (now >= deadline) {
+                        done.tell(sent[0]);
+                        return Behaviors.stopped();
+                    }
+                    long owed = (now - start) * RATE / 1_000_000_000L;
+                    for (; sent[0] < owed; sent[0]++) {
+                        int cab = (int) (sent[0] % cabs.size());
+                        positions[cab] = Math.max(0, positions[cab] + (rand.nextBoolean() ? 1 : -1));
+                        cabs.get(cab).tell(new Cab.UpdateLocation(positions[cab]));
+                    }
+                    return Behaviors.same();
+                })
+                .build();
+        });
+    }
+
+    // Spawns the cabs and the rideServices
+    @SuppressWarnings("unchecked")
+    private static List<ActorRef<Cab.Command>> setUp(ActorTestKit testKit) throws Exception {
+        Globals.cabs.clear();
+        Globals.wallets.clear();
+        List<ActorRef<Cab.Command>> cabs = new ArrayList<>();
+        for (int i = 0; i < CABS; i++) {
+            String cabId = "cab" + i;
+            ActorRef<Cab.Command> cab = testKit.spawn(Cab.create(cabId), "cab-" + cabId);
+            Globals.cabs.put(cabId, cab);
+            cabs.add(cab);
+        }
+        Globals.rideServiceList = new ArrayList<>();
+        int instances = RideService.instances(testKit.system().settings().config());
+        for (int id = 0; id < instances; id++) {
+            Globals.rideServiceList.add(testKit.spawn(RideService.create(id, instances), "ride-service-" + id));
+        }
+        Globals.rideService = Globals.rideServiceList.toArray(new ActorRef[0]);
+        Globals.cabRouter = testKit.spawn(RideService.cabRouter("consistent-hash"), "cab-router");
+        // the cab router finds the rideServices through the receptionist
+        Thread.sleep(500);
+        return cabs;
+    }
+}
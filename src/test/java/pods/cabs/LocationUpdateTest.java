@@ -0,0 +1,100 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Cabs conflate their location pings, and the rideServices match rides from the forwarded positions
+public class LocationUpdateTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.cab.location-interval = 300ms").withFallback(ConfigFactory.load()));
+
+    @BeforeClass
+    public static void setUp() {
+        TestProbe<Main.Started> testProbe = testKit.createTestProbe();
+        testKit.spawn(Main.create(testProbe.ref()), "defaultActor");
+        testProbe.expectMessage(new Main.Started("done"));
+    }
+
+    @Test
+    public void pingsAreConflated() {
+        ActorRef<RideService.Command> cabRouter = Globals.cabRouter;
+        TestProbe<RideService.Command> rideServices = testKit.createTestProbe();
+        Globals.cabRouter = rideServices.ref();
+        try {
+            TestProbe<FulfillRide.Command> fulfillRide = testKit.createTestProbe();
+            ActorRef<Cab.Command> cab = testKit.spawn(Cab.create("601"));
+            cab.tell(new Cab.SignIn(10));
+            RideService.CabSignsIn signIn = rideServices.expectMessageClass(RideService.CabSignsIn.class);
+            assertEquals(signIn.version, 1);
+            signIn.replyTo.tell(new Cab.UpdateApplied(signIn.version));
+
+            // Step 1: the first ping is forwarded at once, the next ones are conflated into the latest
+            cab.tell(new Cab.UpdateLocation(11));
+            cab.tell(new Cab.UpdateLocation(12));
+            cab.tell(new Cab.UpdateLocation(13));
+            RideService.CabMoved moved = rideServices.expectMessageClass(RideService.CabMoved.class);
+            assertEquals(moved.pos, 11);
+            assertEquals(moved.version, 2);
+            moved = rideServices.expectMessageClass(RideService.CabMoved.class, Duration.ofSeconds(2));
+            assertEquals(moved.pos, 13);
+            assertEquals(moved.version, 3);
+            rideServices.expectNoMessage(Duration.ofMillis(500));
+
+            // Step 2: a cab which does not move sends nothing
+            cab.tell(new Cab.UpdateLocation(13));
+            rideServices.expectNoMessage(Duration.ofMillis(500));
+
+            // Step 3: a ping pending when the cab commits to a ride is dropped, and so are pings until it ends
+            cab.tell(new Cab.UpdateLocation(14));
+            assertEquals(rideServices.expectMessageClass(RideService.CabMoved.class).pos, 14);
+            cab.tell(new Cab.UpdateLocation(15));
+            cab.tell(new Cab.RequestRide("601", 20, 1, 50, fulfillRide.ref()));
+            assertEquals(fulfillRide.expectMessageClass(FulfillRide.RequestRideCabResponse.class).response, "interested");
+            cab.tell(new Cab.UpdateLocation(16));
+            rideServices.expectNoMessage(Duration.ofMillis(500));
+            TestProbe<Cab.CabStatus> statusProbe = testKit.createTestProbe();
+            cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+            assertEquals(statusProbe.receiveMessage().initialPos, 14);
+        }
+        finally {
+            Globals.cabRouter = cabRouter;
+        }
+    }
+
+    @Test
+    public void rideIsMatchedFromForwardedPosition() throws Exception {
+        TestProbe<Cab.NumRidesResponse> resetCab = testKit.createTestProbe();
+        Globals.cabs.forEach((k, v) -> {
+            v.tell(new Cab.Reset(resetCab.ref()));
+            resetCab.receiveMessage();
+        });
+
+        // Step 1: cab 101 signs in at 10 and moves to 40
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        cab101.tell(new Cab.SignIn(10));
+        cab101.tell(new Cab.UpdateLocation(40));
+        Thread.sleep(500);
+
+        // Step 2: every rideService has the new position, the fare is computed from it
+        TestProbe<RideService.RideResponse> rideProbe = testKit.createTestProbe();
+        Globals.rideService[3].tell(new RideService.RequestRide("201", 50, 60, rideProbe.ref()));
+        RideService.RideResponse resp = rideProbe.receiveMessage();
+        assertEquals(resp.cabId, "101");
+        assertEquals(resp.fare, (10 + 10) * 10);
+        cab101.tell(new Cab.RideEnded(resp.rideId));
+    }
+}
@@ -3,6 +3,7 @@ package pods.cabs;
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
 import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
@@ -47,7 +48,7 @@ public class MainActorTest {
                 assertEquals(walletProbe.receiveMessage().balance, 10000);
         });
 
-        ActorRef<Cab.Command> cab101 =  Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 =  Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(100));
         else {
@@ -59,7 +60,7 @@ public class MainActorTest {
         Cab.CabStatus cabResp = cabProbe.receiveMessage();
         assertEquals(cabResp.majorState, "signed-in");
 
-        ActorRef<Cab.Command> cab102 =  Globals.cabs.get("102");
+        RecipientRef<Cab.Command> cab102 =  Globals.cabs.get("102");
         if (cab102 != null)
             cab102.tell(new Cab.SignIn(0));
         else {
@@ -0,0 +1,76 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+public class OwnershipTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.ride-service.ownership = on").withFallback(ConfigFactory.load()));
+
+    private static ActorRef<Void> underTest;
+
+    @BeforeClass
+    public static void setUp() {
+        TestProbe<Main.Started> testProbe = testKit.createTestProbe();
+        underTest = testKit.spawn(Main.create(testProbe.ref()), "defaultActor");
+        testProbe.expectMessage(new Main.Started("done"));
+    }
+
+    @Test
+    public void nearestCabAcrossOwners() throws Exception {
+        Thread.sleep(2000);
+        TestProbe<Cab.NumRidesResponse> resetCab = testKit.createTestProbe();
+        Globals.cabs.forEach((k, v) -> {
+            v.tell(new Cab.Reset(resetCab.ref()));
+            resetCab.receiveMessage();
+        });
+
+        TestProbe<Wallet.ResponseBalance> walletProbe = testKit.createTestProbe();
+        Globals.wallets.forEach((k, v) -> {
+            v.tell(new Wallet.Reset(walletProbe.ref()));
+            assertEquals(walletProbe.receiveMessage().balance, 10000);
+        });
+
+        // Step 1: cabs 101, 102 and 103 sign in at 70, 80 and 90
+        TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
+        int pos = 70;
+        for (String cabId : new String[] {"101", "102", "103"}) {
+            RecipientRef<Cab.Command> cab = Globals.cabs.get(cabId);
+            cab.tell(new Cab.SignIn(pos));
+            cab.tell(new Cab.GetCabStatus(cabProbe.ref()));
+            assertEquals(cabProbe.receiveMessage().majorState, "signed-in");
+            pos += 10;
+        }
+        Thread.sleep(500);
+
+        // Step 2: customer 201 requests a ride at 88, cab 103 is the nearest whichever rideService owns it
+        TestProbe<RideService.RideResponse> rideProbe = testKit.createTestProbe();
+        Globals.rideService[RideService.ownerOf("103", Globals.rideService.length) == 0 ? 1 : 0]
+            .tell(new RideService.RequestRide("201", 88, 98, rideProbe.ref()));
+        RideService.RideResponse resp = rideProbe.receiveMessage();
+        assertNotEquals(resp.rideId, -1);
+        assertEquals(resp.cabId, "103");
+        assertEquals(resp.fare, (2 + 10) * 10);
+        Globals.cabs.get("103").tell(new Cab.RideEnded(resp.rideId));
+
+        // Step 3: cab updates were forwarded to the owners, never replicated
+        TestProbe<RideService.Stats> statsProbe = testKit.createTestProbe();
+        for (ActorRef<RideService.Command> rideService : Globals.rideService) {
+            rideService.tell(new RideService.GetStats(statsProbe.ref()));
+            assertEquals(statsProbe.receiveMessage().replicationSent, 0);
+        }
+    }
+}
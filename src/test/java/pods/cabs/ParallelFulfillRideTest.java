@@ -0,0 +1,80 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+public class ParallelFulfillRideTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.fulfill-ride.parallel = on").withFallback(ConfigFactory.load()));
+
+    private static ActorRef<Void> underTest;
+
+    @BeforeClass
+    public static void setUp() {
+        TestProbe<Main.Started> testProbe = testKit.createTestProbe();
+        underTest = testKit.spawn(Main.create(testProbe.ref()), "defaultActor");
+        testProbe.expectMessage(new Main.Started("done"));
+    }
+
+    @Test
+    public void firstInterestedCabWins() throws Exception {
+        Thread.sleep(2000);
+        TestProbe<Cab.NumRidesResponse> resetCab = testKit.createTestProbe();
+        Globals.cabs.forEach((k, v) -> {
+            v.tell(new Cab.Reset(resetCab.ref()));
+            resetCab.receiveMessage();
+        });
+
+        TestProbe<Wallet.ResponseBalance> walletProbe = testKit.createTestProbe();
+        Globals.wallets.forEach((k, v) -> {
+            v.tell(new Wallet.Reset(walletProbe.ref()));
+            assertEquals(walletProbe.receiveMessage().balance, 10000);
+        });
+
+        // Step 1: cabs 101, 102 and 103 sign in
+        TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
+        int pos = 10;
+        for (String cabId : new String[] {"101", "102", "103"}) {
+            RecipientRef<Cab.Command> cab = Globals.cabs.get(cabId);
+            cab.tell(new Cab.SignIn(pos));
+            cab.tell(new Cab.GetCabStatus(cabProbe.ref()));
+            assertEquals(cabProbe.receiveMessage().majorState, "signed-in");
+            pos += 10;
+        }
+        Thread.sleep(500);
+
+        // Step 2: customer 201 requests a ride, all three cabs are asked at once
+        TestProbe<RideService.RideResponse> rideProbe = testKit.createTestProbe();
+        Globals.rideService[0].tell(new RideService.RequestRide("201", 10, 100, rideProbe.ref()));
+        RideService.RideResponse resp = rideProbe.receiveMessage();
+        assertNotEquals(resp.rideId, -1);
+        Thread.sleep(500);
+
+        // Step 3: only the winning cab gives the ride, the other cabs are available again
+        for (String cabId : new String[] {"101", "102", "103"}) {
+            Globals.cabs.get(cabId).tell(new Cab.GetCabStatus(cabProbe.ref()));
+            Cab.CabStatus status = cabProbe.receiveMessage();
+            if (cabId.equals(resp.cabId)) {
+                assertEquals(status.minorState, "giving-ride");
+                assertEquals(status.rideId, resp.rideId);
+            }
+            else {
+                assertEquals(status.minorState, "available");
+            }
+        }
+        Globals.cabs.get(resp.cabId).tell(new Cab.RideEnded(resp.rideId));
+    }
+}
@@ -0,0 +1,184 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Persistent cabs recover their state, including a ride in flight, and announce it to the rideServices
+public class PersistentCabTest {
+
+    private static final String DIR = "target/persistent-cab-test-" + System.nanoTime();
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.cab.persistent = on\n"
+                                  + "cabs.cab.snapshot-every = 3\n"
+                                  + "akka.persistence.journal.leveldb.dir = \"" + DIR + "/journal\"\n"
+                                  + "akka.persistence.snapshot-store.local.dir = \"" + DIR + "/snapshots\"")
+            .withFallback(ConfigFactory.load()));
+
+    @After
+    public void tearDown() {
+        Globals.cabRouter = null;
+    }
+
+    // the journal is closed with the actor system before its files are deleted
+    @AfterClass
+    public static void deleteJournal() throws Exception {
+        testKit.testKit().shutdownTestKit();
+        Path path = new File(DIR).toPath();
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void rideInFlightSurvivesRestart() {
+        TestProbe<RideService.Command> rideServices = testKit.createTestProbe();
+        Globals.cabRouter = rideServices.ref();
+        TestProbe<FulfillRide.Command> fulfillRide = testKit.createTestProbe();
+        TestProbe<Cab.CabStatus> statusProbe = testKit.createTestProbe();
+
+        // Step 1: the cab signs in and starts a ride, another request finds it busy
+        ActorRef<Cab.Command> cab = testKit.spawn(Cab.create("501"));
+        cab.tell(new Cab.SignIn(10));
+        RideService.CabSignsIn signIn = rideServices.expectMessageClass(RideService.CabSignsIn.class);
+        assertEquals(signIn.version, 1);
+        signIn.replyTo.tell(new Cab.UpdateApplied(signIn.version));
+        cab.tell(new Cab.RequestRide("501", 20, 1, 50, fulfillRide.ref()));
+        assertEquals(fulfillRide.expectMessageClass(FulfillRide.RequestRideCabResponse.class).response, "interested");
+        cab.tell(new Cab.RideStarted("501", 1, fulfillRide.ref()));
+        FulfillRide.RideStartedCabResponse started = fulfillRide.expectMessageClass(FulfillRide.RideStartedCabResponse.class);
+        assertEquals(started.started, true);
+        assertEquals(started.version, 3);
+        cab.tell(new Cab.RequestRide("501", 20, 2, 50, fulfillRide.ref()));
+        assertEquals(fulfillRide.expectMessageClass(FulfillRide.RequestRideCabResponse.class).response, "busy");
+        testKit.stop(cab);
+
+        // Step 2: the cab comes back giving the ride, and announces it with a newer version
+        cab = testKit.spawn(Cab.create("501"));
+        RideService.UpdateFromFulfillRide announced = rideServices.expectMessageClass(RideService.UpdateFromFulfillRide.class);
+        assertEquals(announced.state, CabState.GIVING_RIDE);
+        assertEquals(announced.rideId, 1);
+        assertEquals(announced.version, 4);
+        cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+        Cab.CabStatus status = statusProbe.receiveMessage();
+        assertEquals(status.majorState, "signed-in");
+        assertEquals(status.minorState, "giving-ride");
+        assertEquals(status.initialPos, 20);
+        assertEquals(status.numRides, 1);
+
+        // Step 3: the ride ends, the cab tells the rideServices itself since its fulfillRide may be gone,
+        // and the fulfillRide is told as well in case it is not
+        cab.tell(new Cab.RideEnded(1));
+        RideService.UpdateFromFulfillRide ended = rideServices.expectMessageClass(RideService.UpdateFromFulfillRide.class);
+        assertEquals(ended.state, CabState.AVAILABLE);
+        assertEquals(ended.initialPos, 50);
+        assertEquals(ended.version, 5);
+        assertEquals(fulfillRide.expectMessageClass(FulfillRide.FulfillRideEnded.class).version, 5);
+        ended.replyTo.tell(new Cab.UpdateApplied(ended.version));
+        cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+        assertEquals(statusProbe.receiveMessage().initialPos, 50);
+    }
+
+    @Test
+    public void recoveredCabIsOfferedRidesAfterItsRide() {
+        // the cab's entries in the rideServices keep this ref across the restart of the cab, as an entity ref would
+        AtomicReference<ActorRef<Cab.Command>> incarnation = new AtomicReference<>();
+        ActorRef<Cab.Command> cab = testKit.spawn(Behaviors.receiveMessage(command -> {
+            incarnation.get().tell(command);
+            return Behaviors.same();
+        }));
+        Globals.cabs.put("503", cab);
+        Globals.wallets.put("203", testKit.spawn(Wallet.create("203", 10000)));
+        TestProbe<RideService.RideResponse> rideProbe = testKit.createTestProbe();
+        TestProbe<Cab.CabStatus> statusProbe = testKit.createTestProbe();
+
+        try {
+            // Step 1: the cab signs in and gets a ride
+            ActorRef<RideService.Command> rideService = testKit.spawn(RideService.create(0, 1));
+            Globals.cabRouter = rideService;
+            incarnation.set(testKit.spawn(Cab.create("503")));
+            cab.tell(new Cab.SignIn(10));
+            cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+            assertEquals(statusProbe.receiveMessage().minorState, "available");
+            rideService.tell(new RideService.RequestRide("203", 10, 50, rideProbe.ref()));
+            RideService.RideResponse ride = rideProbe.receiveMessage();
+            assertEquals(ride.cabId, "503");
+
+            // Step 2: the cab, the rideService and the fulfillRide actor of the ride stop, and start again
+            testKit.stop(incarnation.get());
+            testKit.stop(rideService);
+            rideService = testKit.spawn(RideService.create(0, 1));
+            Globals.cabRouter = rideService;
+            incarnation.set(testKit.spawn(Cab.create("503")));
+            cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+            assertEquals(statusProbe.receiveMessage().minorState, "giving-ride");
+
+            // Step 3: the ride ends, the rideService learns it although the fulfillRide actor is gone
+            cab.tell(new Cab.RideEnded(ride.rideId));
+            cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+            assertEquals(statusProbe.receiveMessage().minorState, "available");
+
+            // Step 4: the cab passes on the first request after its ride, as every cab does, and gets the next one
+            rideService.tell(new RideService.RequestRide("203", 50, 60, rideProbe.ref()));
+            assertEquals(rideProbe.receiveMessage().rideId, -1);
+            rideService.tell(new RideService.RequestRide("203", 50, 60, rideProbe.ref()));
+            assertEquals(rideProbe.receiveMessage().cabId, "503");
+        }
+        finally {
+            Globals.cabs.remove("503");
+            Globals.wallets.remove("203");
+        }
+    }
+
+    @Test
+    public void commitmentOfGoneFulfillRideIsDropped() {
+        TestProbe<RideService.Command> rideServices = testKit.createTestProbe();
+        Globals.cabRouter = rideServices.ref();
+        ActorRef<FulfillRide.Command> fulfillRide = testKit.spawn(Behaviors.<FulfillRide.Command>empty());
+        TestProbe<Cab.CabStatus> statusProbe = testKit.createTestProbe();
+
+        // Step 1: the cab commits to a ride, then both the cab and the fulfillRide actor stop
+        ActorRef<Cab.Command> cab = testKit.spawn(Cab.create("502"));
+        cab.tell(new Cab.SignIn(10));
+        RideService.CabSignsIn signIn = rideServices.expectMessageClass(RideService.CabSignsIn.class);
+        signIn.replyTo.tell(new Cab.UpdateApplied(signIn.version));
+        cab.tell(new Cab.RequestRide("502", 20, 7, 50, fulfillRide));
+        cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+        assertEquals(statusProbe.receiveMessage().minorState, "committed");
+        testKit.stop(cab);
+        testKit.stop(fulfillRide);
+
+        // Step 2: the recovered cab is committed, nobody will start the ride so it is available again
+        cab = testKit.spawn(Cab.create("502"));
+        assertEquals(rideServices.expectMessageClass(RideService.UpdateFromFulfillRide.class).state, CabState.COMMITTED);
+        RideService.CabSignsIn available = rideServices.expectMessageClass(RideService.CabSignsIn.class);
+        assertEquals(available.initialPos, 10);
+        assertEquals(available.version, 4);
+        cab.tell(new Cab.GetCabStatus(statusProbe.ref()));
+        Cab.CabStatus status = statusProbe.receiveMessage();
+        assertEquals(status.minorState, "available");
+        assertEquals(status.rideId, -1);
+    }
+}
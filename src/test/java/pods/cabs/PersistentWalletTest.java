@@ -0,0 +1,112 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Persistent wallets recover their balance and holds when they are started again
+public class PersistentWalletTest {
+
+    private static final String DIR = "target/persistent-wallet-test-" + System.nanoTime();
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.wallet.persistent = on\n"
+                                  + "cabs.wallet.snapshot-every = 3\n"
+                                  + "akka.persistence.journal.leveldb.dir = \"" + DIR + "/journal\"\n"
+                                  + "akka.persistence.snapshot-store.local.dir = \"" + DIR + "/snapshots\"")
+            .withFallback(ConfigFactory.load()));
+
+    // the journal is closed with the actor system before its files are deleted
+    @AfterClass
+    public static void deleteJournal() throws Exception {
+        testKit.testKit().shutdownTestKit();
+        Path path = new File(DIR).toPath();
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void walletRecoversAfterRestart() {
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+
+        // Step 1: money moves in the wallet, including a hold which is still open
+        ActorRef<Wallet.Command> wallet = testKit.spawn(Wallet.create("301", 1000));
+        wallet.tell(new Wallet.DeductBalance(100, probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        wallet.tell(new Wallet.AddBalance(50));
+        wallet.tell(new Wallet.DeductBalance(2000, probe.ref()));
+        assertEquals(probe.receiveMessage().balance, -1);
+        wallet.tell(new Wallet.HoldBalance(200, 300, 7, "ride-7", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 650);
+        wallet.tell(new Wallet.DeductBalance(50, probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 600);
+        testKit.stop(wallet);
+
+        // Step 2: the wallet starts again from a snapshot and the events after it, with the same balance and hold
+        wallet = testKit.spawn(Wallet.create("301", 1000));
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 600);
+        wallet.tell(new Wallet.CaptureHold(250, 7, "ride-7", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 650);
+        assertTrue(new File(DIR + "/snapshots").list().length > 0);
+
+        // Step 3: reset is an event too, the wallet is back at its initial balance after a restart
+        wallet.tell(new Wallet.Reset(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1000);
+        testKit.stop(wallet);
+        wallet = testKit.spawn(Wallet.create("301", 1000));
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1000);
+    }
+
+    @Test
+    public void duplicatesAreAnsweredAfterRestart() {
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+
+        // Step 1: a deduct and a refund for a ride
+        ActorRef<Wallet.Command> wallet = testKit.spawn(Wallet.create("302", 1000));
+        wallet.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        wallet.tell(new Wallet.AddBalance(100, 1, "ride-1"));
+        wallet.tell(new Wallet.DeductBalance(2000, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, -1);
+        testKit.stop(wallet);
+
+        // Step 2: the wallet recovers the results, so duplicates change nothing
+        wallet = testKit.spawn(Wallet.create("302", 1000));
+        wallet.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        wallet.tell(new Wallet.AddBalance(100, 1, "ride-1"));
+        wallet.tell(new Wallet.AddBalance(1000));
+        wallet.tell(new Wallet.DeductBalance(2000, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, -1);
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 2000);
+
+        // Step 3: a rideService which restarted numbers its rides from 1 again, under a new key they are new rides
+        wallet.tell(new Wallet.DeductBalance(100, 1, "restarted-ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1900);
+        wallet.tell(new Wallet.HoldBalance(200, 300, 2, "restarted-ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1600);
+    }
+}
@@ -3,6 +3,7 @@ package pods.cabs;
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
 import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
@@ -49,7 +50,7 @@ public class PhaseOneTest {
                 assertEquals(walletProbe.receiveMessage().balance, 10000);
         });
 
-        ActorRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
         cab101.tell(new Cab.SignIn(10));
         //Nikita
         TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
@@ -88,7 +89,7 @@ public class PhaseOneTest {
         });
 
         // Step 1. cab 101 signs in
-        ActorRef<Cab.Command> cab101 =  Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 =  Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(0));
         else {
@@ -101,7 +102,7 @@ public class PhaseOneTest {
         assertEquals(cabResp.majorState, "signed-in");
 
         // Step 2 : Customer 201 adds amount to his/her wallet
-        ActorRef<Wallet.Command> wallet_201 = Globals.wallets.get("201");
+        RecipientRef<Wallet.Command> wallet_201 = Globals.wallets.get("201");
         wallet_201.tell(new Wallet.AddBalance(2000));
 
         // Step 3: customer 201 requests a ride
@@ -137,7 +138,7 @@ public class PhaseOneTest {
         });
 
         // Step 1: cab 101 signs in
-        ActorRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(70));
         else {
@@ -150,7 +151,7 @@ public class PhaseOneTest {
         assertEquals(cabResp.majorState, "signed-in");
 
         // Step 2: cab 102 signs in
-        ActorRef<Cab.Command> cab102 = Globals.cabs.get("102");
+        RecipientRef<Cab.Command> cab102 = Globals.cabs.get("102");
         if (cab102 != null)
             cab102.tell(new Cab.SignIn(80));
         else {
@@ -162,7 +163,7 @@ public class PhaseOneTest {
         assertEquals(cabResp.majorState, "signed-in");
 
         // Step 3: cab 103 signs in
-        ActorRef<Cab.Command> cab103 = Globals.cabs.get("103");
+        RecipientRef<Cab.Command> cab103 = Globals.cabs.get("103");
         if (cab103 != null)
             cab103.tell(new Cab.SignIn(90));
         else {
@@ -211,7 +212,7 @@ public class PhaseOneTest {
         assertEquals(num3.numRides, 1);
 
         // Step 10: Cab 104 signs in
-        ActorRef<Cab.Command> cab104 = Globals.cabs.get("104");
+        RecipientRef<Cab.Command> cab104 = Globals.cabs.get("104");
         if (cab104 != null)
             cab104.tell(new Cab.SignIn(0));
         else {
@@ -246,7 +247,7 @@ public class PhaseOneTest {
         });
 
         // Step 1: Cab 101 signs in
-        ActorRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(0));
         else {
@@ -266,7 +267,7 @@ public class PhaseOneTest {
 
         // Step 3 : Check wallet balance for customer 201
         TestProbe<Wallet.ResponseBalance> walletBalanceProbe = testKit.createTestProbe();
-        ActorRef<Wallet.Command> wallet_201 = Globals.wallets.get("201");
+        RecipientRef<Wallet.Command> wallet_201 = Globals.wallets.get("201");
         wallet_201.tell(new Wallet.GetBalance(walletBalanceProbe.ref()));
 
         assertEquals(walletBalanceProbe.receiveMessage().balance, 10000);
@@ -282,7 +283,7 @@ public class PhaseOneTest {
         });
 
         TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
-        ActorRef<Cab.Command> cabStatus = Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cabStatus = Globals.cabs.get("101");
         cabStatus.tell(new Cab.GetCabStatus(cabProbe.ref()));
         Cab.CabStatus resp2 = cabProbe.receiveMessage();
         assertEquals(resp2.majorState, "signed-out");
@@ -299,7 +300,7 @@ public class PhaseOneTest {
         });
 
         // Step 1: Cab 101 signs in
-        ActorRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(10));
         else {
@@ -311,7 +312,7 @@ public class PhaseOneTest {
         assertEquals(cabResp.majorState, "signed-in");
         
         // Step 2: Cab 102 signs in
-        ActorRef<Cab.Command> cab102 = Globals.cabs.get("102");
+        RecipientRef<Cab.Command> cab102 = Globals.cabs.get("102");
         if (cab102 != null)
             cab102.tell(new Cab.SignIn(30));
         else {
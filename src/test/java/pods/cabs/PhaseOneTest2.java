@@ -3,6 +3,7 @@ package pods.cabs;
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
 import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
@@ -49,7 +50,7 @@ public class PhaseOneTest2 {
         TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
 
         // #Step 1 : cab 101 signs in
-        ActorRef<Cab.Command> cab101 =  Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 =  Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(900));
         else {
@@ -70,7 +71,7 @@ public class PhaseOneTest2 {
         assertEquals(resp.rideId, -1);
 
         // #Step 3 : Checks wallet balance for the Customer 201.
-        ActorRef<Wallet.Command> wallet_201 = Globals.wallets.get("201");
+        RecipientRef<Wallet.Command> wallet_201 = Globals.wallets.get("201");
         wallet_201.tell(new Wallet.GetBalance(walletProbe.ref()));
         assertEquals(walletProbe.receiveMessage().balance, 10000);
 
@@ -100,7 +101,7 @@ public class PhaseOneTest2 {
 
 
         // #Step 1 : cab 101 signs in
-        ActorRef<Cab.Command> cab101 =  Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 =  Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(10));
         else {
@@ -115,7 +116,7 @@ public class PhaseOneTest2 {
         assertEquals(resp2.numRides, 0);
 
         // #Step 2 : cab 102 signs in
-        ActorRef<Cab.Command> cab102 =  Globals.cabs.get("102"); 
+        RecipientRef<Cab.Command> cab102 =  Globals.cabs.get("102"); 
         if (cab102 != null)
             cab102.tell(new Cab.SignIn(30));
         else {
@@ -178,7 +179,7 @@ public class PhaseOneTest2 {
         });
 
         // #Step 1 :  sign in of Invalid Cab
-        ActorRef<Cab.Command> cab901 =  Globals.cabs.get("901");
+        RecipientRef<Cab.Command> cab901 =  Globals.cabs.get("901");
         if (cab901 != null)
             cab901.tell(new Cab.SignIn(100));
         else {
@@ -186,7 +187,7 @@ public class PhaseOneTest2 {
         }
 
         // #Step 2 :  sign Out of Cab which is already Signed Out
-        ActorRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
         TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
         cab101.tell(new Cab.GetCabStatus(cabProbe.ref()));
         Cab.CabStatus resp0 = cabProbe.receiveMessage();
@@ -248,7 +249,7 @@ public class PhaseOneTest2 {
         });
 
         // #Step 2 : cab 101 signs in
-        ActorRef<Cab.Command> cab101 =  Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 =  Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(0));
         else {
@@ -260,7 +261,7 @@ public class PhaseOneTest2 {
         assertEquals(resp1.majorState, "signed-in");
 
         // #Step 3 : cab 102 signs in
-        ActorRef<Cab.Command> cab102 =  Globals.cabs.get("102");
+        RecipientRef<Cab.Command> cab102 =  Globals.cabs.get("102");
         if (cab102 != null)
             cab102.tell(new Cab.SignIn(100));
         else {
@@ -299,7 +300,7 @@ public class PhaseOneTest2 {
         assertEquals(num2.numRides, 0);
 
         // #Step 7 :  Numrides for of Cab 103 ---in Signed OUT state
-        ActorRef<Cab.Command> cab103 =  Globals.cabs.get("103");
+        RecipientRef<Cab.Command> cab103 =  Globals.cabs.get("103");
         cab103.tell(new Cab.NumRides(rideProbe2.ref()));
         Cab.NumRidesResponse num3 = rideProbe2.receiveMessage();
         assertEquals(num3.numRides, 0);
@@ -325,7 +326,7 @@ public class PhaseOneTest2 {
         });
 
          // #Step 2 : cab 101 signs in
-         ActorRef<Cab.Command> cab101 =  Globals.cabs.get("101");
+         RecipientRef<Cab.Command> cab101 =  Globals.cabs.get("101");
          if (cab101 != null)
              cab101.tell(new Cab.SignIn(0));
          else {
@@ -361,7 +362,7 @@ public class PhaseOneTest2 {
         });
 
         // #Step 1 : cab 101 signs in
-        ActorRef<Cab.Command> cab101 =  Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 =  Globals.cabs.get("101");
          if (cab101 != null)
              cab101.tell(new Cab.SignIn(0));
          else {
@@ -374,7 +375,7 @@ public class PhaseOneTest2 {
         assertEquals(resp1.minorState, "available");
 
         // #Step 2 : Customer 201 deducts amount from his/her wallet
-        ActorRef<Wallet.Command> wallet_201 = Globals.wallets.get("201");
+        RecipientRef<Wallet.Command> wallet_201 = Globals.wallets.get("201");
         wallet_201.tell(new Wallet.DeductBalance(-2000, walletProbe.ref()));
         assertEquals(walletProbe.receiveMessage().balance, -1);
 
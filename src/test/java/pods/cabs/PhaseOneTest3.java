@@ -3,6 +3,7 @@ package pods.cabs;
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
 import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
@@ -49,7 +50,7 @@ public class PhaseOneTest3 {
         TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
 
         // #Step 1 : cab 101 signs in
-        ActorRef<Cab.Command> cab101 =  Globals.cabs.get("101");
+        RecipientRef<Cab.Command> cab101 =  Globals.cabs.get("101");
         if (cab101 != null)
             cab101.tell(new Cab.SignIn(0));
         else {
@@ -64,7 +65,7 @@ public class PhaseOneTest3 {
         assertEquals(resp2.numRides, 0);
 
         // #Step 2 : cab 102 signs in
-        ActorRef<Cab.Command> cab102 =  Globals.cabs.get("102");
+        RecipientRef<Cab.Command> cab102 =  Globals.cabs.get("102");
         if (cab102 != null)
             cab102.tell(new Cab.SignIn(10));
         else {
@@ -75,7 +76,7 @@ public class PhaseOneTest3 {
         assertEquals(resp2.majorState, "signed-in");
     
         // #Step 3 : cab 103 signs in
-        ActorRef<Cab.Command> cab103 =  Globals.cabs.get("103");
+        RecipientRef<Cab.Command> cab103 =  Globals.cabs.get("103");
         if (cab103 != null)
             cab103.tell(new Cab.SignIn(20));
         else {
@@ -86,7 +87,7 @@ public class PhaseOneTest3 {
         assertEquals(resp2.majorState, "signed-in");
 
         // #Step 4 : cab 104 signs in
-        ActorRef<Cab.Command> cab104 =  Globals.cabs.get("104");
+        RecipientRef<Cab.Command> cab104 =  Globals.cabs.get("104");
         if (cab104 != null)
             cab104.tell(new Cab.SignIn(30));
         else {
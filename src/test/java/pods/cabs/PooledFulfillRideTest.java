@@ -0,0 +1,91 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+public class PooledFulfillRideTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.fulfill-ride.pool-size = 2").withFallback(ConfigFactory.load()));
+
+    private static ActorRef<Void> underTest;
+
+    @BeforeClass
+    public static void setUp() {
+        TestProbe<Main.Started> testProbe = testKit.createTestProbe();
+        underTest = testKit.spawn(Main.create(testProbe.ref()), "defaultActor");
+        testProbe.expectMessage(new Main.Started("done"));
+    }
+
+    @Test
+    public void workerFulfillsSeveralRides() throws Exception {
+        Thread.sleep(2000);
+        TestProbe<Cab.NumRidesResponse> resetCab = testKit.createTestProbe();
+        Globals.cabs.forEach((k, v) -> {
+            v.tell(new Cab.Reset(resetCab.ref()));
+            resetCab.receiveMessage();
+        });
+
+        TestProbe<Wallet.ResponseBalance> walletProbe = testKit.createTestProbe();
+        Globals.wallets.forEach((k, v) -> {
+            v.tell(new Wallet.Reset(walletProbe.ref()));
+            assertEquals(walletProbe.receiveMessage().balance, 10000);
+        });
+
+        // Step 1: cabs 101, 102 and 103 sign in at 10, 20 and 30
+        TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
+        String[] cabIds = {"101", "102", "103"};
+        for (int i = 0; i < cabIds.length; i++) {
+            RecipientRef<Cab.Command> cab = Globals.cabs.get(cabIds[i]);
+            cab.tell(new Cab.SignIn(10 * (i + 1)));
+            cab.tell(new Cab.GetCabStatus(cabProbe.ref()));
+            assertEquals(cabProbe.receiveMessage().majorState, "signed-in");
+        }
+        Thread.sleep(500);
+
+        // Step 2: customers 201, 202 and 203 request rides from the cab positions, the rides
+        // go to the two workers in turn, so the first worker has the first and third ride at once
+        TestProbe<RideService.RideResponse> rideProbe = testKit.createTestProbe();
+        String[] custIds = {"201", "202", "203"};
+        RideService.RideResponse[] resps = new RideService.RideResponse[custIds.length];
+        for (int i = 0; i < custIds.length; i++) {
+            Globals.rideService[0].tell(new RideService.RequestRide(custIds[i], 10 * (i + 1), 100, rideProbe.ref()));
+            resps[i] = rideProbe.receiveMessage();
+            assertNotEquals(resps[i].rideId, -1);
+            assertEquals(resps[i].cabId, cabIds[i]);
+            assertEquals(resps[i].fare, (100 - 10 * (i + 1)) * 10);
+            Thread.sleep(200);
+        }
+        assertEquals(resps[0].fRide, resps[2].fRide);
+        assertNotEquals(resps[0].fRide, resps[1].fRide);
+
+        // Step 3: the fares were deducted
+        for (int i = 0; i < custIds.length; i++) {
+            Globals.wallets.get(custIds[i]).tell(new Wallet.GetBalance(walletProbe.ref()));
+            assertEquals(walletProbe.receiveMessage().balance, 10000 - resps[i].fare);
+        }
+
+        // Step 4: the rides end, the worker ends each of them by rideId and the cabs are available at the destination
+        for (int i = 0; i < custIds.length; i++) {
+            Globals.cabs.get(resps[i].cabId).tell(new Cab.RideEnded(resps[i].rideId));
+        }
+        for (String cabId : cabIds) {
+            Globals.cabs.get(cabId).tell(new Cab.GetCabStatus(cabProbe.ref()));
+            Cab.CabStatus status = cabProbe.receiveMessage();
+            assertEquals(status.minorState, "available");
+            assertEquals(status.initialPos, 100);
+        }
+    }
+}
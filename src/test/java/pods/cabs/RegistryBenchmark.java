@@ -0,0 +1,148 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.RecipientRef;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Cost of the wallet lookups by custId which fulfillRide actors no longer do.
+// lookup: nanoseconds per lookup of a random customer in the HashMap Globals.wallets was, in the ConcurrentHashMap
+// it is, and per read of a ref already resolved, for 1k, 100k and 1M customers.
+// per ride: wallet messages per ride request, each of them was a lookup in Globals.wallets, against the lookups
+// done now (one per request, by the rideService), counted over RIDES requests to Main with IDs.txt,
+// with the fare deducted after a cab is interested and with it held (cabs.fulfill-ride.wallet-hold).
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.RegistryBenchmark"
+public class RegistryBenchmark {
+
+    private static final int LOOKUPS = 10_000_000;
+    private static final int RIDES = 2000;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        for (int round = 0; round < 2; round++) {     // the first round warms up
+            for (int customers : new int[] {1000, 100_000, 1_000_000}) {
+                lookups(customers, round == 1);
+            }
+        }
+        perRide("deduct", "cabs.fulfill-ride.wallet-hold = off");
+        perRide("wallet-hold", "cabs.fulfill-ride.wallet-hold = on");
+    }
+
+    private static void lookups(int customers, boolean report) {
+        Map<String, RecipientRef<Wallet.Command>> hashMap = new HashMap<>();
+        Map<String, RecipientRef<Wallet.Command>> concurrentMap = new ConcurrentHashMap<>();
+        List<RecipientRef<Wallet.Command>> refs = new ArrayList<>();
+        for (int i = 0; i < customers; i++) {
+            String custId = Integer.toString(100_000 + i);
+            RecipientRef<Wallet.Command> ref = new Activator.Ref<>(custId, null);
+            hashMap.put(custId, ref);
+            concurrentMap.put(custId, ref);
+            refs.add(ref);
+        }
+        // the custIds of the ride requests, in random order
+        Random rand = new Random(42);
+        int[] order = new int[LOOKUPS];
+        String[] custIds = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            order[i] = rand.nextInt(customers);
+            custIds[i] = Integer.toString(100_000 + order[i]);
+            custIds[i].hashCode();
+        }
+
+        long hashMapNanos = time(() -> {
+            for (String custId : custIds) {
+                sink = hashMap.get(custId);
+            }
+        });
+        long concurrentNanos = time(() -> {
+            for (String custId : custIds) {
+                sink = concurrentMap.get(custId);
+            }
+        });
+        long resolvedNanos = time(() -> {
+            for (int i : order) {
+                sink = refs.get(i);
+            }
+        });
+        if (report) {
+            System.out.printf("lookup %,9d customers: HashMap=%5.1f ns ConcurrentHashMap=%5.1f ns resolved=%5.1f ns%n",
+                              customers, (double) hashMapNanos / LOOKUPS, (double) concurrentNanos / LOOKUPS,
+                              (double) resolvedNanos / LOOKUPS);
+        }
+    }
+
+    private static long time(Runnable run) {
+        long start = System.nanoTime();
+        run.run();
+        return System.nanoTime() - start;
+    }
+
+    // Counts the lookups in Globals.wallets and the messages sent to the wallets
+    @SuppressWarnings("serial")
+    private static void perRide(String mode, String config) throws Exception {
+        LongAdder lookups = new LongAdder();
+        LongAdder messages = new LongAdder();
+        Globals.cabs.clear();
+        Globals.wallets = new ConcurrentHashMap<String, RecipientRef<Wallet.Command>>() {
+            @Override
+            public RecipientRef<Wallet.Command> get(Object key) {
+                lookups.increment();
+                return super.get(key);
+            }
+        };
+        ActorTestKit testKit = ActorTestKit.create(ConfigFactory.parseString(config).withFallback(ConfigFactory.load()));
+        TestProbe<Main.Started> started = testKit.createTestProbe();
+        testKit.spawn(Main.create(started.ref()), "defaultActor");
+        started.expectMessage(new Main.Started("done"));
+        Globals.wallets.replaceAll((custId, wallet) -> new RecipientRef<Wallet.Command>() {
+            @Override
+            public void tell(Wallet.Command message) {
+                messages.increment();
+                wallet.tell(message);
+            }
+        });
+        Globals.wallets.forEach((custId, wallet) -> wallet.tell(new Wallet.AddBalance(1_000_000_000)));
+        Random rand = new Random(42);
+        Globals.cabs.forEach((cabId, cab) -> cab.tell(new Cab.SignIn(rand.nextInt(100))));
+        Thread.sleep(500);
+
+        List<String> customers = new ArrayList<>(Globals.wallets.keySet());
+        TestProbe<RideService.RideResponse> probe = testKit.createTestProbe();
+        lookups.reset();
+        messages.reset();
+        int matched = 0;
+        for (int i = 0; i < RIDES; i++) {
+            int sourceLoc = rand.nextInt(100);
+            Globals.rideService[i % Globals.rideService.length]
+                .tell(new RideService.RequestRide(customers.get(i % customers.size()), sourceLoc, sourceLoc + 10,
+                                                  probe.ref()));
+            RideService.RideResponse resp = probe.receiveMessage(Duration.ofSeconds(10));
+            if (resp.rideId != -1) {
+                matched++;
+                Globals.cabs.get(resp.cabId).tell(new Cab.RideEnded(resp.rideId));
+            }
+        }
+        Thread.sleep(500);
+        System.out.printf("per ride %-11s: %d%% matched, wallet messages (lookups before)=%.2f/request lookups now=%.2f/request%n",
+                          mode, matched * 100 / RIDES, messages.doubleValue() / RIDES, lookups.doubleValue() / RIDES);
+        testKit.shutdownTestKit();
+        Globals.wallets = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,127 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.AskPattern;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Compares ride request latency of the ride dispatch modes under contention:
+// every round all customers request a ride at the same time from the cabs listed in IDs.txt.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.RideRequestBenchmark"
+public class RideRequestBenchmark {
+
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        run("sequential", "cabs.fulfill-ride.parallel = off");
+        run("parallel", "cabs.fulfill-ride.parallel = on");
+        run("batch-5ms", "cabs.ride-service.batch-window = 5ms");
+        run("batch-20ms", "cabs.ride-service.batch-window = 20ms");
+        run("flush-5ms", "cabs.ride-service.replication-flush-interval = 5ms");
+        run("flush-20ms", "cabs.ride-service.replication-flush-interval = 20ms");
+        run("ownership", "cabs.ride-service.ownership = on");
+        run("wallet-hold", "cabs.fulfill-ride.wallet-hold = on");
+    }
+
+    private static void run(String mode, String config) throws Exception {
+        // customers go to rideServices 0 and 1 of 10, whatever the number of processors
+        ActorTestKit testKit = ActorTestKit.create(
+            ConfigFactory.parseString(config + "\ncabs.ride-service.instances = 10").withFallback(ConfigFactory.load()));
+        TestProbe<Main.Started> started = testKit.createTestProbe();
+        testKit.spawn(Main.create(started.ref()), "defaultActor");
+        started.expectMessage(new Main.Started("done"));
+
+        Random rand = new Random(42);
+        Globals.cabs.forEach((k, v) -> v.tell(new Cab.SignIn(rand.nextInt(100))));
+        Thread.sleep(500);
+
+        List<String> customers = new ArrayList<>(Globals.wallets.keySet());
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        TestProbe<Wallet.ResponseBalance> walletProbe = testKit.createTestProbe();
+        int matched = 0;
+        int requests = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            List<CompletableFuture<RideService.RideResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < customers.size(); i++) {
+                String custId = customers.get(i);
+                // customers mostly go to the same few rideServices, so batches have more than one request
+                ActorRef<RideService.Command> rideService = Globals.rideService[(round + i) % 2];
+                int sourceLoc = rand.nextInt(100);
+                long start = System.nanoTime();
+                CompletionStage<RideService.RideResponse> resp = AskPattern.ask(rideService,
+                    replyTo -> new RideService.RequestRide(custId, sourceLoc, sourceLoc + 10, replyTo),
+                    Duration.ofSeconds(5), testKit.system().scheduler());
+                responses.add(resp.whenComplete((r, e) -> latencies.add(System.nanoTime() - start)).toCompletableFuture());
+            }
+            for (CompletableFuture<RideService.RideResponse> future : responses) {
+                RideService.RideResponse resp = future.get();
+                requests++;
+                if (resp.rideId != -1) {
+                    matched++;
+                    Globals.cabs.get(resp.cabId).tell(new Cab.RideEnded(resp.rideId));
+                }
+            }
+            // let cab states settle in all rideService caches and refill the wallets
+            Thread.sleep(20);
+            for (String custId : customers) {
+                Globals.wallets.get(custId).tell(new Wallet.Reset(walletProbe.ref()));
+                walletProbe.receiveMessage();
+            }
+        }
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long l : sorted) {
+            sum += l;
+        }
+        // busy replies and service side latency as reported by the rideServices
+        TestProbe<RideService.Stats> statsProbe = testKit.createTestProbe();
+        long busyReplies = 0;
+        long serviceP99 = 0;
+        long replicationSent = 0;
+        long replicationSaved = 0;
+        long replicationLagP99 = 0;
+        long staleUpdates = 0;
+        long busyRetriesAvoided = 0;
+        for (ActorRef<RideService.Command> rideService : Globals.rideService) {
+            rideService.tell(new RideService.GetStats(statsProbe.ref()));
+            RideService.Stats stats = statsProbe.receiveMessage();
+            busyReplies += stats.busyReplies;
+            serviceP99 = Math.max(serviceP99, stats.p99LatencyMicros);
+            replicationSent += stats.replicationSent;
+            replicationSaved += stats.replicationSaved;
+            replicationLagP99 = Math.max(replicationLagP99, stats.p99ReplicationLagMicros);
+            staleUpdates += stats.staleUpdates;
+            busyRetriesAvoided += stats.busyRetriesAvoided;
+        }
+
+        System.out.printf("%-11s requests=%d match-rate=%.2f busy-replies=%d mean=%d us p50=%d us p99=%d us service-p99=%d us"
+                          + " replication-sent=%d replication-saved=%d replication-lag-p99=%d us"
+                          + " stale-updates=%d busy-retries-avoided=%d%n",
+                          mode, requests, (double) matched / requests, busyReplies,
+                          sum / sorted.size() / 1000,
+                          sorted.get(sorted.size() / 2) / 1000,
+                          sorted.get((int) (sorted.size() * 0.99)) / 1000,
+                          serviceP99, replicationSent, replicationSaved, replicationLagP99,
+                          staleUpdates, busyRetriesAvoided);
+        testKit.shutdownTestKit();
+    }
+}
@@ -0,0 +1,97 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.AskPattern;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Compares ride request latency of customers statically assigned to a rideService against the ride router,
+// for customer distributions of increasing skew: every round a burst of requests is sent at once,
+// and with static assignment the share of the burst going to rideService 0 is the skew.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.RideRouterBenchmark"
+public class RideRouterBenchmark {
+
+    private static final int ROUNDS = 100;
+    private static final int BURST = 500;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        run(0.1, true, false);     // warm up
+        for (double skew : new double[] {0.1, 0.5, 0.9}) {
+            run(skew, false, true);
+            run(skew, true, true);
+        }
+    }
+
+    private static void run(double skew, boolean routed, boolean report) throws Exception {
+        // the skew is rideService 0 against the other 9, whatever the number of processors
+        ActorTestKit testKit = ActorTestKit.create(
+            ConfigFactory.parseString("cabs.ride-service.instances = 10").withFallback(ConfigFactory.load()));
+        TestProbe<Main.Started> started = testKit.createTestProbe();
+        testKit.spawn(Main.create(started.ref()), "defaultActor");
+        started.expectMessage(new Main.Started("done"));
+
+        Random rand = new Random(42);
+        Globals.cabs.forEach((k, v) -> v.tell(new Cab.SignIn(rand.nextInt(100))));
+        Thread.sleep(500);
+
+        List<String> customers = new ArrayList<>(Globals.wallets.keySet());
+        TestProbe<Wallet.ResponseBalance> walletProbe = testKit.createTestProbe();
+        List<Long> latencies = new ArrayList<>();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            List<CompletableFuture<Long>> responses = new ArrayList<>();
+            for (int i = 0; i < BURST; i++) {
+                String custId = customers.get(i % customers.size());
+                ActorRef<RideService.Command> target = routed ? Globals.rideRouter
+                    : rand.nextDouble() < skew ? Globals.rideService[0]
+                    : Globals.rideService[1 + rand.nextInt(Globals.rideService.length - 1)];
+                int sourceLoc = rand.nextInt(100);
+                long start = System.nanoTime();
+                responses.add(AskPattern.<RideService.Command, RideService.RideResponse>ask(target,
+                        replyTo -> new RideService.RequestRide(custId, sourceLoc, sourceLoc + 10, replyTo),
+                        Duration.ofSeconds(10), testKit.system().scheduler())
+                    .thenApply(resp -> {
+                        if (resp.rideId != -1) {
+                            Globals.cabs.get(resp.cabId).tell(new Cab.RideEnded(resp.rideId));
+                        }
+                        return System.nanoTime() - start;
+                    })
+                    .toCompletableFuture());
+            }
+            for (CompletableFuture<Long> latency : responses) {
+                latencies.add(latency.get());
+            }
+            // let cab states settle in all rideService caches and refill the wallets
+            Thread.sleep(20);
+            for (String custId : customers) {
+                Globals.wallets.get(custId).tell(new Wallet.Reset(walletProbe.ref()));
+                walletProbe.receiveMessage();
+            }
+        }
+
+        Collections.sort(latencies);
+        if (report) {
+            System.out.printf("skew=%.1f %-7s p50=%d us p99=%d us max=%d us%n",
+                              skew, routed ? "router" : "static",
+                              latencies.get(latencies.size() / 2) / 1000,
+                              latencies.get((int) (latencies.size() * 0.99)) / 1000,
+                              latencies.get(latencies.size() - 1) / 1000);
+        }
+        testKit.shutdownTestKit();
+    }
+}
@@ -0,0 +1,61 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// The ride router over probes standing in for rideServices
+public class RideRouterTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.load());
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void requestGoesToLeastLoadedRideService() {
+        TestProbe<RideService.Command>[] services = new TestProbe[3];
+        ActorRef<RideService.Command>[] refs = new ActorRef[services.length];
+        for (int i = 0; i < services.length; i++) {
+            services[i] = testKit.createTestProbe();
+            refs[i] = services[i].ref();
+        }
+        ActorRef<RideService.Command> router = testKit.spawn(RideRouter.create(refs));
+        TestProbe<RideService.RideResponse> customer = testKit.createTestProbe();
+
+        // Step 1: with no load every rideService gets one request
+        RideService.RequestRide[] routed = new RideService.RequestRide[services.length];
+        for (int i = 0; i < services.length; i++) {
+            router.tell(new RideService.RequestRide("201", 10, 20, customer.ref()));
+        }
+        for (int i = 0; i < services.length; i++) {
+            routed[i] = services[i].expectMessageClass(RideService.RequestRide.class);
+            assertEquals(routed[i].custId, "201");
+            assertEquals(routed[i].router, router);
+        }
+
+        // Step 2: rideService 1 answers, the next request goes to 1
+        assertEquals(routed[1].replyTo, customer.ref());
+        router.tell(new RideService.RideAnswered(1));
+        router.tell(new RideService.RequestRide("202", 10, 20, customer.ref()));
+        routed[1] = services[1].expectMessageClass(RideService.RequestRide.class);
+        assertEquals(routed[1].custId, "202");
+        services[0].expectNoMessage();
+        services[2].expectNoMessage();
+
+        // Step 3: rideServices 0 and 2 answer, the next two requests go to them and not to 1
+        router.tell(new RideService.RideAnswered(0));
+        router.tell(new RideService.RideAnswered(2));
+        router.tell(new RideService.RequestRide("203", 10, 20, customer.ref()));
+        router.tell(new RideService.RequestRide("204", 10, 20, customer.ref()));
+        services[0].expectMessageClass(RideService.RequestRide.class);
+        services[2].expectMessageClass(RideService.RequestRide.class);
+        services[1].expectNoMessage();
+    }
+}
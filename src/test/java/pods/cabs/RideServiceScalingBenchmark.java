@@ -0,0 +1,153 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.AskPattern;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Ride request throughput for 1 to 32 rideServices (cabs.ride-service.instances), with every cab update
+// broadcast to the other rideServices and with cab ownership (cabs.ride-service.ownership), where every
+// ride request asks every rideService. Shows the rides per second, the share of requests which got a cab and
+// the replication or ownership messages between rideServices per ride.
+// CABS cabs and as many customers are written to an ids file under target/, customers keep IN_FLIGHT
+// requests outstanding spread over the rideServices. Up to one rideService per core adds throughput.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.RideServiceScalingBenchmark"
+public class RideServiceScalingBenchmark {
+
+    private static final int CABS = 1000;
+    private static final int IN_FLIGHT = 64;
+    private static final Duration WARMUP = Duration.ofSeconds(3);
+    private static final Duration RUN = Duration.ofSeconds(5);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        System.out.printf("%d available processors%n", Runtime.getRuntime().availableProcessors());
+        Path file = write();
+        for (String mode : new String[] {"broadcast", "ownership"}) {
+            for (int instances : new int[] {1, 2, 4, 8, 16, 32}) {
+                run(file, mode, instances);
+            }
+        }
+        Files.delete(file);
+    }
+
+    private static Path write() throws Exception {
+        Path file = Paths.get("target", "ids-scaling.txt");
+        Files.createDirectories(file.getParent());
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("****\n");
+            for (int i = 0; i < CABS; i++) {
+                out.write("cab" + i + "\n");
+            }
+            out.write("****\n");
+            for (int i = 0; i < CABS; i++) {
+                out.write("cust" + i + "\n");
+            }
+            out.write("****\n");
+            for (int i = 0; i < CABS; i++) {
+                out.write("1000000000\n");
+            }
+        }
+        return file;
+    }
+
+    private static void run(Path file, String mode, int instances) throws Exception {
+        Globals.cabs.clear();
+        Globals.wallets.clear();
+        ActorTestKit testKit = ActorTestKit.create(
+            ConfigFactory.parseString("cabs.bootstrap.ids-file = \"" + file + "\"\n"
+                                      + "cabs.ride-service.instances = " + instances + "\n"
+                                      + "cabs.ride-service.ownership = " + mode.equals("ownership"))
+                .withFallback(ConfigFactory.load()));
+        TestProbe<Main.Started> started = testKit.createTestProbe();
+        testKit.spawn(Main.create(started.ref()), "defaultActor");
+        started.expectMessage(Duration.ofSeconds(60), new Main.Started("done"));
+
+        Random rand = new Random(42);
+        Globals.cabs.forEach((k, v) -> v.tell(new Cab.SignIn(rand.nextInt(100))));
+        Thread.sleep(1000);
+
+        List<String> customers = new ArrayList<>(Globals.wallets.keySet());
+        requests(testKit, customers, WARMUP, new AtomicLong());
+        long messagesBefore = messages(testKit);
+        AtomicLong matched = new AtomicLong();
+        long start = System.nanoTime();
+        long requests = requests(testKit, customers, RUN, matched);
+        long nanos = System.nanoTime() - start;
+        long messages = messages(testKit) - messagesBefore;
+
+        System.out.printf("%-10s %2d rideServices: %,7d rides/s matched=%3d%% %,6.1f messages/ride%n",
+                          mode, instances, requests * 1_000_000_000L / nanos, matched.get() * 100 / requests,
+                          (double) messages / requests);
+        testKit.shutdownTestKit();
+    }
+
+    // Keeps IN_FLIGHT ride requests outstanding for the given duration, ends every ride which got a cab,
+    // returns the number of requests answered
+    private static long requests(ActorTestKit testKit, List<String> customers, Duration duration,
+                                 AtomicLong matched) throws Exception {
+        AtomicLong answered = new AtomicLong();
+        long deadline = System.nanoTime() + duration.toNanos();
+        CountDownLatch done = new CountDownLatch(IN_FLIGHT);
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            request(testKit, customers, i, deadline, answered, matched, done);
+        }
+        done.await();
+        return answered.get();
+    }
+
+    private static void request(ActorTestKit testKit, List<String> customers, int next, long deadline,
+                                AtomicLong answered, AtomicLong matched, CountDownLatch done) {
+        if (System.nanoTime() >= deadline) {
+            done.countDown();
+            return;
+        }
+        String custId = customers.get(next % customers.size());
+        ActorRef<RideService.Command> rideService = Globals.rideService[next % Globals.rideService.length];
+        int sourceLoc = (next * 7) % 100;
+        AskPattern.<RideService.Command, RideService.RideResponse>ask(rideService,
+                replyTo -> new RideService.RequestRide(custId, sourceLoc, sourceLoc + 10, replyTo),
+                Duration.ofSeconds(10), testKit.system().scheduler())
+            .whenComplete((resp, failure) -> {
+                if (failure == null) {
+                    answered.incrementAndGet();
+                    if (resp.rideId != -1) {
+                        matched.incrementAndGet();
+                        Globals.cabs.get(resp.cabId).tell(new Cab.RideEnded(resp.rideId));
+                    }
+                }
+                request(testKit, customers, next + IN_FLIGHT, deadline, answered, matched, done);
+            });
+    }
+
+    // Cab updates sent to other rideServices, and cab updates forwarded to their owner and
+    // nearest cab queries in ownership mode, so far
+    private static long messages(ActorTestKit testKit) {
+        TestProbe<RideService.Stats> probe = testKit.createTestProbe();
+        long messages = 0;
+        for (ActorRef<RideService.Command> rideService : Globals.rideService) {
+            rideService.tell(new RideService.GetStats(probe.ref()));
+            RideService.Stats stats = probe.receiveMessage();
+            messages += stats.replicationSent + stats.ownershipSent;
+        }
+        return messages;
+    }
+}
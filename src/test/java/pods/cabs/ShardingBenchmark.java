@@ -0,0 +1,130 @@
+package pods.cabs;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.cluster.sharding.typed.ClusterShardingQuery;
+import akka.cluster.sharding.typed.GetClusterShardingStats;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+// Message throughput to sharded wallet entities on a cluster of 1, 2 and 4 nodes.
+// The first node is this JVM, the others are ShardingNode JVMs on the same machine, so the nodes share its cores.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.ShardingBenchmark"
+public class ShardingBenchmark {
+
+    private static final int WALLETS = 1000;
+    private static final int IN_FLIGHT = 256;
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration RUN = Duration.ofSeconds(10);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        for (int nodes : new int[] {1, 2, 4}) {
+            run(nodes);
+        }
+        System.exit(0);
+    }
+
+    private static void run(int nodes) throws Exception {
+        ActorSystem<Main.Started> system = ActorSystem.create(Behaviors.setup(context -> {
+            context.spawn(Main.create(context.getSelf()), "defaultActor");
+            return Behaviors.ignore();
+        }), "Cabs", ShardingNode.config(0));
+        Cluster cluster = Cluster.get(system);
+        cluster.manager().tell(Join.create(cluster.selfMember().address()));
+
+        List<Process> otherNodes = new ArrayList<>();
+        for (int i = 1; i < nodes; i++) {
+            otherNodes.add(ShardingNode.start(cluster.selfMember().address().getPort().get(),
+                                              new File("target/sharding-benchmark-node-" + i + ".log"), "WARN"));
+        }
+        awaitRegions(system, nodes);
+
+        List<RecipientRef<Wallet.Command>> wallets = new ArrayList<>();
+        for (int i = 0; i < WALLETS; i++) {
+            wallets.add(ClusterSharding.get(system).entityRefFor(Wallet.TYPE_KEY, "bench-" + i));
+        }
+
+        askWallets(system, wallets, WARMUP);
+        long messages = askWallets(system, wallets, RUN);
+        System.out.printf("%d node(s): %,d wallet asks/s%n", nodes, messages * 1000 / RUN.toMillis());
+
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        for (Process otherNode : otherNodes) {
+            otherNode.destroy();
+            otherNode.waitFor();
+        }
+    }
+
+    // Waits until all nodes are up and each of them hosts a wallet shard region
+    private static void awaitRegions(ActorSystem<?> system, int nodes) throws Exception {
+        Cluster cluster = Cluster.get(system);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (System.nanoTime() < deadline) {
+            long up = StreamSupport.stream(cluster.state().getMembers().spliterator(), false)
+                .filter(member -> member.status() == MemberStatus.up())
+                .count();
+            if (up == nodes) {
+                ShardRegion.ClusterShardingStats stats = AskPattern.<ClusterShardingQuery, ShardRegion.ClusterShardingStats>ask(
+                    ClusterSharding.get(system).shardState(),
+                    replyTo -> new GetClusterShardingStats(Wallet.TYPE_KEY, Duration.ofSeconds(1), replyTo),
+                    Duration.ofSeconds(3), system.scheduler()).toCompletableFuture().get();
+                if (stats.getRegions().size() == nodes) {
+                    return;
+                }
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("cluster of " + nodes + " nodes did not form");
+    }
+
+    // Keeps IN_FLIGHT balance requests to random wallets outstanding for the given duration,
+    // returns the number of replies received
+    private static long askWallets(ActorSystem<?> system, List<RecipientRef<Wallet.Command>> wallets,
+                                   Duration duration) throws Exception {
+        AtomicLong replies = new AtomicLong();
+        long deadline = System.nanoTime() + duration.toNanos();
+        CountDownLatch done = new CountDownLatch(IN_FLIGHT);
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            ask(system, wallets, i, deadline, replies, done);
+        }
+        done.await();
+        return replies.get();
+    }
+
+    private static void ask(ActorSystem<?> system, List<RecipientRef<Wallet.Command>> wallets, int next,
+                            long deadline, AtomicLong replies, CountDownLatch done) {
+        if (System.nanoTime() >= deadline) {
+            done.countDown();
+            return;
+        }
+        AskPattern.<Wallet.Command, Wallet.ResponseBalance>ask(
+                wallets.get(next % wallets.size()), Wallet.GetBalance::new, Duration.ofSeconds(10), system.scheduler())
+            .whenComplete((response, failure) -> {
+                if (failure == null) {
+                    replies.incrementAndGet();
+                }
+                ask(system, wallets, next + IN_FLIGHT, deadline, replies, done);
+            });
+    }
+}
@@ -0,0 +1,58 @@
+package pods.cabs;
+
+import java.io.File;
+import java.io.IOException;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.*;
+
+// A cluster node with sharded cabs and wallets, run in its own JVM by ShardingTest and ShardingBenchmark.
+// It runs Main like the first node and joins the first node, whose port is the first argument.
+// An optional second argument sets the root log level.
+public class ShardingNode {
+
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.toLevel(args[1]));
+        }
+        Config config = ConfigFactory.parseString(
+            "akka.cluster.seed-nodes = [\"akka://Cabs@127.0.0.1:" + args[0] + "\"]").withFallback(config(0));
+        ActorSystem.create(Behaviors.setup(context -> {
+            context.spawn(Main.create(context.getSystem().ignoreRef()), "defaultActor");
+            return Behaviors.empty();
+        }), "Cabs", config);
+    }
+
+    // Config of a node on the loopback interface, rideServices use the ddata directory
+    // since a cab signs in with a rideService on the node where the cab entity runs
+    static Config config(int port) {
+        return ConfigFactory.parseString(
+            "akka.actor.provider = cluster\n" +
+            "akka.remote.artery.canonical.hostname = 127.0.0.1\n" +
+            "akka.remote.artery.canonical.port = " + port + "\n" +
+            "akka.cluster.distributed-data.notify-subscribers-interval = 50ms\n" +
+            "cabs.sharding.enabled = on\n" +
+            "cabs.ride-service.directory = ddata\n").withFallback(ConfigFactory.load());
+    }
+
+    // Starts a node in a new JVM with the classpath of this JVM, its output goes to logFile
+    static Process start(int seedPort, File logFile) throws IOException {
+        return start(seedPort, logFile, "INFO");
+    }
+
+    static Process start(int seedPort, File logFile, String logLevel) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                  ShardingNode.class.getName(), String.valueOf(seedPort), logLevel)
+            .redirectErrorStream(true)
+            .redirectOutput(logFile)
+            .start();
+    }
+}
@@ -0,0 +1,109 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.RecipientRef;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.cluster.sharding.typed.GetClusterShardingStats;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.stream.StreamSupport;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// Cabs and wallets sharded over two cluster nodes on localhost, the test JVM and a ShardingNode JVM
+public class ShardingTest {
+
+    private static ActorTestKit node;
+    private static Process otherNode;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        node = ActorTestKit.create("Cabs", ShardingNode.config(0));
+        Cluster cluster = Cluster.get(node.system());
+        cluster.manager().tell(Join.create(cluster.selfMember().address()));
+        otherNode = ShardingNode.start(cluster.selfMember().address().getPort().get(),
+                                       new File("target/sharding-test-node.log"));
+        node.createTestProbe().awaitAssert(Duration.ofSeconds(60), Duration.ofMillis(500), () -> {
+            assertEquals(2, StreamSupport.stream(cluster.state().getMembers().spliterator(), false)
+                .filter(member -> member.status() == MemberStatus.up())
+                .count());
+            return null;
+        });
+
+        TestProbe<Main.Started> testProbe = node.createTestProbe();
+        node.spawn(Main.create(testProbe.ref()), "defaultActor");
+        testProbe.expectMessage(new Main.Started("done"));
+
+        // wait for the cab shard region of the other node
+        TestProbe<ShardRegion.ClusterShardingStats> statsProbe = node.createTestProbe();
+        statsProbe.awaitAssert(Duration.ofSeconds(30), Duration.ofMillis(500), () -> {
+            ClusterSharding.get(node.system()).shardState().tell(
+                new GetClusterShardingStats(Cab.TYPE_KEY, Duration.ofSeconds(1), statsProbe.ref()));
+            assertEquals(2, statsProbe.receiveMessage(Duration.ofSeconds(3)).getRegions().size());
+            return null;
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        // leave the cluster while the other node can still see it
+        node.shutdownTestKit();
+        otherNode.destroy();
+    }
+
+    @Test
+    public void ridesWithEntitiesOnBothNodes() throws Exception {
+        TestProbe<Cab.NumRidesResponse> resetCab = node.createTestProbe();
+        Globals.cabs.forEach((k, v) -> {
+            v.tell(new Cab.Reset(resetCab.ref()));
+            resetCab.receiveMessage();
+        });
+
+        TestProbe<Wallet.ResponseBalance> walletProbe = node.createTestProbe();
+        Globals.wallets.forEach((k, v) -> {
+            v.tell(new Wallet.Reset(walletProbe.ref()));
+            assertEquals(walletProbe.receiveMessage().balance, 10000);
+        });
+
+        // Step 1: the cabs are spread over the shard regions of both nodes
+        TestProbe<ShardRegion.ClusterShardingStats> statsProbe = node.createTestProbe();
+        ClusterSharding.get(node.system()).shardState().tell(
+            new GetClusterShardingStats(Cab.TYPE_KEY, Duration.ofSeconds(3), statsProbe.ref()));
+        ShardRegion.ClusterShardingStats stats = statsProbe.receiveMessage();
+        for (ShardRegion.ShardRegionStats region : stats.getRegions().values()) {
+            assertTrue(region.getStats().size() > 0);
+        }
+
+        // Step 2: cab 101 signs in at 10, customer 201 requests a ride
+        TestProbe<Cab.CabStatus> cabProbe = node.createTestProbe();
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        cab101.tell(new Cab.SignIn(10));
+        cab101.tell(new Cab.GetCabStatus(cabProbe.ref()));
+        assertEquals(cabProbe.receiveMessage().majorState, "signed-in");
+        Thread.sleep(2000);
+
+        TestProbe<RideService.RideResponse> rideProbe = node.createTestProbe();
+        Globals.rideService[0].tell(new RideService.RequestRide("201", 20, 30, rideProbe.ref()));
+        RideService.RideResponse resp = rideProbe.receiveMessage();
+        assertNotEquals(resp.rideId, -1);
+        assertEquals(resp.cabId, "101");
+        assertEquals(resp.fare, (10 + 10) * 10);
+
+        // Step 3: fare was deducted from the wallet entity
+        Globals.wallets.get("201").tell(new Wallet.GetBalance(walletProbe.ref()));
+        assertEquals(walletProbe.receiveMessage().balance, 10000 - resp.fare);
+        cab101.tell(new Cab.RideEnded(resp.rideId));
+    }
+}
@@ -0,0 +1,104 @@
+package pods.cabs;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import pods.cabs.CabIndexBenchmark.CabEntry;
+
+// Compares what a ride request costs to give its fulfillRide actor a consistent view of the cabs:
+// a copy of the whole cacheTable (map and cab objects, since rideServices update the cab objects in place)
+// against a CabSnapshot of the nearest cabs only. Reports time and bytes allocated per request,
+// and the GC collections and time spent over all requests.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.SnapshotBenchmark"
+public class SnapshotBenchmark {
+
+    private static final int SNAPSHOTS = 1_000_000;
+
+    public static void main(String[] args) {
+        int[] fleetSizes = {1_000, 100_000, 1_000_000};
+        for (int n : fleetSizes) {
+            run(n);
+        }
+    }
+
+    private static void run(int n) {
+        Random rand = new Random(42);
+        Map<String, CabEntry> cacheTable = new HashMap<>();
+        CabDirectory directory = new CabDirectory(n);
+        for (int i = 0; i < n; i++) {
+            String cabId = "cab-" + i;
+            int pos = rand.nextInt(n * 10);
+            CabEntry cab1 = new CabEntry(cabId, pos);
+            cab1.minorState = "available";
+            cacheTable.put(cabId, cab1);
+            directory.update(directory.add(cabId, null), CabState.AVAILABLE, pos, -1, -1, -1, 1);
+        }
+
+        int copies = Math.max(20, 20_000_000 / n);
+        long sink = 0;
+        for (int i = 0; i < copies / 4; i++) {
+            sink += copy(cacheTable).size();
+        }
+        Measure measure = new Measure();
+        for (int i = 0; i < copies; i++) {
+            sink += copy(cacheTable).size();
+        }
+        String copyResult = measure.report(copies);
+
+        for (int i = 0; i < SNAPSHOTS / 4; i++) {
+            sink += directory.snapshot(directory.nearest(rand.nextInt(n * 10), 3)).size();
+        }
+        measure = new Measure();
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            sink += directory.snapshot(directory.nearest(rand.nextInt(n * 10), 3)).size();
+        }
+        String snapshotResult = measure.report(SNAPSHOTS);
+
+        System.out.printf("cabs=%-8d copy: %s%n              snapshot: %s  (%d)%n", n, copyResult, snapshotResult, sink);
+    }
+
+    // copy of the cacheTable a fulfillRide would need without snapshots
+    private static Map<String, CabEntry> copy(Map<String, CabEntry> cacheTable) {
+        Map<String, CabEntry> copy = new HashMap<>(cacheTable.size() * 2);
+        for (CabEntry cab1 : cacheTable.values()) {
+            CabEntry cab2 = new CabEntry(cab1.cabId, cab1.initialPos);
+            cab2.minorState = cab1.minorState;
+            cab2.majorState = cab1.majorState;
+            cab2.rideID = cab1.rideID;
+            cab2.sourceLoc = cab1.sourceLoc;
+            cab2.destinationLoc = cab1.destinationLoc;
+            cab2.version = cab1.version;
+            copy.put(cab2.cabId, cab2);
+        }
+        return copy;
+    }
+
+    // time, allocation and GC counters since creation
+    private static class Measure {
+        private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final long start = System.nanoTime();
+        private final long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        private final long[] gc = gcCounts();
+
+        String report(int ops) {
+            long nanos = System.nanoTime() - start;
+            long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+            long[] now = gcCounts();
+            return String.format("%12d ns/request %12d bytes/request  gc=%d collections %d ms",
+                                 nanos / ops, bytes / ops, now[0] - gc[0], now[1] - gc[1]);
+        }
+
+        private static long[] gcCounts() {
+            long[] counts = new long[2];
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                counts[0] += Math.max(bean.getCollectionCount(), 0);
+                counts[1] += Math.max(bean.getCollectionTime(), 0);
+            }
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.RecipientRef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.time.Duration;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+public class StaleUpdateTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.load());
+
+    private static ActorRef<Void> underTest;
+
+    @BeforeClass
+    public static void setUp() {
+        TestProbe<Main.Started> testProbe = testKit.createTestProbe();
+        underTest = testKit.spawn(Main.create(testProbe.ref()), "defaultActor");
+        testProbe.expectMessage(new Main.Started("done"));
+    }
+
+    @Test
+    public void olderVersionIsDropped() throws Exception {
+        Thread.sleep(2000);
+        TestProbe<Cab.NumRidesResponse> resetCab = testKit.createTestProbe();
+        Globals.cabs.forEach((k, v) -> {
+            v.tell(new Cab.Reset(resetCab.ref()));
+            resetCab.receiveMessage();
+        });
+
+        TestProbe<Wallet.ResponseBalance> walletProbe = testKit.createTestProbe();
+        Globals.wallets.forEach((k, v) -> {
+            v.tell(new Wallet.Reset(walletProbe.ref()));
+            assertEquals(walletProbe.receiveMessage().balance, 10000);
+        });
+
+        // Step 1: cab 101 signs in at 10
+        RecipientRef<Cab.Command> cab101 = Globals.cabs.get("101");
+        cab101.tell(new Cab.SignIn(10));
+        TestProbe<Cab.CabStatus> cabProbe = testKit.createTestProbe();
+        cab101.tell(new Cab.GetCabStatus(cabProbe.ref()));
+        assertEquals(cabProbe.receiveMessage().majorState, "signed-in");
+        Thread.sleep(500);
+
+        // Step 2: an update with an old version arrives late, moving the cab to 50
+        Globals.rideService[0].tell(new RideService.updateCabStatus("101", 50, CabState.AVAILABLE,
+                                                                    -1, -1, -1, 0));
+
+        TestProbe<RideService.Stats> statsProbe = testKit.createTestProbe();
+        Globals.rideService[0].tell(new RideService.GetStats(statsProbe.ref()));
+        assertEquals(statsProbe.receiveMessage().staleUpdates, 1);
+
+        // Step 3: the fare is computed from the position in the newer update
+        TestProbe<RideService.RideResponse> rideProbe = testKit.createTestProbe();
+        Globals.rideService[0].tell(new RideService.RequestRide("201", 50, 60, rideProbe.ref()));
+        RideService.RideResponse resp = rideProbe.receiveMessage();
+        assertNotEquals(resp.rideId, -1);
+        assertEquals(resp.fare, (40 + 10) * 10);
+        cab101.tell(new Cab.RideEnded(resp.rideId));
+    }
+
+    @Test
+    public void resetBeforeTheRideStartsIsNotOverwritten() {
+        ActorRef<RideService.Command> cabRouter = Globals.cabRouter;
+        TestProbe<RideService.Command> rideService = testKit.createTestProbe();
+        Globals.cabRouter = rideService.ref();
+        try {
+            TestProbe<Wallet.Command> wallet = testKit.createTestProbe();
+            TestProbe<RideService.RideResponse> customer = testKit.createTestProbe();
+            TestProbe<Cab.NumRidesResponse> resetProbe = testKit.createTestProbe();
+            ActorRef<Cab.Command> cab = testKit.spawn(Cab.create("901"));
+            cab.tell(new Cab.SignIn(10));
+            RideService.CabSignsIn signIn = rideService.expectMessageClass(RideService.CabSignsIn.class);
+            signIn.replyTo.tell(new Cab.UpdateApplied(signIn.version));
+            CabDirectory directory = new CabDirectory();
+            directory.update(directory.add("901", cab), CabState.AVAILABLE, 10, -1, -1, -1, 1);
+            testKit.spawn(FulfillRide.create("901-customer", wallet.ref(), 10, 50, customer.ref(), 1, "stale-ride-1",
+                                             directory.snapshot(new int[] {0}), false, Duration.ZERO, rideService.ref()));
+
+            // Step 1: the cab commits, and is reset while the fare is deducted
+            Wallet.DeductBalance deduct = wallet.expectMessageClass(Wallet.DeductBalance.class);
+            cab.tell(new Cab.Reset(resetProbe.ref()));
+            resetProbe.receiveMessage();
+            RideService.CabSignsOut signsOut = rideService.expectMessageClass(RideService.CabSignsOut.class);
+
+            // Step 2: the cab does not start the ride, so no giving-ride state with the version of the sign-out is sent
+            deduct.replyTo.tell(new Wallet.ResponseBalance(9600, 1));
+            assertEquals(rideService.expectMessageClass(RideService.RideOutcome.class).matched, false);
+            rideService.expectNoMessage(Duration.ofMillis(300));
+            assertEquals(signsOut.version, 3);
+
+            // Step 3: the customer gets -1 and the fare back
+            assertEquals(customer.receiveMessage().rideId, -1);
+            Wallet.AddBalance refund = wallet.expectMessageClass(Wallet.AddBalance.class);
+            assertEquals(refund.toAdd, deduct.toDeduct);
+            assertEquals(refund.rideKey, "stale-ride-1");
+        }
+        finally {
+            Globals.cabRouter = cabRouter;
+        }
+    }
+}
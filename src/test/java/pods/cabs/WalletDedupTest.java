@@ -0,0 +1,96 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Duplicates of wallet messages for a ride are answered with the first result and change nothing,
+// and a fulfillRide actor sends a deduct the wallet did not answer again
+public class WalletDedupTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.wallet.dedup-window = 2\n"
+                                  + "cabs.fulfill-ride.wallet-timeout = 300ms\n"
+                                  + "cabs.fulfill-ride.wallet-retries = 1")
+            .withFallback(ConfigFactory.load()));
+
+    private static final String CUST_ID = "dedup-test-customer";
+
+    @Test
+    public void duplicatesAreNotPerformedAgain() {
+        ActorRef<Wallet.Command> wallet = testKit.spawn(Wallet.create("dedup-wallet", 1000));
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+
+        // Step 1: a duplicate deduct gets the balance of the first one, a duplicate refund is ignored
+        wallet.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        wallet.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        wallet.tell(new Wallet.AddBalance(100, 1, "ride-1"));
+        wallet.tell(new Wallet.AddBalance(100, 1, "ride-1"));
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1000);
+
+        // Step 2: a declined deduct stays declined, even once the balance would cover it
+        wallet.tell(new Wallet.DeductBalance(1500, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, -1);
+        wallet.tell(new Wallet.AddBalance(1000));
+        wallet.tell(new Wallet.DeductBalance(1500, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, -1);
+
+        // Step 3: a duplicate capture does not charge again once its hold is gone
+        wallet.tell(new Wallet.HoldBalance(200, 300, 3, "ride-3", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1700);
+        wallet.tell(new Wallet.CaptureHold(250, 3, "ride-3", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1750);
+        wallet.tell(new Wallet.CaptureHold(250, 3, "ride-3", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1750);
+
+        // Step 4: beyond the window the oldest ride is forgotten, and a deduct for it is performed
+        wallet.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1650);
+    }
+
+    @Test
+    public void unansweredDeductIsRetried() {
+        TestProbe<Cab.Command> cab = testKit.createTestProbe();
+        TestProbe<RideService.Command> rideService = testKit.createTestProbe();
+        TestProbe<RideService.RideResponse> customer = testKit.createTestProbe();
+        CabDirectory directory = new CabDirectory();
+        directory.update(directory.add("c1", cab.ref()), CabState.AVAILABLE, 10, -1, -1, -1, 1);
+        ActorRef<Wallet.Command> wallet = testKit.spawn(Wallet.create(CUST_ID, 1000));
+        TestProbe<Wallet.Command> lossyWallet = testKit.createTestProbe();
+
+        testKit.spawn(FulfillRide.create(CUST_ID, lossyWallet.ref(), 10, 50, customer.ref(), 4, "ride-4", directory.snapshot(new int[] {0}), false,
+                                         Duration.ZERO, rideService.ref()));
+        cab.expectMessageClass(Cab.RequestRide.class).replyTo
+            .tell(new FulfillRide.RequestRideCabResponse(4, "c1", "interested", 2, cab.ref()));
+
+        // Step 1: the wallet deducts the fare but its reply is lost
+        Wallet.DeductBalance deduct = lossyWallet.expectMessageClass(Wallet.DeductBalance.class);
+        TestProbe<Wallet.ResponseBalance> lost = testKit.createTestProbe();
+        wallet.tell(new Wallet.DeductBalance(deduct.toDeduct, deduct.rideId, deduct.rideKey, lost.ref()));
+        assertEquals(lost.receiveMessage().balance, 600);
+
+        // Step 2: after the wallet timeout the deduct is sent again, the wallet answers it without charging twice
+        Wallet.DeductBalance retry = lossyWallet.expectMessageClass(Wallet.DeductBalance.class, Duration.ofMillis(500));
+        assertEquals(retry.rideId, 4);
+        wallet.tell(retry);
+        cab.expectMessageClass(Cab.RideStarted.class).replyTo
+            .tell(new FulfillRide.RideStartedCabResponse(4, "c1", true, 3));
+        assertEquals(customer.receiveMessage().rideId, 4);
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 600);
+    }
+}
@@ -0,0 +1,144 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Fare holds of a wallet, and a fulfillRide actor in wallet-hold mode over probes
+// standing in for two cabs, the wallet and the rideService
+public class WalletHoldTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(
+        ConfigFactory.parseString("cabs.fulfill-ride.wallet-hold = on").withFallback(ConfigFactory.load()));
+
+    private static final String CUST_ID = "hold-test-customer";
+
+    private TestProbe<Cab.Command> cab1;
+    private TestProbe<Cab.Command> cab2;
+    private TestProbe<Wallet.Command> wallet;
+    private TestProbe<RideService.Command> rideService;
+    private TestProbe<RideService.RideResponse> customer;
+    private CabSnapshot nearestCabs;
+
+    @Before
+    public void setUp() {
+        cab1 = testKit.createTestProbe();
+        cab2 = testKit.createTestProbe();
+        wallet = testKit.createTestProbe();
+        rideService = testKit.createTestProbe();
+        customer = testKit.createTestProbe();
+        CabDirectory directory = new CabDirectory();
+        directory.update(directory.add("c1", cab1.ref()), CabState.AVAILABLE, 10, -1, -1, -1, 1);
+        directory.update(directory.add("c2", cab2.ref()), CabState.AVAILABLE, 20, -1, -1, -1, 1);
+        nearestCabs = directory.snapshot(new int[] {0, 1});
+    }
+
+    @Test
+    public void walletHoldsAndCaptures() {
+        ActorRef<Wallet.Command> underTest = testKit.spawn(Wallet.create("hold-wallet", 450));
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+
+        // Step 1: only 450 of 500 can be held, the balance left is 0
+        underTest.tell(new Wallet.HoldBalance(400, 500, 1, "ride-1", probe.ref()));
+        Wallet.ResponseBalance partial = probe.receiveMessage();
+        assertEquals(partial.balance, 0);
+        assertEquals(partial.held, 450);
+
+        // Step 2: a fare of 500 is more than the hold, the hold goes back to the balance
+        underTest.tell(new Wallet.CaptureHold(500, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, -1);
+        underTest.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 450);
+
+        // Step 3: a fare of 400 is captured from a hold of 400 to 420, the rest goes back
+        underTest.tell(new Wallet.HoldBalance(400, 420, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 30);
+        underTest.tell(new Wallet.CaptureHold(400, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 50);
+
+        // Step 4: a hold of more than the balance fails, a released hold goes back to the balance
+        underTest.tell(new Wallet.HoldBalance(60, 100, 3, "ride-3", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, -1);
+        underTest.tell(new Wallet.HoldBalance(20, 40, 4, "ride-4", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 10);
+        underTest.tell(new Wallet.ReleaseHold("ride-4"));
+        underTest.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 50);
+
+        // Step 5: a hold of exactly the balance holds all of maxAmount, the balance left is 0
+        underTest.tell(new Wallet.HoldBalance(30, 50, 5, "ride-5", probe.ref()));
+        Wallet.ResponseBalance full = probe.receiveMessage();
+        assertEquals(full.balance, 0);
+        assertEquals(full.held, 50);
+    }
+
+    @Test
+    public void rideStartsWithoutWaitingForTheCapture() {
+        testKit.spawn(FulfillRide.create(CUST_ID, wallet.ref(), 10, 50, customer.ref(), 1, "ride-1", nearestCabs, false,
+                                         Duration.ZERO, rideService.ref()));
+
+        // Step 1: the fare from c1 or c2 is held while c1 is asked
+        Wallet.HoldBalance hold = wallet.expectMessageClass(Wallet.HoldBalance.class);
+        assertEquals(hold.minAmount, (0 + 40) * 10);
+        assertEquals(hold.maxAmount, (10 + 40) * 10);
+        Cab.RequestRide request1 = cab1.expectMessageClass(Cab.RequestRide.class);
+        hold.replyTo.tell(new Wallet.ResponseBalance(9500, 1, hold.maxAmount));
+
+        // Step 2: c1 commits, the fare is captured and the ride starts at once
+        request1.replyTo.tell(new FulfillRide.RequestRideCabResponse(1, "c1", "interested", 2, cab1.ref()));
+        Wallet.CaptureHold capture = wallet.expectMessageClass(Wallet.CaptureHold.class);
+        assertEquals(capture.fare, 400);
+        cab1.expectMessageClass(Cab.RideStarted.class).replyTo
+            .tell(new FulfillRide.RideStartedCabResponse(1, "c1", true, 3));
+        RideService.RideResponse response = customer.receiveMessage();
+        assertEquals(response.rideId, 1);
+        assertEquals(response.fare, 400);
+    }
+
+    @Test
+    public void holdOfTheWholeBalanceCoversTheFare() {
+        testKit.spawn(FulfillRide.create(CUST_ID, wallet.ref(), 10, 50, customer.ref(), 3, "ride-3", nearestCabs, false,
+                                         Duration.ZERO, rideService.ref()));
+
+        // Step 1: the balance is exactly the fare from c2, all of it is held and nothing is left
+        Wallet.HoldBalance hold = wallet.expectMessageClass(Wallet.HoldBalance.class);
+        Cab.RequestRide request1 = cab1.expectMessageClass(Cab.RequestRide.class);
+        hold.replyTo.tell(new Wallet.ResponseBalance(0, 3, hold.maxAmount));
+
+        // Step 2: c1 commits and the ride starts without waiting for the capture
+        request1.replyTo.tell(new FulfillRide.RequestRideCabResponse(3, "c1", "interested", 2, cab1.ref()));
+        wallet.expectMessageClass(Wallet.CaptureHold.class);
+        cab1.expectMessageClass(Cab.RideStarted.class).replyTo
+            .tell(new FulfillRide.RideStartedCabResponse(3, "c1", true, 3));
+        assertEquals(customer.receiveMessage().rideId, 3);
+    }
+
+    @Test
+    public void customerWhoCannotPayFailsWithoutWaitingForTheCab() {
+        testKit.spawn(FulfillRide.create(CUST_ID, wallet.ref(), 10, 50, customer.ref(), 2, "ride-2", nearestCabs, false,
+                                         Duration.ZERO, rideService.ref()));
+
+        // Step 1: the hold fails while c1 is still asked, the customer gets no ride
+        Wallet.HoldBalance hold = wallet.expectMessageClass(Wallet.HoldBalance.class);
+        Cab.RequestRide request1 = cab1.expectMessageClass(Cab.RequestRide.class);
+        hold.replyTo.tell(new Wallet.ResponseBalance(-1, 2));
+        assertEquals(customer.receiveMessage().rideId, -1);
+
+        // Step 2: c1 commits and is released, c2 is never asked
+        request1.replyTo.tell(new FulfillRide.RequestRideCabResponse(2, "c1", "interested", 2, cab1.ref()));
+        assertEquals(cab1.expectMessageClass(Cab.RideCancelled.class).rideId, 2);
+        cab2.expectNoMessage();
+        wallet.expectNoMessage();
+    }
+}
@@ -0,0 +1,99 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.javadsl.AskPattern;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Deducts per second, commits (fsyncs) per second and deduct latency of wallets writing to the wallet ledger,
+// with every change committed on its own (max-batch = 1) against group commits for different batch windows.
+// Clients keep IN_FLIGHT deducts outstanding over WALLETS wallets.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.WalletLedgerBenchmark"
+public class WalletLedgerBenchmark {
+
+    private static final int WALLETS = 1000;
+    private static final int IN_FLIGHT = 256;
+    private static final Duration RUN = Duration.ofSeconds(10);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        run("no-ledger", null, 0);
+        run("max-batch-1", Duration.ZERO, 1);
+        run("window-0", Duration.ZERO, 1024);
+        run("window-1ms", Duration.ofMillis(1), 1024);
+        run("window-5ms", Duration.ofMillis(5), 1024);
+        run("window-20ms", Duration.ofMillis(20), 1024);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void run(String mode, Duration batchWindow, int maxBatch) throws Exception {
+        ActorTestKit testKit = ActorTestKit.create(ConfigFactory.load());
+        Path file = Files.createTempFile("wallet-ledger-benchmark", ".log");
+        Globals.walletLedger = batchWindow == null ? null
+            : testKit.spawn(WalletLedger.create(file, batchWindow, maxBatch), "wallet-ledger", DispatcherSelector.blocking());
+        ActorRef<Wallet.Command>[] wallets = new ActorRef[WALLETS];
+        for (int i = 0; i < WALLETS; i++) {
+            wallets[i] = testKit.spawn(Wallet.create("cust-" + i, Integer.MAX_VALUE), "wallet-" + i);
+        }
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        long deadline = System.nanoTime() + RUN.toNanos();
+        long start = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(IN_FLIGHT);
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            deduct(testKit, wallets, i, deadline, latencies, done);
+        }
+        done.await();
+        long nanos = System.nanoTime() - start;
+
+        String commits = "";
+        if (Globals.walletLedger != null) {
+            WalletLedger.Stats stats = AskPattern.<WalletLedger.Command, WalletLedger.Stats>ask(Globals.walletLedger,
+                    WalletLedger.GetStats::new, Duration.ofSeconds(5), testKit.system().scheduler())
+                .toCompletableFuture().get();
+            commits = String.format(" commits=%,d/s changes/commit=%.1f commit-p99=%d us",
+                                    stats.commits * 1_000_000_000L / nanos,
+                                    (double) stats.records / stats.commits, stats.p99CommitMicros);
+        }
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.printf("%-12s deducts=%,d/s p50=%d us p99=%d us%s%n", mode,
+                          sorted.size() * 1_000_000_000L / nanos,
+                          sorted.get(sorted.size() / 2) / 1000,
+                          sorted.get((int) (sorted.size() * 0.99)) / 1000, commits);
+        testKit.shutdownTestKit();
+        Globals.walletLedger = null;
+        Files.delete(file);
+    }
+
+    private static void deduct(ActorTestKit testKit, ActorRef<Wallet.Command>[] wallets, int next, long deadline,
+                               List<Long> latencies, CountDownLatch done) {
+        if (System.nanoTime() >= deadline) {
+            done.countDown();
+            return;
+        }
+        long start = System.nanoTime();
+        AskPattern.<Wallet.Command, Wallet.ResponseBalance>ask(wallets[next % wallets.length],
+                replyTo -> new Wallet.DeductBalance(1, next, Integer.toString(next), replyTo),
+                Duration.ofSeconds(10), testKit.system().scheduler())
+            .whenComplete((resp, failure) -> {
+                latencies.add(System.nanoTime() - start);
+                deduct(testKit, wallets, next + IN_FLIGHT, deadline, latencies, done);
+            });
+    }
+}
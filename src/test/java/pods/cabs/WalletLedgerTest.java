@@ -0,0 +1,145 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Group commits of the wallet ledger, and wallets which reply once their change is in the ledger
+public class WalletLedgerTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.load());
+
+    @After
+    public void tearDown() {
+        Globals.walletLedger = null;
+    }
+
+    @Test
+    public void changesAreCommittedInBatches() throws Exception {
+        Path file = Files.createTempFile("wallet-ledger", ".log");
+        ActorRef<WalletLedger.Command> ledger = testKit.spawn(WalletLedger.create(file, Duration.ofMillis(300), 3));
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+
+        // Step 1: two changes wait for the batch window before they are replied to
+        ledger.tell(new WalletLedger.Append("201", -100, 1, probe.ref(), new Wallet.ResponseBalance(900, 1)));
+        ledger.tell(new WalletLedger.Append("202", -200, 2, probe.ref(), new Wallet.ResponseBalance(800, 2)));
+        probe.expectNoMessage(Duration.ofMillis(100));
+        assertEquals(probe.receiveMessage().rideId, 1);
+        assertEquals(probe.receiveMessage().rideId, 2);
+
+        // Step 2: a batch of max-batch changes is committed at once
+        ledger.tell(new WalletLedger.Append("201", 50, -1, null, null));
+        ledger.tell(new WalletLedger.Append("203", -300, 3, probe.ref(), new Wallet.ResponseBalance(700, 3)));
+        ledger.tell(new WalletLedger.Append("201", -10, 4, probe.ref(), new Wallet.ResponseBalance(840, 4)));
+        assertEquals(probe.receiveMessage(Duration.ofMillis(200)).rideId, 3);
+        assertEquals(probe.receiveMessage(Duration.ofMillis(200)).rideId, 4);
+
+        TestProbe<WalletLedger.Stats> statsProbe = testKit.createTestProbe();
+        ledger.tell(new WalletLedger.GetStats(statsProbe.ref()));
+        WalletLedger.Stats stats = statsProbe.receiveMessage();
+        assertEquals(stats.commits, 2);
+        assertEquals(stats.records, 5);
+
+        // Step 3: the file has every change
+        Map<String, Integer> deltas = WalletLedger.replay(file);
+        assertEquals((int) deltas.get("201"), -60);
+        assertEquals((int) deltas.get("202"), -200);
+        assertEquals((int) deltas.get("203"), -300);
+        Files.delete(file);
+    }
+
+    @Test
+    public void walletChangesGoToTheLedger() throws Exception {
+        Path file = Files.createTempFile("wallet-ledger", ".log");
+        Globals.walletLedger = testKit.spawn(WalletLedger.create(file, Duration.ZERO, 1024));
+        ActorRef<Wallet.Command> wallet = testKit.spawn(Wallet.create("401", 1000));
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+
+        // Step 1: a deduct, an add and a capture of a hold are changes of the funds, the hold itself is not
+        wallet.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        wallet.tell(new Wallet.AddBalance(50));
+        wallet.tell(new Wallet.HoldBalance(200, 300, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 650);
+        wallet.tell(new Wallet.CaptureHold(250, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 700);
+        assertEquals((int) WalletLedger.replay(file).get("401"), -300);
+
+        // Step 2: a reset is the change back to the initial balance
+        wallet.tell(new Wallet.Reset(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1000);
+        assertEquals((int) WalletLedger.replay(file).get("401"), 0);
+        Files.delete(file);
+    }
+
+    @Test
+    public void tornBatchIsCutOffTheLedger() throws Exception {
+        Path file = Files.createTempFile("wallet-ledger", ".log");
+        ActorRef<WalletLedger.Command> ledger = testKit.spawn(WalletLedger.create(file, Duration.ZERO, 1024));
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+        ledger.tell(new WalletLedger.Append("201", -100, 1, probe.ref(), new Wallet.ResponseBalance(900, 1)));
+        probe.receiveMessage();
+        testKit.stop(ledger);
+        long length = Files.size(file);
+
+        // Step 1: a crash cut the next record short, it is not replayed and is cut off the file
+        Files.write(file, new byte[] {0, 3, '2', '0'}, StandardOpenOption.APPEND);
+        assertEquals((int) WalletLedger.recover(file).get("201"), -100);
+        assertEquals(Files.size(file), length);
+
+        // Step 2: the records appended after recovery are read
+        ledger = testKit.spawn(WalletLedger.create(file, Duration.ZERO, 1024));
+        ledger.tell(new WalletLedger.Append("202", -200, 2, probe.ref(), new Wallet.ResponseBalance(800, 2)));
+        probe.receiveMessage();
+        assertEquals((int) WalletLedger.replay(file).get("202"), -200);
+        testKit.stop(ledger);
+        Files.delete(file);
+    }
+
+    @Test
+    public void balancesAreRecoveredFromTheLedgerAtStartup() throws Exception {
+        Path file = Files.createTempFile("wallet-ledger", ".log");
+        ActorRef<WalletLedger.Command> ledger = testKit.spawn(WalletLedger.create(file, Duration.ZERO, 1024));
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+        ledger.tell(new WalletLedger.Append("201", -500, 1, probe.ref(), new Wallet.ResponseBalance(9500, 1)));
+        probe.receiveMessage();
+        testKit.stop(ledger);
+
+        // Step 1: Main restarts with the ledger, customer 201 of IDs.txt starts from its balance after the deduct
+        ActorTestKit restarted = ActorTestKit.create(
+            ConfigFactory.parseString("cabs.wallet.ledger { enabled = on, file = \"" + file + "\" }")
+                .withFallback(ConfigFactory.load()));
+        try {
+            TestProbe<Main.Started> started = restarted.createTestProbe();
+            restarted.spawn(Main.create(started.ref()));
+            started.expectMessage(new Main.Started("done"));
+            TestProbe<Wallet.ResponseBalance> balance = restarted.createTestProbe();
+            Globals.wallets.get("201").tell(new Wallet.GetBalance(balance.ref()));
+            assertEquals(balance.receiveMessage().balance, 9500);
+
+            // Step 2: a reset still goes back to the balance of IDs.txt
+            Globals.wallets.get("201").tell(new Wallet.Reset(balance.ref()));
+            assertEquals(balance.receiveMessage().balance, 10000);
+        }
+        finally {
+            restarted.shutdownTestKit();
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+// Recovery time of persistent wallets (cabs.wallet.persistent) from the LevelDB journal and local snapshot store:
+// a single wallet with many events with and without snapshots, and a population of wallets with a few events each.
+// Every scenario writes its events, shuts the actor system down and times a new one until the wallets answer GetBalance.
+// The population size is the first argument, 100000 by default.
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-classpath %classpath pods.cabs.WalletRecoveryBenchmark"
+public class WalletRecoveryBenchmark {
+
+    private static final String DIR = "target/wallet-recovery-benchmark";
+    private static final int EVENTS_PER_WALLET = 5;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        int population = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        for (int events : new int[] {10_000, 100_000}) {
+            for (int snapshotEvery : new int[] {0, 1000}) {
+                singleWallet(events, snapshotEvery);
+            }
+        }
+        population(population);
+    }
+
+    // One wallet with the given number of events
+    private static void singleWallet(int events, int snapshotEvery) throws Exception {
+        String dir = DIR + "/single-" + events + "-" + snapshotEvery;
+        Config config = config(dir, snapshotEvery);
+        delete(dir);
+
+        ActorTestKit testKit = ActorTestKit.create(config);
+        ActorRef<Wallet.Command> wallet = testKit.spawn(Wallet.create("cust", 0));
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            wallet.tell(new Wallet.AddBalance(1));
+        }
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        probe.receiveMessage(Duration.ofMinutes(10));
+        long writeNanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+
+        testKit = ActorTestKit.create(config);
+        probe = testKit.createTestProbe();
+        start = System.nanoTime();
+        wallet = testKit.spawn(Wallet.create("cust", 0));
+        wallet.tell(new Wallet.GetBalance(probe.ref()));
+        int balance = probe.receiveMessage(Duration.ofMinutes(10)).balance;
+        long recoveryNanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+
+        System.out.printf("1 wallet x %,d events snapshot-every=%-5d write=%,d events/s recovery=%,d ms balance=%d%n",
+                          events, snapshotEvery, events * 1_000_000_000L / writeNanos,
+                          recoveryNanos / 1_000_000, balance);
+    }
+
+    // wallets wallets with EVENTS_PER_WALLET events each
+    private static void population(int wallets) throws Exception {
+        String dir = DIR + "/population-" + wallets;
+        Config config = config(dir, 100);
+        delete(dir);
+
+        ActorTestKit testKit = ActorTestKit.create(config);
+        long start = System.nanoTime();
+        ActorRef<Wallet.Command>[] refs = spawnWallets(testKit, wallets);
+        for (int e = 0; e < EVENTS_PER_WALLET; e++) {
+            for (ActorRef<Wallet.Command> wallet : refs) {
+                wallet.tell(new Wallet.AddBalance(1));
+            }
+        }
+        awaitBalances(testKit, refs);
+        long writeNanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+
+        testKit = ActorTestKit.create(config);
+        start = System.nanoTime();
+        refs = spawnWallets(testKit, wallets);
+        awaitBalances(testKit, refs);
+        long recoveryNanos = System.nanoTime() - start;
+        testKit.shutdownTestKit();
+
+        System.out.printf("%,d wallets x %d events write=%,d events/s recovery=%,d ms (%,d wallets/s)%n",
+                          wallets, EVENTS_PER_WALLET,
+                          (long) wallets * EVENTS_PER_WALLET * 1_000_000_000L / writeNanos,
+                          recoveryNanos / 1_000_000, wallets * 1_000_000_000L / recoveryNanos);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ActorRef<Wallet.Command>[] spawnWallets(ActorTestKit testKit, int wallets) {
+        ActorRef<Wallet.Command>[] refs = new ActorRef[wallets];
+        for (int i = 0; i < wallets; i++) {
+            refs[i] = testKit.spawn(Wallet.create("cust-" + i, 0), "wallet-" + i);
+        }
+        return refs;
+    }
+
+    // Waits until every wallet has answered GetBalance with all its events applied
+    private static void awaitBalances(ActorTestKit testKit, ActorRef<Wallet.Command>[] refs) {
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+        for (ActorRef<Wallet.Command> wallet : refs) {
+            wallet.tell(new Wallet.GetBalance(probe.ref()));
+        }
+        for (int i = 0; i < refs.length; i++) {
+            if (probe.receiveMessage(Duration.ofMinutes(10)).balance != EVENTS_PER_WALLET) {
+                throw new IllegalStateException("wallet did not recover all its events");
+            }
+        }
+    }
+
+    private static Config config(String dir, int snapshotEvery) {
+        // a single wallet is sent all its events at once, which are stashed while it persists
+        return ConfigFactory.parseString("cabs.wallet.persistent = on\n"
+                                         + "akka.persistence.typed.stash-capacity = 1000000\n"
+                                         + "cabs.wallet.snapshot-every = " + snapshotEvery + "\n"
+                                         + "akka.persistence.journal.leveldb.dir = \"" + dir + "/journal\"\n"
+                                         + "akka.persistence.snapshot-store.local.dir = \"" + dir + "/snapshots\"")
+            .withFallback(ConfigFactory.load());
+    }
+
+    private static void delete(String dir) throws Exception {
+        Path path = new File(dir).toPath();
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.time.Duration;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.typesafe.config.ConfigFactory;
+
+// Heap per customer, creation time and deducts per second of a wallet actor per customer against
+// the wallet store (cabs.wallet.store) with PARTITIONS partitions, for a population of customers.
+// Both keep a ref per customer the way Globals.wallets does. A client keeps IN_FLIGHT deducts
+// outstanding over randomly picked customers.
+// The population is the first argument, 1000000 by default, give the JVM enough heap for it:
+// Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.args="-Xmx3g -classpath %classpath pods.cabs.WalletStoreBenchmark"
+public class WalletStoreBenchmark {
+
+    private static final int PARTITIONS = 4;
+    private static final int IN_FLIGHT = 256;
+    private static final Duration RUN = Duration.ofSeconds(10);
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        int population = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        run("actors", population);
+        run("store", population);
+    }
+
+    private static void run(String mode, int population) throws Exception {
+        // stopping a million wallet actors takes longer than the default
+        ActorTestKit testKit = ActorTestKit.create(
+            ConfigFactory.parseString("akka.actor.testkit.typed.system-shutdown-default = 5m\n"
+                                      + "akka.coordinated-shutdown.phases.actor-system-terminate.timeout = 5m")
+                .withFallback(ConfigFactory.load()));
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        RecipientRef<Wallet.Command>[] wallets = mode.equals("store") ? store(testKit, population) : actors(testKit, population);
+        long createNanos = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        TestProbe<Long> probe = testKit.createTestProbe();
+        start = System.nanoTime();
+        testKit.spawn(client(wallets, System.nanoTime() + RUN.toNanos(), probe.ref()));
+        long deducts = probe.receiveMessage(RUN.plusSeconds(30));
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("%-6s %,d customers: heap=%,d bytes/customer create=%,d ms deducts=%,d/s%n", mode, population,
+                          (heapAfter - heapBefore) / population, createNanos / 1_000_000,
+                          deducts * 1_000_000_000L / nanos);
+        testKit.shutdownTestKit();
+    }
+
+    // a wallet actor per customer, spawned by one parent
+    @SuppressWarnings("unchecked")
+    private static RecipientRef<Wallet.Command>[] actors(ActorTestKit testKit, int population) {
+        RecipientRef<Wallet.Command>[] wallets = new RecipientRef[population];
+        TestProbe<Boolean> spawned = testKit.createTestProbe();
+        testKit.spawn(Behaviors.setup(context -> {
+            for (int i = 0; i < population; i++) {
+                wallets[i] = context.spawn(Wallet.create(Integer.toString(i), Integer.MAX_VALUE), "wallet-" + i);
+            }
+            spawned.ref().tell(true);
+            return Behaviors.empty();
+        }));
+        spawned.receiveMessage(Duration.ofMinutes(10));
+        return wallets;
+    }
+
+    // PARTITIONS wallet store partitions and a CustomerRef per customer
+    @SuppressWarnings("unchecked")
+    private static RecipientRef<Wallet.Command>[] store(ActorTestKit testKit, int population) {
+        BalanceTable[] tables = new BalanceTable[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            tables[p] = new BalanceTable(population / PARTITIONS);
+        }
+        for (int i = 0; i < population; i++) {
+            String custId = Integer.toString(i);
+            tables[WalletStore.partition(custId, PARTITIONS)].add(custId, Integer.MAX_VALUE);
+        }
+        ActorRef<WalletStore.Command>[] partitions = new ActorRef[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            partitions[p] = testKit.spawn(WalletStore.create(tables[p]), "wallet-store-" + p);
+        }
+        RecipientRef<Wallet.Command>[] wallets = new RecipientRef[population];
+        for (int i = 0; i < population; i++) {
+            String custId = Integer.toString(i);
+            wallets[i] = new WalletStore.CustomerRef(custId, partitions[WalletStore.partition(custId, PARTITIONS)]);
+        }
+        return wallets;
+    }
+
+    // Keeps IN_FLIGHT deducts outstanding until the deadline, then sends the number of deducts answered
+    private static Behavior<Wallet.ResponseBalance> client(RecipientRef<Wallet.Command>[] wallets, long deadline,
+                                                         ActorRef<Long> done) {
+        return Behaviors.setup(context -> {
+            long[] state = new long[] {0, 0, 0x2545F4914F6CDD1DL};    // answered, next rideId, random
+            for (int i = 0; i < IN_FLIGHT; i++) {
+                deduct(wallets, state, context.getSelf());
+            }
+            return Behaviors.receive(Wallet.ResponseBalance.class)
+                .onMessage(Wallet.ResponseBalance.class, response -> {
+                    state[0]++;
+                    if (System.nanoTime() < deadline) {
+                        deduct(wallets, state, context.getSelf());
+                    }
+                    else if (state[0] == state[1]) {
+                        done.tell(state[0]);
+                        return Behaviors.stopped();
+                    }
+                    return Behaviors.same();
+                })
+                .build();
+        });
+    }
+
+    private static void deduct(RecipientRef<Wallet.Command>[] wallets, long[] state, ActorRef<Wallet.ResponseBalance> replyTo) {
+        state[2] ^= state[2] << 13;
+        state[2] ^= state[2] >>> 7;
+        state[2] ^= state[2] << 17;
+        int rideId = (int) ++state[1];
+        wallets[(int) Math.floorMod(state[2], (long) wallets.length)].tell(new Wallet.DeductBalance(1, rideId, Integer.toString(rideId), replyTo));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
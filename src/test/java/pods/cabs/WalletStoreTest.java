@@ -0,0 +1,82 @@
+package pods.cabs;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.typesafe.config.*;
+
+// Wallet store partitions answer the wallet messages of their customers like wallet actors
+public class WalletStoreTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.load());
+
+    @Test
+    public void tableFindsCustomers() {
+        BalanceTable table = new BalanceTable(8);
+
+        // Step 1: numeric and other custIds, the table grows past its expected size
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(table.add(Integer.toString(i), i * 10), i);
+        }
+        assertEquals(table.add("cust-a", 5), 1000);
+        assertEquals(table.add("007", 7), 1001);
+        assertEquals(table.add("-0", 9), 1002);
+        assertEquals(table.size(), 1003);
+
+        // Step 2: every customer is found with its own balance, unknown ones are not
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(table.balance(table.index(Integer.toString(i))), i * 10);
+        }
+        assertEquals(table.balance(table.index("cust-a")), 5);
+        assertEquals(table.balance(table.index("007")), 7);
+        assertEquals(table.balance(table.index("0")), 0);
+        assertEquals(table.index("1000"), -1);
+        assertEquals(table.index("7"), 7);
+    }
+
+    @Test
+    public void partitionServesWalletMessages() {
+        BalanceTable table = new BalanceTable(2);
+        table.add("201", 1000);
+        table.add("202", 500);
+        ActorRef<WalletStore.Command> partition = testKit.spawn(WalletStore.create(table));
+        WalletStore.CustomerRef wallet201 = new WalletStore.CustomerRef("201", partition);
+        WalletStore.CustomerRef wallet202 = new WalletStore.CustomerRef("202", partition);
+        TestProbe<Wallet.ResponseBalance> probe = testKit.createTestProbe();
+
+        // Step 1: deducts and adds change only the customer's own balance, a duplicate deduct is not performed again
+        wallet201.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        wallet201.tell(new Wallet.DeductBalance(100, 1, "ride-1", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 900);
+        wallet202.tell(new Wallet.DeductBalance(600, 2, "ride-2", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, -1);
+        wallet202.tell(new Wallet.AddBalance(50));
+        wallet202.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 550);
+
+        // Step 2: a hold is set aside from the balance and captured
+        wallet202.tell(new Wallet.HoldBalance(200, 300, 3, "ride-3", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 250);
+        wallet202.tell(new Wallet.CaptureHold(250, 3, "ride-3", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 300);
+
+        // Step 3: a reset gives the customer its initial balance back, including an open hold
+        wallet201.tell(new Wallet.HoldBalance(100, 100, 4, "ride-4", probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 800);
+        wallet201.tell(new Wallet.Reset(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1000);
+        wallet201.tell(new Wallet.ReleaseHold("ride-4"));
+        wallet201.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 1000);
+        wallet202.tell(new Wallet.GetBalance(probe.ref()));
+        assertEquals(probe.receiveMessage().balance, 300);
+    }
+}